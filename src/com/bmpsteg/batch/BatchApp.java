@@ -0,0 +1,245 @@
+package com.bmpsteg.batch;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import com.bmpsteg.steg.ProbeResult;
+import com.bmpsteg.steg.RGBBitsSteganography;
+import com.bmpsteg.steg.RGBBitsSteganography.Layout;
+
+/**
+ * Headless command line application hiding data into or extracting data from
+ * many images in single run. Jobs are given either by manifest file or by
+ * directories, and are processed by {@link BatchProcessor}. Outcome of every
+ * job is printed as soon as the job is done, followed by summary. Exit status
+ * is 0 if all jobs succeeded and 1 otherwise.
+ *
+ * @author irelic
+ *
+ */
+public class BatchApp {
+
+	private static final String USAGE = "Usage:\n"
+			+ "  hide -components N -bits N (-manifest FILE | -carriers DIR -payloads DIR) [-layout pass|pixel] [-compression none|adaptive] [-checksums none|block] [-index none|chunk] [-output DIR] [-threads N] [-queue N]\n"
+			+ "  extract -components N -bits N (-manifest FILE | -input DIR) [-output DIR] [-threads N] [-queue N]\n"
+			+ "  probe -components N -bits N -input DIR\n"
+			+ "Manifest lines contain tab separated image, payload (hide only) and optional output paths.";
+
+	/**
+	 * Entry point of batch application.
+	 *
+	 * @param args
+	 *            command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1
+				|| !("hide".equals(args[0]) || "extract".equals(args[0]) || "probe"
+						.equals(args[0]))) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		boolean hiding = "hide".equals(args[0]);
+		int componentsToUse = 3;
+		int bitsPerComponent = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queue = -1;
+		Layout layout = Layout.PASS_MAJOR;
+		boolean compressing = false;
+		boolean framing = false;
+		boolean indexing = false;
+		Path manifest = null;
+		Path carriers = null;
+		Path payloads = null;
+		Path input = null;
+		Path output = null;
+		try {
+			for (int i = 1; i < args.length; ++i) {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value of "
+							+ args[i] + "!");
+				}
+				String value = args[++i];
+				switch (args[i - 1]) {
+				case "-components":
+					componentsToUse = Integer.parseInt(value);
+					break;
+				case "-bits":
+					bitsPerComponent = Integer.parseInt(value);
+					break;
+				case "-threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "-queue":
+					queue = Integer.parseInt(value);
+					break;
+				case "-layout":
+					if ("pass".equals(value)) {
+						layout = Layout.PASS_MAJOR;
+					} else if ("pixel".equals(value)) {
+						layout = Layout.PIXEL_MAJOR;
+					} else {
+						throw new IllegalArgumentException("Unknown layout "
+								+ value + "!");
+					}
+					break;
+				case "-compression":
+					if ("none".equals(value)) {
+						compressing = false;
+					} else if ("adaptive".equals(value)) {
+						compressing = true;
+					} else {
+						throw new IllegalArgumentException(
+								"Unknown compression " + value + "!");
+					}
+					break;
+				case "-checksums":
+					if ("none".equals(value)) {
+						framing = false;
+					} else if ("block".equals(value)) {
+						framing = true;
+					} else {
+						throw new IllegalArgumentException("Unknown checksums "
+								+ value + "!");
+					}
+					break;
+				case "-index":
+					if ("none".equals(value)) {
+						indexing = false;
+					} else if ("chunk".equals(value)) {
+						indexing = true;
+					} else {
+						throw new IllegalArgumentException("Unknown index "
+								+ value + "!");
+					}
+					break;
+				case "-manifest":
+					manifest = Paths.get(value);
+					break;
+				case "-carriers":
+					carriers = Paths.get(value);
+					break;
+				case "-payloads":
+					payloads = Paths.get(value);
+					break;
+				case "-input":
+					input = Paths.get(value);
+					break;
+				case "-output":
+					output = Paths.get(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option "
+							+ args[i - 1] + "!");
+				}
+			}
+			if ("probe".equals(args[0])) {
+				if (input == null) {
+					throw new IllegalArgumentException(
+							"Input directory is required!");
+				}
+				probe(new RGBBitsSteganography(componentsToUse,
+						bitsPerComponent), input);
+				System.exit(0);
+			}
+			if (queue < 0) {
+				queue = 2 * threads;
+			}
+			List<BatchJob> jobs;
+			if (manifest != null) {
+				jobs = BatchJob.fromManifest(manifest, hiding, output);
+			} else if (hiding && carriers != null && payloads != null
+					&& output != null) {
+				jobs = BatchJob.forHiding(carriers, payloads, output);
+			} else if (!hiding && input != null && output != null) {
+				jobs = BatchJob.forExtracting(input, output);
+			} else {
+				throw new IllegalArgumentException(
+						"Either manifest or input and output directories are required!");
+			}
+			RGBBitsSteganography algorithm = new RGBBitsSteganography(
+					componentsToUse, bitsPerComponent);
+			algorithm.setLayout(layout);
+			algorithm.setCompressing(compressing);
+			algorithm.setFraming(framing);
+			algorithm.setIndexing(indexing);
+			System.exit(run(algorithm, jobs, threads, queue) ? 0 : 1);
+		} catch (IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted!");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Probes every image in given directory for hidden data and prints
+	 * outcome. Only pixels holding header of hidden data are decoded.
+	 *
+	 * @param algorithm
+	 *            steganography algorithm
+	 * @param directory
+	 *            directory with images
+	 * @throws IOException
+	 *             if directory could not be listed
+	 */
+	private static void probe(RGBBitsSteganography algorithm, Path directory)
+			throws IOException {
+		int plausible = 0;
+		List<Path> images = BatchJob.listImages(directory);
+		for (Path image : images) {
+			try {
+				ProbeResult result = algorithm.probe(image);
+				if (result.isPlausible()) {
+					++plausible;
+				}
+				System.out.println(image + ": " + result);
+			} catch (IOException e) {
+				System.out.println(image + ": " + e.getMessage());
+			}
+		}
+		System.out.println(String.format(
+				"Probed %d files (%d with plausible hidden data)",
+				images.size(), plausible));
+	}
+
+	/**
+	 * Processes given jobs and prints outcome of every job and summary.
+	 *
+	 * @param algorithm
+	 *            steganography algorithm
+	 * @param jobs
+	 *            jobs to process
+	 * @param threads
+	 *            number of threads hiding and extracting the data
+	 * @param queue
+	 *            maximum number of jobs in pipeline at once
+	 * @return true if all jobs succeeded, false otherwise
+	 * @throws InterruptedException
+	 *             if current thread is interrupted while waiting
+	 */
+	private static boolean run(RGBBitsSteganography algorithm,
+			List<BatchJob> jobs, int threads, int queue)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		List<BatchResult> results;
+		try (BatchProcessor processor = new BatchProcessor(algorithm, threads,
+				queue)) {
+			results = processor.process(jobs, result -> {
+				synchronized (System.out) {
+					System.out.println(result);
+				}
+			});
+		}
+		long failed = results.stream().filter(result -> !result.isSuccessful())
+				.count();
+		long bytes = results.stream().mapToLong(BatchResult::getBytes).sum();
+		System.out.println(String.format(
+				"Processed %d files (%d failed, %d bytes) in %d ms", jobs.size(),
+				failed, bytes, (System.nanoTime() - start) / 1000000));
+		return failed == 0;
+	}
+}
@@ -0,0 +1,272 @@
+package com.bmpsteg.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents single file processed by batch hiding or extracting. For hiding,
+ * job consists of carrier image, payload file and stego image to create. For
+ * extracting, job consists of stego image and file to extract hidden data to.
+ *
+ * @author irelic
+ *
+ */
+public class BatchJob {
+
+	private static final String[] IMAGE_EXTENSIONS = { "bmp", "png", "jpg",
+			"jpeg", "gif", "wbmp" };
+
+	private final Path image;
+	private final Path payload;
+	private final Path output;
+
+	/**
+	 * Creates new batch job.
+	 *
+	 * @param image
+	 *            carrier image for hiding or stego image for extracting
+	 * @param payload
+	 *            payload file to hide or <code>null</code> for extracting
+	 * @param output
+	 *            stego image to create for hiding or file to extract data to
+	 */
+	public BatchJob(Path image, Path payload, Path output) {
+		this.image = image;
+		this.payload = payload;
+		this.output = output;
+	}
+
+	/**
+	 * Returns carrier image for hiding or stego image for extracting.
+	 *
+	 * @return carrier image for hiding or stego image for extracting
+	 */
+	public Path getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns payload file to hide or <code>null</code> for extracting.
+	 *
+	 * @return payload file to hide or <code>null</code> for extracting
+	 */
+	public Path getPayload() {
+		return payload;
+	}
+
+	/**
+	 * Returns stego image to create for hiding or file to extract data to.
+	 *
+	 * @return stego image to create for hiding or file to extract data to
+	 */
+	public Path getOutput() {
+		return output;
+	}
+
+	/**
+	 * Returns information if this job hides the data.
+	 *
+	 * @return true if this job hides the data, false if it extracts the data
+	 */
+	public boolean isHiding() {
+		return payload != null;
+	}
+
+	/**
+	 * Reads jobs from manifest file. Every non-empty line not starting with
+	 * <code>#</code> describes one job with tab separated columns. Hiding jobs
+	 * have carrier image, payload file and optional stego image columns, while
+	 * extracting jobs have stego image and optional output file columns. Jobs
+	 * without output column write their output into given output directory.
+	 * Relative paths are resolved against manifest directory.
+	 *
+	 * @param manifest
+	 *            manifest file
+	 * @param hiding
+	 *            true if manifest describes hiding jobs, false if it describes
+	 *            extracting jobs
+	 * @param outputDirectory
+	 *            directory for outputs of jobs without output column
+	 * @return jobs described by manifest
+	 * @throws IOException
+	 *             if manifest could not be read or it is malformed
+	 */
+	public static List<BatchJob> fromManifest(Path manifest, boolean hiding,
+			Path outputDirectory) throws IOException {
+		Path base = manifest.toAbsolutePath().getParent();
+		List<BatchJob> jobs = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(manifest,
+				StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				++lineNumber;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] columns = line.split("\t");
+				int requiredColumns = hiding ? 2 : 1;
+				if (columns.length < requiredColumns
+						|| columns.length > requiredColumns + 1) {
+					throw new IOException(String.format(
+							"Invalid manifest line %d! Expected %d or %d tab separated columns",
+							lineNumber, requiredColumns, requiredColumns + 1));
+				}
+				Path image = base.resolve(columns[0]);
+				Path payload = hiding ? base.resolve(columns[1]) : null;
+				Path output = columns.length > requiredColumns ? base
+						.resolve(columns[requiredColumns]) : defaultOutput(
+						image, hiding, outputDirectory);
+				jobs.add(new BatchJob(image, payload, output));
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Creates hiding jobs for every image in carrier directory which has
+	 * payload file of the same base name in payload directory.
+	 *
+	 * @param carrierDirectory
+	 *            directory with carrier images
+	 * @param payloadDirectory
+	 *            directory with payload files
+	 * @param outputDirectory
+	 *            directory for created stego images
+	 * @return hiding jobs
+	 * @throws IOException
+	 *             if directories could not be listed
+	 */
+	public static List<BatchJob> forHiding(Path carrierDirectory,
+			Path payloadDirectory, Path outputDirectory) throws IOException {
+		Map<String, Path> payloads = new HashMap<>();
+		try (DirectoryStream<Path> stream = Files
+				.newDirectoryStream(payloadDirectory)) {
+			for (Path payload : stream) {
+				if (Files.isRegularFile(payload)) {
+					payloads.put(baseName(payload), payload);
+				}
+			}
+		}
+		List<BatchJob> jobs = new ArrayList<>();
+		for (Path carrier : listImages(carrierDirectory)) {
+			Path payload = payloads.get(baseName(carrier));
+			if (payload != null) {
+				jobs.add(new BatchJob(carrier, payload, defaultOutput(carrier,
+						true, outputDirectory)));
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Creates extracting jobs for every image in given directory.
+	 *
+	 * @param stegoDirectory
+	 *            directory with stego images
+	 * @param outputDirectory
+	 *            directory for extracted data
+	 * @return extracting jobs
+	 * @throws IOException
+	 *             if directory could not be listed
+	 */
+	public static List<BatchJob> forExtracting(Path stegoDirectory,
+			Path outputDirectory) throws IOException {
+		List<BatchJob> jobs = new ArrayList<>();
+		for (Path image : listImages(stegoDirectory)) {
+			jobs.add(new BatchJob(image, null, defaultOutput(image, false,
+					outputDirectory)));
+		}
+		return jobs;
+	}
+
+	/**
+	 * Lists images in given directory, sorted by name.
+	 *
+	 * @param directory
+	 *            directory to list
+	 * @return images in given directory
+	 * @throws IOException
+	 *             if directory could not be listed
+	 */
+	public static List<Path> listImages(Path directory) throws IOException {
+		List<Path> images = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				if (Files.isRegularFile(file) && isImage(file)) {
+					images.add(file);
+				}
+			}
+		}
+		images.sort(null);
+		return images;
+	}
+
+	/**
+	 * Checks if given file has image extension.
+	 *
+	 * @param file
+	 *            file to check
+	 * @return true if file has image extension, false otherwise
+	 */
+	private static boolean isImage(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		for (String extension : IMAGE_EXTENSIONS) {
+			if (name.endsWith("." + extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns file name without extension.
+	 *
+	 * @param file
+	 *            file
+	 * @return file name without extension
+	 */
+	private static String baseName(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	/**
+	 * Returns output of job for given image in given output directory.
+	 *
+	 * @param image
+	 *            carrier or stego image
+	 * @param hiding
+	 *            true for hiding jobs, false for extracting jobs
+	 * @param outputDirectory
+	 *            output directory
+	 * @return output of job
+	 * @throws IOException
+	 *             if output directory is not given
+	 */
+	private static Path defaultOutput(Path image, boolean hiding,
+			Path outputDirectory) throws IOException {
+		if (outputDirectory == null) {
+			throw new IOException("Output directory is required for "
+					+ image + "!");
+		}
+		return outputDirectory.resolve(baseName(image)
+				+ (hiding ? ".bmp" : ".bin"));
+	}
+
+	@Override
+	public String toString() {
+		return image + (payload != null ? " + " + payload : "") + " -> "
+				+ output;
+	}
+}
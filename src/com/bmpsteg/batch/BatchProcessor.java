@@ -0,0 +1,244 @@
+package com.bmpsteg.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+
+import com.bmpsteg.bmp.BmpImage;
+import com.bmpsteg.steg.InsufficientSpaceException;
+import com.bmpsteg.steg.SteganographyAlgorithm;
+import com.bmpsteg.steg.Utilities;
+
+/**
+ * Processes many batch jobs in single JVM as three stage pipeline. Decoding of
+ * images and reading of payloads and encoding of stego images and writing of
+ * extracted data run on I/O threads, while hiding and extracting run on pool of
+ * CPU threads. Number of jobs in pipeline at once is bounded, so images of only
+ * that many jobs are held in memory at any time regardless of number of jobs.
+ *
+ * @author irelic
+ *
+ */
+public class BatchProcessor implements Closeable {
+
+	private final SteganographyAlgorithm algorithm;
+	private final ExecutorService ioExecutor;
+	private final ExecutorService cpuExecutor;
+	private final int maxJobsInPipeline;
+
+	/**
+	 * Job state passed between pipeline stages.
+	 */
+	private static class Work {
+		private BufferedImage image;
+		private byte[] data;
+	}
+
+	/**
+	 * Creates new batch processor.
+	 *
+	 * @param algorithm
+	 *            steganography algorithm used for hiding and extracting; it
+	 *            must not be reconfigured while jobs are processed
+	 * @param cpuThreads
+	 *            number of threads hiding and extracting the data
+	 * @param maxJobsInPipeline
+	 *            maximum number of jobs in pipeline at once
+	 */
+	public BatchProcessor(SteganographyAlgorithm algorithm, int cpuThreads,
+			int maxJobsInPipeline) {
+		if (cpuThreads < 1 || maxJobsInPipeline < 1) {
+			throw new IllegalArgumentException(
+					"Number of threads and jobs in pipeline must be positive!");
+		}
+		this.algorithm = algorithm;
+		this.maxJobsInPipeline = maxJobsInPipeline;
+		this.ioExecutor = Executors.newCachedThreadPool(threadFactory("io"));
+		this.cpuExecutor = Executors.newFixedThreadPool(cpuThreads,
+				threadFactory("cpu"));
+	}
+
+	/**
+	 * Returns factory of daemon threads with given name prefix.
+	 *
+	 * @param prefix
+	 *            thread name prefix
+	 * @return thread factory
+	 */
+	private static ThreadFactory threadFactory(final String prefix) {
+		final AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "batch-" + prefix + "-"
+					+ counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Processes given jobs and waits until all of them are done. Outcome of
+	 * every job is passed to given listener as soon as the job is done, from
+	 * pipeline thread.
+	 *
+	 * @param jobs
+	 *            jobs to process
+	 * @param listener
+	 *            listener notified of every job outcome or <code>null</code>
+	 * @return outcomes of given jobs, in the same order as jobs
+	 * @throws InterruptedException
+	 *             if current thread is interrupted while waiting
+	 */
+	public List<BatchResult> process(List<BatchJob> jobs,
+			final Consumer<BatchResult> listener) throws InterruptedException {
+		final BatchResult[] results = new BatchResult[jobs.size()];
+		final CountDownLatch done = new CountDownLatch(jobs.size());
+		final Semaphore pipelineSlots = new Semaphore(maxJobsInPipeline);
+		for (int i = 0; i < jobs.size(); ++i) {
+			final int index = i;
+			final BatchJob job = jobs.get(i);
+			pipelineSlots.acquire();
+			final long start = System.nanoTime();
+			CompletableFuture.supplyAsync(() -> decode(job), ioExecutor)
+					.thenApplyAsync(work -> embed(job, work), cpuExecutor)
+					.thenApplyAsync(work -> encode(job, work), ioExecutor)
+					.whenComplete((bytes, exception) -> {
+						long nanos = System.nanoTime() - start;
+						BatchResult result;
+						if (exception == null) {
+							result = new BatchResult(job, true, null, bytes, nanos);
+						} else {
+							Throwable cause = exception instanceof CompletionException
+									&& exception.getCause() != null ? exception
+									.getCause() : exception;
+							result = new BatchResult(job, false, String
+									.valueOf(cause.getMessage()), 0, nanos);
+						}
+						results[index] = result;
+						try {
+							if (listener != null) {
+								listener.accept(result);
+							}
+						} finally {
+							pipelineSlots.release();
+							done.countDown();
+						}
+					});
+		}
+		done.await();
+		return new ArrayList<>(Arrays.asList(results));
+	}
+
+	/**
+	 * Decoding stage: reads image and payload of given job.
+	 *
+	 * @param job
+	 *            job
+	 * @return job state
+	 */
+	private Work decode(BatchJob job) {
+		try {
+			Work work = new Work();
+			work.image = readImage(job.getImage());
+			if (job.isHiding()) {
+				work.data = Files.readAllBytes(job.getPayload());
+			}
+			return work;
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Embedding stage: hides payload into image or extracts data from image of
+	 * given job.
+	 *
+	 * @param job
+	 *            job
+	 * @param work
+	 *            job state
+	 * @return job state
+	 */
+	private Work embed(BatchJob job, Work work) {
+		if (job.isHiding()) {
+			if (!Utilities.hasDirectRGBRaster(work.image)) {
+				work.image = Utilities.copy(work.image);
+			}
+			try {
+				algorithm.hideData(work.data, work.image);
+			} catch (InsufficientSpaceException e) {
+				throw new CompletionException(e);
+			}
+		} else {
+			work.data = algorithm.extractData(work.image);
+			work.image = null;
+		}
+		return work;
+	}
+
+	/**
+	 * Encoding stage: writes stego image or extracted data of given job.
+	 *
+	 * @param job
+	 *            job
+	 * @param work
+	 *            job state
+	 * @return number of data bytes hidden or extracted
+	 */
+	private long encode(BatchJob job, Work work) {
+		try {
+			Path output = job.getOutput().toAbsolutePath();
+			Files.createDirectories(output.getParent());
+			if (job.isHiding()) {
+				BmpImage.create(output, work.image).close();
+			} else {
+				Files.write(output, work.data);
+			}
+			return work.data.length;
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Reads image from given file, bypassing ImageIO for uncompressed BMP
+	 * images.
+	 *
+	 * @param file
+	 *            image file
+	 * @return read image
+	 * @throws IOException
+	 *             if image could not be read
+	 */
+	private static BufferedImage readImage(Path file) throws IOException {
+		if (BmpImage.isSupported(file)) {
+			return BmpImage.read(file);
+		}
+		BufferedImage image = ImageIO.read(file.toFile());
+		if (image == null) {
+			throw new IOException("Unsupported image format!");
+		}
+		return image;
+	}
+
+	@Override
+	public void close() {
+		ioExecutor.shutdown();
+		cpuExecutor.shutdown();
+	}
+}
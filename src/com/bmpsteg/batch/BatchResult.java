@@ -0,0 +1,93 @@
+package com.bmpsteg.batch;
+
+/**
+ * Represents outcome of single batch job.
+ *
+ * @author irelic
+ *
+ */
+public class BatchResult {
+
+	private final BatchJob job;
+	private final boolean successful;
+	private final String message;
+	private final long bytes;
+	private final long nanos;
+
+	/**
+	 * Creates new batch job outcome.
+	 *
+	 * @param job
+	 *            processed job
+	 * @param successful
+	 *            true if job was processed successfully, false otherwise
+	 * @param message
+	 *            error message for unsuccessful jobs or <code>null</code>
+	 * @param bytes
+	 *            number of data bytes hidden or extracted
+	 * @param nanos
+	 *            number of nanoseconds job spent in pipeline
+	 */
+	public BatchResult(BatchJob job, boolean successful, String message,
+			long bytes, long nanos) {
+		this.job = job;
+		this.successful = successful;
+		this.message = message;
+		this.bytes = bytes;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Returns processed job.
+	 *
+	 * @return processed job
+	 */
+	public BatchJob getJob() {
+		return job;
+	}
+
+	/**
+	 * Returns information if job was processed successfully.
+	 *
+	 * @return true if job was processed successfully, false otherwise
+	 */
+	public boolean isSuccessful() {
+		return successful;
+	}
+
+	/**
+	 * Returns error message for unsuccessful jobs.
+	 *
+	 * @return error message or <code>null</code> for successful jobs
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns number of data bytes hidden or extracted.
+	 *
+	 * @return number of data bytes hidden or extracted
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns number of nanoseconds job spent in pipeline.
+	 *
+	 * @return number of nanoseconds job spent in pipeline
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	@Override
+	public String toString() {
+		if (successful) {
+			return String.format("OK      %s (%d bytes, %d ms)", job, bytes,
+					nanos / 1000000);
+		}
+		return String.format("FAILED  %s: %s", job, message);
+	}
+}
@@ -0,0 +1,381 @@
+package com.bmpsteg.benchmark;
+
+import com.bmpsteg.steg.InsufficientSpaceException;
+import com.bmpsteg.steg.RGBBitsSteganography;
+import com.bmpsteg.steg.Utilities;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Lightweight microbenchmark of hiding and extracting kernels. Every kernel is
+ * run on synthetic images of several sizes and raster types for every
+ * {@link ComponentPair}, first for a number of warmup iterations and then for a
+ * number of measured iterations. Mean time and throughput of measured
+ * iterations with their standard deviation, and garbage collections during
+ * them, are reported to standard output and optionally written as CSV.
+ * <p>
+ * All kernels run in one JVM, so results are indicative only: a kernel may be
+ * compiled differently depending on kernels run before it. Results compared
+ * between runs should come from the same sizes and iteration counts, and
+ * suspicious kernels are best measured again in a fresh JVM with a single
+ * size.
+ */
+public class KernelBenchmark {
+
+    private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+    private static final int DEFAULT_MEASUREMENT_ITERATIONS = 5;
+    private static final int HELPER_OPERATIONS = 1 << 20;
+    private static final String[] DEFAULT_SIZES = {"256x256", "1024x768", "2048x1536"};
+    private static final int[] RASTER_TYPES = {
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_INT_BGR
+    };
+
+    private final List<ComponentPair> componentParams;
+    private final List<String> results;
+    private final List<GarbageCollectorMXBean> collectors;
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private volatile long sink;
+
+    /**
+     * Operation whose throughput is measured.
+     */
+    private interface Operation {
+
+        /**
+         * Runs operation once.
+         *
+         * @return number of bytes processed
+         * @throws Exception if operation fails
+         */
+        long run() throws Exception;
+    }
+
+    public KernelBenchmark(int warmupIterations, int measurementIterations) {
+        componentParams = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            for (int j = 1; j <= 8; j++) {
+                componentParams.add(new ComponentPair(i, j));
+            }
+        }
+        results = new ArrayList<>();
+        collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+    }
+
+    /**
+     * Creates image of given size and raster type filled with random pixels.
+     *
+     * @param width  image width
+     * @param height image height
+     * @param type   image type
+     * @param random random generator
+     * @return created image
+     */
+    private static BufferedImage createImage(int width, int height, int type, Random random) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = random.nextInt();
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * Returns readable name of given image type.
+     *
+     * @param type image type
+     * @return name of image type
+     */
+    private static String typeName(int type) {
+        switch (type) {
+            case BufferedImage.TYPE_INT_RGB:
+                return "INT_RGB";
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return "3BYTE_BGR";
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return "4BYTE_ABGR";
+            case BufferedImage.TYPE_INT_BGR:
+                return "INT_BGR";
+            default:
+                return "TYPE_" + type;
+        }
+    }
+
+    /**
+     * Consumes given result of an operation, so that JIT compiler cannot
+     * eliminate computation of it.
+     *
+     * @param value result of operation
+     */
+    private void consume(long value) {
+        sink = sink * 31 + value;
+    }
+
+    /**
+     * Returns total number of garbage collections so far, or -1 if it is not
+     * supported by JVM.
+     *
+     * @return number of garbage collections
+     */
+    private long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            if (collector.getCollectionCount() < 0) {
+                return -1;
+            }
+            count += collector.getCollectionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns total time of garbage collections so far in milliseconds, or -1
+     * if it is not supported by JVM.
+     *
+     * @return time of garbage collections
+     */
+    private long collectionTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            if (collector.getCollectionTime() < 0) {
+                return -1;
+            }
+            time += collector.getCollectionTime();
+        }
+        return time;
+    }
+
+    /**
+     * Runs warmup and measured iterations of given operation and records
+     * throughput and garbage collections of measured iterations.
+     *
+     * @param kernel    measured kernel
+     * @param image     description of image operation runs on
+     * @param config    description of configuration
+     * @param operation measured operation
+     * @throws Exception if operation fails
+     */
+    private void measure(String kernel, String image, String config, Operation operation)
+            throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            consume(operation.run());
+        }
+        double[] times = new double[measurementIterations];
+        long bytes = 0;
+        long collectionsStart = collectionCount();
+        long collectionTimeStart = collectionTime();
+        for (int i = 0; i < measurementIterations; i++) {
+            long start = System.nanoTime();
+            long processed = operation.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+            consume(processed);
+            bytes = processed;
+        }
+        long collections = collectionsStart < 0 ? -1 : collectionCount() - collectionsStart;
+        long collectionMs = collectionTimeStart < 0 ? -1 : collectionTime() - collectionTimeStart;
+        double mean = 0;
+        for (double time : times) {
+            mean += time;
+        }
+        mean /= times.length;
+        double variance = 0;
+        for (double time : times) {
+            variance += (time - mean) * (time - mean);
+        }
+        double deviation = times.length > 1 ? Math.sqrt(variance / (times.length - 1)) : 0;
+        double megabytesPerSecond = bytes / 1e3 / mean;
+        double megabytesPerSecondDeviation = mean > 0 ? megabytesPerSecond * deviation / mean : 0;
+        String result = String.format(Locale.ROOT, "%s,%s,%s,%.3f,%.3f,%.3f,%.3f,%d,%d",
+                kernel, image, config, mean, deviation, megabytesPerSecond,
+                megabytesPerSecondDeviation, collections, collectionMs);
+        results.add(result);
+        System.out.println(String.format(Locale.ROOT,
+                "%-14s %-20s %-22s %10.2f +- %-8.2f ms/op %12.3f +- %-10.3f MB/s %5d GCs %6d ms GC",
+                kernel, image, config, mean, deviation, megabytesPerSecond,
+                megabytesPerSecondDeviation, collections, collectionMs));
+    }
+
+    /**
+     * Benchmarks all kernels on images of given sizes.
+     *
+     * @param sizes image sizes in WIDTHxHEIGHT format
+     * @throws Exception if any kernel fails
+     */
+    public void evaluate(String[] sizes) throws Exception {
+        Random random = new Random(42);
+        for (String size : sizes) {
+            String[] dimensions = size.split("x");
+            int width = Integer.parseInt(dimensions[0]);
+            int height = Integer.parseInt(dimensions[1]);
+            for (int type : RASTER_TYPES) {
+                final BufferedImage image = createImage(width, height, type, random);
+                String imageName = size + "-" + typeName(type);
+                measure("copy", imageName, "-", () -> {
+                    BufferedImage copy = Utilities.copy(image);
+                    consume(copy.getRGB(copy.getWidth() - 1, copy.getHeight() - 1));
+                    return (long) copy.getWidth() * copy.getHeight() * 4;
+                });
+                for (ComponentPair componentParam : componentParams) {
+                    evaluateAlgorithm(image, imageName, componentParam, random);
+                }
+            }
+        }
+        evaluateHelpers(random);
+    }
+
+    /**
+     * Benchmarks hiding, extracting and capacity calculation of one
+     * configuration on given image.
+     *
+     * @param image          image to hide data into
+     * @param imageName      description of image
+     * @param componentParam configuration
+     * @param random         random generator
+     * @throws Exception if any kernel fails
+     */
+    private void evaluateAlgorithm(final BufferedImage image, String imageName,
+                                   ComponentPair componentParam, Random random) throws Exception {
+        final RGBBitsSteganography algorithm = new RGBBitsSteganography(
+                componentParam.componentsToUse, componentParam.bitsPerComponent);
+        final byte[] toHide = new byte[Math.toIntExact(algorithm.getMaxBytes(image))];
+        random.nextBytes(toHide);
+        String config = componentParam.toString();
+        measure("hideData", imageName, config, () -> {
+            try {
+                algorithm.hideData(toHide, image);
+            } catch (InsufficientSpaceException e) {
+                throw new IllegalStateException(e);
+            }
+            consume(image.getRGB(image.getWidth() - 1, image.getHeight() - 1));
+            return toHide.length;
+        });
+        measure("extractData", imageName, config, () -> {
+            byte[] extracted = algorithm.extractData(image);
+            consume(extracted[extracted.length - 1]);
+            return extracted.length;
+        });
+        measure("getMaxBytes", imageName, config, () -> {
+            long sum = 0;
+            for (int i = 0; i < HELPER_OPERATIONS; i++) {
+                sum += algorithm.getMaxBytes(image);
+            }
+            consume(sum);
+            return HELPER_OPERATIONS;
+        });
+    }
+
+    /**
+     * Benchmarks bit helpers of {@link Utilities}. Throughput is reported in
+     * bytes (or RGB integers of 4 bytes) processed per second.
+     *
+     * @param random random generator
+     * @throws Exception if any helper fails
+     */
+    private void evaluateHelpers(Random random) throws Exception {
+        final byte[] data = new byte[HELPER_OPERATIONS / 8];
+        random.nextBytes(data);
+        final int[] pixels = new int[HELPER_OPERATIONS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        measure("bitValue", "-", "-", () -> {
+            long sum = 0;
+            for (int i = 0; i < HELPER_OPERATIONS; i++) {
+                sum += Utilities.bitValue(data, i);
+            }
+            consume(sum);
+            return data.length;
+        });
+        measure("setBitValue", "-", "-", () -> {
+            for (int i = 0; i < HELPER_OPERATIONS; i += 2) {
+                Utilities.setBitValue(data, i);
+                Utilities.unsetBitValue(data, i + 1);
+            }
+            consume(data[data.length - 1]);
+            return data.length;
+        });
+        measure("getRGBIntBit", "-", "-", () -> {
+            long sum = 0;
+            for (int i = 0; i < HELPER_OPERATIONS; i++) {
+                sum += Utilities.getRGBIntBitValue(pixels[i], i % 3, i & 7);
+            }
+            consume(sum);
+            return (long) pixels.length * 4;
+        });
+        measure("setRGBIntBit", "-", "-", () -> {
+            for (int i = 0; i < HELPER_OPERATIONS; i++) {
+                pixels[i] = (i & 1) == 0 ? Utilities.setRGBIntBitValue(pixels[i], i % 3, i & 7)
+                        : Utilities.unsetRGBIntBitValue(pixels[i], i % 3, i & 7);
+            }
+            consume(pixels[pixels.length - 1]);
+            return (long) pixels.length * 4;
+        });
+    }
+
+    /**
+     * Writes recorded results in CSV format.
+     *
+     * @param output stream to write results to
+     */
+    public void writeCsv(PrintStream output) {
+        output.println("kernel,image,config,ms_per_op,ms_per_op_error,mb_per_s,mb_per_s_error,"
+                + "gc_count,gc_ms");
+        for (String result : results) {
+            output.println(result);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = DEFAULT_SIZES;
+        String csvFile = null;
+        int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+        int measurementIterations = DEFAULT_MEASUREMENT_ITERATIONS;
+        for (int i = 0; i < args.length; i++) {
+            if ("-sizes".equals(args[i]) && i + 1 < args.length) {
+                sizes = args[++i].split(",");
+            } else if ("-csv".equals(args[i]) && i + 1 < args.length) {
+                csvFile = args[++i];
+            } else if ("-warmup".equals(args[i]) && i + 1 < args.length) {
+                warmupIterations = Integer.parseInt(args[++i]);
+            } else if ("-iterations".equals(args[i]) && i + 1 < args.length) {
+                measurementIterations = Integer.parseInt(args[++i]);
+            } else {
+                System.err.print("Expected optional params: -sizes WIDTHxHEIGHT[,WIDTHxHEIGHT...] -csv output file"
+                        + " -warmup iterations -iterations iterations");
+                return;
+            }
+        }
+        if (warmupIterations < 0 || measurementIterations < 1) {
+            System.err.print("Expected non-negative warmup iterations and positive measured iterations");
+            return;
+        }
+        KernelBenchmark benchmark = new KernelBenchmark(warmupIterations, measurementIterations);
+        benchmark.evaluate(sizes);
+        if (csvFile != null) {
+            try (PrintStream output = new PrintStream(Files.newOutputStream(Paths.get(csvFile)))) {
+                benchmark.writeCsv(output);
+            } catch (IOException e) {
+                System.err.print("Invalid CSV file name");
+            }
+        }
+        System.out.println("sink: " + benchmark.sink);
+    }
+}
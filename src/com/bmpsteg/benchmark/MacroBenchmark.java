@@ -0,0 +1,546 @@
+package com.bmpsteg.benchmark;
+
+import com.bmpsteg.bmp.BmpImage;
+import com.bmpsteg.steg.InsufficientSpaceException;
+import com.bmpsteg.steg.RGBBitsSteganography;
+import com.bmpsteg.steg.Utilities;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * End-to-end benchmark of the whole hiding pipeline. Carriers are synthetic
+ * images generated into a local working folder and optionally images of a
+ * local corpus folder. For every carrier and every {@link ComponentPair} the
+ * carrier file is decoded, copied into packed RGB image, filled with random
+ * payload of its full capacity, the payload is extracted and checked, and
+ * stego image is encoded as BMP file. Every phase is timed separately, and
+ * distortion of stego image is measured as MSE and PSNR against the decoded
+ * carrier. Results are written as CSV and JSON and may be compared against
+ * CSV of an earlier run, reporting configurations which became slower or
+ * more distorting.
+ */
+public class MacroBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 1;
+    private static final int DEFAULT_ITERATIONS = 3;
+    private static final double DEFAULT_THRESHOLD = 10;
+    private static final double PSNR_TOLERANCE = 0.01;
+    private static final double MAX_PIXEL_VALUE = 255;
+    private static final String[] DEFAULT_SIZES = {"512x512", "1920x1080"};
+    private static final String[] SYNTHETIC_PATTERNS = {"noise", "gradient", "checker"};
+    private static final String CSV_HEADER = "carrier,config,payload_bytes,decode_ms,copy_ms,"
+            + "hide_ms,extract_ms,encode_ms,total_ms,mse,psnr_db";
+
+    private final List<ComponentPair> componentParams;
+    private final List<Path> carriers;
+    private final List<Result> results;
+    private final Path workFolder;
+    private final int iterations;
+
+    /**
+     * Measured times and distortion of one configuration on one carrier.
+     */
+    private static class Result {
+        private String carrier;
+        private String config;
+        private long payloadBytes;
+        private double decodeMs;
+        private double copyMs;
+        private double hideMs;
+        private double extractMs;
+        private double encodeMs;
+        private double totalMs;
+        private double mse;
+        private double psnr;
+
+        /**
+         * Returns key identifying result of same carrier and configuration
+         * across runs.
+         *
+         * @return result key
+         */
+        private String key() {
+            return carrier + "," + config;
+        }
+    }
+
+    /**
+     * Creates benchmark storing carriers and encoded images in given folder.
+     *
+     * @param workFolder folder for carriers and encoded images
+     * @param iterations number of measured iterations of every configuration
+     */
+    public MacroBenchmark(Path workFolder, int iterations) {
+        componentParams = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            for (int j = 1; j <= 8; j++) {
+                componentParams.add(new ComponentPair(i, j));
+            }
+        }
+        carriers = new ArrayList<>();
+        results = new ArrayList<>();
+        this.workFolder = workFolder;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Generates synthetic carriers of all patterns in given sizes and writes
+     * them into working folder as BMP files.
+     *
+     * @param sizes image sizes in WIDTHxHEIGHT format
+     * @throws IOException if carrier could not be written
+     */
+    public void addSyntheticCarriers(String[] sizes) throws IOException {
+        Random random = new Random(42);
+        for (String size : sizes) {
+            String[] dimensions = size.split("x");
+            int width = Integer.parseInt(dimensions[0]);
+            int height = Integer.parseInt(dimensions[1]);
+            for (String pattern : SYNTHETIC_PATTERNS) {
+                Path file = workFolder.resolve(pattern + "-" + size + ".bmp");
+                BmpImage.create(file, createImage(width, height, pattern, random)).close();
+                carriers.add(file);
+            }
+        }
+    }
+
+    /**
+     * Adds all images of given corpus folder which can be decoded as
+     * carriers, in order of their names.
+     *
+     * @param folder corpus folder
+     * @throws IOException if folder could not be listed
+     */
+    public void addCorpusCarriers(Path folder) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            try {
+                decode(file);
+                carriers.add(file);
+            } catch (IOException e) {
+                System.err.println("Skipping " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates synthetic image of given pattern. Noise is the worst case for
+     * compression of carriers, while smooth gradient and flat checker squares
+     * show distortion most clearly.
+     *
+     * @param width   image width
+     * @param height  image height
+     * @param pattern name of pattern
+     * @param random  random generator
+     * @return created image
+     */
+    private static BufferedImage createImage(int width, int height, String pattern, Random random) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb;
+                if ("noise".equals(pattern)) {
+                    rgb = random.nextInt() & 0xFFFFFF;
+                } else if ("gradient".equals(pattern)) {
+                    int red = x * 255 / Math.max(1, width - 1);
+                    int green = y * 255 / Math.max(1, height - 1);
+                    rgb = red << 16 | green << 8 | (red + green) / 2;
+                } else {
+                    rgb = ((x / 32 + y / 32) & 1) == 0 ? 0xF0E0D0 : 0x203040;
+                }
+                pixels[y * width + x] = rgb;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Decodes image file, reading supported BMP files directly and other
+     * images through Image I/O.
+     *
+     * @param file image file
+     * @return decoded image
+     * @throws IOException if file could not be read or decoded
+     */
+    private static BufferedImage decode(Path file) throws IOException {
+        if (BmpImage.isSupported(file)) {
+            return BmpImage.read(file);
+        }
+        BufferedImage image = ImageIO.read(file.toFile());
+        if (image == null) {
+            throw new IOException("Unsupported image format!");
+        }
+        return image;
+    }
+
+    /**
+     * Benchmarks all configurations on all carriers.
+     *
+     * @throws Exception if any phase fails
+     */
+    public void evaluate() throws Exception {
+        for (Path carrier : carriers) {
+            for (ComponentPair componentParam : componentParams) {
+                Result result = evaluateConfig(carrier, componentParam);
+                results.add(result);
+                System.out.println(String.format(Locale.ROOT,
+                        "%-28s %-22s %10.2f ms %9.2f decode %9.2f copy %9.2f hide %9.2f extract"
+                                + " %9.2f encode %10.4f MSE %8.2f dB",
+                        result.carrier, result.config, result.totalMs, result.decodeMs,
+                        result.copyMs, result.hideMs, result.extractMs, result.encodeMs,
+                        result.mse, result.psnr));
+            }
+        }
+    }
+
+    /**
+     * Runs warmup and measured iterations of whole pipeline of one
+     * configuration on one carrier, recording mean time of every phase of
+     * measured iterations.
+     *
+     * @param carrier        carrier file
+     * @param componentParam configuration
+     * @return measured result
+     * @throws Exception if any phase fails or extracted payload differs
+     */
+    private Result evaluateConfig(Path carrier, ComponentPair componentParam) throws Exception {
+        RGBBitsSteganography algorithm = new RGBBitsSteganography(
+                componentParam.componentsToUse, componentParam.bitsPerComponent);
+        Path output = workFolder.resolve("stego-" + componentParam + ".bmp");
+        Result result = new Result();
+        result.carrier = carrier.getFileName().toString();
+        result.config = componentParam.toString();
+        byte[] toHide = null;
+        for (int i = 0; i < WARMUP_ITERATIONS + iterations; i++) {
+            long start = System.nanoTime();
+            BufferedImage decoded = decode(carrier);
+            long decodedAt = System.nanoTime();
+            BufferedImage stego = Utilities.copy(decoded);
+            long copiedAt = System.nanoTime();
+            if (toHide == null) {
+                toHide = new byte[Math.toIntExact(algorithm.getMaxBytes(stego))];
+                new Random(42).nextBytes(toHide);
+            }
+            try {
+                algorithm.hideData(toHide, stego);
+            } catch (InsufficientSpaceException e) {
+                throw new IllegalStateException(e);
+            }
+            long hiddenAt = System.nanoTime();
+            byte[] extracted = algorithm.extractData(stego);
+            long extractedAt = System.nanoTime();
+            BmpImage.create(output, stego).close();
+            long encodedAt = System.nanoTime();
+            if (!Arrays.equals(toHide, extracted)) {
+                throw new IllegalStateException("Extracted data differs from hidden data: "
+                        + result.key());
+            }
+            if (i < WARMUP_ITERATIONS) {
+                result.mse = meanSquaredError(Utilities.copy(decoded), stego);
+                result.psnr = peakSignalToNoiseRatio(result.mse);
+                continue;
+            }
+            result.decodeMs += (decodedAt - start) / 1e6 / iterations;
+            result.copyMs += (copiedAt - decodedAt) / 1e6 / iterations;
+            result.hideMs += (hiddenAt - copiedAt) / 1e6 / iterations;
+            result.extractMs += (extractedAt - hiddenAt) / 1e6 / iterations;
+            result.encodeMs += (encodedAt - extractedAt) / 1e6 / iterations;
+            result.totalMs += (encodedAt - start) / 1e6 / iterations;
+        }
+        result.payloadBytes = toHide.length;
+        Files.deleteIfExists(output);
+        return result;
+    }
+
+    /**
+     * Returns mean squared error of all color components of two packed RGB
+     * images of same dimensions.
+     *
+     * @param original original image
+     * @param changed  changed image
+     * @return mean squared error per color component
+     */
+    private static double meanSquaredError(BufferedImage original, BufferedImage changed) {
+        int[] originalPixels = ((DataBufferInt) original.getRaster().getDataBuffer()).getData();
+        int[] changedPixels = ((DataBufferInt) changed.getRaster().getDataBuffer()).getData();
+        long sum = 0;
+        for (int i = 0; i < originalPixels.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                int difference = (originalPixels[i] >> shift & 0xFF) - (changedPixels[i] >> shift & 0xFF);
+                sum += difference * difference;
+            }
+        }
+        return (double) sum / (3.0 * originalPixels.length);
+    }
+
+    /**
+     * Returns peak signal to noise ratio of 8-bit color components for given
+     * mean squared error.
+     *
+     * @param mse mean squared error
+     * @return PSNR in decibels; infinite if there is no error
+     */
+    private static double peakSignalToNoiseRatio(double mse) {
+        if (mse == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return 10 * Math.log10(MAX_PIXEL_VALUE * MAX_PIXEL_VALUE / mse);
+    }
+
+    /**
+     * Formats number for CSV or JSON output. Infinite PSNR is written as
+     * <code>inf</code> into CSV and as <code>null</code> into JSON.
+     *
+     * @param value value to format
+     * @param json  true if value is written into JSON
+     * @return formatted value
+     */
+    private static String formatNumber(double value, boolean json) {
+        if (Double.isInfinite(value)) {
+            return json ? "null" : "inf";
+        }
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    /**
+     * Writes recorded results in CSV format, which can be read back as
+     * baseline.
+     *
+     * @param output stream to write results to
+     */
+    public void writeCsv(PrintStream output) {
+        output.println(CSV_HEADER);
+        for (Result result : results) {
+            output.println(String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%s,%s",
+                    result.key(), result.payloadBytes, result.decodeMs, result.copyMs,
+                    result.hideMs, result.extractMs, result.encodeMs, result.totalMs,
+                    formatNumber(result.mse, false), formatNumber(result.psnr, false)));
+        }
+    }
+
+    /**
+     * Writes recorded results as JSON array of objects.
+     *
+     * @param output stream to write results to
+     */
+    public void writeJson(PrintStream output) {
+        output.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            output.println(String.format(Locale.ROOT,
+                    "  {\"carrier\": \"%s\", \"config\": \"%s\", \"payload_bytes\": %d, "
+                            + "\"decode_ms\": %.3f, \"copy_ms\": %.3f, \"hide_ms\": %.3f, "
+                            + "\"extract_ms\": %.3f, \"encode_ms\": %.3f, \"total_ms\": %.3f, "
+                            + "\"mse\": %s, \"psnr_db\": %s}%s",
+                    escapeJson(result.carrier), escapeJson(result.config), result.payloadBytes,
+                    result.decodeMs, result.copyMs, result.hideMs, result.extractMs,
+                    result.encodeMs, result.totalMs, formatNumber(result.mse, true),
+                    formatNumber(result.psnr, true), i + 1 < results.size() ? "," : ""));
+        }
+        output.println("]");
+    }
+
+    /**
+     * Escapes quotes, backslashes and control characters of JSON string.
+     *
+     * @param value string to escape
+     * @return escaped string
+     */
+    private static String escapeJson(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads results of earlier run from CSV written by
+     * {@link #writeCsv(PrintStream)}. Columns are found by their names, so
+     * baselines stay readable when new columns are added.
+     *
+     * @param file baseline CSV file
+     * @return baseline results by their keys
+     * @throws IOException if file could not be read or is missing columns
+     */
+    private static Map<String, Result> readBaseline(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            throw new IOException("Baseline file is empty!");
+        }
+        List<String> columns = Arrays.asList(lines.get(0).split(","));
+        int carrierColumn = columns.indexOf("carrier");
+        int configColumn = columns.indexOf("config");
+        int totalColumn = columns.indexOf("total_ms");
+        int psnrColumn = columns.indexOf("psnr_db");
+        if (carrierColumn < 0 || configColumn < 0 || totalColumn < 0 || psnrColumn < 0) {
+            throw new IOException("Baseline file is missing carrier, config, total_ms or psnr_db column!");
+        }
+        Map<String, Result> baseline = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] values = line.split(",");
+            Result result = new Result();
+            result.carrier = values[carrierColumn];
+            result.config = values[configColumn];
+            result.totalMs = Double.parseDouble(values[totalColumn]);
+            result.psnr = "inf".equals(values[psnrColumn]) ? Double.POSITIVE_INFINITY
+                    : Double.parseDouble(values[psnrColumn]);
+            baseline.put(result.key(), result);
+        }
+        return baseline;
+    }
+
+    /**
+     * Compares recorded results against baseline results, printing change of
+     * total time and PSNR of every configuration present in both runs.
+     * Configuration regresses if its total time grows by more than given
+     * percentage or its PSNR drops.
+     *
+     * @param baselineFile baseline CSV file
+     * @param threshold    allowed growth of total time in percent
+     * @return number of regressed configurations
+     * @throws IOException if baseline could not be read
+     */
+    public int compare(Path baselineFile, double threshold) throws IOException {
+        Map<String, Result> baseline = readBaseline(baselineFile);
+        int regressions = 0;
+        int compared = 0;
+        for (Result result : results) {
+            Result old = baseline.get(result.key());
+            if (old == null) {
+                continue;
+            }
+            compared++;
+            double change = (result.totalMs / old.totalMs - 1) * 100;
+            boolean slower = change > threshold;
+            boolean distorted = result.psnr < old.psnr - PSNR_TOLERANCE;
+            if (slower || distorted) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.ROOT,
+                    "%-28s %-22s %10.2f ms (baseline %10.2f ms, %+7.1f%%) %8.2f dB (baseline %8.2f dB)%s",
+                    result.carrier, result.config, result.totalMs, old.totalMs, change,
+                    result.psnr, old.psnr, slower || distorted ? " REGRESSION" : ""));
+        }
+        System.out.println(String.format("Compared %d of %d configurations, %d regressed",
+                compared, results.size(), regressions));
+        return regressions;
+    }
+
+    /**
+     * Deletes working folder together with synthetic carriers written into
+     * it.
+     *
+     * @throws IOException if folder could not be deleted
+     */
+    private void deleteWorkFolder() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(workFolder)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(workFolder);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = DEFAULT_SIZES;
+        String corpus = null;
+        String work = null;
+        String csvFile = null;
+        String jsonFile = null;
+        String baselineFile = null;
+        int iterations = DEFAULT_ITERATIONS;
+        double threshold = DEFAULT_THRESHOLD;
+        for (int i = 0; i < args.length; i++) {
+            if ("-sizes".equals(args[i]) && i + 1 < args.length) {
+                sizes = args[++i].isEmpty() ? new String[0] : args[i].split(",");
+            } else if ("-corpus".equals(args[i]) && i + 1 < args.length) {
+                corpus = args[++i];
+            } else if ("-work".equals(args[i]) && i + 1 < args.length) {
+                work = args[++i];
+            } else if ("-iterations".equals(args[i]) && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if ("-csv".equals(args[i]) && i + 1 < args.length) {
+                csvFile = args[++i];
+            } else if ("-json".equals(args[i]) && i + 1 < args.length) {
+                jsonFile = args[++i];
+            } else if ("-baseline".equals(args[i]) && i + 1 < args.length) {
+                baselineFile = args[++i];
+            } else if ("-threshold".equals(args[i]) && i + 1 < args.length) {
+                threshold = Double.parseDouble(args[++i]);
+            } else {
+                System.err.print("Expected optional params: -sizes WIDTHxHEIGHT[,WIDTHxHEIGHT...]"
+                        + " -corpus image folder -work working folder -iterations count"
+                        + " -csv output file -json output file -baseline baseline CSV file"
+                        + " -threshold allowed slowdown in percent");
+                return;
+            }
+        }
+        Path workFolder = work != null ? Files.createDirectories(Paths.get(work))
+                : Files.createTempDirectory("macro-benchmark");
+        MacroBenchmark benchmark = new MacroBenchmark(workFolder, Math.max(1, iterations));
+        benchmark.addSyntheticCarriers(sizes);
+        if (corpus != null) {
+            benchmark.addCorpusCarriers(Paths.get(corpus));
+        }
+        try {
+            benchmark.evaluate();
+        } finally {
+            if (work == null) {
+                benchmark.deleteWorkFolder();
+            }
+        }
+        if (csvFile != null) {
+            try (PrintStream output = new PrintStream(Files.newOutputStream(Paths.get(csvFile)))) {
+                benchmark.writeCsv(output);
+            } catch (IOException e) {
+                System.err.print("Invalid CSV file name");
+            }
+        }
+        if (jsonFile != null) {
+            try (PrintStream output = new PrintStream(Files.newOutputStream(Paths.get(jsonFile)))) {
+                benchmark.writeJson(output);
+            } catch (IOException e) {
+                System.err.print("Invalid JSON file name");
+            }
+        }
+        if (baselineFile != null && benchmark.compare(Paths.get(baselineFile), threshold) > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.bmpsteg.benchmark;
 
+import com.bmpsteg.bmp.BmpImage;
 import com.bmpsteg.steg.InsufficientSpaceException;
 import com.bmpsteg.steg.RGBBitsSteganography;
 
@@ -11,7 +12,15 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Created by orsic on 16.01.16..
@@ -38,7 +47,12 @@ public class SteganographyBenchmark {
     public static BufferedImage openString(String filename){
         BufferedImage originalImage = null;
         try {
-            originalImage = ImageIO.read(new File(filename));
+            File file = new File(filename);
+            if (BmpImage.isSupported(file.toPath())) {
+                originalImage = BmpImage.read(file.toPath());
+            } else {
+                originalImage = ImageIO.read(file);
+            }
         } catch (IOException e) {
             System.err.print("Invalid file name");
             return null;
@@ -68,7 +82,7 @@ public class SteganographyBenchmark {
         for(ComponentPair componentParam: componentParams) {
             System.out.println(componentParam);
             RGBBitsSteganography algorithm = new RGBBitsSteganography(componentParam.componentsToUse, componentParam.bitsPerComponent);
-            int max_bytes = algorithm.getMaxBytes(originalImage);
+            int max_bytes = Math.toIntExact(algorithm.getMaxBytes(originalImage));
             byte[] toHide = this.generateData(max_bytes);
             BufferedImage copied = deepCopy(originalImage);
             try {
@@ -81,15 +95,103 @@ public class SteganographyBenchmark {
         }
     }
 
-    public static void main(String[] args){
-        if(args.length != 2){
-            System.err.print("Expected 2 command line params: target folder and original image path!");
+    /**
+     * Creates empty image with same color model and raster layout as given
+     * image.
+     *
+     * @param image image whose layout is used
+     * @return created image
+     */
+    private static BufferedImage createCompatible(BufferedImage image) {
+        ColorModel cm = image.getColorModel();
+        WritableRaster raster = image.getRaster().createCompatibleWritableRaster();
+        return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Evaluates all configurations concurrently on given number of threads.
+     * Original image is only read, and every configuration copies its pixels
+     * into carrier buffer taken from a pool of one buffer per thread, which
+     * is returned to the pool once the stego image is encoded. Payload is
+     * generated by random generator of the evaluating thread, and every
+     * thread encodes its own stego image.
+     *
+     * @param folder        folder to write stego images to
+     * @param originalImage original image
+     * @param threads       number of threads
+     * @throws InterruptedException if interrupted while waiting for
+     *                              configurations to finish
+     */
+    public void evaluateParallel(final String folder, final BufferedImage originalImage, int threads)
+            throws InterruptedException {
+        final BlockingQueue<BufferedImage> carriers = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) {
+            carriers.add(createCompatible(originalImage));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final ComponentPair componentParam : componentParams) {
+                futures.add(executor.submit(() -> {
+                    BufferedImage carrier = carriers.take();
+                    try {
+                        evaluateInto(folder, originalImage, carrier, componentParam);
+                    } finally {
+                        carriers.add(carrier);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Evaluates one configuration using given carrier buffer.
+     *
+     * @param folder         folder to write stego image to
+     * @param originalImage  original image, which is only read
+     * @param carrier        carrier buffer compatible with original image
+     * @param componentParam configuration
+     */
+    private static void evaluateInto(String folder, BufferedImage originalImage, BufferedImage carrier,
+                                     ComponentPair componentParam) {
+        RGBBitsSteganography algorithm = new RGBBitsSteganography(componentParam.componentsToUse, componentParam.bitsPerComponent);
+        byte[] toHide = new byte[Math.toIntExact(algorithm.getMaxBytes(originalImage))];
+        ThreadLocalRandom.current().nextBytes(toHide);
+        carrier.getRaster().setRect(originalImage.getRaster());
+        try {
+            algorithm.hideData(toHide, carrier);
+            File outputfile = new File(folder + componentParam + ".png");
+            ImageIO.write(carrier, "png", outputfile);
+            System.out.println(componentParam);
+        } catch (InsufficientSpaceException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if(args.length != 2 && args.length != 3){
+            System.err.print("Expected 2 or 3 command line params: target folder, original image path"
+                    + " and optional number of threads evaluating configurations in parallel!");
             return;
         }
         SteganographyBenchmark benchmark = new SteganographyBenchmark();
         String target_folder = args[0];
         String original_image = args[1];
-        benchmark.evaluate(target_folder, openString(original_image));
+        if (args.length == 3) {
+            benchmark.evaluateParallel(target_folder, openString(original_image), Integer.parseInt(args[2]));
+        } else {
+            benchmark.evaluate(target_folder, openString(original_image));
+        }
     }
 
 }
@@ -0,0 +1,303 @@
+package com.bmpsteg.bmp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Represents file and info header of uncompressed 24-bit or 32-bit BMP image.
+ * Pixel rows are stored padded to multiple of 4 bytes, either from the bottom
+ * row to the top row (default) or from the top row to the bottom row. Each
+ * pixel is stored as B, G and R component byte, followed by unused (or alpha)
+ * byte for 32-bit images.
+ *
+ * @author irelic
+ *
+ */
+public final class BmpHeader {
+
+	/**
+	 * Size of BMP file header.
+	 */
+	public static final int FILE_HEADER_SIZE = 14;
+	/**
+	 * Size of BMP info header written by this class.
+	 */
+	public static final int INFO_HEADER_SIZE = 40;
+	/**
+	 * Maximum number of bytes needed to parse BMP header (file header, V5 info
+	 * header and color masks).
+	 */
+	private static final int MAX_HEADER_SIZE = FILE_HEADER_SIZE + 124 + 12;
+	private static final int SIGNATURE = 0x4D42;
+	private static final int BI_RGB = 0;
+	private static final int BI_BITFIELDS = 3;
+	private static final int PIXELS_PER_METER = 2835;
+
+	private final int width;
+	private final int height;
+	private final int bitsPerPixel;
+	private final int pixelDataOffset;
+	private final boolean topDown;
+	private final int rowStride;
+
+	/**
+	 * Creates new header.
+	 *
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param bitsPerPixel
+	 *            24 or 32
+	 * @param pixelDataOffset
+	 *            offset of pixel data from file beginning
+	 * @param topDown
+	 *            true if rows are stored from the top row to the bottom row
+	 */
+	private BmpHeader(int width, int height, int bitsPerPixel,
+			int pixelDataOffset, boolean topDown) {
+		this.width = width;
+		this.height = height;
+		this.bitsPerPixel = bitsPerPixel;
+		this.pixelDataOffset = pixelDataOffset;
+		this.topDown = topDown;
+		this.rowStride = (int) (((long) width * bitsPerPixel + 31) / 32 * 4);
+	}
+
+	/**
+	 * Creates header of new bottom-up 24-bit BMP image with given dimensions.
+	 *
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return header of new BMP image
+	 */
+	public static BmpHeader create(int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException(
+					"Image width and height must be positive!");
+		}
+		return new BmpHeader(width, height, 24, FILE_HEADER_SIZE
+				+ INFO_HEADER_SIZE, false);
+	}
+
+	/**
+	 * Reads header from the beginning of given file channel. Channel position
+	 * is not changed.
+	 *
+	 * @param channel
+	 *            file channel to read header from
+	 * @return header read from channel
+	 * @throws IOException
+	 *             if header could not be read or it does not describe
+	 *             uncompressed 24-bit or 32-bit BMP image
+	 */
+	public static BmpHeader read(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return parse(buffer);
+	}
+
+	/**
+	 * Parses header from the beginning of given buffer. Buffer position is not
+	 * changed.
+	 *
+	 * @param buffer
+	 *            buffer containing BMP file
+	 * @return header parsed from buffer
+	 * @throws IOException
+	 *             if buffer is too short or it does not describe uncompressed
+	 *             24-bit or 32-bit BMP image
+	 */
+	public static BmpHeader parse(ByteBuffer buffer) throws IOException {
+		ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int start = header.position();
+		if (header.remaining() < FILE_HEADER_SIZE + INFO_HEADER_SIZE) {
+			throw new EOFException("File is too short to be BMP image!");
+		}
+		if ((header.getShort(start) & 0xFFFF) != SIGNATURE) {
+			throw new IOException("File is not BMP image!");
+		}
+		int pixelDataOffset = header.getInt(start + 10);
+		int infoHeaderSize = header.getInt(start + 14);
+		int width = header.getInt(start + 18);
+		int height = header.getInt(start + 22);
+		int bitsPerPixel = header.getShort(start + 28);
+		int compression = header.getInt(start + 30);
+		if (infoHeaderSize < INFO_HEADER_SIZE) {
+			throw new IOException("Unsupported BMP info header size: "
+					+ infoHeaderSize + "!");
+		}
+		if (bitsPerPixel != 24 && bitsPerPixel != 32) {
+			throw new IOException("Unsupported BMP bits per pixel: "
+					+ bitsPerPixel + "! Only 24 and 32 are supported");
+		}
+		if (compression == BI_BITFIELDS && bitsPerPixel == 32) {
+			int masksStart = start + FILE_HEADER_SIZE + INFO_HEADER_SIZE;
+			if (header.limit() < masksStart + 12
+					|| header.getInt(masksStart) != 0xFF0000
+					|| header.getInt(masksStart + 4) != 0xFF00
+					|| header.getInt(masksStart + 8) != 0xFF) {
+				throw new IOException("Unsupported BMP color masks!");
+			}
+		} else if (compression != BI_RGB) {
+			throw new IOException("Unsupported BMP compression: "
+					+ compression + "!");
+		}
+		if (width < 1 || height == 0 || height == Integer.MIN_VALUE) {
+			throw new IOException("Invalid BMP dimensions: " + width + "x"
+					+ height + "!");
+		}
+		if (pixelDataOffset < FILE_HEADER_SIZE + infoHeaderSize) {
+			throw new IOException("Invalid BMP pixel data offset: "
+					+ pixelDataOffset + "!");
+		}
+		return new BmpHeader(width, Math.abs(height), bitsPerPixel,
+				pixelDataOffset, height < 0);
+	}
+
+	/**
+	 * Writes file and info header into given buffer at its current position
+	 * and advances buffer position past written header.
+	 *
+	 * @param buffer
+	 *            buffer to write header into
+	 */
+	public void write(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putShort((short) SIGNATURE);
+		buffer.putInt(sizeField(getFileSize()));
+		buffer.putInt(0);
+		buffer.putInt(pixelDataOffset);
+		buffer.putInt(INFO_HEADER_SIZE);
+		buffer.putInt(width);
+		buffer.putInt(topDown ? -height : height);
+		buffer.putShort((short) 1);
+		buffer.putShort((short) bitsPerPixel);
+		buffer.putInt(BI_RGB);
+		buffer.putInt(sizeField(getPixelDataSize()));
+		buffer.putInt(PIXELS_PER_METER);
+		buffer.putInt(PIXELS_PER_METER);
+		buffer.putInt(0);
+		buffer.putInt(0);
+		buffer.order(order);
+	}
+
+	/**
+	 * Returns value of 32-bit unsigned size field for given size. Sizes which
+	 * do not fit are written as 0, which readers treat as unknown size.
+	 *
+	 * @param size
+	 *            size in bytes
+	 * @return value of size field
+	 */
+	private static int sizeField(long size) {
+		return size > 0xFFFFFFFFL ? 0 : (int) size;
+	}
+
+	/**
+	 * Returns image width.
+	 *
+	 * @return image width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns image height.
+	 *
+	 * @return image height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns number of bits per pixel; either 24 or 32.
+	 *
+	 * @return number of bits per pixel
+	 */
+	public int getBitsPerPixel() {
+		return bitsPerPixel;
+	}
+
+	/**
+	 * Returns number of bytes per pixel; either 3 or 4.
+	 *
+	 * @return number of bytes per pixel
+	 */
+	public int getBytesPerPixel() {
+		return bitsPerPixel / 8;
+	}
+
+	/**
+	 * Returns number of bytes per stored row, including padding.
+	 *
+	 * @return number of bytes per stored row
+	 */
+	public int getRowStride() {
+		return rowStride;
+	}
+
+	/**
+	 * Returns offset of pixel data from file beginning.
+	 *
+	 * @return offset of pixel data from file beginning
+	 */
+	public int getPixelDataOffset() {
+		return pixelDataOffset;
+	}
+
+	/**
+	 * Returns information if rows are stored from the top row to the bottom
+	 * row.
+	 *
+	 * @return true if rows are stored from the top row to the bottom row,
+	 *         false otherwise
+	 */
+	public boolean isTopDown() {
+		return topDown;
+	}
+
+	/**
+	 * Returns size of pixel data in bytes.
+	 *
+	 * @return size of pixel data in bytes
+	 */
+	public long getPixelDataSize() {
+		return (long) rowStride * height;
+	}
+
+	/**
+	 * Returns size of whole BMP file in bytes.
+	 *
+	 * @return size of whole BMP file in bytes
+	 */
+	public long getFileSize() {
+		return pixelDataOffset + getPixelDataSize();
+	}
+
+	/**
+	 * Returns offset from file beginning of first pixel of given image row,
+	 * where row 0 is the top row of image.
+	 *
+	 * @param y
+	 *            image row
+	 * @return offset of first pixel of given image row
+	 */
+	public long getRowOffset(int y) {
+		int storedRow = topDown ? y : height - 1 - y;
+		return pixelDataOffset + (long) storedRow * rowStride;
+	}
+}
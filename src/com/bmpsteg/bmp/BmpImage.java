@@ -0,0 +1,536 @@
+package com.bmpsteg.bmp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Represents uncompressed 24-bit or 32-bit BMP image file mapped into memory.
+ * Pixels are read and written in place, directly in the mapped file, so no
+ * decoded copy of image is ever held on heap. Changes are written to file by
+ * operating system, at latest when {@link #force()} or {@link #close()} is
+ * called.
+ *
+ * @author irelic
+ *
+ */
+public final class BmpImage implements Closeable {
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final BmpHeader header;
+	private final boolean writable;
+
+	/**
+	 * Creates new BMP image over given mapped file.
+	 *
+	 * @param channel
+	 *            channel of mapped file
+	 * @param buffer
+	 *            mapped file
+	 * @param header
+	 *            file header
+	 * @param writable
+	 *            true if file is mapped for writing
+	 */
+	private BmpImage(FileChannel channel, MappedByteBuffer buffer,
+			BmpHeader header, boolean writable) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.header = header;
+		this.writable = writable;
+	}
+
+	/**
+	 * Opens existing BMP image file for reading and writing.
+	 *
+	 * @param file
+	 *            BMP image file
+	 * @return opened BMP image
+	 * @throws IOException
+	 *             if file could not be opened or it is not uncompressed 24-bit
+	 *             or 32-bit BMP image
+	 */
+	public static BmpImage open(Path file) throws IOException {
+		return open(file, true);
+	}
+
+	/**
+	 * Opens existing BMP image file.
+	 *
+	 * @param file
+	 *            BMP image file
+	 * @param writable
+	 *            true if image pixels will be written, false otherwise
+	 * @return opened BMP image
+	 * @throws IOException
+	 *             if file could not be opened or it is not uncompressed 24-bit
+	 *             or 32-bit BMP image
+	 */
+	public static BmpImage open(Path file, boolean writable) throws IOException {
+		FileChannel channel = writable ? FileChannel.open(file,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			BmpHeader header = BmpHeader.read(channel);
+			long fileSize = header.getFileSize();
+			if (channel.size() < fileSize) {
+				throw new IOException(String.format(
+						"BMP image is truncated! Expected %d bytes, found %d bytes",
+						fileSize, channel.size()));
+			}
+			checkMappable(fileSize);
+			MappedByteBuffer buffer = channel.map(writable ? MapMode.READ_WRITE
+					: MapMode.READ_ONLY, 0, fileSize);
+			return new BmpImage(channel, buffer, header, writable);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates new 24-bit BMP image file with given dimensions, overwriting
+	 * existing file. All pixels of created image are black.
+	 *
+	 * @param file
+	 *            BMP image file to create
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return created BMP image opened for reading and writing
+	 * @throws IOException
+	 *             if file could not be created
+	 */
+	public static BmpImage create(Path file, int width, int height)
+			throws IOException {
+		BmpHeader header = BmpHeader.create(width, height);
+		long fileSize = header.getFileSize();
+		checkMappable(fileSize);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0,
+					fileSize);
+			header.write(buffer);
+			buffer.position(0);
+			return new BmpImage(channel, buffer, header, true);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates new 24-bit BMP image file containing pixels of given image,
+	 * overwriting existing file.
+	 *
+	 * @param file
+	 *            BMP image file to create
+	 * @param image
+	 *            image whose pixels are written
+	 * @return created BMP image opened for reading and writing
+	 * @throws IOException
+	 *             if file could not be created
+	 */
+	public static BmpImage create(Path file, BufferedImage image)
+			throws IOException {
+		BmpImage bmpImage = create(file, image.getWidth(), image.getHeight());
+		bmpImage.setPixels(image);
+		return bmpImage;
+	}
+
+	/**
+	 * Reads BMP image file into new buffered image. 24-bit images are read into
+	 * {@link BufferedImage#TYPE_3BYTE_BGR} and 32-bit images into
+	 * {@link BufferedImage#TYPE_INT_RGB} image, so every row is copied as a
+	 * whole without any color conversion.
+	 *
+	 * @param file
+	 *            BMP image file
+	 * @return buffered image with pixels of given file
+	 * @throws IOException
+	 *             if file could not be read or it is not uncompressed 24-bit
+	 *             or 32-bit BMP image
+	 */
+	public static BufferedImage read(Path file) throws IOException {
+		try (BmpImage bmpImage = open(file, false)) {
+			return bmpImage.toBufferedImage();
+		}
+	}
+
+	/**
+	 * Checks if given file is uncompressed 24-bit or 32-bit BMP image this
+	 * class can open.
+	 *
+	 * @param file
+	 *            file to check
+	 * @return true if file can be opened, false otherwise
+	 */
+	public static boolean isSupported(Path file) {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			BmpHeader header = BmpHeader.read(channel);
+			return channel.size() >= header.getFileSize()
+					&& header.getFileSize() <= Integer.MAX_VALUE;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if file of given size can be mapped into single buffer.
+	 *
+	 * @param fileSize
+	 *            file size
+	 * @throws IOException
+	 *             if file is too large
+	 */
+	private static void checkMappable(long fileSize) throws IOException {
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IOException(String.format(
+					"BMP image of %d bytes is too large to be mapped! Maximum size: %d bytes",
+					fileSize, Integer.MAX_VALUE));
+		}
+	}
+
+	/**
+	 * Returns file header of this image.
+	 *
+	 * @return file header of this image
+	 */
+	public BmpHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * Returns image width.
+	 *
+	 * @return image width
+	 */
+	public int getWidth() {
+		return header.getWidth();
+	}
+
+	/**
+	 * Returns image height.
+	 *
+	 * @return image height
+	 */
+	public int getHeight() {
+		return header.getHeight();
+	}
+
+	/**
+	 * Returns number of bytes per pixel; either 3 or 4.
+	 *
+	 * @return number of bytes per pixel
+	 */
+	public int getBytesPerPixel() {
+		return header.getBytesPerPixel();
+	}
+
+	/**
+	 * Returns whole mapped file. Pixels should be accessed with absolute get
+	 * and put methods at offsets given by {@link #getRowOffset(int)}.
+	 *
+	 * @return whole mapped file
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns offset in buffer of first pixel of given image row, where row 0
+	 * is the top row of image.
+	 *
+	 * @param y
+	 *            image row
+	 * @return offset in buffer of first pixel of given image row
+	 */
+	public int getRowOffset(int y) {
+		return (int) header.getRowOffset(y);
+	}
+
+	/**
+	 * Returns information if image is opened for writing.
+	 *
+	 * @return true if image is opened for writing, false otherwise
+	 */
+	public boolean isWritable() {
+		return writable;
+	}
+
+	/**
+	 * Returns integer representing RGB color of pixel on given coordinates.
+	 *
+	 * @param x
+	 *            x coordinate
+	 * @param y
+	 *            y coordinate
+	 * @return integer representing RGB color of pixel
+	 */
+	public int getRGB(int x, int y) {
+		int offset = getRowOffset(y) + x * getBytesPerPixel();
+		return 0xFF000000 | ((buffer.get(offset + 2) & 0xFF) << 16)
+				| ((buffer.get(offset + 1) & 0xFF) << 8)
+				| (buffer.get(offset) & 0xFF);
+	}
+
+	/**
+	 * Sets RGB color of pixel on given coordinates.
+	 *
+	 * @param x
+	 *            x coordinate
+	 * @param y
+	 *            y coordinate
+	 * @param rgb
+	 *            integer representing RGB color
+	 */
+	public void setRGB(int x, int y, int rgb) {
+		int offset = getRowOffset(y) + x * getBytesPerPixel();
+		buffer.put(offset, (byte) rgb);
+		buffer.put(offset + 1, (byte) (rgb >> 8));
+		buffer.put(offset + 2, (byte) (rgb >> 16));
+	}
+
+	/**
+	 * Reads RGB colors of pixels of given rectangle into given array, row by
+	 * row, the same way {@link BufferedImage#getRGB(int, int, int, int, int[],
+	 * int, int)} does.
+	 *
+	 * @param x
+	 *            x coordinate of upper left pixel
+	 * @param y
+	 *            y coordinate of upper left pixel
+	 * @param width
+	 *            rectangle width
+	 * @param height
+	 *            rectangle height
+	 * @param rgbArray
+	 *            array to read colors into
+	 * @param offset
+	 *            index in array of first color
+	 * @param scansize
+	 *            distance in array between colors of consecutive rows
+	 */
+	public void getRGB(int x, int y, int width, int height, int[] rgbArray,
+			int offset, int scansize) {
+		int bytesPerPixel = getBytesPerPixel();
+		byte[] row = new byte[width * bytesPerPixel];
+		ByteBuffer source = buffer.duplicate();
+		for (int j = 0; j < height; ++j) {
+			source.position(getRowOffset(y + j) + x * bytesPerPixel);
+			source.get(row);
+			for (int i = 0, index = 0; i < width; ++i, index += bytesPerPixel) {
+				rgbArray[offset + j * scansize + i] = 0xFF000000
+						| ((row[index + 2] & 0xFF) << 16)
+						| ((row[index + 1] & 0xFF) << 8) | (row[index] & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Sets RGB colors of pixels of given rectangle from given array, row by
+	 * row, the same way {@link BufferedImage#setRGB(int, int, int, int, int[],
+	 * int, int)} does. Unused byte of 32-bit pixels is left unchanged.
+	 *
+	 * @param x
+	 *            x coordinate of upper left pixel
+	 * @param y
+	 *            y coordinate of upper left pixel
+	 * @param width
+	 *            rectangle width
+	 * @param height
+	 *            rectangle height
+	 * @param rgbArray
+	 *            array of colors
+	 * @param offset
+	 *            index in array of first color
+	 * @param scansize
+	 *            distance in array between colors of consecutive rows
+	 */
+	public void setRGB(int x, int y, int width, int height, int[] rgbArray,
+			int offset, int scansize) {
+		int bytesPerPixel = getBytesPerPixel();
+		byte[] row = new byte[width * bytesPerPixel];
+		ByteBuffer target = buffer.duplicate();
+		for (int j = 0; j < height; ++j) {
+			int rowOffset = getRowOffset(y + j) + x * bytesPerPixel;
+			if (bytesPerPixel == 4) {
+				target.position(rowOffset);
+				target.get(row);
+			}
+			for (int i = 0, index = 0; i < width; ++i, index += bytesPerPixel) {
+				int rgb = rgbArray[offset + j * scansize + i];
+				row[index] = (byte) rgb;
+				row[index + 1] = (byte) (rgb >> 8);
+				row[index + 2] = (byte) (rgb >> 16);
+			}
+			target.position(rowOffset);
+			target.put(row);
+		}
+	}
+
+	/**
+	 * Sets all pixels of given rectangle to given RGB color, writing whole
+	 * rows at once. Unused byte of 32-bit pixels is left unchanged.
+	 *
+	 * @param x
+	 *            x coordinate of upper left pixel
+	 * @param y
+	 *            y coordinate of upper left pixel
+	 * @param width
+	 *            rectangle width
+	 * @param height
+	 *            rectangle height
+	 * @param rgb
+	 *            integer representing RGB color
+	 */
+	public void fillRect(int x, int y, int width, int height, int rgb) {
+		int bytesPerPixel = getBytesPerPixel();
+		byte[] row = new byte[width * bytesPerPixel];
+		ByteBuffer target = buffer.duplicate();
+		for (int j = 0; j < height; ++j) {
+			int rowOffset = getRowOffset(y + j) + x * bytesPerPixel;
+			if (bytesPerPixel == 4 || j == 0) {
+				if (bytesPerPixel == 4) {
+					target.position(rowOffset);
+					target.get(row);
+				}
+				for (int index = 0; index < row.length; index += bytesPerPixel) {
+					row[index] = (byte) rgb;
+					row[index + 1] = (byte) (rgb >> 8);
+					row[index + 2] = (byte) (rgb >> 16);
+				}
+			}
+			target.position(rowOffset);
+			target.put(row);
+		}
+	}
+
+	/**
+	 * Copies pixels of given image of the same dimensions into this image.
+	 * Rows of {@link BufferedImage#TYPE_3BYTE_BGR} images are copied as a
+	 * whole into 24-bit image.
+	 *
+	 * @param image
+	 *            image whose pixels are copied
+	 */
+	public void setPixels(BufferedImage image) {
+		int width = getWidth();
+		int height = getHeight();
+		if (image.getWidth() != width || image.getHeight() != height) {
+			throw new IllegalArgumentException(
+					"Image dimensions must match BMP image dimensions!");
+		}
+		ByteBuffer target = buffer.duplicate();
+		int bytesPerPixel = getBytesPerPixel();
+		if (bytesPerPixel == 3 && isPackedBGR(image)) {
+			byte[] pixels = ((DataBufferByte) image.getRaster()
+					.getDataBuffer()).getData();
+			int rowLength = width * bytesPerPixel;
+			for (int y = 0; y < height; ++y) {
+				target.position(getRowOffset(y));
+				target.put(pixels, y * rowLength, rowLength);
+			}
+			return;
+		}
+		int[] row = new int[width];
+		for (int y = 0; y < height; ++y) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			target.position(getRowOffset(y));
+			for (int x = 0; x < width; ++x) {
+				int rgb = row[x];
+				target.put((byte) rgb);
+				target.put((byte) (rgb >> 8));
+				target.put((byte) (rgb >> 16));
+				if (bytesPerPixel == 4) {
+					target.put((byte) 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies pixels of this image into new buffered image. 24-bit images are
+	 * copied into {@link BufferedImage#TYPE_3BYTE_BGR} and 32-bit images into
+	 * {@link BufferedImage#TYPE_INT_RGB} image, row by row.
+	 *
+	 * @return buffered image with pixels of this image
+	 */
+	public BufferedImage toBufferedImage() {
+		int width = getWidth();
+		int height = getHeight();
+		ByteBuffer source = buffer.duplicate();
+		if (getBytesPerPixel() == 3) {
+			BufferedImage image = new BufferedImage(width, height,
+					BufferedImage.TYPE_3BYTE_BGR);
+			byte[] pixels = ((DataBufferByte) image.getRaster()
+					.getDataBuffer()).getData();
+			int rowLength = width * 3;
+			for (int y = 0; y < height; ++y) {
+				source.position(getRowOffset(y));
+				source.get(pixels, y * rowLength, rowLength);
+			}
+			return image;
+		}
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+				.getData();
+		source.order(ByteOrder.LITTLE_ENDIAN);
+		for (int y = 0; y < height; ++y) {
+			source.position(getRowOffset(y));
+			source.asIntBuffer().get(pixels, y * width, width);
+		}
+		return image;
+	}
+
+	/**
+	 * Checks if given image stores pixels as tightly packed B, G and R bytes,
+	 * the same way 24-bit BMP image row does.
+	 *
+	 * @param image
+	 *            image to check
+	 * @return true if image stores pixels as tightly packed B, G and R bytes,
+	 *         false otherwise
+	 */
+	private static boolean isPackedBGR(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		return image.getType() == BufferedImage.TYPE_3BYTE_BGR
+				&& raster.getSampleModelTranslateX() == 0
+				&& raster.getSampleModelTranslateY() == 0
+				&& raster.getDataBuffer().getOffset() == 0
+				&& ((ComponentSampleModel) raster.getSampleModel())
+						.getScanlineStride() == image.getWidth() * 3;
+	}
+
+	/**
+	 * Writes changes of mapped file to storage device.
+	 */
+	public void force() {
+		if (writable) {
+			buffer.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		force();
+		channel.close();
+	}
+}
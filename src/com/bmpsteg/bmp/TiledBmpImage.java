@@ -0,0 +1,303 @@
+package com.bmpsteg.bmp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.bmpsteg.steg.Utilities;
+
+/**
+ * Represents uncompressed 24-bit or 32-bit BMP image file accessed in bands of
+ * whole rows. Unlike {@link BmpImage}, file is never mapped, so image size is
+ * limited neither by the largest mappable buffer nor by heap size. Bands are
+ * read and written with positional reads and writes, so only the band being
+ * worked on is held in memory, and band height is chosen so that a band fits
+ * into given memory budget.
+ *
+ * @author irelic
+ *
+ */
+public final class TiledBmpImage implements Closeable {
+
+	/**
+	 * Default number of bytes of one band of rows.
+	 */
+	public static final int DEFAULT_MEMORY_BUDGET = 16 << 20;
+
+	private final FileChannel channel;
+	private final BmpHeader header;
+	private final boolean writable;
+	private final int bandRows;
+
+	/**
+	 * Creates new tiled BMP image over given file.
+	 *
+	 * @param channel
+	 *            channel of image file
+	 * @param header
+	 *            file header
+	 * @param writable
+	 *            true if file is opened for writing
+	 * @param memoryBudget
+	 *            number of bytes of one band of rows
+	 */
+	private TiledBmpImage(FileChannel channel, BmpHeader header,
+			boolean writable, int memoryBudget) {
+		this.channel = channel;
+		this.header = header;
+		this.writable = writable;
+		this.bandRows = Math.min(header.getHeight(),
+				Math.max(1, memoryBudget / header.getRowStride()));
+	}
+
+	/**
+	 * Opens existing BMP image file with default memory budget.
+	 *
+	 * @param file
+	 *            BMP image file
+	 * @param writable
+	 *            true if image pixels will be written, false otherwise
+	 * @return opened BMP image
+	 * @throws IOException
+	 *             if file could not be opened or it is not uncompressed 24-bit
+	 *             or 32-bit BMP image
+	 */
+	public static TiledBmpImage open(Path file, boolean writable)
+			throws IOException {
+		return open(file, writable, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Opens existing BMP image file.
+	 *
+	 * @param file
+	 *            BMP image file
+	 * @param writable
+	 *            true if image pixels will be written, false otherwise
+	 * @param memoryBudget
+	 *            number of bytes of one band of rows; band always holds at
+	 *            least one row
+	 * @return opened BMP image
+	 * @throws IOException
+	 *             if file could not be opened or it is not uncompressed 24-bit
+	 *             or 32-bit BMP image
+	 */
+	public static TiledBmpImage open(Path file, boolean writable,
+			int memoryBudget) throws IOException {
+		checkMemoryBudget(memoryBudget);
+		FileChannel channel = writable ? FileChannel.open(file,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			BmpHeader header = BmpHeader.read(channel);
+			if (channel.size() < header.getFileSize()) {
+				throw new IOException(String.format(
+						"BMP image is truncated! Expected %d bytes, found %d bytes",
+						header.getFileSize(), channel.size()));
+			}
+			return new TiledBmpImage(channel, header, writable, memoryBudget);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates new 24-bit BMP image file with given dimensions, overwriting
+	 * existing file. All pixels of created image are black. Pixel data is not
+	 * written, so file systems supporting sparse files allocate it only as
+	 * bands are written.
+	 *
+	 * @param file
+	 *            BMP image file to create
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param memoryBudget
+	 *            number of bytes of one band of rows; band always holds at
+	 *            least one row
+	 * @return created BMP image opened for reading and writing
+	 * @throws IOException
+	 *             if file could not be created
+	 */
+	public static TiledBmpImage create(Path file, int width, int height,
+			int memoryBudget) throws IOException {
+		checkMemoryBudget(memoryBudget);
+		BmpHeader header = BmpHeader.create(width, height);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer headerBuffer = ByteBuffer
+					.allocate(header.getPixelDataOffset());
+			header.write(headerBuffer);
+			headerBuffer.clear();
+			Utilities.writeFully(channel, headerBuffer, 0);
+			Utilities.writeFully(channel, ByteBuffer.allocate(1),
+					header.getFileSize() - 1);
+			return new TiledBmpImage(channel, header, true, memoryBudget);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks if given file is uncompressed 24-bit or 32-bit BMP image this
+	 * class can open. Unlike {@link BmpImage#isSupported(Path)}, size of the
+	 * file is not limited.
+	 *
+	 * @param file
+	 *            file to check
+	 * @return true if file can be opened, false otherwise
+	 */
+	public static boolean isSupported(Path file) {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			BmpHeader header = BmpHeader.read(channel);
+			return channel.size() >= header.getFileSize();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if memory budget is positive.
+	 *
+	 * @param memoryBudget
+	 *            number of bytes of one band of rows
+	 */
+	private static void checkMemoryBudget(int memoryBudget) {
+		if (memoryBudget < 1) {
+			throw new IllegalArgumentException(
+					"Memory budget must be positive!");
+		}
+	}
+
+	/**
+	 * Returns file header of this image.
+	 *
+	 * @return file header of this image
+	 */
+	public BmpHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * Returns image width.
+	 *
+	 * @return image width
+	 */
+	public int getWidth() {
+		return header.getWidth();
+	}
+
+	/**
+	 * Returns image height.
+	 *
+	 * @return image height
+	 */
+	public int getHeight() {
+		return header.getHeight();
+	}
+
+	/**
+	 * Returns information if image is opened for writing.
+	 *
+	 * @return true if image is opened for writing, false otherwise
+	 */
+	public boolean isWritable() {
+		return writable;
+	}
+
+	/**
+	 * Returns number of rows of one band. Only the last band of image may have
+	 * less rows.
+	 *
+	 * @return number of rows of one band
+	 */
+	public int getBandRows() {
+		return bandRows;
+	}
+
+	/**
+	 * Allocates buffer large enough to hold any band of this image.
+	 *
+	 * @return buffer for bands of this image
+	 */
+	public ByteBuffer allocateBand() {
+		return ByteBuffer.allocate(bandRows * header.getRowStride());
+	}
+
+	/**
+	 * Reads band of rows starting with given row into given buffer. The band
+	 * ends after {@link #getBandRows()} rows or at the last image row. Buffer
+	 * is filled from its beginning and its limit is set to band length.
+	 *
+	 * @param firstRow
+	 *            first row of band, where row 0 is the top row of image
+	 * @param band
+	 *            buffer to read band into, at least as large as one returned
+	 *            by {@link #allocateBand()}
+	 * @return offset from file beginning of first byte of band
+	 * @throws IOException
+	 *             if file could not be read
+	 */
+	public long readBand(int firstRow, ByteBuffer band) throws IOException {
+		if (firstRow < 0 || firstRow >= getHeight()) {
+			throw new IllegalArgumentException("Invalid first row of band: "
+					+ firstRow + "!");
+		}
+		int lastRow = (int) Math.min((long) firstRow + bandRows,
+				getHeight()) - 1;
+		long bandOffset = Math.min(header.getRowOffset(firstRow),
+				header.getRowOffset(lastRow));
+		band.clear();
+		band.limit((lastRow - firstRow + 1) * header.getRowStride());
+		Utilities.readFully(channel, band, bandOffset);
+		band.flip();
+		return bandOffset;
+	}
+
+	/**
+	 * Writes band previously read by {@link #readBand(int, ByteBuffer)} back
+	 * to file. Buffer position and limit are not changed.
+	 *
+	 * @param band
+	 *            buffer holding band, from its beginning to its limit
+	 * @param bandOffset
+	 *            offset from file beginning of first byte of band
+	 * @throws IOException
+	 *             if file could not be written or image is opened for
+	 *             reading only
+	 */
+	public void writeBand(ByteBuffer band, long bandOffset) throws IOException {
+		if (!writable) {
+			throw new IOException("BMP image is opened for reading only!");
+		}
+		ByteBuffer source = band.duplicate();
+		source.position(0);
+		Utilities.writeFully(channel, source, bandOffset);
+	}
+
+	/**
+	 * Forces all written bands to storage device.
+	 *
+	 * @throws IOException
+	 *             if file could not be forced
+	 */
+	public void force() throws IOException {
+		if (writable) {
+			channel.force(false);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
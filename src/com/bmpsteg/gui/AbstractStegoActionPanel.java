@@ -2,22 +2,36 @@ package com.bmpsteg.gui;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.awt.Container;
+import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JPasswordField;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import com.bmpsteg.bmp.BmpImage;
 import com.bmpsteg.steg.HidingReversibleDeidentificationSteganography;
+import com.bmpsteg.steg.ProgressListener;
 
 /**
  * Represents abstract panel for steganography action (hiding or extracting the
@@ -33,24 +47,146 @@ public abstract class AbstractStegoActionPanel extends JPanel {
 	protected final HidingReversibleDeidentificationSteganography stegAlg;
 	protected SelectableLabel imageLabel;
 	protected BufferedImage loadedImage;
+	protected File loadedFile;
 	protected JButton loadImageButton;
 	protected JButton actionButton;
 	protected JTextArea textArea;
 	protected JPasswordField passwordField;
 	protected Component parentComponent;
+	protected JProgressBar progressBar;
+	protected JButton cancelButton;
+	private StegoWorker worker;
+	private final Map<Component, Boolean> enabledBeforeBusy = new HashMap<>();
+
+	/**
+	 * Work done by {@link AbstractStegoActionPanel#execute(String, StegoTask)}
+	 * on background thread, so that event dispatch thread is never blocked by
+	 * hiding or extracting the data.
+	 */
+	protected abstract static class StegoTask {
+
+		private final boolean cancellable;
+
+		/**
+		 * Creates new task.
+		 * 
+		 * @param cancellable
+		 *            true if task may be cancelled; tasks changing loaded image
+		 *            file in place should not be cancelled halfway
+		 */
+		protected StegoTask(boolean cancellable) {
+			this.cancellable = cancellable;
+		}
+
+		/**
+		 * Does the work on background thread. Progress of hiding and
+		 * extracting the data by given steganography algorithm is shown in
+		 * progress bar.
+		 * 
+		 * @param algorithm
+		 *            copy of steganography algorithm of this panel, owned by
+		 *            the task and set up with entered password and progress
+		 *            listener of the task
+		 * @throws Exception
+		 *             if work could not be done
+		 */
+		protected abstract void run(
+				HidingReversibleDeidentificationSteganography algorithm)
+				throws Exception;
+
+		/**
+		 * Called on event dispatch thread after work is done.
+		 */
+		protected void succeeded() {
+		}
+
+		/**
+		 * Called on event dispatch thread after work is cancelled.
+		 */
+		protected void cancelled() {
+		}
+
+		/**
+		 * Called on event dispatch thread after work fails, before error
+		 * dialog is shown.
+		 */
+		protected void failed() {
+		}
+	}
+
+	/**
+	 * Worker running single task and reporting progress of steganography
+	 * algorithm to progress bar. Task runs with its own copy of steganography
+	 * algorithm, made when task is started, which alone gets entered password
+	 * and progress listener of this worker, so tasks of both panels never see
+	 * each other's password or listener.
+	 */
+	private final class StegoWorker extends SwingWorker<Void, Void> {
+
+		private final String errorTitle;
+		private final StegoTask task;
+		private final HidingReversibleDeidentificationSteganography algorithm;
+		private volatile boolean cancelRequested;
+
+		StegoWorker(String errorTitle, StegoTask task, char[] password) {
+			this.errorTitle = errorTitle;
+			this.task = task;
+			this.algorithm = new HidingReversibleDeidentificationSteganography(
+					stegAlg);
+			algorithm.setPassword(password);
+			Arrays.fill(password, '\0');
+			algorithm.setProgressListener(new ProgressListener() {
+				@Override
+				public void progress(long doneBytes, long totalBytes) {
+					setProgress(totalBytes == 0 ? 100
+							: (int) (doneBytes * 100 / totalBytes));
+				}
+
+				@Override
+				public boolean isCancelled() {
+					return cancelRequested;
+				}
+			});
+		}
+
+		@Override
+		protected Void doInBackground() throws Exception {
+			task.run(algorithm);
+			return null;
+		}
+
+		@Override
+		protected void done() {
+			worker = null;
+			setBusy(false, false);
+			try {
+				get();
+				task.succeeded();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof CancellationException) {
+					task.cancelled();
+				} else {
+					task.failed();
+					GUIUtilities.showErrorDialog(parentComponent, errorTitle,
+							e.getCause().getMessage());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 
 	/**
 	 * Creates new abstract panel for steganography action (hiding or extracting
-	 * the data) with given steganography algorithm, symmetric cryptography
-	 * algorithm and parent component in which this panel resides.
+	 * the data) with given steganography algorithm and parent component in
+	 * which this panel resides. Data is encrypted by steganography algorithm
+	 * itself with password entered into this panel.
 	 * 
 	 * @param parentComponent
 	 *            parent component in which this panel resides
 	 * @param stegAlg
 	 *            steganography algorithm used for hiding encrypted text and
 	 *            deidentification
-	 * @param symmCrypt
-	 *            symmetric cryptography algorithm used for encrypting the text
 	 */
 	public AbstractStegoActionPanel(Component parentComponent,
 			HidingReversibleDeidentificationSteganography stegAlg) {
@@ -77,6 +213,80 @@ public abstract class AbstractStegoActionPanel extends JPanel {
 	 */
 	protected abstract void newImageLoaded(BufferedImage image);
 
+	/**
+	 * Runs given task on background thread. Loading image and actions of this
+	 * panel are disabled until task is done, and progress of the task is shown
+	 * in progress bar. Data is encrypted or decrypted with entered password,
+	 * if any. Error dialog with given title is shown if task fails.
+	 * 
+	 * @param errorTitle
+	 *            title of error dialog shown if task fails
+	 * @param task
+	 *            task to run
+	 */
+	protected void execute(String errorTitle, StegoTask task) {
+		if (worker != null) {
+			return;
+		}
+		worker = new StegoWorker(errorTitle, task, passwordField.getPassword());
+		worker.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("progress".equals(evt.getPropertyName())) {
+					progressBar.setIndeterminate(false);
+					progressBar.setValue((Integer) evt.getNewValue());
+				}
+			}
+		});
+		setBusy(true, task.cancellable);
+		worker.execute();
+	}
+
+	/**
+	 * Disables loading image and actions of this panel while task is running,
+	 * and restores their previous state when it is done, so that controls
+	 * disabled for other reasons stay disabled.
+	 * 
+	 * @param busy
+	 *            true if task is running
+	 * @param cancellable
+	 *            true if running task may be cancelled
+	 */
+	private void setBusy(boolean busy, boolean cancellable) {
+		if (busy) {
+			disableWhileBusy(loadImageButton);
+			disableWhileBusy(passwordField);
+			disableWhileBusy(getActionPanel());
+		} else {
+			for (Map.Entry<Component, Boolean> entry : enabledBeforeBusy
+					.entrySet()) {
+				entry.getKey().setEnabled(entry.getValue());
+			}
+			enabledBeforeBusy.clear();
+		}
+		cancelButton.setEnabled(busy && cancellable);
+		progressBar.setIndeterminate(busy);
+		progressBar.setValue(0);
+		progressBar.setString(busy ? null : "");
+	}
+
+	/**
+	 * Disables given component and all components it contains, remembering
+	 * if they were enabled.
+	 * 
+	 * @param component
+	 *            component to disable
+	 */
+	private void disableWhileBusy(Component component) {
+		enabledBeforeBusy.put(component, component.isEnabled());
+		component.setEnabled(false);
+		if (component instanceof Container) {
+			for (Component child : ((Container) component).getComponents()) {
+				disableWhileBusy(child);
+			}
+		}
+	}
+
 	/**
 	 * Creates button actions for loading image and steganography action.
 	 */
@@ -89,20 +299,47 @@ public abstract class AbstractStegoActionPanel extends JPanel {
 						"jpg", "jpeg", "png", "gif", "bmp", "wbmp"));
 				int response = jfc.showOpenDialog(parentComponent);
 				if (response == JFileChooser.APPROVE_OPTION) {
-					File selectedFile = jfc.getSelectedFile();
+					final File selectedFile = jfc.getSelectedFile();
 					if (selectedFile != null) {
-						try {
-							loadedImage = ImageIO.read(selectedFile);
-							newImageLoaded(loadedImage);
-							imageLabel.setImage(loadedImage);
-						} catch (Exception ex) {
-							GUIUtilities.showErrorDialog(parentComponent,
-									"Error loading image!", ex.getMessage());
-						}
+						execute("Error loading image!", new StegoTask(false) {
+							private BufferedImage image;
+
+							@Override
+							protected void run(
+									HidingReversibleDeidentificationSteganography algorithm)
+									throws Exception {
+								if (BmpImage.isSupported(selectedFile.toPath())) {
+									image = BmpImage.read(selectedFile.toPath());
+								} else {
+									image = ImageIO.read(selectedFile);
+								}
+								if (image == null) {
+									throw new IllegalArgumentException(
+											"Unsupported image format!");
+								}
+							}
+
+							@Override
+							protected void succeeded() {
+								loadedImage = image;
+								loadedFile = selectedFile;
+								newImageLoaded(loadedImage);
+								imageLabel.setImage(loadedImage);
+							}
+						});
 					}
 				}
 			}
 		});
+		cancelButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (worker != null) {
+					worker.cancelRequested = true;
+					cancelButton.setEnabled(false);
+				}
+			}
+		});
 	}
 
 	/**
@@ -111,13 +348,29 @@ public abstract class AbstractStegoActionPanel extends JPanel {
 	private void createGUI() {
 		loadImageButton = new JButton("Load image...");
 		imageLabel = new SelectableLabel();
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setStringPainted(true);
+		progressBar.setString("");
+		cancelButton = new JButton("Cancel");
+		cancelButton.setEnabled(false);
+		passwordField = new JPasswordField(20);
 		setLayout(new BorderLayout());
 		JPanel imageLoadPanel = new JPanel(new BorderLayout());
 		imageLoadPanel.add(new JScrollPane(imageLabel), BorderLayout.CENTER);
 		imageLoadPanel.add(loadImageButton, BorderLayout.SOUTH);
 		imageLoadPanel.setBorder(BorderFactory.createTitledBorder("Image"));
+		JPanel progressPanel = new JPanel(new BorderLayout());
+		progressPanel.add(progressBar, BorderLayout.CENTER);
+		progressPanel.add(cancelButton, BorderLayout.EAST);
+		JPanel passwordPanel = new JPanel(new FlowLayout());
+		passwordPanel.add(new JLabel("Password (empty for no encryption): "));
+		passwordPanel.add(passwordField);
+		JPanel southPanel = new JPanel(new BorderLayout());
+		southPanel.add(passwordPanel, BorderLayout.NORTH);
+		southPanel.add(getActionPanel(), BorderLayout.CENTER);
+		southPanel.add(progressPanel, BorderLayout.SOUTH);
 		add(imageLoadPanel, BorderLayout.CENTER);
-		add(getActionPanel(), BorderLayout.SOUTH);
+		add(southPanel, BorderLayout.SOUTH);
 	}
 
 }
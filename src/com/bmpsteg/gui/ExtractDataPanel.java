@@ -6,8 +6,14 @@ import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -15,6 +21,7 @@ import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
+import com.bmpsteg.bmp.BmpImage;
 import com.bmpsteg.steg.HidingReversibleDeidentificationSteganography;
 
 /**
@@ -29,6 +36,7 @@ public class ExtractDataPanel extends AbstractStegoActionPanel {
 	private JComboBox<Integer> componentsToUseComboBox;
 	private JComboBox<Integer> bitsPerComponentComboBox;
 	private JButton extractDataButton;
+	private JButton reidentifyButton;
 	private JPanel returnPanel;
 
 	/**
@@ -49,8 +57,9 @@ public class ExtractDataPanel extends AbstractStegoActionPanel {
 	 * Initializes and layouts action panel.
 	 */
 	private void createActionPanel() {
-		returnPanel = new JPanel(new GridLayout(3, 1));
+		returnPanel = new JPanel(new GridLayout(4, 1));
 		extractDataButton = new JButton("Extract hidden data");
+		reidentifyButton = new JButton("Restore hidden selections");
 		JPanel componentsToUsePanel = new JPanel(new FlowLayout());
 		componentsToUseComboBox = new JComboBox<Integer>(new Integer[] { 1, 2,
 				3 });
@@ -66,6 +75,7 @@ public class ExtractDataPanel extends AbstractStegoActionPanel {
 		returnPanel.add(componentsToUsePanel);
 		returnPanel.add(bitsPerComponentPanel);
 		returnPanel.add(extractDataButton);
+		returnPanel.add(reidentifyButton);
 	}
 
 	/**
@@ -95,22 +105,100 @@ public class ExtractDataPanel extends AbstractStegoActionPanel {
 							"Please, load stego image first");
 					return;
 				}
-				try {
-					JFileChooser jfc = new JFileChooser();
-					int response = jfc.showSaveDialog(parentComponent);
-					if (response == JFileChooser.APPROVE_OPTION) {
-						File selectedFile = jfc.getSelectedFile();
-						byte[] extractedData = stegAlg.extractData(loadedImage);
-						Files.write(selectedFile.toPath(), extractedData);
-					}
-				} catch (Exception ex) {
+				JFileChooser jfc = new JFileChooser();
+				int response = jfc.showSaveDialog(parentComponent);
+				if (response == JFileChooser.APPROVE_OPTION) {
+					final File selectedFile = jfc.getSelectedFile();
+					final BufferedImage stegoImage = loadedImage;
+					execute("Error extracting data!", new StegoTask(true) {
+						@Override
+						protected void run(
+								HidingReversibleDeidentificationSteganography algorithm)
+								throws Exception {
+							try (OutputStream output = new BufferedOutputStream(
+									Files.newOutputStream(selectedFile.toPath()))) {
+								algorithm.extractData(stegoImage, output);
+							}
+						}
+
+						@Override
+						protected void cancelled() {
+							GUIUtilities.deleteQuietly(selectedFile);
+						}
+
+						@Override
+						protected void failed() {
+							GUIUtilities.deleteQuietly(selectedFile);
+						}
+					});
+				}
+			}
+		});
+		reidentifyButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (loadedImage == null) {
 					GUIUtilities.showErrorDialog(parentComponent,
-							"Error extracting data!", ex.getMessage());
+							"Nothing to restore!",
+							"Please, load stego image first");
+					return;
+				}
+				JFileChooser jfc = new JFileChooser();
+				int response = jfc.showSaveDialog(parentComponent);
+				if (response == JFileChooser.APPROVE_OPTION) {
+					String filePath = jfc.getSelectedFile().getAbsolutePath();
+					if (!filePath.endsWith(".bmp")) {
+						filePath += ".bmp";
+					}
+					final Path restoredFile = Paths.get(filePath);
+					execute("Error restoring hidden selections!",
+							new StegoTask(true) {
+								@Override
+								protected void run(
+										HidingReversibleDeidentificationSteganography algorithm)
+										throws Exception {
+									try (BmpImage image = createRestoredImage(restoredFile)) {
+										algorithm.reidentify(image);
+									}
+								}
+
+								@Override
+								protected void cancelled() {
+									GUIUtilities.deleteQuietly(restoredFile
+											.toFile());
+								}
+
+								@Override
+								protected void failed() {
+									GUIUtilities.deleteQuietly(restoredFile
+											.toFile());
+								}
+							});
 				}
 			}
 		});
 	}
 
+	/**
+	 * Creates BMP image file with pixels of loaded stego image, into which
+	 * hidden selections are restored. Loaded BMP image file is copied as it is,
+	 * other images are written as new 24-bit BMP image.
+	 * 
+	 * @param file
+	 *            BMP image file to create
+	 * @return created BMP image opened for reading and writing
+	 * @throws IOException
+	 *             if image could not be created
+	 */
+	private BmpImage createRestoredImage(Path file) throws IOException {
+		if (loadedFile != null && BmpImage.isSupported(loadedFile.toPath())) {
+			Files.copy(loadedFile.toPath(), file,
+					StandardCopyOption.REPLACE_EXISTING);
+			return BmpImage.open(file);
+		}
+		return BmpImage.create(file, loadedImage);
+	}
+
 	@Override
 	protected JPanel getActionPanel() {
 		if (returnPanel == null) {
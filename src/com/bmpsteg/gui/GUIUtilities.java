@@ -1,6 +1,7 @@
 package com.bmpsteg.gui;
 
 import java.awt.Component;
+import java.io.File;
 
 import javax.swing.JOptionPane;
 
@@ -31,4 +32,16 @@ public class GUIUtilities {
 		JOptionPane.showMessageDialog(parentComponent, message, title,
 				JOptionPane.ERROR_MESSAGE);
 	}
+
+	/**
+	 * Deletes given file, left behind by cancelled or failed action, ignoring failure.
+	 * 
+	 * @param file
+	 *            file to delete
+	 */
+	public static void deleteQuietly(File file) {
+		if (!file.delete() && file.exists()) {
+			file.deleteOnExit();
+		}
+	}
 }
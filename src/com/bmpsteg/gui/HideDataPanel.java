@@ -4,23 +4,32 @@ import java.awt.Component;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
 
-import javax.imageio.ImageIO;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
+import com.bmpsteg.bmp.BmpImage;
 import com.bmpsteg.steg.HidingReversibleDeidentificationSteganography;
-import com.bmpsteg.steg.Utilities;
+import com.bmpsteg.steg.RGBBitsSteganography.Layout;
+import com.bmpsteg.steg.RegionCodec;
 
 /**
  * Represents panel for hiding data image steganographically. It also offers
@@ -37,6 +46,10 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 	private JLabel currentDataLabel;
 	private JCheckBox useSelectedDataCheckbox;
 	private JCheckBox hideSelectedDataCheckbox;
+	private JCheckBox hideInPlaceCheckbox;
+	private JCheckBox pixelMajorLayoutCheckbox;
+	private JCheckBox compressCheckbox;
+	private JCheckBox framingCheckbox;
 	private JComboBox<Integer> componentsToUseComboBox;
 	private JComboBox<Integer> bitsPerComponentComboBox;
 	private JButton loadDataButton;
@@ -71,8 +84,7 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 	@Override
 	protected void newImageLoaded(BufferedImage image) {
 		imageLabel.clearSelection();
-		maxDataLabel.setText("Maximum bytes to hide: "
-				+ stegAlg.getMaxBytes(image));
+		setMaxDataBytes();
 		currentDataLabel.setText("Current selection bytes: 0");
 	}
 
@@ -84,6 +96,10 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 		currentDataLabel = new JLabel("Current selection bytes: 0");
 		useSelectedDataCheckbox = new JCheckBox("Use selection as data to hide");
 		hideSelectedDataCheckbox = new JCheckBox("Hide selection");
+		hideInPlaceCheckbox = new JCheckBox("Change loaded BMP file in place");
+		pixelMajorLayoutCheckbox = new JCheckBox("Use single pass layout");
+		compressCheckbox = new JCheckBox("Compress data");
+		framingCheckbox = new JCheckBox("Add block checksums");
 		loadDataButton = new JButton("Load data to hide");
 		hideDataButton = new JButton("Hide selected data");
 		selectedFileLabel = new JLabel("Selected file to hide: ");
@@ -103,6 +119,10 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 		JPanel useHideSelectionPanel = new JPanel(new FlowLayout());
 		useHideSelectionPanel.add(useSelectedDataCheckbox);
 		useHideSelectionPanel.add(hideSelectedDataCheckbox);
+		useHideSelectionPanel.add(hideInPlaceCheckbox);
+		useHideSelectionPanel.add(pixelMajorLayoutCheckbox);
+		useHideSelectionPanel.add(compressCheckbox);
+		useHideSelectionPanel.add(framingCheckbox);
 		JPanel usedBytesPanel = new JPanel(new FlowLayout());
 		usedBytesPanel.add(maxDataLabel);
 		usedBytesPanel.add(currentDataLabel);
@@ -117,6 +137,25 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 		returnPanel.add(hideDataButton);
 	}
 
+	/**
+	 * Sets maximum number of bytes which can be hidden into loaded image with
+	 * current settings. Capacity is taken from a copy of steganography
+	 * algorithm set up with entered password, since encrypted data needs
+	 * room for salt and authentication tags.
+	 */
+	private void setMaxDataBytes() {
+		if (loadedImage == null) {
+			return;
+		}
+		HidingReversibleDeidentificationSteganography algorithm = new HidingReversibleDeidentificationSteganography(
+				stegAlg);
+		char[] password = passwordField.getPassword();
+		algorithm.setPassword(password);
+		Arrays.fill(password, '\0');
+		maxDataLabel.setText("Maximum bytes to hide: "
+				+ algorithm.getMaxBytes(loadedImage));
+	}
+
 	/**
 	 * Sets size of current selection in selctable label.
 	 */
@@ -127,12 +166,10 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 			return;
 		}
 		int[] subImageCoordinates = getSelectionCoordinates();
-		int currentDataToHide = (subImageCoordinates[1]
-				- subImageCoordinates[0] + 1)
-				* (subImageCoordinates[3] - subImageCoordinates[2] + 1)
-				* 3
-				+ 54;
-		currentDataLabel.setText("Current selection bytes: ~"
+		long currentDataToHide = RegionCodec.getMaxEncodedBytes(
+				subImageCoordinates[1] - subImageCoordinates[0] + 1,
+				subImageCoordinates[3] - subImageCoordinates[2] + 1);
+		currentDataLabel.setText("Current selection bytes: at most "
 				+ currentDataToHide);
 	}
 
@@ -151,6 +188,120 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 		return new int[] { startX, endX, startY, endY };
 	}
 
+	/**
+	 * Creates BMP stego image file with pixels of loaded image. Loaded BMP
+	 * image file is copied as it is, other images are written as new 24-bit
+	 * BMP image.
+	 * 
+	 * @param file
+	 *            BMP stego image file to create
+	 * @return created BMP stego image opened for reading and writing
+	 * @throws IOException
+	 *             if stego image could not be created
+	 */
+	private BmpImage createStegoImage(File file) throws IOException {
+		if (loadedFile != null && BmpImage.isSupported(loadedFile.toPath())) {
+			Files.copy(loadedFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			return BmpImage.open(file.toPath());
+		}
+		return BmpImage.create(file.toPath(), loadedImage);
+	}
+
+	/**
+	 * Hides data into loaded BMP image file in place, without creating new
+	 * stego image file. Unless selection is hidden as well, only part of the
+	 * file which data falls into is read and written. Hiding cannot be
+	 * cancelled, since loaded file would be left half changed.
+	 * 
+	 * @param dataToHide
+	 *            data to hide or <code>null</code> if selected file is hidden
+	 * @param subImageCoordinates
+	 *            coordinates of selection to hide or <code>null</code>
+	 */
+	private void hideInPlace(final byte[] dataToHide,
+			final int[] subImageCoordinates) {
+		if (loadedFile == null || !BmpImage.isSupported(loadedFile.toPath())) {
+			GUIUtilities
+					.showErrorDialog(parentComponent,
+							"Cannot change image in place!",
+							"Only uncompressed 24-bit and 32-bit BMP images can be changed in place.");
+			return;
+		}
+		final File imageFile = loadedFile;
+		final File fileToHide = selectedFileToHide;
+		final boolean hideSelection = hideSelectedDataCheckbox.isSelected();
+		execute("Error hiding data!", new StegoTask(false) {
+			@Override
+			protected void run(
+					HidingReversibleDeidentificationSteganography algorithm)
+					throws Exception {
+				byte[] data = dataToHide != null ? dataToHide : Files
+						.readAllBytes(fileToHide.toPath());
+				if (hideSelection) {
+					try (BmpImage stegoImage = BmpImage.open(imageFile.toPath())) {
+						algorithm.preprocessOriginalImage(stegoImage,
+								subImageCoordinates[0], subImageCoordinates[2],
+								subImageCoordinates[1], subImageCoordinates[3]);
+						algorithm.hideData(data, stegoImage);
+					}
+				} else {
+					algorithm.hideDataInPlace(data, imageFile.toPath());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Hides data into new BMP stego image file with pixels of loaded image.
+	 * Stego image file is deleted if hiding is cancelled or fails.
+	 * 
+	 * @param stegoFile
+	 *            BMP stego image file to create
+	 * @param dataToHide
+	 *            data to hide or <code>null</code> if selected file is hidden
+	 * @param subImageCoordinates
+	 *            coordinates of selection to hide or <code>null</code>
+	 */
+	private void hideIntoNewFile(final File stegoFile,
+			final byte[] dataToHide, final int[] subImageCoordinates) {
+		final File fileToHide = selectedFileToHide;
+		final boolean hideSelection = hideSelectedDataCheckbox.isSelected();
+		execute("Error hiding data!", new StegoTask(true) {
+			@Override
+			protected void run(
+					HidingReversibleDeidentificationSteganography algorithm)
+					throws Exception {
+				try (BmpImage stegoImage = createStegoImage(stegoFile)) {
+					if (hideSelection) {
+						algorithm.preprocessOriginalImage(stegoImage,
+								subImageCoordinates[0], subImageCoordinates[2],
+								subImageCoordinates[1], subImageCoordinates[3]);
+					}
+					if (dataToHide != null) {
+						algorithm.hideData(dataToHide, stegoImage);
+					} else {
+						try (InputStream input = new BufferedInputStream(
+								Files.newInputStream(fileToHide.toPath()))) {
+							algorithm.hideData(input,
+									Files.size(fileToHide.toPath()), stegoImage);
+						}
+					}
+				}
+			}
+
+			@Override
+			protected void cancelled() {
+				GUIUtilities.deleteQuietly(stegoFile);
+			}
+
+			@Override
+			protected void failed() {
+				GUIUtilities.deleteQuietly(stegoFile);
+			}
+		});
+	}
+
 	/**
 	 * Creates button actions of return panel.
 	 */
@@ -166,10 +317,7 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 			public void actionPerformed(ActionEvent e) {
 				stegAlg.setComponentsToUse((int) componentsToUseComboBox
 						.getSelectedItem());
-				if (loadedImage != null) {
-					maxDataLabel.setText("Maximum bytes to hide: "
-							+ stegAlg.getMaxBytes(loadedImage));
-				}
+				setMaxDataBytes();
 			}
 		});
 		bitsPerComponentComboBox.addActionListener(new ActionListener() {
@@ -177,10 +325,45 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 			public void actionPerformed(ActionEvent e) {
 				stegAlg.setBitsPerComponent((int) bitsPerComponentComboBox
 						.getSelectedItem());
-				if (loadedImage != null) {
-					maxDataLabel.setText("Maximum bytes to hide: "
-							+ stegAlg.getMaxBytes(loadedImage));
-				}
+				setMaxDataBytes();
+			}
+		});
+		pixelMajorLayoutCheckbox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				stegAlg.setLayout(pixelMajorLayoutCheckbox.isSelected() ? Layout.PIXEL_MAJOR
+						: Layout.PASS_MAJOR);
+				setMaxDataBytes();
+			}
+		});
+		compressCheckbox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				stegAlg.setCompressing(compressCheckbox.isSelected());
+				setMaxDataBytes();
+			}
+		});
+		framingCheckbox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				stegAlg.setFraming(framingCheckbox.isSelected());
+				setMaxDataBytes();
+			}
+		});
+		passwordField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				setMaxDataBytes();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				setMaxDataBytes();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				setMaxDataBytes();
 			}
 		});
 		useSelectedDataCheckbox.addActionListener(new ActionListener() {
@@ -226,57 +409,42 @@ public class HideDataPanel extends AbstractStegoActionPanel {
 				}
 				byte[] dataToHide = null;
 				if (useSelectedDataCheckbox.isSelected()) {
-					BufferedImage subImage = loadedImage
-							.getSubimage(subImageCoordinates[0],
-									subImageCoordinates[2],
-									subImageCoordinates[1]
-											- subImageCoordinates[0] + 1,
-									subImageCoordinates[3]
-											- subImageCoordinates[2] + 1);
 					try {
-						ByteArrayOutputStream baos = new ByteArrayOutputStream();
-						ImageIO.write(subImage, "bmp", baos);
-						dataToHide = baos.toByteArray();
+						dataToHide = RegionCodec.encode(loadedImage, Collections
+								.singletonList(new Rectangle(
+										subImageCoordinates[0],
+										subImageCoordinates[2],
+										subImageCoordinates[1]
+												- subImageCoordinates[0] + 1,
+										subImageCoordinates[3]
+												- subImageCoordinates[2] + 1)));
 					} catch (Exception ex) {
 						GUIUtilities.showErrorDialog(parentComponent,
 								"Error extracting image selection!",
 								ex.getMessage());
+						return;
 					}
-				} else {
-					try {
-						dataToHide = Files.readAllBytes(selectedFileToHide
-								.toPath());
-					} catch (Exception ex) {
-						ex.printStackTrace();
-						GUIUtilities.showErrorDialog(parentComponent,
-								"Error reading file to hide!", ex.getMessage());
-					}
+				} else if (selectedFileToHide == null) {
+					GUIUtilities.showErrorDialog(parentComponent,
+							"Nothing to hide!",
+							"Please, load data to hide first");
+					return;
+				}
+				if (hideInPlaceCheckbox.isSelected()) {
+					hideInPlace(dataToHide, subImageCoordinates);
+					return;
 				}
 				JFileChooser jfc = new JFileChooser();
 				int response = jfc.showSaveDialog(parentComponent);
 				if (response == JFileChooser.APPROVE_OPTION) {
 					File selectedFile = jfc.getSelectedFile();
-					try {
-						BufferedImage loadedImageCopy = Utilities
-								.copy(loadedImage);
-						if (hideSelectedDataCheckbox.isSelected()) {
-							stegAlg.preprocessOriginalImage(loadedImageCopy,
-									subImageCoordinates[0],
-									subImageCoordinates[2],
-									subImageCoordinates[1],
-									subImageCoordinates[3]);
-						}
-						stegAlg.hideData(dataToHide, loadedImageCopy);
-						String filePath = selectedFile.getAbsolutePath();
-						if (!filePath.endsWith(".bmp")) {
-							filePath += ".bmp";
-							selectedFile = new File(filePath);
-						}
-						ImageIO.write(loadedImageCopy, "bmp", selectedFile);
-					} catch (Exception ex) {
-						GUIUtilities.showErrorDialog(parentComponent,
-								"Error hiding data!", ex.getMessage());
+					String filePath = selectedFile.getAbsolutePath();
+					if (!filePath.endsWith(".bmp")) {
+						filePath += ".bmp";
+						selectedFile = new File(filePath);
 					}
+					hideIntoNewFile(selectedFile, dataToHide,
+							subImageCoordinates);
 				}
 			}
 		});
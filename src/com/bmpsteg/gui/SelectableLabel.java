@@ -3,19 +3,29 @@ package com.bmpsteg.gui;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
 import java.util.HashSet;
 import java.util.Set;
 
 import javax.swing.JComponent;
+import javax.swing.JViewport;
 import javax.swing.SwingUtilities;
 
 /**
  * Represents selectable label where user can select part of it for later use.
+ * Image is drawn at chosen zoom level from cached tiles, and only the part of
+ * label changed by selection is repainted while selecting. Selection is kept
+ * in pixels of image, and when image is zoomed out it always covers whole
+ * pixels of the label, so it shows exactly which image pixels are selected.
+ * Holding Ctrl while turning the mouse wheel zooms image in and out.
  * 
  * @author irelic
  *
@@ -23,18 +33,33 @@ import javax.swing.SwingUtilities;
 public class SelectableLabel extends JComponent {
 
 	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Lowest zoom level, drawing image 32 times smaller.
+	 */
+	public static final int MIN_ZOOM_LEVEL = -5;
+
+	/**
+	 * Highest zoom level, drawing image 8 times larger.
+	 */
+	public static final int MAX_ZOOM_LEVEL = 3;
+
 	private Point startingPoint;
 	private Point endingPoint;
+	private Point anchorPoint;
 	private static final Color SELECTION_COLOR = new Color(0.5f, 0.5f, 0.5f,
 			0.4f);
 	private Set<SelectableLabelListener> listeners;
 	private BufferedImage image;
+	private TiledImageRenderer renderer;
+	private int zoomLevel;
 	private static final Dimension DEFAULT_DIMENSIONS = new Dimension(400, 200);
 
 	public SelectableLabel() {
 		super();
 		listeners = new HashSet<>();
 		createSelectionListeners();
+		createZoomListener();
 	}
 
 	/**
@@ -45,64 +70,198 @@ public class SelectableLabel extends JComponent {
 			@Override
 			public void mousePressed(MouseEvent e) {
 				if (SwingUtilities.isLeftMouseButton(e)) {
+					Rectangle oldSelection = getSelectionBounds();
 					Point pressedPoint = e.getPoint();
-					if (image != null && pressedPoint.x < image.getWidth()
-							&& pressedPoint.y < image.getHeight()) {
-						startingPoint = pressedPoint;
+					if (image != null && pressedPoint.x >= 0
+							&& pressedPoint.y >= 0
+							&& pressedPoint.x < getScaledWidth()
+							&& pressedPoint.y < getScaledHeight()) {
+						anchorPoint = toImagePoint(pressedPoint);
+						startingPoint = new Point(anchorPoint);
 					} else {
+						anchorPoint = null;
 						startingPoint = null;
-						endingPoint = null;
 					}
+					endingPoint = null;
+					repaintSelection(oldSelection);
 				}
 			}
 
 			@Override
 			public void mouseReleased(MouseEvent e) {
-				if (startingPoint != null) {
+				if (anchorPoint != null) {
+					Rectangle oldSelection = getSelectionBounds();
 					setEndingPoint(e);
+					repaintSelection(oldSelection);
 				}
 				notifyListeners();
-				repaint();
 			}
 
 			@Override
 			public void mouseClicked(MouseEvent e) {
 				if (SwingUtilities.isRightMouseButton(e)) {
+					Rectangle oldSelection = getSelectionBounds();
+					anchorPoint = null;
 					startingPoint = null;
 					endingPoint = null;
-					repaint();
+					repaintSelection(oldSelection);
 				}
 			}
 		});
 		addMouseMotionListener(new MouseMotionAdapter() {
 			@Override
 			public void mouseDragged(MouseEvent e) {
-				if (startingPoint != null) {
-					endingPoint = e.getPoint();
-					endingPoint.x = Math.max(0, endingPoint.x);
-					endingPoint.y = Math.max(0, endingPoint.y);
-					endingPoint.x = Math.min(image.getWidth() - 1,
-							endingPoint.x);
-					endingPoint.y = Math.min(image.getHeight() - 1,
-							endingPoint.y);
-					repaint();
+				if (anchorPoint != null) {
+					Rectangle oldSelection = getSelectionBounds();
+					setEndingPoint(e);
+					repaintSelection(oldSelection);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Creates mouse wheel listener zooming image while Ctrl is held. Other
+	 * wheel events are passed to parent, so scroll pane holding this label
+	 * still scrolls it.
+	 */
+	private void createZoomListener() {
+		addMouseWheelListener(new MouseWheelListener() {
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if (!e.isControlDown() || image == null) {
+					if (getParent() != null) {
+						getParent().dispatchEvent(
+								SwingUtilities.convertMouseEvent(
+										SelectableLabel.this, e, getParent()));
+					}
+					return;
+				}
+				int rotation = e.getWheelRotation();
+				if (rotation != 0) {
+					zoom(zoomLevel - Integer.signum(rotation), e.getPoint());
 				}
 			}
 		});
 	}
 
 	/**
-	 * Sets ending point from mouse event.
+	 * Sets ending point from mouse event. When image is zoomed out, selection
+	 * is extended to all image pixels drawn into label pixels it covers.
 	 * 
 	 * @param e
 	 *            mouse event
 	 */
 	private void setEndingPoint(MouseEvent e) {
-		endingPoint = e.getPoint();
-		endingPoint.x = Math.max(0, endingPoint.x);
-		endingPoint.y = Math.max(0, endingPoint.y);
-		endingPoint.x = Math.min(image.getWidth() - 1, endingPoint.x);
-		endingPoint.y = Math.min(image.getHeight() - 1, endingPoint.y);
+		Point point = toImagePoint(e.getPoint());
+		startingPoint = new Point(anchorPoint);
+		endingPoint = point;
+		if (point.x >= anchorPoint.x) {
+			endingPoint.x = blockEnd(point.x, image.getWidth());
+		} else {
+			startingPoint.x = blockEnd(anchorPoint.x, image.getWidth());
+		}
+		if (point.y >= anchorPoint.y) {
+			endingPoint.y = blockEnd(point.y, image.getHeight());
+		} else {
+			startingPoint.y = blockEnd(anchorPoint.y, image.getHeight());
+		}
+	}
+
+	/**
+	 * Returns last image pixel drawn into the same label pixel as given image
+	 * pixel, which is the first pixel drawn into that label pixel.
+	 * 
+	 * @param coordinate
+	 *            x or y coordinate of first image pixel of label pixel
+	 * @param size
+	 *            image width or height
+	 * @return coordinate of last image pixel of label pixel
+	 */
+	private int blockEnd(int coordinate, int size) {
+		return Math.min(coordinate + getBlockSize() - 1, size - 1);
+	}
+
+	/**
+	 * Returns number of image pixels along side of one label pixel.
+	 * 
+	 * @return 1 unless image is zoomed out
+	 */
+	private int getBlockSize() {
+		return zoomLevel < 0 ? 1 << -zoomLevel : 1;
+	}
+
+	/**
+	 * Converts point of label to first image pixel drawn into label pixel,
+	 * clamped into image.
+	 * 
+	 * @param point
+	 *            point of label
+	 * @return point of image
+	 */
+	private Point toImagePoint(Point point) {
+		int x = Math.max(0, point.x);
+		int y = Math.max(0, point.y);
+		if (zoomLevel >= 0) {
+			x >>= zoomLevel;
+			y >>= zoomLevel;
+		} else {
+			x = (int) Math.min((long) x << -zoomLevel, Integer.MAX_VALUE);
+			y = (int) Math.min((long) y << -zoomLevel, Integer.MAX_VALUE);
+		}
+		return new Point(Math.min(image.getWidth() - 1, x), Math.min(
+				image.getHeight() - 1, y));
+	}
+
+	/**
+	 * Converts image coordinate to label coordinate of label pixel image pixel
+	 * is drawn into.
+	 * 
+	 * @param coordinate
+	 *            x or y coordinate of image pixel
+	 * @return x or y coordinate of label pixel
+	 */
+	private int toLabelCoordinate(int coordinate) {
+		return zoomLevel >= 0 ? coordinate << zoomLevel
+				: coordinate >> -zoomLevel;
+	}
+
+	/**
+	 * Returns area of label covered by selection and its border.
+	 * 
+	 * @return area covered by selection or <code>null</code> if nothing is
+	 *         selected
+	 */
+	private Rectangle getSelectionBounds() {
+		if (startingPoint == null || endingPoint == null) {
+			return null;
+		}
+		int pixelSize = zoomLevel > 0 ? 1 << zoomLevel : 1;
+		int x = toLabelCoordinate(Math.min(startingPoint.x, endingPoint.x));
+		int y = toLabelCoordinate(Math.min(startingPoint.y, endingPoint.y));
+		int width = toLabelCoordinate(Math.max(startingPoint.x, endingPoint.x))
+				+ pixelSize - x;
+		int height = toLabelCoordinate(Math
+				.max(startingPoint.y, endingPoint.y)) + pixelSize - y;
+		return new Rectangle(x, y, width, height);
+	}
+
+	/**
+	 * Repaints only area covered by old and new selection.
+	 * 
+	 * @param oldSelection
+	 *            area covered by selection before it has changed or
+	 *            <code>null</code>
+	 */
+	private void repaintSelection(Rectangle oldSelection) {
+		Rectangle newSelection = getSelectionBounds();
+		Rectangle dirty = oldSelection == null ? newSelection
+				: newSelection == null ? oldSelection : oldSelection
+						.union(newSelection);
+		if (dirty != null) {
+			dirty.grow(1, 1);
+			repaint(dirty);
+		}
 	}
 
 	/**
@@ -115,7 +274,7 @@ public class SelectableLabel extends JComponent {
 	}
 
 	/**
-	 * Returns starting point of label selection.
+	 * Returns starting point of label selection, in pixels of image.
 	 * 
 	 * @return starting point of label selection
 	 */
@@ -124,7 +283,7 @@ public class SelectableLabel extends JComponent {
 	}
 
 	/**
-	 * Ending point of label selection.
+	 * Ending point of label selection, in pixels of image.
 	 * 
 	 * @return ending point of label selection
 	 */
@@ -134,43 +293,126 @@ public class SelectableLabel extends JComponent {
 
 	@Override
 	protected void paintComponent(Graphics g) {
-		Dimension size = getSize();
-		if (image != null) {
-			g.drawImage(image, 0, 0, Color.GRAY, null);
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(getSize());
+		}
+		if (renderer != null) {
+			renderer.paint((Graphics2D) g, zoomLevel, clip);
 		} else {
 			g.setColor(Color.GRAY);
-			g.fillRect(0, 0, size.width, size.height);
+			g.fillRect(clip.x, clip.y, clip.width, clip.height);
 		}
-		if (startingPoint != null && endingPoint != null) {
+		Rectangle selection = getSelectionBounds();
+		if (selection != null) {
 			g.setColor(SELECTION_COLOR);
-			int startingX = Math.min(startingPoint.x, endingPoint.x);
-			int startingY = Math.min(startingPoint.y, endingPoint.y);
-			int width = Math.abs(startingPoint.x - endingPoint.x);
-			int height = Math.abs(startingPoint.y - endingPoint.y);
-			g.fillRect(startingX, startingY, width, height);
+			g.fillRect(selection.x, selection.y, selection.width,
+					selection.height);
 			g.setColor(Color.BLACK);
-			g.drawRect(startingX - 1, startingY - 1, width + 1, height + 1);
+			g.drawRect(selection.x - 1, selection.y - 1, selection.width + 1,
+					selection.height + 1);
 		}
 	}
 
 	/**
-	 * Sets image that this component draws.
+	 * Sets image that this component draws. Zoom level is kept.
 	 * 
 	 * @param image
 	 *            image that this component draws
 	 */
 	public void setImage(BufferedImage image) {
+		if (renderer != null) {
+			renderer.flush();
+		}
 		this.image = image;
+		this.renderer = image == null ? null : new TiledImageRenderer(image);
 		repaint();
 		revalidate();
 	}
 
+	/**
+	 * Returns zoom level. Level 0 draws image in its original size, negative
+	 * level <i>n</i> draws it 2<sup>-n</sup> times smaller and positive level
+	 * <i>n</i> draws it 2<sup>n</sup> times larger.
+	 * 
+	 * @return zoom level
+	 */
+	public int getZoomLevel() {
+		return zoomLevel;
+	}
+
+	/**
+	 * Sets zoom level, keeping the center of visible part of label in place.
+	 * 
+	 * @param zoomLevel
+	 *            zoom level between {@value #MIN_ZOOM_LEVEL} and
+	 *            {@value #MAX_ZOOM_LEVEL}, inclusive
+	 */
+	public void setZoomLevel(int zoomLevel) {
+		Rectangle visible = getVisibleRect();
+		zoom(zoomLevel, new Point(visible.x + visible.width / 2, visible.y
+				+ visible.height / 2));
+	}
+
+	/**
+	 * Sets zoom level, keeping given point of label in place when label is
+	 * inside viewport.
+	 * 
+	 * @param zoomLevel
+	 *            new zoom level; clamped into allowed range
+	 * @param fixedPoint
+	 *            point of label which stays in place
+	 */
+	private void zoom(int zoomLevel, Point fixedPoint) {
+		int newLevel = Math.max(MIN_ZOOM_LEVEL,
+				Math.min(MAX_ZOOM_LEVEL, zoomLevel));
+		if (newLevel == this.zoomLevel) {
+			return;
+		}
+		double factor = Math.pow(2, newLevel - this.zoomLevel);
+		this.zoomLevel = newLevel;
+		revalidate();
+		repaint();
+		if (getParent() instanceof JViewport) {
+			JViewport viewport = (JViewport) getParent();
+			Point position = viewport.getViewPosition();
+			int offsetX = fixedPoint.x - position.x;
+			int offsetY = fixedPoint.y - position.y;
+			viewport.setViewSize(getPreferredSize());
+			Dimension extent = viewport.getExtentSize();
+			Dimension size = getPreferredSize();
+			int x = (int) (fixedPoint.x * factor) - offsetX;
+			int y = (int) (fixedPoint.y * factor) - offsetY;
+			viewport.setViewPosition(new Point(Math.max(0,
+					Math.min(x, size.width - extent.width)), Math.max(0,
+					Math.min(y, size.height - extent.height))));
+		}
+	}
+
+	/**
+	 * Returns width of image at current zoom level.
+	 * 
+	 * @return width of image at current zoom level
+	 */
+	private int getScaledWidth() {
+		return TiledImageRenderer.scaledSize(image.getWidth(), zoomLevel);
+	}
+
+	/**
+	 * Returns height of image at current zoom level.
+	 * 
+	 * @return height of image at current zoom level
+	 */
+	private int getScaledHeight() {
+		return TiledImageRenderer.scaledSize(image.getHeight(), zoomLevel);
+	}
+
 	@Override
 	public Dimension getPreferredSize() {
 		if (image == null) {
 			return DEFAULT_DIMENSIONS;
 		}
-		return new Dimension(image.getWidth(), image.getHeight());
+		return new Dimension(getScaledWidth(), getScaledHeight());
 	}
 
 	/**
@@ -208,6 +450,7 @@ public class SelectableLabel extends JComponent {
 	 * Clears selection of selectable label.
 	 */
 	public void clearSelection() {
+		anchorPoint = null;
 		startingPoint = null;
 		endingPoint = null;
 	}
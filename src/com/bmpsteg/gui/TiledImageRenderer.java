@@ -0,0 +1,215 @@
+package com.bmpsteg.gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws image at given zoom level from cached square tiles, so that only
+ * tiles intersecting the area being painted are drawn. Zoom level 0 draws
+ * image in its original size, negative level <i>n</i> draws it 2<sup>-n</sup>
+ * times smaller and positive level <i>n</i> draws it 2<sup>n</sup> times
+ * larger. Tiles of original size are copied from image into images compatible
+ * with the screen, so they are kept in video memory. Tiles of smaller sizes
+ * are averaged from four tiles of twice larger size, and larger sizes are
+ * drawn by enlarging tiles of original size. Least recently used tiles are
+ * dropped from the cache.
+ *
+ * @author irelic
+ *
+ */
+final class TiledImageRenderer {
+
+	/**
+	 * Width and height of tile in pixels of zoom level it belongs to.
+	 */
+	static final int TILE_SIZE = 256;
+
+	/**
+	 * Maximum number of cached tiles; 256 tiles of 256x256 pixels take 64 MiB.
+	 */
+	private static final int MAX_CACHED_TILES = 256;
+
+	private final BufferedImage image;
+	private final Map<Long, BufferedImage> tiles;
+
+	/**
+	 * Creates new renderer of given image.
+	 *
+	 * @param image
+	 *            image to draw
+	 */
+	TiledImageRenderer(BufferedImage image) {
+		this.image = image;
+		this.tiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Long, BufferedImage> eldest) {
+				if (size() > MAX_CACHED_TILES) {
+					eldest.getValue().flush();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns size of image side of given size at given zoom level.
+	 *
+	 * @param size
+	 *            width or height of image in its original size
+	 * @param level
+	 *            zoom level
+	 * @return width or height of image at given zoom level
+	 */
+	static int scaledSize(int size, int level) {
+		if (level >= 0) {
+			return (int) Math.min((long) size << level, Integer.MAX_VALUE);
+		}
+		return (int) (((long) size + (1L << -level) - 1) >> -level);
+	}
+
+	/**
+	 * Draws part of image at given zoom level which intersects given area.
+	 *
+	 * @param g
+	 *            graphics to draw with
+	 * @param level
+	 *            zoom level
+	 * @param area
+	 *            area to draw, in pixels of zoom level
+	 */
+	void paint(Graphics2D g, int level, Rectangle area) {
+		GraphicsConfiguration configuration = g.getDeviceConfiguration();
+		int tileLevel = Math.min(level, 0);
+		int shift = level - tileLevel;
+		int tileSize = TILE_SIZE << shift;
+		int columns = tileCount(image.getWidth(), tileLevel);
+		int rows = tileCount(image.getHeight(), tileLevel);
+		int firstColumn = Math.max(0, area.x / tileSize);
+		int firstRow = Math.max(0, area.y / tileSize);
+		int lastColumn = Math.min(columns - 1, (area.x + area.width - 1)
+				/ tileSize);
+		int lastRow = Math.min(rows - 1, (area.y + area.height - 1) / tileSize);
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		for (int row = firstRow; row <= lastRow; ++row) {
+			for (int column = firstColumn; column <= lastColumn; ++column) {
+				BufferedImage tile = getTile(configuration, tileLevel, column,
+						row);
+				g.drawImage(tile, column * tileSize, row * tileSize,
+						tile.getWidth() << shift, tile.getHeight() << shift,
+						null);
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached tiles.
+	 */
+	void flush() {
+		for (BufferedImage tile : tiles.values()) {
+			tile.flush();
+		}
+		tiles.clear();
+	}
+
+	/**
+	 * Returns number of tiles along image side of given size at given zoom
+	 * level.
+	 *
+	 * @param size
+	 *            width or height of image in its original size
+	 * @param level
+	 *            zoom level, not positive
+	 * @return number of tiles
+	 */
+	private static int tileCount(int size, int level) {
+		return (scaledSize(size, level) + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	/**
+	 * Returns tile of given zoom level, creating it if it is not cached.
+	 *
+	 * @param configuration
+	 *            configuration of device tiles are drawn on
+	 * @param level
+	 *            zoom level, not positive
+	 * @param column
+	 *            tile column
+	 * @param row
+	 *            tile row
+	 * @return tile
+	 */
+	private BufferedImage getTile(GraphicsConfiguration configuration,
+			int level, int column, int row) {
+		Long key = Long.valueOf(((long) -level << 56) | ((long) row << 28)
+				| column);
+		BufferedImage tile = tiles.get(key);
+		if (tile == null) {
+			tile = createTile(configuration, level, column, row);
+			tiles.put(key, tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * Creates tile of given zoom level.
+	 *
+	 * @param configuration
+	 *            configuration of device tiles are drawn on
+	 * @param level
+	 *            zoom level, not positive
+	 * @param column
+	 *            tile column
+	 * @param row
+	 *            tile row
+	 * @return created tile
+	 */
+	private BufferedImage createTile(GraphicsConfiguration configuration,
+			int level, int column, int row) {
+		int x = column * TILE_SIZE;
+		int y = row * TILE_SIZE;
+		int width = Math.min(TILE_SIZE, scaledSize(image.getWidth(), level)
+				- x);
+		int height = Math.min(TILE_SIZE, scaledSize(image.getHeight(), level)
+				- y);
+		BufferedImage tile = configuration != null ? configuration
+				.createCompatibleImage(width, height) : new BufferedImage(
+				width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = tile.createGraphics();
+		try {
+			g.setColor(Color.GRAY);
+			g.fillRect(0, 0, width, height);
+			if (level == 0) {
+				g.drawImage(image, 0, 0, width, height, x, y, x + width, y
+						+ height, null);
+				return tile;
+			}
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			int childColumns = tileCount(image.getWidth(), level + 1);
+			int childRows = tileCount(image.getHeight(), level + 1);
+			for (int i = 0; i < 2 && 2 * row + i < childRows; ++i) {
+				for (int j = 0; j < 2 && 2 * column + j < childColumns; ++j) {
+					BufferedImage child = getTile(configuration, level + 1,
+							2 * column + j, 2 * row + i);
+					g.drawImage(child, j * TILE_SIZE / 2, i * TILE_SIZE / 2,
+							(child.getWidth() + 1) / 2,
+							(child.getHeight() + 1) / 2, null);
+				}
+			}
+		} finally {
+			g.dispose();
+		}
+		return tile;
+	}
+}
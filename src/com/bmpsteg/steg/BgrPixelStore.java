@@ -0,0 +1,70 @@
+package com.bmpsteg.steg;
+
+/**
+ * Pixel store holding every pixel as B, G and R bytes in heap array, row by
+ * row from the top row.
+ *
+ * @author irelic
+ *
+ */
+final class BgrPixelStore implements PixelStore {
+
+	/**
+	 * Number of bytes of one pixel.
+	 */
+	static final int BYTES_PER_PIXEL = 3;
+
+	private final byte[] pixels;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Creates new store over given array.
+	 *
+	 * @param pixels
+	 *            B, G and R bytes of pixels
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 */
+	BgrPixelStore(byte[] pixels, int width, int height) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Returns B, G and R bytes of pixels.
+	 *
+	 * @return B, G and R bytes of pixels
+	 */
+	byte[] getPixels() {
+		return pixels;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getRGB(int x, int y) {
+		int index = (y * width + x) * BYTES_PER_PIXEL;
+		return 0xFF000000 | ((pixels[index + 2] & 0xFF) << 16)
+				| ((pixels[index + 1] & 0xFF) << 8) | (pixels[index] & 0xFF);
+	}
+
+	@Override
+	public void setRGB(int x, int y, int rgb) {
+		int index = (y * width + x) * BYTES_PER_PIXEL;
+		pixels[index] = (byte) rgb;
+		pixels[index + 1] = (byte) (rgb >> 8);
+		pixels[index + 2] = (byte) (rgb >> 16);
+	}
+}
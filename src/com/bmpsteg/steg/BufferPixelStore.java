@@ -0,0 +1,111 @@
+package com.bmpsteg.steg;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pixel store holding every pixel as B, G and R bytes, optionally followed by
+ * unused byte, in heap or direct byte buffer. Rows may be stored in any order
+ * with constant distance between them, so both top-down and bottom-up rows of
+ * BMP image are supported.
+ *
+ * @author irelic
+ *
+ */
+final class BufferPixelStore implements PixelStore {
+
+	private final ByteBuffer pixels;
+	private final int width;
+	private final int height;
+	private final int bytesPerPixel;
+	private final int firstRowIndex;
+	private final int rowStride;
+
+	/**
+	 * Creates new store over given buffer.
+	 *
+	 * @param pixels
+	 *            buffer holding pixels
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param bytesPerPixel
+	 *            3 or 4
+	 * @param firstRowIndex
+	 *            index in buffer of first pixel of the top row
+	 * @param rowStride
+	 *            distance in bytes between first pixels of consecutive rows;
+	 *            negative for bottom-up rows
+	 */
+	BufferPixelStore(ByteBuffer pixels, int width, int height,
+			int bytesPerPixel, int firstRowIndex, int rowStride) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+		this.bytesPerPixel = bytesPerPixel;
+		this.firstRowIndex = firstRowIndex;
+		this.rowStride = rowStride;
+	}
+
+	/**
+	 * Returns buffer holding pixels.
+	 *
+	 * @return buffer holding pixels
+	 */
+	ByteBuffer getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Returns number of bytes per pixel; either 3 or 4.
+	 *
+	 * @return number of bytes per pixel
+	 */
+	int getBytesPerPixel() {
+		return bytesPerPixel;
+	}
+
+	/**
+	 * Returns index in buffer of first pixel of the top row.
+	 *
+	 * @return index in buffer of first pixel of the top row
+	 */
+	int getFirstRowIndex() {
+		return firstRowIndex;
+	}
+
+	/**
+	 * Returns distance in bytes between first pixels of consecutive rows.
+	 *
+	 * @return distance between rows; negative for bottom-up rows
+	 */
+	int getRowStride() {
+		return rowStride;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getRGB(int x, int y) {
+		int index = firstRowIndex + y * rowStride + x * bytesPerPixel;
+		return 0xFF000000 | ((pixels.get(index + 2) & 0xFF) << 16)
+				| ((pixels.get(index + 1) & 0xFF) << 8)
+				| (pixels.get(index) & 0xFF);
+	}
+
+	@Override
+	public void setRGB(int x, int y, int rgb) {
+		int index = firstRowIndex + y * rowStride + x * bytesPerPixel;
+		pixels.put(index, (byte) rgb);
+		pixels.put(index + 1, (byte) (rgb >> 8));
+		pixels.put(index + 2, (byte) (rgb >> 16));
+	}
+}
@@ -0,0 +1,86 @@
+package com.bmpsteg.steg;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli) checksum of framed hidden data. Checksum is computed
+ * eight bytes at a time from eight lookup tables, so that one table lookup
+ * per byte is independent of the previous one.
+ *
+ * @author irelic
+ *
+ */
+final class Crc32c implements Checksum {
+
+	/**
+	 * Reversed Castagnoli polynomial.
+	 */
+	private static final int POLYNOMIAL = 0x82F63B78;
+
+	/**
+	 * Lookup tables, where table <i>k</i> holds checksum of byte followed by
+	 * <i>k</i> zero bytes.
+	 */
+	private static final int[][] TABLES = new int[8][256];
+
+	static {
+		for (int i = 0; i < 256; ++i) {
+			int crc = i;
+			for (int bit = 0; bit < 8; ++bit) {
+				crc = (crc >>> 1) ^ (POLYNOMIAL & -(crc & 1));
+			}
+			TABLES[0][i] = crc;
+		}
+		for (int i = 0; i < 256; ++i) {
+			int crc = TABLES[0][i];
+			for (int k = 1; k < TABLES.length; ++k) {
+				crc = (crc >>> 8) ^ TABLES[0][crc & 0xFF];
+				TABLES[k][i] = crc;
+			}
+		}
+	}
+
+	private int crc = ~0;
+
+	@Override
+	public void update(int b) {
+		crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		int[] t0 = TABLES[0];
+		int[] t1 = TABLES[1];
+		int[] t2 = TABLES[2];
+		int[] t3 = TABLES[3];
+		int[] t4 = TABLES[4];
+		int[] t5 = TABLES[5];
+		int[] t6 = TABLES[6];
+		int[] t7 = TABLES[7];
+		int value = crc;
+		int index = off;
+		int end = off + len;
+		for (; index + 8 <= end; index += 8) {
+			int low = value ^ ((b[index] & 0xFF) | (b[index + 1] & 0xFF) << 8
+					| (b[index + 2] & 0xFF) << 16 | b[index + 3] << 24);
+			value = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF]
+					^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+					^ t3[b[index + 4] & 0xFF] ^ t2[b[index + 5] & 0xFF]
+					^ t1[b[index + 6] & 0xFF] ^ t0[b[index + 7] & 0xFF];
+		}
+		for (; index < end; ++index) {
+			value = (value >>> 8) ^ t0[(value ^ b[index]) & 0xFF];
+		}
+		crc = value;
+	}
+
+	@Override
+	public long getValue() {
+		return ~crc & 0xFFFFFFFFL;
+	}
+
+	@Override
+	public void reset() {
+		crc = ~0;
+	}
+}
@@ -0,0 +1,337 @@
+package com.bmpsteg.steg;
+
+import java.nio.ByteBuffer;
+
+import com.bmpsteg.steg.RGBBitsSteganography.Layout;
+
+/**
+ * Header of data hidden in image, describing its format: layout of data
+ * bits, whether data is compressed, encrypted, framed with block checksums
+ * and followed by chunk index, and length of stored data. Plain data in
+ * {@link Layout#PASS_MAJOR} layout whose length fits into 32 bits is
+ * preceded by its length alone, while all other data is preceded by format
+ * header holding magic number, version and flags followed by 64-bit data
+ * length.
+ *
+ * @author irelic
+ *
+ */
+final class DataHeader {
+
+	/**
+	 * Magic number in upper 16 bits of format header. Its highest bit is set,
+	 * so readers of {@link Layout#PASS_MAJOR} layout, which store data length
+	 * in place of format header, see negative data length and refuse the
+	 * image.
+	 */
+	private static final int FORMAT_MAGIC = 0xB5EC;
+
+	/**
+	 * Version of format header holding 64-bit data length.
+	 */
+	private static final int FORMAT_VERSION = 2;
+
+	/**
+	 * Version of format header holding 32-bit data length. Such headers are
+	 * no longer written, but images holding them are still read.
+	 */
+	private static final int LEGACY_FORMAT_VERSION = 1;
+
+	/**
+	 * Identifiers of {@link Layout#PASS_MAJOR} and {@link Layout#PIXEL_MAJOR}
+	 * layout in lower bits of flags of format header.
+	 */
+	private static final int PASS_MAJOR_LAYOUT_ID = 0;
+	private static final int PIXEL_MAJOR_LAYOUT_ID = 1;
+	private static final int LAYOUT_ID_MASK = 0x0F;
+
+	/**
+	 * Flag of format header set when hidden data is compressed.
+	 */
+	private static final int COMPRESSED_FLAG = 0x10;
+
+	/**
+	 * Flag of format header set when hidden data is encrypted. Only format
+	 * header of current version may have it set.
+	 */
+	private static final int ENCRYPTED_FLAG = 0x20;
+
+	/**
+	 * Flag of format header set when hidden data is framed with block
+	 * checksums. Only format header of current version may have it set.
+	 */
+	private static final int FRAMED_FLAG = 0x40;
+
+	/**
+	 * Flag of format header set when compressed or encrypted data is
+	 * followed by chunk index. Only format header of current version may
+	 * have it set.
+	 */
+	private static final int INDEXED_FLAG = 0x80;
+
+	/**
+	 * Number of bytes of format header: magic number, version and flags
+	 * holding layout identifier followed by 64-bit data length.
+	 */
+	static final int FORMAT_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+	/**
+	 * Number of bytes of legacy format header, whose data length has only 32
+	 * bits.
+	 */
+	private static final int LEGACY_FORMAT_HEADER_BYTES = 2 * Integer.BYTES;
+
+	private final Layout layout;
+	private final boolean compressed;
+	private final boolean encrypted;
+	private final boolean indexed;
+	private final long dataLength;
+	private final int headerLength;
+	private final int blockSize;
+	private final boolean intact;
+
+	/**
+	 * Creates header of unframed data without chunk index.
+	 *
+	 * @param layout
+	 *            layout of data bits, or <code>null</code> if format header
+	 *            is not supported
+	 * @param compressed
+	 *            true if data is compressed
+	 * @param encrypted
+	 *            true if data is encrypted
+	 * @param dataLength
+	 *            number of stored bytes
+	 * @param headerLength
+	 *            length of header in bytes, or zero if image is too small to
+	 *            hold any header
+	 */
+	DataHeader(Layout layout, boolean compressed, boolean encrypted,
+			long dataLength, int headerLength) {
+		this(layout, compressed, encrypted, false, dataLength, headerLength,
+				0, true);
+	}
+
+	/**
+	 * Creates header of hidden data.
+	 *
+	 * @param layout
+	 *            layout of data bits, or <code>null</code> if format header
+	 *            is not supported
+	 * @param compressed
+	 *            true if data is compressed
+	 * @param encrypted
+	 *            true if data is encrypted
+	 * @param indexed
+	 *            true if data is followed by chunk index
+	 * @param dataLength
+	 *            number of stored bytes
+	 * @param headerLength
+	 *            length of header in bytes, or zero if image is too small to
+	 *            hold any header
+	 * @param blockSize
+	 *            number of bytes of every block but the last one, or zero if
+	 *            data is not framed
+	 * @param intact
+	 *            false if frame descriptor of framed data is not checked yet
+	 *            or its checksum does not match
+	 */
+	private DataHeader(Layout layout, boolean compressed, boolean encrypted,
+			boolean indexed, long dataLength, int headerLength, int blockSize,
+			boolean intact) {
+		this.layout = layout;
+		this.compressed = compressed;
+		this.encrypted = encrypted;
+		this.indexed = indexed;
+		this.dataLength = dataLength;
+		this.headerLength = headerLength;
+		this.blockSize = blockSize;
+		this.intact = intact;
+	}
+
+	/**
+	 * Creates header written in front of stored data of given length when
+	 * hiding it. Only uncompressed, unencrypted and unframed data in
+	 * {@link Layout#PASS_MAJOR} layout whose length fits into 32 bits is
+	 * preceded by its length alone, so original readers can still extract
+	 * it. Framed data is split into blocks of
+	 * {@value PayloadFraming#BLOCK_BYTES} bytes.
+	 *
+	 * @param layout
+	 *            layout of data bits
+	 * @param compressed
+	 *            true if data is compressed
+	 * @param encrypted
+	 *            true if data is encrypted
+	 * @param framed
+	 *            true if data is framed with block checksums
+	 * @param indexed
+	 *            true if data is followed by chunk index
+	 * @param dataLength
+	 *            number of stored bytes
+	 * @return header of data
+	 */
+	static DataHeader forHiding(Layout layout, boolean compressed,
+			boolean encrypted, boolean framed, boolean indexed, long dataLength) {
+		boolean formatHeader = layout == Layout.PIXEL_MAJOR || compressed
+				|| encrypted || framed || dataLength > Integer.MAX_VALUE;
+		return new DataHeader(layout, compressed, encrypted, indexed,
+				dataLength, formatHeader ? FORMAT_HEADER_BYTES : Integer.BYTES,
+				framed ? PayloadFraming.BLOCK_BYTES : 0, true);
+	}
+
+	/**
+	 * Returns length of header starting with given 32-bit word.
+	 *
+	 * @param word
+	 *            first 32 bits of header
+	 * @return length of legacy or current format header if word starts with
+	 *         magic number, 32-bit length of plain data otherwise
+	 */
+	static int headerLength(int word) {
+		if (word >>> 16 != FORMAT_MAGIC) {
+			return Integer.BYTES;
+		}
+		return (word >>> 8 & 0xFF) == LEGACY_FORMAT_VERSION ? LEGACY_FORMAT_HEADER_BYTES
+				: FORMAT_HEADER_BYTES;
+	}
+
+	/**
+	 * Parses format header starting with given 32-bit word. Header of framed
+	 * data is not intact until its frame descriptor is checked by
+	 * {@link #withBlockSize(int)}.
+	 *
+	 * @param word
+	 *            first 32 bits of format header, starting with magic number
+	 * @param dataLength
+	 *            data length following the word
+	 * @return header of data, with <code>null</code> layout if version or
+	 *         flags of format header are not supported
+	 */
+	static DataHeader parse(int word, long dataLength) {
+		int version = (word >>> 8) & 0xFF;
+		int flags = word & 0xFF;
+		int layoutId = flags & LAYOUT_ID_MASK;
+		int knownFlags = LAYOUT_ID_MASK
+				| COMPRESSED_FLAG
+				| (version == FORMAT_VERSION ? ENCRYPTED_FLAG | FRAMED_FLAG
+						| INDEXED_FLAG : 0);
+		boolean compressed = (flags & COMPRESSED_FLAG) != 0;
+		boolean encrypted = (flags & ENCRYPTED_FLAG) != 0;
+		boolean indexed = (flags & INDEXED_FLAG) != 0;
+		if ((version != FORMAT_VERSION && version != LEGACY_FORMAT_VERSION)
+				|| (flags & ~knownFlags) != 0
+				|| (layoutId != PIXEL_MAJOR_LAYOUT_ID && layoutId != PASS_MAJOR_LAYOUT_ID)
+				|| (indexed && !compressed && !encrypted)) {
+			return new DataHeader(null, false, false, 0, 0);
+		}
+		Layout layout = layoutId == PIXEL_MAJOR_LAYOUT_ID ? Layout.PIXEL_MAJOR
+				: Layout.PASS_MAJOR;
+		return new DataHeader(layout, compressed, encrypted, indexed,
+				dataLength, headerLength(word), 0,
+				(flags & FRAMED_FLAG) == 0);
+	}
+
+	/**
+	 * Returns intact header of the same framed data, split into blocks of
+	 * given size.
+	 *
+	 * @param blockSize
+	 *            number of bytes of every block but the last one
+	 * @return header of framed data
+	 */
+	DataHeader withBlockSize(int blockSize) {
+		return new DataHeader(layout, compressed, encrypted, indexed,
+				dataLength, headerLength, blockSize, true);
+	}
+
+	/**
+	 * Returns header of the same format describing stored data of given
+	 * length.
+	 *
+	 * @param dataLength
+	 *            number of stored bytes
+	 * @return header of data of given length
+	 */
+	DataHeader withDataLength(long dataLength) {
+		return forHiding(layout, compressed, encrypted, isFramed(), indexed,
+				dataLength);
+	}
+
+	/**
+	 * Returns bytes of header: 32-bit data length for plain data in
+	 * {@link Layout#PASS_MAJOR} layout which is not longer than
+	 * {@link Integer#MAX_VALUE} bytes, format header of current version
+	 * otherwise.
+	 *
+	 * @return bytes of header
+	 */
+	byte[] toBytes() {
+		if (!hasFormatHeader()) {
+			return Utilities.fromInt((int) dataLength);
+		}
+		int flags = layout == Layout.PIXEL_MAJOR ? PIXEL_MAJOR_LAYOUT_ID
+				: PASS_MAJOR_LAYOUT_ID;
+		if (compressed) {
+			flags |= COMPRESSED_FLAG;
+		}
+		if (encrypted) {
+			flags |= ENCRYPTED_FLAG;
+		}
+		if (isFramed()) {
+			flags |= FRAMED_FLAG;
+		}
+		if (indexed) {
+			flags |= INDEXED_FLAG;
+		}
+		return ByteBuffer.allocate(FORMAT_HEADER_BYTES)
+				.putInt(FORMAT_MAGIC << 16 | FORMAT_VERSION << 8 | flags)
+				.putLong(dataLength).array();
+	}
+
+	/**
+	 * Checks if data is preceded by format header rather than by its 32-bit
+	 * length alone.
+	 *
+	 * @return true if data is preceded by format header, false otherwise
+	 */
+	boolean hasFormatHeader() {
+		return headerLength != Integer.BYTES;
+	}
+
+	Layout getLayout() {
+		return layout;
+	}
+
+	boolean isCompressed() {
+		return compressed;
+	}
+
+	boolean isEncrypted() {
+		return encrypted;
+	}
+
+	boolean isIndexed() {
+		return indexed;
+	}
+
+	boolean isFramed() {
+		return blockSize > 0;
+	}
+
+	long getDataLength() {
+		return dataLength;
+	}
+
+	int getHeaderLength() {
+		return headerLength;
+	}
+
+	int getBlockSize() {
+		return blockSize;
+	}
+
+	boolean isIntact() {
+		return intact;
+	}
+}
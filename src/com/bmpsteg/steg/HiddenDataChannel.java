@@ -0,0 +1,160 @@
+package com.bmpsteg.steg;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only channel over data hidden in stego image. Every read asks the
+ * source for the range of data at current position, so that only stored
+ * bytes the range falls into are read from image.
+ *
+ * @author irelic
+ *
+ */
+final class HiddenDataChannel implements SeekableByteChannel {
+
+	/**
+	 * Source of ranges of hidden data.
+	 */
+	interface Source {
+
+		/**
+		 * Returns hidden data length.
+		 *
+		 * @return data length in bytes
+		 */
+		long size();
+
+		/**
+		 * Reads given range of hidden data.
+		 *
+		 * @param position
+		 *            offset of first byte of range in hidden data
+		 * @param data
+		 *            array to read range into
+		 * @param from
+		 *            index of first byte of range in array
+		 * @param count
+		 *            number of bytes of range
+		 * @throws IllegalArgumentException
+		 *             if data could not be extracted
+		 */
+		void read(long position, byte[] data, int from, int count);
+
+		/**
+		 * Releases resources held by source.
+		 */
+		void close();
+	}
+
+	/**
+	 * Maximum number of bytes read from source at once.
+	 */
+	private static final int MAX_READ_BYTES = 1 << 20;
+
+	private final Source source;
+	private long position;
+	private boolean open = true;
+
+	/**
+	 * Creates channel positioned at the beginning of hidden data.
+	 *
+	 * @param source
+	 *            source of ranges of hidden data
+	 */
+	HiddenDataChannel(Source source) {
+		this.source = source;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		long size = source.size();
+		if (position >= size) {
+			return -1;
+		}
+		int count = (int) Math.min(Math.min(dst.remaining(), MAX_READ_BYTES),
+				size - position);
+		try {
+			if (dst.hasArray()) {
+				source.read(position, dst.array(),
+						dst.arrayOffset() + dst.position(), count);
+				dst.position(dst.position() + count);
+			} else {
+				byte[] data = new byte[count];
+				source.read(position, data, 0, count);
+				dst.put(data);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException(
+					"Position must not be negative!");
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		checkOpen();
+		return source.size();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (open) {
+			open = false;
+			source.close();
+		}
+	}
+
+	/**
+	 * Checks if channel is still open.
+	 *
+	 * @throws ClosedChannelException
+	 *             if channel is closed
+	 */
+	private void checkOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
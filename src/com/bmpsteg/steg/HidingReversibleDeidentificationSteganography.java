@@ -1,7 +1,12 @@
 package com.bmpsteg.steg;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+
+import com.bmpsteg.bmp.BmpImage;
 
 public class HidingReversibleDeidentificationSteganography extends
 		RGBBitsSteganography implements
@@ -27,13 +32,98 @@ public class HidingReversibleDeidentificationSteganography extends
 		super(componentsToUse, bitsPerComponent);
 	}
 
+	/**
+	 * Creates new steganography algorithm configured the same as given one,
+	 * without its password and progress listener.
+	 * 
+	 * @param algorithm
+	 *            algorithm whose configuration is copied
+	 */
+	public HidingReversibleDeidentificationSteganography(
+			HidingReversibleDeidentificationSteganography algorithm) {
+		super(algorithm);
+	}
+
 	@Override
 	public void preprocessOriginalImage(BufferedImage originalImage,
 			int xStart, int yStart, int xEnd, int yEnd) {
-		for (int x = xStart; x <= xEnd; ++x) {
-			for (int y = yStart; y <= yEnd; ++y) {
-				originalImage.setRGB(x, y, ALL_BLACK_EVERYTHING);
-			}
+		blank(PixelRows.forImage(originalImage), new Rectangle(xStart, yStart,
+				xEnd - xStart + 1, yEnd - yStart + 1));
+	}
+
+	@Override
+	public void preprocessOriginalImage(BmpImage originalImage, int xStart,
+			int yStart, int xEnd, int yEnd) {
+		blank(PixelRows.forImage(originalImage), new Rectangle(xStart, yStart,
+				xEnd - xStart + 1, yEnd - yStart + 1));
+	}
+
+	@Override
+	public byte[] preprocessOriginalImage(BufferedImage originalImage,
+			List<Rectangle> regions) {
+		return encodeAndBlank(PixelRows.forImage(originalImage),
+				Regions.merge(regions, originalImage.getWidth(),
+						originalImage.getHeight()));
+	}
+
+	@Override
+	public byte[] preprocessOriginalImage(BmpImage originalImage,
+			List<Rectangle> regions) {
+		return encodeAndBlank(PixelRows.forImage(originalImage),
+				Regions.merge(regions, originalImage.getWidth(),
+						originalImage.getHeight()));
+	}
+
+	@Override
+	public void restoreOriginalImage(BufferedImage image, byte[] packedRegions) {
+		RegionCodec.decode(packedRegions, image);
+	}
+
+	@Override
+	public void restoreOriginalImage(BmpImage image, byte[] packedRegions) {
+		RegionCodec.decode(packedRegions, image);
+	}
+
+	@Override
+	public List<Rectangle> reidentify(BufferedImage stegoImage) {
+		return RegionCodec.decode(extractData(stegoImage), stegoImage);
+	}
+
+	@Override
+	public List<Rectangle> reidentify(BmpImage stegoImage) {
+		return RegionCodec.decode(extractData(stegoImage), stegoImage);
+	}
+
+	/**
+	 * Blanks given region clipped to image bounds. Empty or inverted region
+	 * leaves image unchanged.
+	 * 
+	 * @param rows
+	 *            row-wise access to image pixels
+	 * @param region
+	 *            region to blank
+	 */
+	private static void blank(PixelRows rows, Rectangle region) {
+		for (Rectangle clip : Regions.merge(Collections.singletonList(region),
+				rows.getWidth(), rows.getHeight())) {
+			rows.fill(clip, ALL_BLACK_EVERYTHING);
+		}
+	}
+
+	/**
+	 * Encodes original contents of given disjoint regions and blanks them.
+	 * 
+	 * @param rows
+	 *            row-wise access to image pixels
+	 * @param regions
+	 *            disjoint regions
+	 * @return encoded original contents of regions
+	 */
+	private static byte[] encodeAndBlank(PixelRows rows, List<Rectangle> regions) {
+		byte[] encodedRegions = RegionCodec.encode(rows, regions);
+		for (Rectangle region : regions) {
+			rows.fill(region, ALL_BLACK_EVERYTHING);
 		}
+		return encodedRegions;
 	}
 }
@@ -0,0 +1,60 @@
+package com.bmpsteg.steg;
+
+/**
+ * Pixel store holding every pixel as packed RGB integer in heap array, row by
+ * row from the top row.
+ *
+ * @author irelic
+ *
+ */
+final class IntPixelStore implements PixelStore {
+
+	private final int[] pixels;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Creates new store over given array.
+	 *
+	 * @param pixels
+	 *            packed RGB integers of pixels
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 */
+	IntPixelStore(int[] pixels, int width, int height) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Returns packed RGB integers of pixels.
+	 *
+	 * @return packed RGB integers of pixels
+	 */
+	int[] getPixels() {
+		return pixels;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getRGB(int x, int y) {
+		return 0xFF000000 | pixels[y * width + x];
+	}
+
+	@Override
+	public void setRGB(int x, int y, int rgb) {
+		pixels[y * width + x] = rgb & 0xFFFFFF;
+	}
+}
@@ -0,0 +1,429 @@
+package com.bmpsteg.steg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression stage applied to data before hiding it. Compression level is
+ * chosen by sampling order-0 entropy of the data: data close to maximum
+ * entropy is stored as it is, data of high entropy is compressed by fast
+ * Deflate and data of low entropy is compressed by high-ratio Deflate.
+ * Compressed data starts with its original length as 64-bit integer,
+ * followed by zlib stream. When data gets chunk index, zlib stream is fully
+ * flushed at start of every chunk, so every chunk is inflated on its own.
+ *
+ * @author irelic
+ *
+ */
+final class PayloadCompression {
+
+	/**
+	 * Data shorter than this is always stored, since zlib overhead and length
+	 * prefix outweigh any gain.
+	 */
+	private static final int MIN_COMPRESSED_LENGTH = 64;
+
+	/**
+	 * Number of sampled blocks and their length in bytes.
+	 */
+	private static final int SAMPLE_BLOCKS = 16;
+	private static final int SAMPLE_BLOCK_BYTES = 1024;
+
+	/**
+	 * Ratio of sampled entropy to maximum possible entropy of the sample above
+	 * which data is considered incompressible.
+	 */
+	private static final double INCOMPRESSIBLE_RATIO = 0.98;
+
+	/**
+	 * Entropy in bits per byte above which fast Deflate is used.
+	 */
+	private static final double FAST_DEFLATE_ENTROPY = 6.0;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private PayloadCompression() {
+	}
+
+	/**
+	 * Chooses compression level of data from given sample of it.
+	 *
+	 * @param sample
+	 *            sample of data
+	 * @param sampleLength
+	 *            number of bytes of sample to examine
+	 * @param length
+	 *            total data length in bytes
+	 * @return {@link Deflater#NO_COMPRESSION} if data should be stored as it
+	 *         is, otherwise {@link Deflater#BEST_SPEED} or
+	 *         {@link Deflater#BEST_COMPRESSION}
+	 */
+	static int chooseLevel(byte[] sample, int sampleLength, long length) {
+		if (length < MIN_COMPRESSED_LENGTH) {
+			return Deflater.NO_COMPRESSION;
+		}
+		int[] counts = new int[256];
+		int sampled = 0;
+		int blockLength = Math.min(SAMPLE_BLOCK_BYTES, sampleLength);
+		int blocks = Math.min(SAMPLE_BLOCKS, sampleLength / blockLength);
+		long stride = blocks > 1 ? (long) (sampleLength - blockLength)
+				/ (blocks - 1) : 0;
+		for (int block = 0; block < blocks; ++block) {
+			int start = (int) (block * stride);
+			for (int i = start; i < start + blockLength; ++i) {
+				++counts[sample[i] & 0xFF];
+			}
+			sampled += blockLength;
+		}
+		double entropy = 0;
+		for (int count : counts) {
+			if (count > 0) {
+				double probability = (double) count / sampled;
+				entropy -= probability * Math.log(probability);
+			}
+		}
+		entropy /= Math.log(2);
+		double maxEntropy = Math.log(Math.min(sampled, 256)) / Math.log(2);
+		if (entropy >= INCOMPRESSIBLE_RATIO * maxEntropy) {
+			return Deflater.NO_COMPRESSION;
+		}
+		return entropy >= FAST_DEFLATE_ENTROPY ? Deflater.BEST_SPEED
+				: Deflater.BEST_COMPRESSION;
+	}
+
+	/**
+	 * Compresses given data if it pays off.
+	 *
+	 * @param data
+	 *            data to compress
+	 * @param index
+	 *            empty chunk index receiving offsets of chunks, or
+	 *            <code>null</code> if data gets no chunk index
+	 * @return compressed data or <code>null</code> if data should be stored as
+	 *         it is
+	 */
+	static byte[] compress(byte[] data, PayloadIndex index) {
+		int level = chooseLevel(data, data.length, data.length);
+		if (level == Deflater.NO_COMPRESSION) {
+			return null;
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(level);
+		try {
+			output.write(lengthPrefix(data.length), 0, Long.BYTES);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			deflate(deflater, data, 0, data.length, 0, index, output, buffer);
+			finish(deflater, index, output, buffer);
+		} finally {
+			deflater.end();
+		}
+		return output.size() < data.length ? output.toByteArray() : null;
+	}
+
+	/**
+	 * Compresses data read from given stream with given compression level if
+	 * it pays off. Since level is chosen from head of data only, the rest of
+	 * data may turn out to be incompressible. Compressing then stops as soon
+	 * as compressed data gets as long as original data, and bytes read from
+	 * stream so far are left in given stream of original bytes, so data can
+	 * be stored as it is without reading the stream again.
+	 *
+	 * @param head
+	 *            first bytes of data, already read from stream
+	 * @param headLength
+	 *            number of bytes of head
+	 * @param data
+	 *            stream of remaining data
+	 * @param length
+	 *            total data length in bytes, including head
+	 * @param level
+	 *            compression level
+	 * @param index
+	 *            empty chunk index receiving offsets of chunks, or
+	 *            <code>null</code> if data gets no chunk index
+	 * @param original
+	 *            stream receiving bytes read from data stream, head excluded
+	 * @return compressed data or <code>null</code> if data should be stored as
+	 *         it is
+	 * @throws IOException
+	 *             if stream could not be read or it ends before given number
+	 *             of bytes is read
+	 */
+	static byte[] compress(byte[] head, int headLength, InputStream data,
+			long length, int level, PayloadIndex index,
+			ByteArrayOutputStream original) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(level);
+		try {
+			output.write(lengthPrefix(length), 0, Long.BYTES);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			deflate(deflater, head, 0, headLength, 0, index, output, buffer);
+			byte[] input = new byte[BUFFER_SIZE];
+			long position = headLength;
+			while (position < length) {
+				if (output.size() >= length) {
+					return null;
+				}
+				int chunkLength = (int) Math.min(length - position,
+						input.length);
+				Utilities.readFully(data, input, chunkLength);
+				original.write(input, 0, chunkLength);
+				deflate(deflater, input, 0, chunkLength, position, index,
+						output, buffer);
+				position += chunkLength;
+			}
+			finish(deflater, index, output, buffer);
+		} finally {
+			deflater.end();
+		}
+		return output.size() < length ? output.toByteArray() : null;
+	}
+
+	/**
+	 * Deflates given part of data. When data gets chunk index, deflater is
+	 * fully flushed before every chunk but the first one, and offset of every
+	 * chunk is added to the index.
+	 *
+	 * @param deflater
+	 *            deflater
+	 * @param data
+	 *            array holding part of data
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param length
+	 *            number of bytes of part
+	 * @param position
+	 *            position of part in data
+	 * @param index
+	 *            chunk index or <code>null</code>
+	 * @param output
+	 *            stream collecting compressed data
+	 * @param buffer
+	 *            buffer for deflated bytes
+	 */
+	private static void deflate(Deflater deflater, byte[] data, int from,
+			int length, long position, PayloadIndex index,
+			ByteArrayOutputStream output, byte[] buffer) {
+		while (length > 0) {
+			int part = length;
+			if (index != null) {
+				int chunkBytes = index.getChunkBytes();
+				int inChunk = (int) (position % chunkBytes);
+				if (inChunk == 0) {
+					if (position > 0) {
+						flush(deflater, output, buffer);
+					}
+					index.addChunk(position == 0 ? 0 : output.size());
+				}
+				part = Math.min(length, chunkBytes - inChunk);
+			}
+			deflater.setInput(data, from, part);
+			while (!deflater.needsInput()) {
+				output.write(buffer, 0, deflater.deflate(buffer));
+			}
+			from += part;
+			length -= part;
+			position += part;
+		}
+	}
+
+	/**
+	 * Fully flushes deflater, so that inflating may start at the next byte.
+	 *
+	 * @param deflater
+	 *            deflater
+	 * @param output
+	 *            stream collecting compressed data
+	 * @param buffer
+	 *            buffer for deflated bytes
+	 */
+	private static void flush(Deflater deflater,
+			ByteArrayOutputStream output, byte[] buffer) {
+		int deflated;
+		do {
+			deflated = deflater.deflate(buffer, 0, buffer.length,
+					Deflater.FULL_FLUSH);
+			output.write(buffer, 0, deflated);
+		} while (deflated == buffer.length);
+	}
+
+	/**
+	 * Finishes deflating and sets body length of chunk index.
+	 *
+	 * @param deflater
+	 *            deflater
+	 * @param index
+	 *            chunk index or <code>null</code>
+	 * @param output
+	 *            stream collecting compressed data
+	 * @param buffer
+	 *            buffer for deflated bytes
+	 */
+	private static void finish(Deflater deflater, PayloadIndex index,
+			ByteArrayOutputStream output, byte[] buffer) {
+		deflater.finish();
+		while (!deflater.finished()) {
+			output.write(buffer, 0, deflater.deflate(buffer));
+		}
+		if (index != null) {
+			index.setBodyLength(output.size());
+		}
+	}
+
+	/**
+	 * Decompresses given compressed data.
+	 *
+	 * @param compressed
+	 *            compressed data
+	 * @return original data
+	 * @throws IllegalArgumentException
+	 *             if compressed data is malformed or too large for an array
+	 */
+	static byte[] decompress(byte[] compressed) {
+		long length = originalLength(compressed);
+		if (length > Integer.MAX_VALUE - Long.BYTES) {
+			throw new IllegalArgumentException(String.format(
+					"Compressed data is too large to extract into array! Original size: %d bytes",
+					length));
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream(
+				(int) Math.min(length, BUFFER_SIZE));
+		try {
+			decompress(compressed, output);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Decompresses given compressed data into given stream.
+	 *
+	 * @param compressed
+	 *            compressed data
+	 * @param output
+	 *            stream to write original data to
+	 * @return number of bytes written to stream
+	 * @throws IOException
+	 *             if stream could not be written
+	 * @throws IllegalArgumentException
+	 *             if compressed data is malformed
+	 */
+	static long decompress(byte[] compressed, OutputStream output)
+			throws IOException {
+		long length = originalLength(compressed);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed, Long.BYTES, compressed.length
+					- Long.BYTES);
+			byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE,
+					Math.max(length, 1))];
+			long written = 0;
+			while (!inflater.finished()) {
+				int inflated = inflater.inflate(buffer);
+				if (inflated == 0
+						&& (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalArgumentException(
+							"Compressed data is truncated!");
+				}
+				written += inflated;
+				if (written > length) {
+					throw new IllegalArgumentException(
+							"Compressed data is longer than declared!");
+				}
+				output.write(buffer, 0, inflated);
+			}
+			if (written != length || inflater.getRemaining() != 0) {
+				throw new IllegalArgumentException(String.format(
+						"Compressed data does not match declared size! Declared size: %d bytes, found: %d bytes",
+						length, written));
+			}
+			return written;
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Compressed data is corrupted! "
+					+ e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Inflates one chunk of compressed data with chunk index into given
+	 * array. The first chunk starts with original length and zlib header,
+	 * while other chunks start right after full flush.
+	 *
+	 * @param chunk
+	 *            compressed bytes of chunk
+	 * @param first
+	 *            true if chunk is the first one
+	 * @param output
+	 *            array to inflate original bytes of chunk into
+	 * @param outputLength
+	 *            number of original bytes of chunk
+	 * @throws IllegalArgumentException
+	 *             if compressed chunk is malformed
+	 */
+	static void inflateChunk(byte[] chunk, boolean first, byte[] output,
+			int outputLength) {
+		int skipped = first ? Long.BYTES : 0;
+		Inflater inflater = new Inflater(!first);
+		try {
+			inflater.setInput(chunk, skipped, Math.max(chunk.length - skipped,
+					0));
+			int inflated = 0;
+			while (inflated < outputLength) {
+				int count = inflater.inflate(output, inflated, outputLength
+						- inflated);
+				if (count == 0
+						&& (inflater.needsInput() || inflater.needsDictionary() || inflater
+								.finished())) {
+					throw new IllegalArgumentException(
+							"Compressed data is truncated!");
+				}
+				inflated += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Compressed data is corrupted! "
+					+ e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Reads original data length from given compressed data.
+	 *
+	 * @param compressed
+	 *            compressed data
+	 * @return original data length in bytes
+	 */
+	static long originalLength(byte[] compressed) {
+		if (compressed.length < Long.BYTES) {
+			throw new IllegalArgumentException("Compressed data is truncated!");
+		}
+		long length = ByteBuffer.wrap(compressed).getLong();
+		if (length < 0) {
+			throw new IllegalArgumentException(
+					"Invalid original size of compressed data: " + length
+							+ "!");
+		}
+		return length;
+	}
+
+	/**
+	 * Returns length prefix of compressed data.
+	 *
+	 * @param length
+	 *            original data length in bytes
+	 * @return length prefix
+	 */
+	private static byte[] lengthPrefix(long length) {
+		return ByteBuffer.allocate(Long.BYTES).putLong(length).array();
+	}
+}
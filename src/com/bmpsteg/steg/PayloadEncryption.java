@@ -0,0 +1,344 @@
+package com.bmpsteg.steg;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authenticated encryption stage applied to data while it is hidden. Data is
+ * encrypted by AES in counter mode and authenticated by HMAC-SHA256 of format
+ * header, salt and encrypted data. Both keys are derived from password and
+ * random salt by PBKDF2, so every hiding uses fresh keys and counter may
+ * always start at zero. Keystream of any part of data depends only on its
+ * position, so data is encrypted and decrypted in place one chunk at a time,
+ * and keystream of large chunks is computed in parallel. Encrypted data is
+ * preceded by salt and followed by authentication tag. Chunks of data with
+ * chunk index are also authenticated one by one, by shorter tags of separate
+ * HMAC-SHA256 whose input starts with a label byte, so that range of data is
+ * authenticated without reading the rest of it.
+ *
+ * @author irelic
+ *
+ */
+final class PayloadEncryption {
+
+	/**
+	 * Number of bytes of salt preceding encrypted data.
+	 */
+	static final int SALT_BYTES = 16;
+
+	/**
+	 * Number of bytes of authentication tag following encrypted data.
+	 */
+	static final int TAG_BYTES = 32;
+
+	/**
+	 * Number of bytes encryption adds to data.
+	 */
+	static final int OVERHEAD_BYTES = SALT_BYTES + TAG_BYTES;
+
+	private static final int KEY_DERIVATION_ITERATIONS = 65536;
+	private static final int CIPHER_KEY_BYTES = 16;
+	private static final int MAC_KEY_BYTES = 32;
+	private static final int BLOCK_BYTES = 16;
+
+	/**
+	 * Label bytes starting input of chunk and chunk index authentication.
+	 * Input of whole data authentication starts with format header, whose
+	 * first byte is never zero nor one.
+	 */
+	private static final byte CHUNK_LABEL = 0;
+	private static final byte INDEX_LABEL = 1;
+
+	/**
+	 * Number of bytes of authentication tag of a chunk or of chunk index.
+	 */
+	static final int CHUNK_TAG_BYTES = 16;
+
+	/**
+	 * Minimum number of bytes worth splitting between fork/join tasks.
+	 */
+	private static final int PARALLEL_THRESHOLD_BYTES = 1 << 18;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final byte[] salt;
+	private final SecretKeySpec cipherKey;
+	private final Mac mac;
+	private final Mac chunkMac;
+	private final Cipher cipher;
+
+	/**
+	 * Creates encryption stage with keys derived from given password and
+	 * salt.
+	 *
+	 * @param password
+	 *            password
+	 * @param salt
+	 *            salt of {@value #SALT_BYTES} bytes
+	 */
+	private PayloadEncryption(char[] password, byte[] salt) {
+		this.salt = salt;
+		PBEKeySpec keySpec = new PBEKeySpec(password, salt,
+				KEY_DERIVATION_ITERATIONS, 8 * (CIPHER_KEY_BYTES + MAC_KEY_BYTES));
+		byte[] keys = null;
+		try {
+			keys = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256")
+					.generateSecret(keySpec).getEncoded();
+			cipherKey = new SecretKeySpec(keys, 0, CIPHER_KEY_BYTES, "AES");
+			SecretKeySpec macKey = new SecretKeySpec(keys, CIPHER_KEY_BYTES,
+					MAC_KEY_BYTES, "HmacSHA256");
+			mac = Mac.getInstance("HmacSHA256");
+			mac.init(macKey);
+			chunkMac = Mac.getInstance("HmacSHA256");
+			chunkMac.init(macKey);
+			cipher = Cipher.getInstance("AES/CTR/NoPadding");
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			keySpec.clearPassword();
+			if (keys != null) {
+				Arrays.fill(keys, (byte) 0);
+			}
+		}
+	}
+
+	/**
+	 * Creates encryption stage for hiding the data, with fresh random salt.
+	 *
+	 * @param password
+	 *            password
+	 * @return encryption stage
+	 */
+	static PayloadEncryption forHiding(char[] password) {
+		byte[] salt = new byte[SALT_BYTES];
+		RANDOM.nextBytes(salt);
+		return new PayloadEncryption(password, salt);
+	}
+
+	/**
+	 * Creates encryption stage for extracting the data, with salt read from
+	 * stego image.
+	 *
+	 * @param password
+	 *            password
+	 * @param salt
+	 *            salt of {@value #SALT_BYTES} bytes
+	 * @return encryption stage
+	 */
+	static PayloadEncryption forExtracting(char[] password, byte[] salt) {
+		return new PayloadEncryption(password, salt.clone());
+	}
+
+	/**
+	 * Returns salt keys are derived with.
+	 *
+	 * @return salt
+	 */
+	byte[] getSalt() {
+		return salt.clone();
+	}
+
+	/**
+	 * Encrypts or decrypts given part of data in place, by applying keystream
+	 * at given position of data.
+	 *
+	 * @param data
+	 *            array holding part of data
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param length
+	 *            number of bytes of part
+	 * @param position
+	 *            position of first byte of part in whole data
+	 * @param pool
+	 *            fork/join pool computing keystream of large parts in
+	 *            parallel, or <code>null</code> for calling thread
+	 */
+	void apply(byte[] data, int from, int length, long position,
+			ForkJoinPool pool) {
+		if (pool != null && length > PARALLEL_THRESHOLD_BYTES) {
+			pool.invoke(new KeystreamTask(data, from, length, position));
+		} else {
+			apply(cipher, data, from, length, position);
+		}
+	}
+
+	/**
+	 * Applies keystream at given position of data with given cipher.
+	 *
+	 * @param cipher
+	 *            AES cipher in counter mode
+	 * @param data
+	 *            array holding part of data
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param length
+	 *            number of bytes of part
+	 * @param position
+	 *            position of first byte of part in whole data
+	 */
+	private void apply(Cipher cipher, byte[] data, int from, int length,
+			long position) {
+		if (length == 0) {
+			return;
+		}
+		byte[] counter = new byte[BLOCK_BYTES];
+		long block = position / BLOCK_BYTES;
+		for (int i = BLOCK_BYTES - 1; i >= BLOCK_BYTES - Long.BYTES; --i) {
+			counter[i] = (byte) block;
+			block >>>= 8;
+		}
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(
+					counter));
+			int skipped = (int) (position % BLOCK_BYTES);
+			if (skipped > 0) {
+				cipher.update(new byte[skipped]);
+			}
+			cipher.update(data, from, length, data, from);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Adds given bytes to authenticated data. Format header, salt and
+	 * encrypted data are added in order they are stored in image.
+	 *
+	 * @param data
+	 *            array holding bytes
+	 * @param from
+	 *            index of first byte in array
+	 * @param length
+	 *            number of bytes
+	 */
+	void authenticate(byte[] data, int from, int length) {
+		mac.update(data, from, length);
+	}
+
+	/**
+	 * Returns authentication tag of all authenticated data.
+	 *
+	 * @return authentication tag of {@value #TAG_BYTES} bytes
+	 */
+	byte[] tag() {
+		return mac.doFinal();
+	}
+
+	/**
+	 * Checks if given tag matches authentication tag of all authenticated
+	 * data, in constant time.
+	 *
+	 * @param tag
+	 *            tag read from stego image
+	 * @return true if tags match, false otherwise
+	 */
+	boolean verify(byte[] tag) {
+		return MessageDigest.isEqual(tag(), tag);
+	}
+
+	/**
+	 * Starts authenticating chunk with given index. Bytes of the chunk are
+	 * added by {@link #authenticateChunk(byte[], int, int)}, separately from
+	 * authenticated data of whole data.
+	 * 
+	 * @param chunk
+	 *            chunk index
+	 */
+	void beginChunk(long chunk) {
+		chunkMac.reset();
+		chunkMac.update(CHUNK_LABEL);
+		for (int shift = Long.SIZE - 8; shift >= 0; shift -= 8) {
+			chunkMac.update((byte) (chunk >>> shift));
+		}
+	}
+
+	/**
+	 * Adds given encrypted bytes of chunk to its authenticated data.
+	 * 
+	 * @param data
+	 *            array holding bytes
+	 * @param from
+	 *            index of first byte in array
+	 * @param length
+	 *            number of bytes
+	 */
+	void authenticateChunk(byte[] data, int from, int length) {
+		chunkMac.update(data, from, length);
+	}
+
+	/**
+	 * Returns authentication tag of chunk started last.
+	 * 
+	 * @return authentication tag of {@value #CHUNK_TAG_BYTES} bytes
+	 */
+	byte[] chunkTag() {
+		return Arrays.copyOf(chunkMac.doFinal(), CHUNK_TAG_BYTES);
+	}
+
+	/**
+	 * Returns authentication tag of given encrypted chunk index.
+	 * 
+	 * @param index
+	 *            array holding encrypted chunk index
+	 * @param from
+	 *            index of first byte of chunk index in array
+	 * @param length
+	 *            number of bytes of chunk index
+	 * @return authentication tag of {@value #CHUNK_TAG_BYTES} bytes
+	 */
+	byte[] indexTag(byte[] index, int from, int length) {
+		chunkMac.reset();
+		chunkMac.update(INDEX_LABEL);
+		chunkMac.update(index, from, length);
+		return Arrays.copyOf(chunkMac.doFinal(), CHUNK_TAG_BYTES);
+	}
+
+	/**
+	 * Task applying keystream to part of data. Parts are split at multiples of
+	 * cipher block, and every task uses its own cipher.
+	 */
+	private final class KeystreamTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final byte[] data;
+		private final int from;
+		private final int length;
+		private final long position;
+
+		KeystreamTask(byte[] data, int from, int length, long position) {
+			this.data = data;
+			this.from = from;
+			this.length = length;
+			this.position = position;
+		}
+
+		@Override
+		protected void compute() {
+			int half = (length / 2) & ~(BLOCK_BYTES - 1);
+			if (length > PARALLEL_THRESHOLD_BYTES && half > 0) {
+				invokeAll(new KeystreamTask(data, from, half, position),
+						new KeystreamTask(data, from + half, length - half,
+								position + half));
+				return;
+			}
+			try {
+				apply(Cipher.getInstance("AES/CTR/NoPadding"), data, from,
+						length, position);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package com.bmpsteg.steg;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.Checksum;
+
+/**
+ * Data stored in image after its header, still compressed and encrypted if
+ * it was, which is written or read sequentially. Framed data is preceded by
+ * frame descriptor and split into blocks, each followed by its CRC32C
+ * checksum, so a block is located directly from its index, and its checksum
+ * is written or checked as soon as the whole block is transferred.
+ *
+ * @author irelic
+ *
+ */
+final class PayloadFraming {
+
+	/**
+	 * Transfer of bytes between data array and image, with offsets counted
+	 * in bytes of image bits used for data.
+	 */
+	interface Transfer {
+
+		/**
+		 * Writes or reads data to or from image.
+		 *
+		 * @param data
+		 *            data to be written or read into
+		 * @param count
+		 *            number of bytes from beginning of data to write or read
+		 * @param offset
+		 *            byte offset for starting writing or reading
+		 * @param write
+		 *            true if data is written to image, false if it is read
+		 *            from image
+		 */
+		void transfer(byte[] data, int count, long offset, boolean write);
+	}
+
+	/**
+	 * Number of bytes of every block of framed data but the last one.
+	 */
+	static final int BLOCK_BYTES = 1 << 16;
+
+	/**
+	 * Number of bytes of checksum following every block of framed data.
+	 */
+	static final int CHECKSUM_BYTES = Integer.BYTES;
+
+	/**
+	 * Number of bytes of frame descriptor preceding framed data: block size
+	 * followed by checksum of format header and block size.
+	 */
+	static final int DESCRIPTOR_BYTES = 2 * Integer.BYTES;
+
+	/**
+	 * Number of data bytes written or read between two progress reports when
+	 * progress listener is set.
+	 */
+	private static final int PROGRESS_STEP_BYTES = 1 << 20;
+
+	private final Transfer image;
+	private final byte[] header;
+	private final long offset;
+	private final long length;
+	private final int blockSize;
+	private final ProgressListener listener;
+	private final Checksum checksum;
+	private byte[] segment;
+	private long position;
+
+	/**
+	 * Creates stored data positioned at its beginning.
+	 *
+	 * @param image
+	 *            transfer of bytes to and from image
+	 * @param header
+	 *            format header or 32-bit length preceding the data
+	 * @param offset
+	 *            byte offset of first stored byte, after frame descriptor of
+	 *            framed data
+	 * @param length
+	 *            number of stored bytes
+	 * @param blockSize
+	 *            number of bytes of every block but the last one, or zero if
+	 *            data is not framed
+	 * @param listener
+	 *            progress listener notified when whole arrays are written or
+	 *            read, or <code>null</code>
+	 */
+	PayloadFraming(Transfer image, byte[] header, long offset, long length,
+			int blockSize, ProgressListener listener) {
+		this.image = image;
+		this.header = header;
+		this.offset = offset;
+		this.length = length;
+		this.blockSize = blockSize;
+		this.listener = listener;
+		this.checksum = blockSize > 0 ? new Crc32c() : null;
+	}
+
+	/**
+	 * Creates frame descriptor written after format header of framed data.
+	 * Its checksum covers format header too, so damaged header is detected
+	 * before any data is read.
+	 *
+	 * @param header
+	 *            format header
+	 * @param blockSize
+	 *            number of bytes of every block but the last one
+	 * @return frame descriptor
+	 */
+	static byte[] createDescriptor(byte[] header, int blockSize) {
+		ByteBuffer descriptor = ByteBuffer.allocate(DESCRIPTOR_BYTES).putInt(
+				blockSize);
+		Crc32c checksum = new Crc32c();
+		checksum.update(header, 0, header.length);
+		checksum.update(descriptor.array(), 0, Integer.BYTES);
+		return descriptor.putInt((int) checksum.getValue()).array();
+	}
+
+	/**
+	 * Returns maximum number of stored bytes which fit into given number of
+	 * bytes together with frame descriptor and block checksums.
+	 *
+	 * @param maxBytes
+	 *            number of bytes available after header
+	 * @param blockSize
+	 *            number of bytes of every block but the last one
+	 * @return maximum number of framed bytes
+	 */
+	static long maxFramedBytes(long maxBytes, int blockSize) {
+		long framedBytes = maxBytes - DESCRIPTOR_BYTES;
+		if (framedBytes <= 0) {
+			return 0;
+		}
+		long frameBytes = (long) blockSize + CHECKSUM_BYTES;
+		return framedBytes / frameBytes * blockSize
+				+ Math.max(framedBytes % frameBytes - CHECKSUM_BYTES, 0);
+	}
+
+	byte[] getHeader() {
+		return header;
+	}
+
+	/**
+	 * Writes given part of data at current position.
+	 *
+	 * @param data
+	 *            array holding part of data
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param count
+	 *            number of bytes of part
+	 */
+	void write(byte[] data, int from, int count) {
+		transfer(data, from, count, true);
+	}
+
+	/**
+	 * Reads given part of data at current position.
+	 *
+	 * @param data
+	 *            array to read part of data into
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param count
+	 *            number of bytes of part
+	 * @throws IllegalArgumentException
+	 *             if checksum of a block read to its end does not match
+	 */
+	void read(byte[] data, int from, int count) {
+		transfer(data, from, count, false);
+	}
+
+	/**
+	 * Writes whole given array at current position, reporting progress to
+	 * progress listener.
+	 *
+	 * @param data
+	 *            data to be written
+	 */
+	void writeAll(byte[] data) {
+		transferAll(data, true);
+	}
+
+	/**
+	 * Reads whole given array at current position, reporting progress to
+	 * progress listener.
+	 *
+	 * @param data
+	 *            array to read data into
+	 * @throws IllegalArgumentException
+	 *             if checksum of a block does not match
+	 */
+	void readAll(byte[] data) {
+		transferAll(data, false);
+	}
+
+	/**
+	 * Moves to given position for reading. Framed data is read again from the
+	 * beginning of the block holding that position, so checksum of the block
+	 * is still checked.
+	 *
+	 * @param position
+	 *            position of next byte to read
+	 */
+	void seek(long position) {
+		if (blockSize == 0) {
+			this.position = position;
+			return;
+		}
+		this.position = position - position % blockSize;
+		checksum.reset();
+		int skipped = (int) (position % blockSize);
+		read(new byte[skipped], 0, skipped);
+	}
+
+	/**
+	 * Reads the rest of the block holding current position of framed data,
+	 * so that checksum of the block is checked even when reading stops inside
+	 * it.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if checksum of the block does not match
+	 */
+	void finishBlock() {
+		if (blockSize == 0 || position % blockSize == 0 || position == length) {
+			return;
+		}
+		int rest = (int) Math.min(blockSize - position % blockSize, length
+				- position);
+		read(new byte[rest], 0, rest);
+	}
+
+	/**
+	 * Reads all blocks of framed data into given array, checking checksum of
+	 * every block without stopping at damaged ones.
+	 *
+	 * @param data
+	 *            array to read data into
+	 * @return set of indexes of blocks whose checksums match
+	 */
+	BitSet readBlocks(byte[] data) {
+		BitSet intactBlocks = new BitSet();
+		for (int from = 0, block = 0; from < data.length; from += blockSize, ++block) {
+			Utilities.checkCancelled(listener);
+			int count = Math.min(blockSize, data.length - from);
+			intactBlocks.set(block, transferSegment(data, from, count, false));
+			Utilities.reportProgress(listener, from + count, data.length);
+		}
+		return intactBlocks;
+	}
+
+	/**
+	 * Writes or reads whole given array at current position. When progress
+	 * listener is set, data is transferred in steps of
+	 * {@value #PROGRESS_STEP_BYTES} bytes, and listener may cancel the
+	 * transfer before every step.
+	 *
+	 * @param data
+	 *            data to be written or read into
+	 * @param write
+	 *            true if data is written to image, false if it is read from
+	 *            image
+	 */
+	private void transferAll(byte[] data, boolean write) {
+		if (listener == null) {
+			transfer(data, 0, data.length, write);
+			return;
+		}
+		for (int from = 0; from < data.length; from += PROGRESS_STEP_BYTES) {
+			Utilities.checkCancelled(listener);
+			int count = Math.min(PROGRESS_STEP_BYTES, data.length - from);
+			transfer(data, from, count, write);
+			Utilities.reportProgress(listener, from + count, data.length);
+		}
+	}
+
+	/**
+	 * Writes or reads given part of data at current position, split at block
+	 * boundaries of framed data.
+	 *
+	 * @param data
+	 *            array holding part of data or to read it into
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param count
+	 *            number of bytes of part
+	 * @param write
+	 *            true if data is written to image, false if it is read from
+	 *            image
+	 * @throws IllegalArgumentException
+	 *             if checksum of a block read to its end does not match
+	 */
+	private void transfer(byte[] data, int from, int count, boolean write) {
+		if (blockSize == 0) {
+			transferSegment(data, from, count, write);
+			return;
+		}
+		while (count > 0) {
+			int segmentLength = (int) Math.min(count, blockSize - position
+					% blockSize);
+			if (!transferSegment(data, from, segmentLength, write)) {
+				long block = (position - 1) / blockSize;
+				throw new IllegalArgumentException(String.format(
+						"Hidden data is corrupted! Checksum of block %d of %d does not match",
+						block, (length + blockSize - 1) / blockSize));
+			}
+			from += segmentLength;
+			count -= segmentLength;
+		}
+	}
+
+	/**
+	 * Writes or reads given part of data at current position, which lies
+	 * within one block of framed data. Checksum of the block is written or
+	 * checked when the part ends the block.
+	 *
+	 * @param data
+	 *            array holding part of data or to read it into
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param count
+	 *            number of bytes of part
+	 * @param write
+	 *            true if data is written to image, false if it is read from
+	 *            image
+	 * @return false if checksum of the block ended by the part does not
+	 *         match, true otherwise
+	 */
+	private boolean transferSegment(byte[] data, int from, int count,
+			boolean write) {
+		long imageOffset = offset + position;
+		if (blockSize > 0) {
+			imageOffset = offset + position / blockSize
+					* ((long) blockSize + CHECKSUM_BYTES) + position
+					% blockSize;
+		}
+		byte[] buffer = data;
+		if (from != 0) {
+			if (segment == null || segment.length < count) {
+				segment = new byte[blockSize > 0 ? blockSize : count];
+			}
+			buffer = segment;
+			if (write) {
+				System.arraycopy(data, from, buffer, 0, count);
+			}
+		}
+		image.transfer(buffer, count, imageOffset, write);
+		if (!write && buffer != data) {
+			System.arraycopy(buffer, 0, data, from, count);
+		}
+		position += count;
+		if (blockSize == 0) {
+			return true;
+		}
+		checksum.update(data, from, count);
+		if (position % blockSize != 0 && position != length) {
+			return true;
+		}
+		byte[] value = Utilities.fromInt((int) checksum.getValue());
+		checksum.reset();
+		if (write) {
+			image.transfer(value, value.length, imageOffset + count, true);
+			return true;
+		}
+		byte[] stored = new byte[CHECKSUM_BYTES];
+		image.transfer(stored, stored.length, imageOffset + count, false);
+		return Arrays.equals(value, stored);
+	}
+}
@@ -0,0 +1,358 @@
+package com.bmpsteg.steg;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Chunk index stored after compressed or encrypted data, so that a range of
+ * original data is extracted by reading only chunks it falls into. Original
+ * data is split into chunks of {@value #CHUNK_BYTES} bytes, and index holds
+ * offset of every chunk in stored body, which is compressed data or
+ * encrypted original data. Compressed data is fully flushed at start of
+ * every chunk, so inflating may start there. Index of encrypted data also
+ * holds authentication tag of every encrypted chunk. Entries of index are
+ * followed by original length, body length and chunk size.
+ *
+ * @author irelic
+ *
+ */
+final class PayloadIndex {
+
+	/**
+	 * Number of bytes of original data in every chunk but the last one.
+	 */
+	static final int CHUNK_BYTES = 1 << 16;
+
+	/**
+	 * Number of bytes of original length, body length and chunk size ending
+	 * the index.
+	 */
+	static final int TRAILER_BYTES = 2 * Long.BYTES + Integer.BYTES;
+
+	private final long originalLength;
+	private final int chunkBytes;
+	private final long[] offsets;
+	private byte[][] tags;
+	private int count;
+	private long bodyLength;
+	private int authenticatedChunks;
+	private boolean chunkStarted;
+
+	/**
+	 * Creates empty index of original data of given length.
+	 *
+	 * @param originalLength
+	 *            original data length in bytes
+	 * @param chunkBytes
+	 *            number of bytes of every chunk but the last one
+	 */
+	private PayloadIndex(long originalLength, int chunkBytes) {
+		long chunks = (originalLength + chunkBytes - 1) / chunkBytes;
+		if (chunks > Integer.MAX_VALUE - Long.BYTES) {
+			throw new IllegalArgumentException(String.format(
+					"Data is too large for chunk index! Size: %d bytes",
+					originalLength));
+		}
+		this.originalLength = originalLength;
+		this.chunkBytes = chunkBytes;
+		this.offsets = new long[(int) chunks];
+	}
+
+	/**
+	 * Creates empty index of original data of given length, whose chunk
+	 * offsets are added while the data is compressed.
+	 *
+	 * @param originalLength
+	 *            original data length in bytes
+	 * @return empty index
+	 */
+	static PayloadIndex forCompressed(long originalLength) {
+		return new PayloadIndex(originalLength, CHUNK_BYTES);
+	}
+
+	/**
+	 * Creates index of original data of given length stored as it is.
+	 *
+	 * @param originalLength
+	 *            original data length in bytes
+	 * @return index of data
+	 */
+	static PayloadIndex forStored(long originalLength) {
+		PayloadIndex index = new PayloadIndex(originalLength, CHUNK_BYTES);
+		for (int chunk = 0; chunk < index.offsets.length; ++chunk) {
+			index.addChunk((long) chunk * CHUNK_BYTES);
+		}
+		index.setBodyLength(originalLength);
+		return index;
+	}
+
+	/**
+	 * Returns number of bytes of index of original data of given length,
+	 * including authentication tag of index of encrypted data.
+	 *
+	 * @param originalLength
+	 *            original data length in bytes
+	 * @param encrypted
+	 *            true if index holds authentication tags of chunks
+	 * @return index length in bytes
+	 */
+	static long length(long originalLength, boolean encrypted) {
+		long chunks = (originalLength + CHUNK_BYTES - 1) / CHUNK_BYTES;
+		return chunks * entryBytes(encrypted) + fixedBytes(encrypted);
+	}
+
+	/**
+	 * Returns maximum original length of data which fits into given number
+	 * of bytes together with its index.
+	 *
+	 * @param maxBytes
+	 *            number of bytes available for data and index
+	 * @param encrypted
+	 *            true if index holds authentication tags of chunks
+	 * @return maximum original data length in bytes
+	 */
+	static long maxLength(long maxBytes, boolean encrypted) {
+		long available = maxBytes - fixedBytes(encrypted);
+		if (available <= 0) {
+			return 0;
+		}
+		long chunkTotal = (long) CHUNK_BYTES + entryBytes(encrypted);
+		return available / chunkTotal * CHUNK_BYTES
+				+ Math.max(available % chunkTotal - entryBytes(encrypted), 0);
+	}
+
+	/**
+	 * Returns number of bytes of index not depending on number of chunks.
+	 *
+	 * @param encrypted
+	 *            true if index is followed by its authentication tag
+	 * @return number of bytes of trailer and tag of index
+	 */
+	private static int fixedBytes(boolean encrypted) {
+		return TRAILER_BYTES
+				+ (encrypted ? PayloadEncryption.CHUNK_TAG_BYTES : 0);
+	}
+
+	/**
+	 * Returns number of bytes of index entry.
+	 *
+	 * @param encrypted
+	 *            true if entry holds authentication tag of chunk
+	 * @return entry length in bytes
+	 */
+	private static int entryBytes(boolean encrypted) {
+		return Long.BYTES
+				+ (encrypted ? PayloadEncryption.CHUNK_TAG_BYTES : 0);
+	}
+
+	/**
+	 * Reads body length from index trailer, which is checked against given
+	 * maximum before index itself can be authenticated.
+	 *
+	 * @param trailer
+	 *            array holding index trailer
+	 * @param from
+	 *            index of first byte of trailer in array
+	 * @param maxBodyLength
+	 *            maximum possible body length
+	 * @return body length in bytes, or -1 if it is out of range
+	 */
+	static long readBodyLength(byte[] trailer, int from, long maxBodyLength) {
+		long bodyLength = ByteBuffer.wrap(trailer).getLong(from + Long.BYTES);
+		return bodyLength < 0 || bodyLength > maxBodyLength ? -1 : bodyLength;
+	}
+
+	/**
+	 * Parses index from given bytes and checks it is consistent.
+	 *
+	 * @param bytes
+	 *            entries and trailer of index
+	 * @param encrypted
+	 *            true if index holds authentication tags of chunks
+	 * @param bodyLength
+	 *            body length in bytes
+	 * @param compressed
+	 *            true if body is compressed, so chunk offsets are arbitrary
+	 * @return parsed index
+	 * @throws IllegalArgumentException
+	 *             if index is not consistent
+	 */
+	static PayloadIndex parse(byte[] bytes, boolean encrypted,
+			long bodyLength, boolean compressed) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int trailer = bytes.length - TRAILER_BYTES;
+		long originalLength = trailer < 0 ? -1 : buffer.getLong(trailer);
+		int chunkBytes = trailer < 0 ? 0 : buffer.getInt(trailer + 2
+				* Long.BYTES);
+		if (originalLength < 0
+				|| chunkBytes <= 0
+				|| buffer.getLong(trailer + Long.BYTES) != bodyLength
+				|| (originalLength + chunkBytes - 1) / chunkBytes
+						* entryBytes(encrypted) != trailer
+				|| (!compressed && originalLength != bodyLength)) {
+			throw new IllegalArgumentException(
+					"Chunk index of hidden data is corrupted!");
+		}
+		PayloadIndex index = new PayloadIndex(originalLength, chunkBytes);
+		if (encrypted) {
+			index.tags = new byte[index.offsets.length][];
+		}
+		for (int chunk = 0; chunk < index.offsets.length; ++chunk) {
+			long offset = buffer.getLong();
+			long expected = (long) chunk * chunkBytes;
+			if (compressed && chunk > 0) {
+				expected = offset > index.offsets[chunk - 1]
+						&& offset < bodyLength ? offset : -1;
+			}
+			if (offset != expected) {
+				throw new IllegalArgumentException(
+						"Chunk index of hidden data is corrupted!");
+			}
+			index.addChunk(offset);
+			if (encrypted) {
+				index.tags[chunk] = new byte[PayloadEncryption.CHUNK_TAG_BYTES];
+				buffer.get(index.tags[chunk]);
+			}
+		}
+		index.setBodyLength(bodyLength);
+		return index;
+	}
+
+	/**
+	 * Adds offset in body of the next chunk.
+	 *
+	 * @param offset
+	 *            offset of first byte of chunk in body
+	 */
+	void addChunk(long offset) {
+		offsets[count++] = offset;
+	}
+
+	/**
+	 * Sets body length, after all chunks are added.
+	 *
+	 * @param bodyLength
+	 *            body length in bytes
+	 */
+	void setBodyLength(long bodyLength) {
+		this.bodyLength = bodyLength;
+	}
+
+	long getOriginalLength() {
+		return originalLength;
+	}
+
+	long getBodyLength() {
+		return bodyLength;
+	}
+
+	int getChunkBytes() {
+		return chunkBytes;
+	}
+
+	int getChunkCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * Returns offset in body of first byte of given chunk.
+	 *
+	 * @param chunk
+	 *            chunk index
+	 * @return offset of chunk in body
+	 */
+	long getOffset(int chunk) {
+		return offsets[chunk];
+	}
+
+	/**
+	 * Returns offset in body of first byte after given chunk.
+	 *
+	 * @param chunk
+	 *            chunk index
+	 * @return offset of end of chunk in body
+	 */
+	long getEnd(int chunk) {
+		return chunk + 1 < offsets.length ? offsets[chunk + 1] : bodyLength;
+	}
+
+	/**
+	 * Returns number of bytes of original data in given chunk.
+	 *
+	 * @param chunk
+	 *            chunk index
+	 * @return original length of chunk
+	 */
+	int getOriginalLength(int chunk) {
+		return (int) Math.min(chunkBytes, originalLength - (long) chunk
+				* chunkBytes);
+	}
+
+	/**
+	 * Returns authentication tag of given encrypted chunk.
+	 *
+	 * @param chunk
+	 *            chunk index
+	 * @return authentication tag of chunk
+	 */
+	byte[] getTag(int chunk) {
+		return tags[chunk];
+	}
+
+	/**
+	 * Authenticates given encrypted part of body by tags of chunks it falls
+	 * into. Body is authenticated part by part in order.
+	 *
+	 * @param data
+	 *            array holding encrypted part of body
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param length
+	 *            number of bytes of part
+	 * @param position
+	 *            position of part in body
+	 * @param encryption
+	 *            encryption stage
+	 */
+	void authenticate(byte[] data, int from, int length, long position,
+			PayloadEncryption encryption) {
+		if (tags == null) {
+			tags = new byte[offsets.length][];
+		}
+		while (length > 0 && authenticatedChunks < offsets.length) {
+			if (!chunkStarted) {
+				encryption.beginChunk(authenticatedChunks);
+				chunkStarted = true;
+			}
+			int part = (int) Math.min(length, getEnd(authenticatedChunks)
+					- position);
+			encryption.authenticateChunk(data, from, part);
+			from += part;
+			length -= part;
+			position += part;
+			if (position == getEnd(authenticatedChunks)) {
+				tags[authenticatedChunks++] = encryption.chunkTag();
+				chunkStarted = false;
+			}
+		}
+	}
+
+	/**
+	 * Returns entries and trailer of index, without authentication tag of
+	 * index of encrypted data.
+	 *
+	 * @return index bytes
+	 */
+	byte[] toBytes() {
+		boolean encrypted = tags != null;
+		ByteBuffer buffer = ByteBuffer.allocate(offsets.length
+				* entryBytes(encrypted) + TRAILER_BYTES);
+		for (int chunk = 0; chunk < offsets.length; ++chunk) {
+			buffer.putLong(offsets[chunk]);
+			if (encrypted) {
+				buffer.put(tags[chunk]);
+			}
+		}
+		return buffer.putLong(originalLength).putLong(bodyLength)
+				.putInt(chunkBytes).array();
+	}
+}
@@ -0,0 +1,217 @@
+package com.bmpsteg.steg;
+
+/**
+ * Maps consecutive data bits to used bits of one pixel and back, for given
+ * number of used components and used bits per component. Data bit
+ * <code>k</code> of a pixel goes to bit <code>k / componentsToUse</code> of
+ * component <code>k % componentsToUse</code>, so the first bit of every used
+ * component is filled before the second bit of any component. Data bits of a
+ * pixel are handled as one chunk aligned to bit 23 of an integer (first data
+ * bit is bit 23), and are spread into packed RGB integer by table lookups, one
+ * per chunk byte.
+ *
+ * @author irelic
+ *
+ */
+final class PixelBits {
+
+	/**
+	 * Number of bits in chunk of data bits of one pixel.
+	 */
+	private static final int CHUNK_BITS = 24;
+
+	private static final PixelBits[] CACHE = new PixelBits[3 * 8];
+
+	private final int componentsToUse;
+	private final int bitsPerComponent;
+	private final int bitsPerPixel;
+	private final int usedMask;
+	private final int[] scatter;
+	private final int[] gather;
+
+	/**
+	 * Creates mapping for given configuration.
+	 *
+	 * @param componentsToUse
+	 *            number of used color components per pixel
+	 * @param bitsPerComponent
+	 *            number of used bits per color component
+	 */
+	private PixelBits(int componentsToUse, int bitsPerComponent) {
+		this.componentsToUse = componentsToUse;
+		this.bitsPerComponent = bitsPerComponent;
+		this.bitsPerPixel = componentsToUse * bitsPerComponent;
+		this.scatter = new int[3 * 256];
+		this.gather = new int[3 * 256];
+		int mask = 0;
+		for (int k = 0; k < bitsPerPixel; ++k) {
+			int shift = (k % componentsToUse) * Byte.SIZE + k
+					/ componentsToUse;
+			mask |= 1 << shift;
+			int chunkByte = k / Byte.SIZE;
+			int chunkBit = 7 - k % Byte.SIZE;
+			for (int value = 0; value < 256; ++value) {
+				if ((value >>> chunkBit & 1) != 0) {
+					scatter[chunkByte * 256 + value] |= 1 << shift;
+				}
+				if ((value >>> (shift % Byte.SIZE) & 1) != 0) {
+					gather[(shift / Byte.SIZE) * 256 + value] |= 1 << (CHUNK_BITS - 1 - k);
+				}
+			}
+		}
+		this.usedMask = mask;
+	}
+
+	/**
+	 * Returns mapping for given configuration.
+	 *
+	 * @param componentsToUse
+	 *            number of used color components per pixel (between 1 and 3,
+	 *            inclusive)
+	 * @param bitsPerComponent
+	 *            number of used bits per color component (between 1 and 8,
+	 *            inclusive)
+	 * @return mapping for given configuration
+	 */
+	static PixelBits forConfig(int componentsToUse, int bitsPerComponent) {
+		int index = (componentsToUse - 1) * 8 + bitsPerComponent - 1;
+		PixelBits bits = CACHE[index];
+		if (bits == null) {
+			bits = new PixelBits(componentsToUse, bitsPerComponent);
+			CACHE[index] = bits;
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns number of used color components per pixel.
+	 *
+	 * @return number of used color components per pixel
+	 */
+	int getComponentsToUse() {
+		return componentsToUse;
+	}
+
+	/**
+	 * Returns number of used bits per color component.
+	 *
+	 * @return number of used bits per color component
+	 */
+	int getBitsPerComponent() {
+		return bitsPerComponent;
+	}
+
+	/**
+	 * Returns number of data bits per pixel.
+	 *
+	 * @return number of data bits per pixel
+	 */
+	int getBitsPerPixel() {
+		return bitsPerPixel;
+	}
+
+	/**
+	 * Returns mask of used bits of packed RGB integer.
+	 *
+	 * @return mask of used bits of packed RGB integer
+	 */
+	int getUsedMask() {
+		return usedMask;
+	}
+
+	/**
+	 * Returns mask of used bits of given component byte.
+	 *
+	 * @param component
+	 *            color component index
+	 * @return mask of used bits of component byte
+	 */
+	int getUsedMask(int component) {
+		return (usedMask >>> component * Byte.SIZE) & 0xFF;
+	}
+
+	/**
+	 * Spreads chunk of data bits of one pixel into used bits of packed RGB
+	 * integer. Other bits of result are 0.
+	 *
+	 * @param chunk
+	 *            data bits of pixel aligned to bit 23
+	 * @return used bits of packed RGB integer
+	 */
+	int scatter(int chunk) {
+		return scatter[chunk >>> 16 & 0xFF] | scatter[256 + (chunk >>> 8 & 0xFF)]
+				| scatter[512 + (chunk & 0xFF)];
+	}
+
+	/**
+	 * Collects used bits of given component byte into chunk of data bits of
+	 * one pixel. Other bits of result are 0.
+	 *
+	 * @param component
+	 *            color component index
+	 * @param value
+	 *            component byte
+	 * @return data bits of component aligned as in chunk
+	 */
+	int gather(int component, int value) {
+		return gather[component * 256 + (value & 0xFF)];
+	}
+
+	/**
+	 * Collects used bits of packed RGB integer into chunk of data bits of one
+	 * pixel.
+	 *
+	 * @param pixel
+	 *            packed RGB integer
+	 * @return data bits of pixel aligned to bit 23
+	 */
+	int gather(int pixel) {
+		return gather[pixel & 0xFF] | gather[256 + (pixel >>> 8 & 0xFF)]
+				| gather[512 + (pixel >>> 16 & 0xFF)];
+	}
+
+	/**
+	 * Reads data bits of one pixel starting at given data bit index.
+	 *
+	 * @param data
+	 *            data
+	 * @param dataBit
+	 *            index of first data bit
+	 * @return data bits of pixel aligned to bit 23
+	 */
+	int readChunk(byte[] data, int dataBit) {
+		int index = dataBit >>> 3;
+		int shift = dataBit & 7;
+		int bytes = (shift + bitsPerPixel + 7) >>> 3;
+		int value = 0;
+		for (int i = 0; i < 4; ++i) {
+			value = value << 8 | (i < bytes ? data[index + i] & 0xFF : 0);
+		}
+		return (value << shift) >>> (32 - CHUNK_BITS)
+				& (0xFFFFFF << (CHUNK_BITS - bitsPerPixel));
+	}
+
+	/**
+	 * Writes data bits of one pixel starting at given data bit index. Other
+	 * data bits are left unchanged.
+	 *
+	 * @param data
+	 *            data
+	 * @param dataBit
+	 *            index of first data bit
+	 * @param chunk
+	 *            data bits of pixel aligned to bit 23
+	 */
+	void writeChunk(byte[] data, int dataBit, int chunk) {
+		int index = dataBit >>> 3;
+		int shift = dataBit & 7;
+		int bytes = (shift + bitsPerPixel + 7) >>> 3;
+		long mask = ((1L << bitsPerPixel) - 1) << (40 - shift - bitsPerPixel);
+		long value = (long) (chunk >>> (CHUNK_BITS - bitsPerPixel)) << (40 - shift - bitsPerPixel);
+		for (int i = 0; i < bytes; ++i) {
+			int byteShift = 32 - 8 * i;
+			int byteMask = (int) (mask >>> byteShift) & 0xFF;
+			data[index + i] = (byte) ((data[index + i] & ~byteMask) | ((int) (value >>> byteShift) & byteMask));
+		}
+	}
+}
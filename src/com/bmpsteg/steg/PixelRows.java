@@ -0,0 +1,158 @@
+package com.bmpsteg.steg;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.lang.reflect.Array;
+
+import com.bmpsteg.bmp.BmpImage;
+
+/**
+ * Row-wise access to pixels of image.
+ *
+ * @author irelic
+ *
+ */
+interface PixelRows {
+
+	/**
+	 * Returns image width.
+	 *
+	 * @return image width
+	 */
+	int getWidth();
+
+	/**
+	 * Returns image height.
+	 *
+	 * @return image height
+	 */
+	int getHeight();
+
+	/**
+	 * Reads RGB colors of pixels of single row.
+	 *
+	 * @param x
+	 *            x coordinate of first pixel
+	 * @param y
+	 *            row of pixels
+	 * @param width
+	 *            number of pixels
+	 * @param rgbArray
+	 *            array to read colors into
+	 */
+	void getRow(int x, int y, int width, int[] rgbArray);
+
+	/**
+	 * Sets RGB colors of pixels of single row.
+	 *
+	 * @param x
+	 *            x coordinate of first pixel
+	 * @param y
+	 *            row of pixels
+	 * @param width
+	 *            number of pixels
+	 * @param rgbArray
+	 *            array of colors
+	 */
+	void setRow(int x, int y, int width, int[] rgbArray);
+
+	/**
+	 * Sets all pixels of given rectangle to given RGB color.
+	 *
+	 * @param region
+	 *            rectangle to fill
+	 * @param rgb
+	 *            integer representing RGB color
+	 */
+	void fill(Rectangle region, int rgb);
+
+	/**
+	 * Returns row-wise access to pixels of given image. Rectangles are filled
+	 * by writing prepared row of raster data elements into every row.
+	 *
+	 * @param image
+	 *            image
+	 * @return row-wise access to image pixels
+	 */
+	static PixelRows forImage(final BufferedImage image) {
+		return new PixelRows() {
+
+			@Override
+			public int getWidth() {
+				return image.getWidth();
+			}
+
+			@Override
+			public int getHeight() {
+				return image.getHeight();
+			}
+
+			@Override
+			public void getRow(int x, int y, int width, int[] rgbArray) {
+				image.getRGB(x, y, width, 1, rgbArray, 0, width);
+			}
+
+			@Override
+			public void setRow(int x, int y, int width, int[] rgbArray) {
+				image.setRGB(x, y, width, 1, rgbArray, 0, width);
+			}
+
+			@Override
+			public void fill(Rectangle region, int rgb) {
+				WritableRaster raster = image.getRaster();
+				Object pixel = image.getColorModel().getDataElements(rgb, null);
+				int pixelLength = Array.getLength(pixel);
+				Object row = Array.newInstance(pixel.getClass()
+						.getComponentType(), region.width * pixelLength);
+				System.arraycopy(pixel, 0, row, 0, pixelLength);
+				for (int filled = pixelLength, total = region.width
+						* pixelLength; filled < total; filled *= 2) {
+					System.arraycopy(row, 0, row, filled,
+							Math.min(filled, total - filled));
+				}
+				for (int y = region.y; y < region.y + region.height; ++y) {
+					raster.setDataElements(region.x, y, region.width, 1, row);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns row-wise access to pixels of given BMP image.
+	 *
+	 * @param image
+	 *            BMP image
+	 * @return row-wise access to image pixels
+	 */
+	static PixelRows forImage(final BmpImage image) {
+		return new PixelRows() {
+
+			@Override
+			public int getWidth() {
+				return image.getWidth();
+			}
+
+			@Override
+			public int getHeight() {
+				return image.getHeight();
+			}
+
+			@Override
+			public void getRow(int x, int y, int width, int[] rgbArray) {
+				image.getRGB(x, y, width, 1, rgbArray, 0, width);
+			}
+
+			@Override
+			public void setRow(int x, int y, int width, int[] rgbArray) {
+				image.setRGB(x, y, width, 1, rgbArray, 0, width);
+			}
+
+			@Override
+			public void fill(Rectangle region, int rgb) {
+				image.fillRect(region.x, region.y, region.width,
+						region.height, rgb);
+			}
+		};
+	}
+}
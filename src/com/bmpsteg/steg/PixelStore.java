@@ -0,0 +1,253 @@
+package com.bmpsteg.steg;
+
+import java.nio.ByteBuffer;
+
+import com.bmpsteg.bmp.BmpImage;
+
+/**
+ * Pixels of image stored without AWT, either in heap array or in byte buffer,
+ * which may be direct and so live off heap. Algorithms hide and extract data
+ * directly in storage of stores created by this interface, without any color
+ * conversion. Store may be reused for many images by setting its pixels, and
+ * store over mapped BMP image shares pixels with the file without copying.
+ * Other implementations are accessed through
+ * {@link #getRGB(int, int)} and {@link #setRGB(int, int, int)}.
+ *
+ * @author irelic
+ *
+ */
+public interface PixelStore {
+
+	/**
+	 * Returns image width.
+	 *
+	 * @return image width
+	 */
+	int getWidth();
+
+	/**
+	 * Returns image height.
+	 *
+	 * @return image height
+	 */
+	int getHeight();
+
+	/**
+	 * Returns integer representing RGB color of pixel on given coordinates.
+	 *
+	 * @param x
+	 *            x coordinate
+	 * @param y
+	 *            y coordinate
+	 * @return integer representing RGB color of pixel
+	 */
+	int getRGB(int x, int y);
+
+	/**
+	 * Sets RGB color of pixel on given coordinates.
+	 *
+	 * @param x
+	 *            x coordinate
+	 * @param y
+	 *            y coordinate
+	 * @param rgb
+	 *            integer representing RGB color
+	 */
+	void setRGB(int x, int y, int rgb);
+
+	/**
+	 * Reads RGB colors of pixels of given rectangle into given array, row by
+	 * row, the same way {@link BmpImage#getRGB(int, int, int, int, int[], int,
+	 * int)} does.
+	 *
+	 * @param x
+	 *            x coordinate of upper left pixel
+	 * @param y
+	 *            y coordinate of upper left pixel
+	 * @param width
+	 *            rectangle width
+	 * @param height
+	 *            rectangle height
+	 * @param rgbArray
+	 *            array to read colors into
+	 * @param offset
+	 *            index in array of first color
+	 * @param scansize
+	 *            distance in array between colors of consecutive rows
+	 */
+	default void getRGB(int x, int y, int width, int height, int[] rgbArray,
+			int offset, int scansize) {
+		for (int j = 0; j < height; ++j) {
+			for (int i = 0; i < width; ++i) {
+				rgbArray[offset + j * scansize + i] = getRGB(x + i, y + j);
+			}
+		}
+	}
+
+	/**
+	 * Sets RGB colors of pixels of given rectangle from given array, row by
+	 * row, the same way {@link BmpImage#setRGB(int, int, int, int, int[], int,
+	 * int)} does.
+	 *
+	 * @param x
+	 *            x coordinate of upper left pixel
+	 * @param y
+	 *            y coordinate of upper left pixel
+	 * @param width
+	 *            rectangle width
+	 * @param height
+	 *            rectangle height
+	 * @param rgbArray
+	 *            array of colors
+	 * @param offset
+	 *            index in array of first color
+	 * @param scansize
+	 *            distance in array between colors of consecutive rows
+	 */
+	default void setRGB(int x, int y, int width, int height, int[] rgbArray,
+			int offset, int scansize) {
+		for (int j = 0; j < height; ++j) {
+			for (int i = 0; i < width; ++i) {
+				setRGB(x + i, y + j, rgbArray[offset + j * scansize + i]);
+			}
+		}
+	}
+
+	/**
+	 * Allocates store of given dimensions holding every pixel as packed RGB
+	 * integer in heap array. All pixels are black.
+	 *
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return allocated store
+	 */
+	static PixelStore allocateIntRGB(int width, int height) {
+		return new IntPixelStore(new int[Utilities.pixelArrayLength(width,
+				height, 1)], width, height);
+	}
+
+	/**
+	 * Returns store over given array holding every pixel as packed RGB
+	 * integer, row by row from the top row.
+	 *
+	 * @param pixels
+	 *            packed RGB integers of pixels
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return store over given array
+	 */
+	static PixelStore wrapIntRGB(int[] pixels, int width, int height) {
+		if (pixels.length != Utilities.pixelArrayLength(width, height, 1)) {
+			throw new IllegalArgumentException(
+					"Array length does not match image dimensions!");
+		}
+		return new IntPixelStore(pixels, width, height);
+	}
+
+	/**
+	 * Allocates store of given dimensions holding every pixel as B, G and R
+	 * bytes in heap array. All pixels are black.
+	 *
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return allocated store
+	 */
+	static PixelStore allocateByteBGR(int width, int height) {
+		return new BgrPixelStore(new byte[Utilities.pixelArrayLength(width,
+				height, BgrPixelStore.BYTES_PER_PIXEL)], width, height);
+	}
+
+	/**
+	 * Returns store over given array holding every pixel as B, G and R bytes,
+	 * row by row from the top row.
+	 *
+	 * @param pixels
+	 *            B, G and R bytes of pixels
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return store over given array
+	 */
+	static PixelStore wrapByteBGR(byte[] pixels, int width, int height) {
+		if (pixels.length != Utilities.pixelArrayLength(width, height,
+				BgrPixelStore.BYTES_PER_PIXEL)) {
+			throw new IllegalArgumentException(
+					"Array length does not match image dimensions!");
+		}
+		return new BgrPixelStore(pixels, width, height);
+	}
+
+	/**
+	 * Allocates store of given dimensions holding every pixel as B, G and R
+	 * bytes in direct byte buffer, outside of heap. All pixels are black.
+	 *
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return allocated store
+	 */
+	static PixelStore allocateDirect(int width, int height) {
+		int bytesPerPixel = BgrPixelStore.BYTES_PER_PIXEL;
+		return new BufferPixelStore(ByteBuffer.allocateDirect(Utilities
+				.pixelArrayLength(width, height, bytesPerPixel)), width, height,
+				bytesPerPixel, 0, width * bytesPerPixel);
+	}
+
+	/**
+	 * Returns store over given buffer holding every pixel as B, G and R bytes,
+	 * optionally followed by unused byte, row by row from the top row starting
+	 * at buffer index 0. Buffer position and limit are ignored.
+	 *
+	 * @param buffer
+	 *            heap or direct buffer holding pixels
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param bytesPerPixel
+	 *            3 or 4
+	 * @param rowStride
+	 *            distance in bytes between first pixels of consecutive rows
+	 * @return store over given buffer
+	 */
+	static PixelStore wrap(ByteBuffer buffer, int width, int height,
+			int bytesPerPixel, int rowStride) {
+		if (bytesPerPixel != 3 && bytesPerPixel != 4) {
+			throw new IllegalArgumentException(
+					"Number of bytes per pixel must be 3 or 4!");
+		}
+		if (width < 1 || height < 1 || rowStride < (long) width * bytesPerPixel
+				|| (long) rowStride * (height - 1) + (long) width
+						* bytesPerPixel > buffer.capacity()) {
+			throw new IllegalArgumentException(String.format(
+					"Buffer of %d bytes cannot hold %dx%d pixels with row stride %d!",
+					buffer.capacity(), width, height, rowStride));
+		}
+		return new BufferPixelStore(buffer, width, height, bytesPerPixel, 0,
+				rowStride);
+	}
+
+	/**
+	 * Returns store sharing pixels of given mapped BMP image. Pixels written
+	 * into store are written into BMP image file.
+	 *
+	 * @param image
+	 *            mapped BMP image
+	 * @return store over pixels of given BMP image
+	 */
+	static PixelStore forImage(BmpImage image) {
+		int rowStride = image.getHeader().getRowStride();
+		return new BufferPixelStore(image.getBuffer(), image.getWidth(),
+				image.getHeight(), image.getBytesPerPixel(),
+				image.getRowOffset(0), image.getHeader().isTopDown() ? rowStride
+						: -rowStride);
+	}
+}
@@ -0,0 +1,119 @@
+package com.bmpsteg.steg;
+
+import com.bmpsteg.steg.RGBBitsSteganography.Layout;
+
+/**
+ * Represents outcome of probing image for hidden data. Probing reads only
+ * pixels holding header of hidden data, so it tells how much data image
+ * declares to hold without extracting the data.
+ * 
+ * @author irelic
+ *
+ */
+public final class ProbeResult {
+
+	private final Layout layout;
+	private final boolean compressed;
+	private final boolean encrypted;
+	private final long declaredBytes;
+	private final long maxBytes;
+	private final boolean plausible;
+
+	/**
+	 * Creates new probing outcome.
+	 * 
+	 * @param layout
+	 *            layout of hidden data or <code>null</code> if image starts
+	 *            with unsupported format header
+	 * @param compressed
+	 *            true if hidden data is compressed
+	 * @param encrypted
+	 *            true if hidden data is encrypted
+	 * @param declaredBytes
+	 *            number of hidden bytes declared by header
+	 * @param maxBytes
+	 *            maximum number of bytes image could hold in given layout
+	 * @param plausible
+	 *            true if declared number of bytes is valid for image
+	 */
+	public ProbeResult(Layout layout, boolean compressed, boolean encrypted,
+			long declaredBytes, long maxBytes, boolean plausible) {
+		this.layout = layout;
+		this.compressed = compressed;
+		this.encrypted = encrypted;
+		this.declaredBytes = declaredBytes;
+		this.maxBytes = maxBytes;
+		this.plausible = plausible;
+	}
+
+	/**
+	 * Returns layout of hidden data.
+	 * 
+	 * @return layout of hidden data or <code>null</code> if image starts with
+	 *         unsupported format header
+	 */
+	public Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Returns information if hidden data is compressed.
+	 * 
+	 * @return true if hidden data is compressed, false otherwise
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Returns information if hidden data is encrypted.
+	 * 
+	 * @return true if hidden data is encrypted, false otherwise
+	 */
+	public boolean isEncrypted() {
+		return encrypted;
+	}
+
+	/**
+	 * Returns number of hidden bytes declared by header. For compressed data,
+	 * this is number of bytes of compressed data, and for encrypted data it
+	 * includes salt and authentication tag. It is meaningful only if result is
+	 * plausible.
+	 * 
+	 * @return number of hidden bytes declared by header
+	 */
+	public long getDeclaredBytes() {
+		return declaredBytes;
+	}
+
+	/**
+	 * Returns maximum number of bytes image could hold in layout of hidden
+	 * data.
+	 * 
+	 * @return maximum number of bytes image could hold
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns information if declared number of bytes is valid for image, so
+	 * image probably holds hidden data.
+	 * 
+	 * @return true if image probably holds hidden data, false otherwise
+	 */
+	public boolean isPlausible() {
+		return plausible;
+	}
+
+	@Override
+	public String toString() {
+		if (layout == null) {
+			return "unsupported format";
+		}
+		return String.format("%s %d of %d bytes (%s%s%s)",
+				plausible ? "plausible" : "implausible", declaredBytes,
+				maxBytes, layout, compressed ? ", compressed" : "",
+				encrypted ? ", encrypted" : "");
+	}
+}
@@ -0,0 +1,34 @@
+package com.bmpsteg.steg;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Listener notified about progress of hiding or extracting the data, which
+ * may also cancel it. Listener is asked whether to cancel before every part
+ * of data is hidden or extracted, and notified after it. Cancelled operation
+ * throws {@link CancellationException}, leaving image with only part of the
+ * data hidden.
+ *
+ * @author irelic
+ *
+ */
+public interface ProgressListener {
+
+	/**
+	 * Called after part of data is hidden or extracted, on thread hiding or
+	 * extracting the data.
+	 *
+	 * @param doneBytes
+	 *            number of data bytes hidden or extracted so far
+	 * @param totalBytes
+	 *            total number of data bytes
+	 */
+	void progress(long doneBytes, long totalBytes);
+
+	/**
+	 * Checks if hiding or extracting the data should be cancelled.
+	 *
+	 * @return true if operation should be cancelled, false otherwise
+	 */
+	boolean isCancelled();
+}
@@ -1,6 +1,34 @@
 package com.bmpsteg.steg;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.bmpsteg.bmp.BmpHeader;
+import com.bmpsteg.bmp.BmpImage;
+import com.bmpsteg.bmp.TiledBmpImage;
 
 /**
  * Stegranography method where n bits of k components in BMP image is used for
@@ -11,8 +39,62 @@ import java.awt.image.BufferedImage;
  */
 public class RGBBitsSteganography implements SteganographyAlgorithm {
 
+	/**
+	 * Minimum number of data bits worth splitting between fork/join tasks.
+	 */
+	private static final int PARALLEL_THRESHOLD_BITS = 1 << 16;
+
+	/**
+	 * Number of bytes moved between stream and image at once.
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * Maximum number of bytes of BMP image file read at once when hiding the
+	 * data in place.
+	 */
+	private static final int IN_PLACE_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Maximum number of data bytes transferred between data array and image
+	 * at once, so that indexes of data bits always fit into integer.
+	 */
+	private static final int MAX_TRANSFER_BYTES = 1 << 24;
+
+	/**
+	 * Number of data bytes encrypted and hidden, or extracted and decrypted,
+	 * at once when hiding or extracting whole data array with password.
+	 */
+	private static final int ENCRYPTED_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Layout of hidden data bits in image.
+	 */
+	public enum Layout {
+		/**
+		 * Layout where whole image is swept for first bit of every used
+		 * component, then again for second bit of every used component and so
+		 * on. Data is preceded by its length. This is the original layout.
+		 */
+		PASS_MAJOR,
+		/**
+		 * Layout where all used bits of all used components of a pixel hold
+		 * consecutive data bits, so image is swept only once. Data is preceded
+		 * by format header stored as in {@link #PASS_MAJOR} layout, and starts
+		 * at the first pixel after pixels holding the header.
+		 */
+		PIXEL_MAJOR
+	}
+
 	private int componentsToUse;
 	private int bitsPerComponent;
+	private volatile Layout layout = Layout.PASS_MAJOR;
+	private volatile boolean compressing;
+	private volatile boolean framing;
+	private volatile boolean indexing;
+	private volatile ForkJoinPool forkJoinPool;
+	private volatile ProgressListener progressListener;
+	private volatile char[] password;
 
 	/**
 	 * Creates new steganography algorithm with given number of color components
@@ -34,6 +116,25 @@ public class RGBBitsSteganography implements SteganographyAlgorithm {
 		this.bitsPerComponent = bitsPerComponent;
 	}
 
+	/**
+	 * Creates new steganography algorithm configured the same as given one.
+	 * Neither password nor progress listener is copied, so that password and
+	 * listener of a single operation are set only on its own copy of shared
+	 * algorithm and never seen by other operations.
+	 * 
+	 * @param algorithm
+	 *            algorithm whose configuration is copied
+	 */
+	public RGBBitsSteganography(RGBBitsSteganography algorithm) {
+		this.componentsToUse = algorithm.componentsToUse;
+		this.bitsPerComponent = algorithm.bitsPerComponent;
+		this.layout = algorithm.layout;
+		this.compressing = algorithm.compressing;
+		this.framing = algorithm.framing;
+		this.indexing = algorithm.indexing;
+		this.forkJoinPool = algorithm.forkJoinPool;
+	}
+
 	/**
 	 * Checks if number of bits per component is between 1 and 8, inclusive.
 	 * 
@@ -63,145 +164,2146 @@ public class RGBBitsSteganography implements SteganographyAlgorithm {
 	@Override
 	public void hideData(byte[] data, BufferedImage image)
 			throws InsufficientSpaceException {
-		int numberOfBytes = data.length;
-		if (numberOfBytes > getMaxBytes(image)) {
+		hideData(data, RasterKernel.forImage(image));
+	}
+
+	@Override
+	public void hideData(byte[] data, BmpImage image)
+			throws InsufficientSpaceException {
+		hideData(data, RasterKernel.forImage(image));
+	}
+
+	@Override
+	public void hideData(byte[] data, PixelStore image)
+			throws InsufficientSpaceException {
+		hideData(data, RasterKernel.forStore(image));
+	}
+
+	@Override
+	public void hideData(InputStream data, long length, BufferedImage image)
+			throws InsufficientSpaceException, IOException {
+		hideData(data, length, RasterKernel.forImage(image));
+	}
+
+	@Override
+	public void hideData(InputStream data, long length, BmpImage image)
+			throws InsufficientSpaceException, IOException {
+		hideData(data, length, RasterKernel.forImage(image));
+	}
+
+	@Override
+	public void hideData(InputStream data, long length, PixelStore image)
+			throws InsufficientSpaceException, IOException {
+		hideData(data, length, RasterKernel.forStore(image));
+	}
+
+	/**
+	 * Hides given data into image.
+	 * 
+	 * @param data
+	 *            data to be hidden
+	 * @param kernel
+	 *            kernel over image used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 */
+	private void hideData(byte[] data, RasterKernel kernel)
+			throws InsufficientSpaceException {
+		PayloadIndex index = indexing ? PayloadIndex.forCompressed(data.length)
+				: null;
+		byte[] compressed = compressing ? PayloadCompression.compress(data,
+				index) : null;
+		if (compressed != null) {
+			hideStoredData(compressed, true, index, kernel, layout);
+		} else {
+			hideStoredData(data, false, indexing ? PayloadIndex
+					.forStored(data.length) : null, kernel, layout);
+		}
+	}
+
+	/**
+	 * Hides given data, which is already compressed if needed, into image
+	 * together with its header. When password is set, data is encrypted and
+	 * hidden one chunk at a time, so data array itself is never changed.
+	 * Compressed or encrypted data is followed by given chunk index.
+	 * 
+	 * @param data
+	 *            data to be stored in image
+	 * @param compressed
+	 *            true if data is compressed
+	 * @param index
+	 *            chunk index of data or <code>null</code> if data gets no
+	 *            chunk index
+	 * @param kernel
+	 *            kernel over image used for hiding the data
+	 * @param layout
+	 *            layout of data bits
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 */
+	private void hideStoredData(byte[] data, boolean compressed,
+			PayloadIndex index, RasterKernel kernel, Layout layout)
+			throws InsufficientSpaceException {
+		checkComponents(kernel);
+		PayloadEncryption encryption = createEncryption();
+		boolean encrypted = encryption != null;
+		if (!compressed && !encrypted) {
+			index = null;
+		}
+		long indexLength = index != null ? PayloadIndex.length(
+				index.getOriginalLength(), encrypted) : 0;
+		DataHeader header = DataHeader.forHiding(layout, compressed,
+				encrypted, framing, index != null, storedLength(data.length
+						+ indexLength, encrypted));
+		checkCapacity(kernel.getWidth(), kernel.getHeight(), header,
+				data.length);
+		PayloadFraming stored = writeHeader(kernel, header);
+		if (!encrypted) {
+			stored.writeAll(data);
+			if (index != null) {
+				writeIndex(stored, index, null);
+			}
+			return;
+		}
+		beginEncrypted(stored, encryption);
+		ProgressListener listener = progressListener;
+		byte[] chunk = new byte[Math.min(data.length, ENCRYPTED_CHUNK_SIZE)];
+		for (int from = 0; from < data.length; from += chunk.length) {
+			Utilities.checkCancelled(listener);
+			int chunkLength = Math.min(chunk.length, data.length - from);
+			System.arraycopy(data, from, chunk, 0, chunkLength);
+			writeEncrypted(stored, chunk, chunkLength, from, encryption);
+			if (index != null) {
+				index.authenticate(chunk, 0, chunkLength, from, encryption);
+			}
+			Utilities.reportProgress(listener, from + chunkLength,
+					data.length);
+		}
+		if (index != null) {
+			writeIndex(stored, index, encryption);
+		}
+		endEncrypted(stored, encryption);
+	}
+
+	/**
+	 * Writes given header of stored data to image, followed by frame
+	 * descriptor if data is framed.
+	 * 
+	 * @param kernel
+	 *            kernel over image
+	 * @param header
+	 *            header of stored data
+	 * @return stored data following the header, positioned at its beginning
+	 */
+	private PayloadFraming writeHeader(RasterKernel kernel, DataHeader header) {
+		byte[] bytes = header.toBytes();
+		writeDataToImage(kernel, bytes, bytes.length, 0, Layout.PASS_MAJOR);
+		long offset = dataOffset(header.getLayout(), bytes.length);
+		if (header.isFramed()) {
+			byte[] descriptor = PayloadFraming.createDescriptor(bytes,
+					header.getBlockSize());
+			writeDataToImage(kernel, descriptor, descriptor.length, offset,
+					header.getLayout());
+			offset += descriptor.length;
+		}
+		return new PayloadFraming(new KernelTransfer(kernel,
+				header.getLayout()), bytes, offset, header.getDataLength(),
+				header.getBlockSize(), progressListener);
+	}
+
+	/**
+	 * Creates encryption stage for hiding the data if password is set.
+	 * 
+	 * @return encryption stage with fresh salt or <code>null</code> if data
+	 *         is not encrypted
+	 */
+	private PayloadEncryption createEncryption() {
+		char[] password = this.password;
+		return password == null ? null : PayloadEncryption.forHiding(password);
+	}
+
+	/**
+	 * Writes salt of encrypted data and authenticates format header and salt.
+	 * 
+	 * @param stored
+	 *            stored data, positioned at its beginning
+	 * @param encryption
+	 *            encryption stage
+	 */
+	private static void beginEncrypted(PayloadFraming stored,
+			PayloadEncryption encryption) {
+		byte[] header = stored.getHeader();
+		byte[] salt = encryption.getSalt();
+		encryption.authenticate(header, 0, header.length);
+		encryption.authenticate(salt, 0, salt.length);
+		stored.write(salt, 0, salt.length);
+	}
+
+	/**
+	 * Encrypts given chunk of data in place, authenticates it and writes it
+	 * to image.
+	 * 
+	 * @param stored
+	 *            stored data, positioned at the chunk
+	 * @param chunk
+	 *            chunk of data, encrypted in place
+	 * @param chunkLength
+	 *            number of bytes of chunk
+	 * @param position
+	 *            position of chunk in data
+	 * @param encryption
+	 *            encryption stage
+	 */
+	private void writeEncrypted(PayloadFraming stored, byte[] chunk,
+			int chunkLength, long position, PayloadEncryption encryption) {
+		encryption.apply(chunk, 0, chunkLength, position, forkJoinPool);
+		encryption.authenticate(chunk, 0, chunkLength);
+		stored.write(chunk, 0, chunkLength);
+	}
+
+	/**
+	 * Writes chunk index after data. Index of encrypted data is encrypted
+	 * and followed by its own authentication tag.
+	 * 
+	 * @param stored
+	 *            stored data, positioned after data
+	 * @param index
+	 *            chunk index of data
+	 * @param encryption
+	 *            encryption stage, or <code>null</code> if data is not
+	 *            encrypted
+	 */
+	private void writeIndex(PayloadFraming stored, PayloadIndex index,
+			PayloadEncryption encryption) {
+		byte[] bytes = index.toBytes();
+		if (encryption == null) {
+			stored.write(bytes, 0, bytes.length);
+			return;
+		}
+		writeEncrypted(stored, bytes, bytes.length, index.getBodyLength(),
+				encryption);
+		byte[] tag = encryption.indexTag(bytes, 0, bytes.length);
+		encryption.authenticate(tag, 0, tag.length);
+		stored.write(tag, 0, tag.length);
+	}
+
+	/**
+	 * Writes authentication tag of encrypted data.
+	 * 
+	 * @param stored
+	 *            stored data, positioned after encrypted data
+	 * @param encryption
+	 *            encryption stage
+	 */
+	private static void endEncrypted(PayloadFraming stored,
+			PayloadEncryption encryption) {
+		byte[] tag = encryption.tag();
+		stored.write(tag, 0, tag.length);
+	}
+
+	/**
+	 * Hides data read from given stream into image. When compressing,
+	 * compression level is chosen from the first chunk of the stream, and
+	 * compressed data is collected in memory before hiding it. If compressed
+	 * data turns out to be no shorter than original data, bytes read so far
+	 * are kept in memory too and data is hidden as it is.
+	 * 
+	 * @param data
+	 *            stream of data to be hidden
+	 * @param length
+	 *            number of bytes to read from stream and hide
+	 * @param kernel
+	 *            kernel over image used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 * @throws IOException
+	 *             if stream could not be read or it ends before given number
+	 *             of bytes is read
+	 */
+	private void hideData(InputStream data, long length, RasterKernel kernel)
+			throws InsufficientSpaceException, IOException {
+		checkComponents(kernel);
+		Layout layout = this.layout;
+		byte[] chunk = new byte[(int) Math.max(0,
+				Math.min(length, CHUNK_SIZE))];
+		int readAhead = 0;
+		if (compressing && length > 0) {
+			readAhead = chunk.length;
+			Utilities.readFully(data, chunk, readAhead);
+			int level = PayloadCompression.chooseLevel(chunk, readAhead,
+					length);
+			if (level != Deflater.NO_COMPRESSION) {
+				PayloadIndex index = indexing ? PayloadIndex
+						.forCompressed(length) : null;
+				ByteArrayOutputStream original = new ByteArrayOutputStream();
+				byte[] compressed = PayloadCompression.compress(chunk,
+						readAhead, data, length, level, index, original);
+				if (compressed != null) {
+					hideStoredData(compressed, true, index, kernel, layout);
+					return;
+				}
+				data = new SequenceInputStream(new ByteArrayInputStream(
+						original.toByteArray()), data);
+			}
+		}
+		PayloadEncryption encryption = createEncryption();
+		boolean encrypted = encryption != null;
+		PayloadIndex index = indexing && encrypted ? PayloadIndex
+				.forStored(length) : null;
+		long indexLength = index != null ? PayloadIndex.length(length, true)
+				: 0;
+		DataHeader header = DataHeader.forHiding(layout, false, encrypted,
+				framing, index != null, storedLength(length + indexLength,
+						encrypted));
+		checkCapacity(kernel.getWidth(), kernel.getHeight(), header, length);
+		PayloadFraming stored = writeHeader(kernel, header);
+		if (encrypted) {
+			beginEncrypted(stored, encryption);
+		}
+		long remaining = length;
+		ProgressListener listener = progressListener;
+		while (remaining > 0) {
+			Utilities.checkCancelled(listener);
+			int chunkLength = (int) Math.min(remaining, chunk.length);
+			if (readAhead > 0) {
+				readAhead = 0;
+			} else {
+				Utilities.readFully(data, chunk, chunkLength);
+			}
+			if (encrypted) {
+				writeEncrypted(stored, chunk, chunkLength, length - remaining,
+						encryption);
+				if (index != null) {
+					index.authenticate(chunk, 0, chunkLength, length
+							- remaining, encryption);
+				}
+			} else {
+				stored.write(chunk, 0, chunkLength);
+			}
+			remaining -= chunkLength;
+			Utilities.reportProgress(listener, length - remaining, length);
+		}
+		if (index != null) {
+			writeIndex(stored, index, encryption);
+		}
+		if (encrypted) {
+			endEncrypted(stored, encryption);
+		}
+	}
+
+	/**
+	 * Checks if image of given kernel has enough color components for this
+	 * method.
+	 * 
+	 * @param kernel
+	 *            kernel over image
+	 * @throws IllegalArgumentException
+	 *             if image has less color components than this method uses
+	 */
+	private void checkComponents(RasterKernel kernel) {
+		if (kernel.getComponents() < componentsToUse) {
+			throw new IllegalArgumentException(String.format(
+					"Image has only %d color component(s)! Components to use: %d",
+					kernel.getComponents(), componentsToUse));
+		}
+	}
+
+	/**
+	 * Checks if data of given length fits into image of given dimensions
+	 * together with given header of stored data. Stored length in header
+	 * counts chunk index, and salt and authentication tag of encrypted data,
+	 * while frame descriptor and block checksums of framed data are added to
+	 * it here.
+	 * 
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param header
+	 *            header of stored data
+	 * @param length
+	 *            data length in bytes
+	 * @throws InsufficientSpaceException
+	 *             if data does not fit into image
+	 */
+	private void checkCapacity(int width, int height, DataHeader header,
+			long length) throws InsufficientSpaceException {
+		int headerLength = header.getHeaderLength();
+		long maxBytes = getMaxBytes(width, height, header.getLayout(),
+				headerLength);
+		if (header.isFramed()) {
+			maxBytes = PayloadFraming.maxFramedBytes(maxBytes,
+					header.getBlockSize());
+		}
+		if (length < 0 || header.getDataLength() > maxBytes
+				|| totalBits(width, height) < headerLength * 8L) {
 			throw new InsufficientSpaceException(String.format(
 					"Maximum data size is %d bytes! Given size: %d bytes",
-					getMaxBytes(image), numberOfBytes));
+					getMaxBytes(width, height, header), length));
+		}
+	}
+
+	/**
+	 * Returns number of bytes stored in image for data of given length.
+	 * 
+	 * @param length
+	 *            data length in bytes
+	 * @param encrypted
+	 *            true if data is encrypted
+	 * @return data length, increased by length of salt and authentication tag
+	 *         if data is encrypted
+	 */
+	private static long storedLength(long length, boolean encrypted) {
+		return encrypted ? length + PayloadEncryption.OVERHEAD_BYTES : length;
+	}
+
+	/**
+	 * Returns byte offset of data preceded by header of given length. Data in
+	 * {@link Layout#PASS_MAJOR} layout follows its header, while data in
+	 * {@link Layout#PIXEL_MAJOR} layout starts at the first pixel after 8
+	 * pixels per header byte, so its offset counts all used bits of those
+	 * pixels.
+	 * 
+	 * @param layout
+	 *            layout of data bits
+	 * @param headerLength
+	 *            length of header in bytes
+	 * @return byte offset of data
+	 */
+	private long dataOffset(Layout layout, int headerLength) {
+		return layout == Layout.PASS_MAJOR ? headerLength : (long) headerLength
+				* componentsToUse * bitsPerComponent;
+	}
+
+	/**
+	 * Hides given data into existing BMP image file in place. Only bands of
+	 * rows which given data falls into are read, changed and written back,
+	 * using positional reads and writes of {@link TiledBmpImage}. Small data
+	 * hidden into large image therefore touches only small part of the file,
+	 * and the rest of the file is neither read nor rewritten.
+	 * 
+	 * @param data
+	 *            data to be hidden
+	 * @param file
+	 *            uncompressed 24-bit or 32-bit BMP image file used for hiding
+	 *            the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 * @throws IOException
+	 *             if file could not be read or written or it is not
+	 *             uncompressed 24-bit or 32-bit BMP image
+	 */
+	public void hideDataInPlace(byte[] data, Path file)
+			throws InsufficientSpaceException, IOException {
+		try (TiledBmpImage image = TiledBmpImage.open(file, true,
+				IN_PLACE_BUFFER_SIZE)) {
+			hideData(data, image);
+		}
+	}
+
+	/**
+	 * Hides given data into tiled BMP image. Image is paged from its file one
+	 * band of rows at a time, so memory used for the image does not depend on
+	 * image size. Only bands which header and data fall into are read and
+	 * written back.
+	 * 
+	 * @param data
+	 *            data to be hidden
+	 * @param image
+	 *            tiled BMP image used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 * @throws IOException
+	 *             if image file could not be read or written
+	 */
+	public void hideData(byte[] data, TiledBmpImage image)
+			throws InsufficientSpaceException, IOException {
+		RasterKernel kernel = RasterKernel.forImage(image);
+		try {
+			hideData(data, kernel);
+			kernel.flush();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
-		byte[] dataLength = Utilities.fromInt(numberOfBytes);
-		writeDataToImage(image, dataLength, 0);
-		writeDataToImage(image, data, dataLength.length);
 	}
 
 	/**
-	 * Writes given data to image using LSB.
+	 * Hides data read from given stream into tiled BMP image. Image is paged
+	 * from its file one band of rows at a time, so memory used for the image
+	 * does not depend on image size.
 	 * 
+	 * @param data
+	 *            stream of data to be hidden
+	 * @param length
+	 *            number of bytes to read from stream and hide
 	 * @param image
-	 *            image for LSB stego
+	 *            tiled BMP image used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 * @throws IOException
+	 *             if stream could not be read or it ends before given number
+	 *             of bytes is read, or if image file could not be read or
+	 *             written
+	 */
+	public void hideData(InputStream data, long length, TiledBmpImage image)
+			throws InsufficientSpaceException, IOException {
+		RasterKernel kernel = RasterKernel.forImage(image);
+		try {
+			hideData(data, length, kernel);
+			kernel.flush();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Writes given data to image using LSB. In {@link Layout#PASS_MAJOR}
+	 * layout data bits which fall into the same image pass are written to
+	 * consecutive pixels in one sweep directly over image raster, while in
+	 * {@link Layout#PIXEL_MAJOR} layout all data bits of a pixel are written
+	 * in one visit of the pixel.
+	 * 
+	 * @param kernel
+	 *            kernel over image for LSB stego
 	 * @param data
 	 *            data to be written
+	 * @param numberOfBytes
+	 *            number of bytes from beginning of data to write
 	 * @param offset
 	 *            byte offset for starting writing
+	 * @param layout
+	 *            layout of data bits
 	 */
-	private void writeDataToImage(BufferedImage image, byte[] data, int offset) {
-		int[] indexes = new int[4];
-		int imageWidth = image.getWidth();
-		offset *= 8;
-		int imagePixels = imageWidth * image.getHeight();
-		int numberOfDataBits = data.length * 8;
-		for (int dataBitIndex = 0; dataBitIndex < numberOfDataBits; ++dataBitIndex) {
-			calculateImageIndexesFromDataIndex(dataBitIndex, offset,
-					imageWidth, imagePixels, indexes);
-			int imagePixel = image.getRGB(indexes[0], indexes[1]);
-			int dataBitValue = Utilities.bitValue(data, dataBitIndex);
-			if (dataBitValue == 1) {
-				imagePixel = Utilities.setRGBIntBitValue(imagePixel,
-						indexes[2], indexes[3]);
-			} else {
-				imagePixel = Utilities.unsetRGBIntBitValue(imagePixel,
-						indexes[2], indexes[3]);
+	private void writeDataToImage(RasterKernel kernel, byte[] data,
+			int numberOfBytes, long offset, Layout layout) {
+		transferData(kernel, data, numberOfBytes, offset, layout, true);
+	}
+
+	/**
+	 * Loads data from stego image. In {@link Layout#PASS_MAJOR} layout data
+	 * bits which fall into the same image pass are read from consecutive
+	 * pixels in one sweep directly over image raster, while in
+	 * {@link Layout#PIXEL_MAJOR} layout all data bits of a pixel are read in
+	 * one visit of the pixel.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @param data
+	 *            array to load data into
+	 * @param numberOfBytes
+	 *            number of bytes to load into beginning of data
+	 * @param offset
+	 *            byte offset for starting loading
+	 * @param layout
+	 *            layout of data bits
+	 */
+	private void loadDataFromImage(RasterKernel kernel, byte[] data,
+			int numberOfBytes, long offset, Layout layout) {
+		transferData(kernel, data, numberOfBytes, offset, layout, false);
+	}
+
+	/**
+	 * Writes or reads data to or from image. Data larger than
+	 * {@value #MAX_TRANSFER_BYTES} bytes is transferred in slices of that
+	 * size. In {@link Layout#PASS_MAJOR} layout, image of kernel paging it
+	 * from file is visited page by page, with all image passes of a page
+	 * transferred before moving to the next page.
+	 * 
+	 * @param kernel
+	 *            kernel over image raster
+	 * @param data
+	 *            data to be written or read into
+	 * @param numberOfBytes
+	 *            number of bytes from beginning of data to write or read
+	 * @param offset
+	 *            byte offset for starting writing or reading
+	 * @param layout
+	 *            layout of data bits
+	 * @param write
+	 *            true if data is written to image, false if it is read from
+	 *            image
+	 */
+	private void transferData(RasterKernel kernel, byte[] data,
+			int numberOfBytes, long offset, Layout layout, boolean write) {
+		if (numberOfBytes > MAX_TRANSFER_BYTES) {
+			byte[] slice = new byte[MAX_TRANSFER_BYTES];
+			for (int from = 0; from < numberOfBytes; from += MAX_TRANSFER_BYTES) {
+				int length = Math.min(MAX_TRANSFER_BYTES, numberOfBytes - from);
+				if (write) {
+					System.arraycopy(data, from, slice, 0, length);
+				}
+				transferData(kernel, slice, length, offset + from, layout,
+						write);
+				if (!write) {
+					System.arraycopy(slice, 0, data, from, length);
+				}
+			}
+			return;
+		}
+		int numberOfDataBits = numberOfBytes * 8;
+		long bitOffset = offset * 8;
+		ForkJoinPool pool = forkJoinPool;
+		boolean parallel = pool != null && kernel.isDirect()
+				&& numberOfDataBits > PARALLEL_THRESHOLD_BITS;
+		long imagePixels = (long) kernel.getWidth() * kernel.getHeight();
+		if (layout == Layout.PIXEL_MAJOR) {
+			transferPixelMajor(kernel, data, numberOfDataBits, bitOffset,
+					parallel ? pool : null, write);
+		} else if (parallel && write) {
+			pool.invoke(new WritePixelSpanTask(kernel, data, numberOfDataBits,
+					bitOffset, 0, imagePixels));
+		} else if (parallel) {
+			pool.invoke(new ReadByteSpanTask(kernel, data, bitOffset, 0,
+					numberOfBytes));
+		} else if (kernel.getSpanPixels() < imagePixels && numberOfDataBits > 0) {
+			long spanPixels = kernel.getSpanPixels();
+			long firstBit = bitOffset;
+			long lastBit = bitOffset + numberOfDataBits;
+			long fromPixel = 0;
+			long toPixel = imagePixels;
+			if (firstBit / imagePixels == (lastBit - 1) / imagePixels) {
+				fromPixel = firstBit % imagePixels;
+				toPixel = (lastBit - 1) % imagePixels + 1;
+			}
+			for (long spanStart = fromPixel - fromPixel % spanPixels; spanStart < toPixel; spanStart += spanPixels) {
+				transferPixelSpan(kernel, data, numberOfDataBits, bitOffset,
+						spanStart, Math.min(spanStart + spanPixels, imagePixels),
+						write);
 			}
-			image.setRGB(indexes[0], indexes[1], imagePixel);
+		} else {
+			transferBits(kernel, data, 0, numberOfDataBits, bitOffset, write);
 		}
 	}
 
 	/**
-	 * Loads data from stego image.
+	 * Writes or reads data in {@link Layout#PIXEL_MAJOR} layout, either on
+	 * calling thread or split into pixel spans on given fork/join pool.
 	 * 
-	 * @param image
-	 *            stego image
-	 * @param numberOfBits
-	 *            number of bits to load
+	 * @param kernel
+	 *            kernel over image raster
+	 * @param data
+	 *            data to be written or read into
+	 * @param numberOfDataBits
+	 *            number of bits from beginning of data to write or read
 	 * @param offset
-	 *            byte offset for starting loading
-	 * @return data from stego image
-	 */
-	private byte[] loadDataFromImage(BufferedImage image, int numberOfBytes,
-			int offset) {
-		byte[] data = new byte[numberOfBytes];
-		int[] indexes = new int[4];
-		int imageWidth = image.getWidth();
-		offset *= 8;
-		int imagePixels = imageWidth * image.getHeight();
-		int numberOfDataBits = data.length * 8;
-		for (int dataBitIndex = 0; dataBitIndex < numberOfDataBits; ++dataBitIndex) {
-			calculateImageIndexesFromDataIndex(dataBitIndex, offset,
-					imageWidth, imagePixels, indexes);
-			int imagePixel = image.getRGB(indexes[0], indexes[1]);
-			int imageBitValue = Utilities.getRGBIntBitValue(imagePixel,
-					indexes[2], indexes[3]);
-			if (imageBitValue == 1) {
-				Utilities.setBitValue(data, dataBitIndex);
+	 *            bit offset of data from first image pixel
+	 * @param pool
+	 *            fork/join pool or <code>null</code> for calling thread
+	 * @param write
+	 *            true if data is written to image, false if it is read from
+	 *            image
+	 */
+	private void transferPixelMajor(RasterKernel kernel, byte[] data,
+			int numberOfDataBits, long offset, ForkJoinPool pool, boolean write) {
+		if (numberOfDataBits == 0) {
+			return;
+		}
+		int bitsPerPixel = componentsToUse * bitsPerComponent;
+		long fromPixel = offset / bitsPerPixel;
+		long toPixel = (offset + numberOfDataBits + bitsPerPixel - 1)
+				/ bitsPerPixel;
+		if (pool != null) {
+			pool.invoke(new PixelMajorSpanTask(kernel, data, numberOfDataBits,
+					offset, fromPixel, toPixel, write));
+		} else {
+			writePixelMajorSpan(kernel, data, numberOfDataBits, offset,
+					fromPixel, toPixel, write);
+		}
+	}
+
+	/**
+	 * Writes or reads all data bits which fall into given span of image pixels
+	 * in {@link Layout#PIXEL_MAJOR} layout. Whole pixels are visited once,
+	 * while data bits in partially used pixels at both ends of data are
+	 * transferred one by one.
+	 * 
+	 * @param kernel
+	 *            kernel over image raster
+	 * @param data
+	 *            data to be written or read into
+	 * @param numberOfDataBits
+	 *            number of bits from beginning of data to write or read
+	 * @param offset
+	 *            bit offset of data from first image pixel
+	 * @param fromPixel
+	 *            linear index of first pixel of span, inclusive
+	 * @param toPixel
+	 *            linear index of last pixel of span, exclusive
+	 * @param write
+	 *            true if data is written to image, false if it is read from
+	 *            image
+	 */
+	private void writePixelMajorSpan(RasterKernel kernel, byte[] data,
+			int numberOfDataBits, long offset, long fromPixel, long toPixel,
+			boolean write) {
+		int bitsPerPixel = componentsToUse * bitsPerComponent;
+		int fromBit = (int) Math.max(0, fromPixel * bitsPerPixel - offset);
+		int toBit = (int) Math.min(numberOfDataBits, toPixel * bitsPerPixel
+				- offset);
+		int dataBitIndex = fromBit;
+		while (dataBitIndex < toBit
+				&& (offset + dataBitIndex) % bitsPerPixel != 0) {
+			transferPixelMajorBit(kernel, data, dataBitIndex++, offset, write);
+		}
+		int wholePixels = (toBit - dataBitIndex) / bitsPerPixel;
+		if (wholePixels > 0) {
+			long pixel = (offset + dataBitIndex) / bitsPerPixel;
+			if (write) {
+				kernel.writePixels(data, dataBitIndex, pixel, wholePixels,
+						PixelBits.forConfig(componentsToUse, bitsPerComponent));
 			} else {
-				Utilities.unsetBitValue(data, dataBitIndex);
+				kernel.readPixels(data, dataBitIndex, pixel, wholePixels,
+						PixelBits.forConfig(componentsToUse, bitsPerComponent));
 			}
+			dataBitIndex += wholePixels * bitsPerPixel;
+		}
+		while (dataBitIndex < toBit) {
+			transferPixelMajorBit(kernel, data, dataBitIndex++, offset, write);
 		}
-		return data;
 	}
 
 	/**
-	 * Calculates x and y coordinates, component index and bit index for image
-	 * from given index of data bit.
+	 * Writes or reads single data bit in {@link Layout#PIXEL_MAJOR} layout.
 	 * 
-	 * @param dataIndex
-	 *            index of data bit
+	 * @param kernel
+	 *            kernel over image raster
+	 * @param data
+	 *            data to be written or read into
+	 * @param dataBitIndex
+	 *            data bit index
 	 * @param offset
-	 *            offset of data
-	 * @param imageWidth
-	 *            image width
-	 * @param imagePixels
-	 *            number of pixels in image
-	 * @param indexes
-	 *            array containing y and x coordinates (first is x coordinate,
-	 *            then y coordinate)
+	 *            bit offset of data from first image pixel
+	 * @param write
+	 *            true if data bit is written to image, false if it is read
+	 *            from image
+	 */
+	private void transferPixelMajorBit(RasterKernel kernel, byte[] data,
+			int dataBitIndex, long offset, boolean write) {
+		int bitsPerPixel = componentsToUse * bitsPerComponent;
+		long position = offset + dataBitIndex;
+		long pixel = position / bitsPerPixel;
+		int pixelPass = (int) (position % bitsPerPixel);
+		if (write) {
+			kernel.writeBits(data, dataBitIndex, pixel, 1, pixelPass
+					% componentsToUse, pixelPass / componentsToUse);
+		} else {
+			kernel.readBits(data, dataBitIndex, pixel, 1, pixelPass
+					% componentsToUse, pixelPass / componentsToUse);
+		}
+	}
+
+	/**
+	 * Writes or reads all data bits which fall into given span of image
+	 * pixels, in every image pass.
+	 * 
+	 * @param kernel
+	 *            kernel over image raster
+	 * @param data
+	 *            data to be written or read into
+	 * @param numberOfDataBits
+	 *            number of bits from beginning of data to write or read
+	 * @param offset
+	 *            bit offset of data in image
+	 * @param fromPixel
+	 *            linear index of first pixel of span, inclusive
+	 * @param toPixel
+	 *            linear index of last pixel of span, exclusive
+	 * @param write
+	 *            true if data is written to image, false if it is read from
+	 *            image
+	 */
+	private void transferPixelSpan(RasterKernel kernel, byte[] data,
+			int numberOfDataBits, long offset, long fromPixel, long toPixel,
+			boolean write) {
+		if (numberOfDataBits == 0) {
+			return;
+		}
+		long imagePixels = (long) kernel.getWidth() * kernel.getHeight();
+		long firstBit = offset;
+		long lastBit = firstBit + numberOfDataBits;
+		long lastPass = (lastBit - 1) / imagePixels;
+		for (long imagePass = firstBit / imagePixels; imagePass <= lastPass; ++imagePass) {
+			long passStart = imagePass * imagePixels;
+			long spanStart = Math.max(passStart + fromPixel, firstBit);
+			long spanEnd = Math.min(passStart + toPixel, lastBit);
+			if (spanStart < spanEnd && write) {
+				kernel.writeBits(data, (int) (spanStart - firstBit), spanStart
+						- passStart, (int) (spanEnd - spanStart),
+						(int) (imagePass % componentsToUse),
+						(int) (imagePass / componentsToUse));
+			} else if (spanStart < spanEnd) {
+				kernel.readBits(data, (int) (spanStart - firstBit), spanStart
+						- passStart, (int) (spanEnd - spanStart),
+						(int) (imagePass % componentsToUse),
+						(int) (imagePass / componentsToUse));
+			}
+		}
+	}
+
+	/**
+	 * Writes or reads given range of data bits to or from image.
+	 * 
+	 * @param kernel
+	 *            kernel over image raster
+	 * @param data
+	 *            data to be written or read into
+	 * @param fromBit
+	 *            first data bit index, inclusive
+	 * @param toBit
+	 *            last data bit index, exclusive
+	 * @param offset
+	 *            bit offset of data in image
+	 * @param write
+	 *            true if data is written to image, false if it is read from
+	 *            image
 	 */
-	private void calculateImageIndexesFromDataIndex(int dataIndex, int offset,
-			int imageWidth, int imagePixels, int[] indexes) {
-		dataIndex += offset;
-		int imagePass = dataIndex / imagePixels;
-		indexes[2] = imagePass % componentsToUse;
-		indexes[3] = imagePass / componentsToUse;
-		int imagePixel = dataIndex - (imagePixels * (imagePass));
-		indexes[0] = imagePixel % imageWidth;
-		indexes[1] = imagePixel / imageWidth;
+	private void transferBits(RasterKernel kernel, byte[] data, int fromBit,
+			int toBit, long offset, boolean write) {
+		long imagePixels = (long) kernel.getWidth() * kernel.getHeight();
+		int dataBitIndex = fromBit;
+		while (dataBitIndex < toBit) {
+			long position = offset + dataBitIndex;
+			long imagePass = position / imagePixels;
+			long pixel = position - imagePass * imagePixels;
+			int count = (int) Math.min(imagePixels - pixel, toBit
+					- dataBitIndex);
+			int component = (int) (imagePass % componentsToUse);
+			int bit = (int) (imagePass / componentsToUse);
+			if (write) {
+				kernel.writeBits(data, dataBitIndex, pixel, count, component,
+						bit);
+			} else {
+				kernel.readBits(data, dataBitIndex, pixel, count, component,
+						bit);
+			}
+			dataBitIndex += count;
+		}
 	}
 
 	@Override
 	public byte[] extractData(BufferedImage stegImage) {
-		int dataLength = Utilities.fromBytes(loadDataFromImage(stegImage,
-				Integer.SIZE / Byte.SIZE, 0));
-		return loadDataFromImage(stegImage, dataLength, Integer.SIZE
-				/ Byte.SIZE);
+		return extractData(RasterKernel.forImage(stegImage));
+	}
+
+	@Override
+	public byte[] extractData(BmpImage stegImage) {
+		return extractData(RasterKernel.forImage(stegImage));
+	}
+
+	@Override
+	public byte[] extractData(PixelStore stegImage) {
+		return extractData(RasterKernel.forStore(stegImage));
+	}
+
+	@Override
+	public long extractData(BufferedImage stegImage, OutputStream output)
+			throws IOException {
+		return extractData(RasterKernel.forImage(stegImage), output);
+	}
+
+	@Override
+	public long extractData(BmpImage stegImage, OutputStream output)
+			throws IOException {
+		return extractData(RasterKernel.forImage(stegImage), output);
 	}
 
 	@Override
-	public int getMaxBytes(BufferedImage image) {
-		int imageArea = image.getWidth() * image.getHeight();
-		int totalNumberOfBits = imageArea * componentsToUse * bitsPerComponent;
-		return Math.max((int) Math.floor(totalNumberOfBits / 8.0)
-				- Integer.BYTES, 0);
+	public long extractData(PixelStore stegImage, OutputStream output)
+			throws IOException {
+		return extractData(RasterKernel.forStore(stegImage), output);
 	}
 
 	/**
-	 * Sets number of components to use per pixel for data hiding.
+	 * Extracts data from tiled BMP stego image. Image is paged from its file
+	 * one band of rows at a time, so memory used for the image does not
+	 * depend on image size.
 	 * 
-	 * @param componentsToUse
-	 *            components to use per pixel for data hiding
+	 * @param stegImage
+	 *            tiled BMP stego image
+	 * @return data hidden in stego image
+	 * @throws IOException
+	 *             if image file could not be read
 	 */
-	public void setComponentsToUse(int componentsToUse) {
-		checkComponentsToUse(componentsToUse);
-		this.componentsToUse = componentsToUse;
+	public byte[] extractData(TiledBmpImage stegImage) throws IOException {
+		try {
+			return extractData(RasterKernel.forImage(stegImage));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 	}
 
 	/**
-	 * Sets number of bits per component to use for data hiding.
+	 * Extracts data from tiled BMP stego image into given stream. Image is
+	 * paged from its file one band of rows at a time, so memory used for the
+	 * image does not depend on image size.
 	 * 
-	 * @param bitsPerComponent
-	 *            number of bits per component to use for data hiding
+	 * @param stegImage
+	 *            tiled BMP stego image
+	 * @param output
+	 *            stream to write hidden data to
+	 * @return number of bytes written to stream
+	 * @throws IOException
+	 *             if image file could not be read or stream could not be
+	 *             written
 	 */
-	public void setBitsPerComponent(int bitsPerComponent) {
-		checkBitsPerComponent(bitsPerComponent);
-		this.bitsPerComponent = bitsPerComponent;
+	public long extractData(TiledBmpImage stegImage, OutputStream output)
+			throws IOException {
+		try {
+			return extractData(RasterKernel.forImage(stegImage), output);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Extracts data from stego image, decrypting it if it is encrypted and
+	 * decompressing it if it is compressed.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @return data hidden in stego image
+	 */
+	private byte[] extractData(RasterKernel kernel) {
+		DataHeader header = loadHeader(kernel);
+		byte[] data = removeIndex(extractStoredData(kernel, header), header);
+		return header.isCompressed() ? PayloadCompression.decompress(data)
+				: data;
+	}
+
+	/**
+	 * Removes chunk index following extracted data, if there is one.
+	 * 
+	 * @param data
+	 *            extracted data, decrypted if it was encrypted
+	 * @param header
+	 *            header of hidden data
+	 * @return data without chunk index
+	 * @throws IllegalArgumentException
+	 *             if chunk index is corrupted
+	 */
+	private static byte[] removeIndex(byte[] data, DataHeader header) {
+		if (!header.isIndexed()) {
+			return data;
+		}
+		int trailer = data.length - PayloadIndex.TRAILER_BYTES
+				- (header.isEncrypted() ? PayloadEncryption.CHUNK_TAG_BYTES
+						: 0);
+		long bodyLength = trailer < 0 ? -1 : PayloadIndex.readBodyLength(
+				data, trailer, trailer);
+		if (bodyLength < 0) {
+			throw new IllegalArgumentException(
+					"Chunk index of hidden data is corrupted!");
+		}
+		return Arrays.copyOf(data, (int) bodyLength);
+	}
+
+	/**
+	 * Extracts data stored after given header, which is still compressed if
+	 * it was compressed. Encrypted data is extracted into returned array,
+	 * authenticated and decrypted in place. Checksum of every block of framed
+	 * data is checked as soon as the block is read.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @param header
+	 *            header of hidden data
+	 * @return stored data
+	 * @throws IllegalArgumentException
+	 *             if data is encrypted and password is not set or does not
+	 *             match, or if checksum of a block does not match
+	 */
+	private byte[] extractStoredData(RasterKernel kernel, DataHeader header) {
+		PayloadFraming stored = openStoredData(kernel, header);
+		if (!header.isEncrypted()) {
+			byte[] data = Utilities.allocateData(header.getDataLength());
+			stored.readAll(data);
+			return data;
+		}
+		PayloadEncryption encryption = beginDecrypted(stored, header);
+		byte[] data = Utilities.allocateData(header.getDataLength()
+				- PayloadEncryption.OVERHEAD_BYTES);
+		stored.readAll(data);
+		encryption.authenticate(data, 0, data.length);
+		checkTag(stored, encryption);
+		encryption.apply(data, 0, data.length, 0, forkJoinPool);
+		return data;
+	}
+
+	/**
+	 * Returns stored data following given header, positioned at its
+	 * beginning.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @param header
+	 *            header of hidden data
+	 * @return stored data
+	 */
+	private PayloadFraming openStoredData(RasterKernel kernel,
+			DataHeader header) {
+		long offset = dataOffset(header.getLayout(), header.getHeaderLength());
+		if (header.isFramed()) {
+			offset += PayloadFraming.DESCRIPTOR_BYTES;
+		}
+		return new PayloadFraming(new KernelTransfer(kernel,
+				header.getLayout()), header.toBytes(), offset,
+				header.getDataLength(), header.getBlockSize(), progressListener);
+	}
+
+	/**
+	 * Reads salt of encrypted data, derives keys from it and authenticates
+	 * format header and salt.
+	 * 
+	 * @param stored
+	 *            stored data, positioned at its beginning
+	 * @param header
+	 *            header of encrypted data
+	 * @return encryption stage for decrypting the data
+	 * @throws IllegalArgumentException
+	 *             if password is not set
+	 */
+	private PayloadEncryption beginDecrypted(PayloadFraming stored,
+			DataHeader header) {
+		char[] password = this.password;
+		if (password == null) {
+			throw new IllegalArgumentException(
+					"Hidden data is encrypted! Password must be given!");
+		}
+		byte[] salt = new byte[PayloadEncryption.SALT_BYTES];
+		stored.read(salt, 0, salt.length);
+		PayloadEncryption encryption = PayloadEncryption.forExtracting(
+				password, salt);
+		byte[] formatHeader = stored.getHeader();
+		encryption.authenticate(formatHeader, 0, formatHeader.length);
+		encryption.authenticate(salt, 0, salt.length);
+		return encryption;
+	}
+
+	/**
+	 * Authenticates whole encrypted data and checks its authentication tag.
+	 * 
+	 * @param stored
+	 *            stored data, positioned after salt
+	 * @param encryption
+	 *            encryption stage which authenticated format header and salt
+	 * @param length
+	 *            number of bytes of encrypted data
+	 * @throws IllegalArgumentException
+	 *             if tags do not match
+	 */
+	private void authenticate(PayloadFraming stored,
+			PayloadEncryption encryption, long length) {
+		ProgressListener listener = progressListener;
+		byte[] chunk = new byte[(int) Math.min(length, CHUNK_SIZE)];
+		for (long position = 0; position < length; position += chunk.length) {
+			Utilities.checkCancelled(listener);
+			int chunkLength = (int) Math.min(length - position, chunk.length);
+			stored.read(chunk, 0, chunkLength);
+			encryption.authenticate(chunk, 0, chunkLength);
+		}
+		checkTag(stored, encryption);
+	}
+
+	/**
+	 * Reads authentication tag of encrypted data and checks it against tag
+	 * of all authenticated data.
+	 * 
+	 * @param stored
+	 *            stored data, positioned after encrypted data
+	 * @param encryption
+	 *            encryption stage which authenticated all encrypted data
+	 * @throws IllegalArgumentException
+	 *             if tags do not match
+	 */
+	private static void checkTag(PayloadFraming stored,
+			PayloadEncryption encryption) {
+		byte[] tag = new byte[PayloadEncryption.TAG_BYTES];
+		stored.read(tag, 0, tag.length);
+		if (!encryption.verify(tag)) {
+			throw new IllegalArgumentException(
+					"Wrong password or hidden data is corrupted!");
+		}
+	}
+
+	/**
+	 * Extracts data from stego image into given stream. Compressed data is
+	 * extracted into memory and decompressed into stream. Encrypted data is
+	 * read twice: it is authenticated first, so that nothing is written to
+	 * stream unless password matches and data is intact, and decrypted into
+	 * stream after that. Plain framed data is written to stream one chunk at
+	 * a time only after checksums of blocks it falls into match, so stream
+	 * receives the verified prefix of data before damaged block stops the
+	 * extraction.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @param output
+	 *            stream to write hidden data to
+	 * @return number of bytes written to stream
+	 * @throws IOException
+	 *             if stream could not be written
+	 */
+	private long extractData(RasterKernel kernel, OutputStream output)
+			throws IOException {
+		DataHeader header = loadHeader(kernel);
+		if (header.isCompressed()) {
+			return PayloadCompression.decompress(
+					removeIndex(extractStoredData(kernel, header), header),
+					output);
+		}
+		PayloadFraming stored = openStoredData(kernel, header);
+		long dataLength = header.getDataLength();
+		byte[] chunk = new byte[(int) Math.min(dataLength, CHUNK_SIZE)];
+		ProgressListener listener = progressListener;
+		PayloadEncryption encryption = null;
+		if (header.isEncrypted()) {
+			encryption = beginDecrypted(stored, header);
+			dataLength -= PayloadEncryption.OVERHEAD_BYTES;
+			authenticate(stored, encryption, dataLength);
+			if (header.isIndexed()) {
+				dataLength = readBodyLength(stored, dataLength, encryption);
+			}
+			stored.seek(PayloadEncryption.SALT_BYTES);
+		}
+		long remaining = dataLength;
+		while (remaining > 0) {
+			Utilities.checkCancelled(listener);
+			int chunkLength = (int) Math.min(remaining, chunk.length);
+			stored.read(chunk, 0, chunkLength);
+			if (encryption != null) {
+				encryption.apply(chunk, 0, chunkLength, dataLength - remaining,
+						forkJoinPool);
+			}
+			output.write(chunk, 0, chunkLength);
+			remaining -= chunkLength;
+			Utilities.reportProgress(listener, dataLength - remaining,
+					dataLength);
+		}
+		return dataLength;
+	}
+
+	/**
+	 * Reads body length from trailer of chunk index of encrypted data whose
+	 * authentication tag is already checked.
+	 * 
+	 * @param stored
+	 *            stored data
+	 * @param length
+	 *            number of bytes of encrypted data and its chunk index
+	 * @param encryption
+	 *            encryption stage
+	 * @return body length in bytes
+	 * @throws IllegalArgumentException
+	 *             if chunk index is corrupted
+	 */
+	private long readBodyLength(PayloadFraming stored, long length,
+			PayloadEncryption encryption) {
+		long trailerPosition = length - PayloadIndex.TRAILER_BYTES
+				- PayloadEncryption.CHUNK_TAG_BYTES;
+		byte[] trailer = new byte[PayloadIndex.TRAILER_BYTES];
+		long bodyLength = -1;
+		if (trailerPosition >= 0) {
+			stored.seek(PayloadEncryption.SALT_BYTES + trailerPosition);
+			stored.read(trailer, 0, trailer.length);
+			encryption.apply(trailer, 0, trailer.length, trailerPosition, null);
+			bodyLength = PayloadIndex.readBodyLength(trailer, 0,
+					trailerPosition);
+		}
+		if (bodyLength < 0) {
+			throw new IllegalArgumentException(
+					"Chunk index of hidden data is corrupted!");
+		}
+		return bodyLength;
+	}
+
+	/**
+	 * Recovers data hidden with block checksums from possibly damaged stego
+	 * image. Unlike extracting, which stops at the first damaged block, every
+	 * block is read and checked, so intact blocks following damaged ones are
+	 * recovered too.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @return recovered data with its intact blocks
+	 * @throws IllegalArgumentException
+	 *             if image does not contain plain data with block checksums,
+	 *             or if its header is damaged
+	 */
+	public RecoveredData recoverData(BufferedImage stegImage) {
+		return recoverData(RasterKernel.forImage(stegImage));
+	}
+
+	/**
+	 * Recovers data hidden with block checksums from possibly damaged stego
+	 * image. Unlike extracting, which stops at the first damaged block, every
+	 * block is read and checked, so intact blocks following damaged ones are
+	 * recovered too.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @return recovered data with its intact blocks
+	 * @throws IllegalArgumentException
+	 *             if image does not contain plain data with block checksums,
+	 *             or if its header is damaged
+	 */
+	public RecoveredData recoverData(BmpImage stegImage) {
+		return recoverData(RasterKernel.forImage(stegImage));
+	}
+
+	/**
+	 * Recovers data hidden with block checksums from possibly damaged stego
+	 * image. Unlike extracting, which stops at the first damaged block, every
+	 * block is read and checked, so intact blocks following damaged ones are
+	 * recovered too.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @return recovered data with its intact blocks
+	 * @throws IllegalArgumentException
+	 *             if image does not contain plain data with block checksums,
+	 *             or if its header is damaged
+	 */
+	public RecoveredData recoverData(PixelStore stegImage) {
+		return recoverData(RasterKernel.forStore(stegImage));
+	}
+
+	/**
+	 * Recovers data hidden with block checksums from stego image. Damaged
+	 * block of compressed or encrypted data makes the rest of data useless,
+	 * so only data which is neither compressed nor encrypted is recovered.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @return recovered data with its intact blocks
+	 */
+	private RecoveredData recoverData(RasterKernel kernel) {
+		DataHeader header = loadHeader(kernel);
+		if (!header.isFramed()) {
+			throw new IllegalArgumentException(
+					"Hidden data has no block checksums!");
+		}
+		if (header.isCompressed() || header.isEncrypted()) {
+			throw new IllegalArgumentException(
+					"Only data which is neither compressed nor encrypted can be recovered!");
+		}
+		byte[] data = Utilities.allocateData(header.getDataLength());
+		BitSet intactBlocks = openStoredData(kernel, header).readBlocks(data);
+		return new RecoveredData(data, header.getBlockSize(), intactBlocks);
+	}
+
+	/**
+	 * Extracts given range of hidden data from stego image. Data hidden with
+	 * chunk index is read only in chunks the range falls into, so that each
+	 * chunk is authenticated, decrypted and decompressed on its own. Without
+	 * chunk index, encrypted data is authenticated as a whole first, and
+	 * compressed data is inflated from its beginning up to the end of the
+	 * range.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @param offset
+	 *            offset of first byte of range in hidden data
+	 * @param length
+	 *            number of bytes of range
+	 * @return bytes of hidden data in given range
+	 * @throws IllegalArgumentException
+	 *             if range is out of hidden data, or if data could not be
+	 *             extracted
+	 */
+	public byte[] extractRange(BufferedImage stegImage, long offset,
+			int length) {
+		return extractRange(RasterKernel.forImage(stegImage), offset, length);
+	}
+
+	/**
+	 * Extracts given range of hidden data from stego image. Data hidden with
+	 * chunk index is read only in chunks the range falls into.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @param offset
+	 *            offset of first byte of range in hidden data
+	 * @param length
+	 *            number of bytes of range
+	 * @return bytes of hidden data in given range
+	 * @throws IllegalArgumentException
+	 *             if range is out of hidden data, or if data could not be
+	 *             extracted
+	 * @see #extractRange(BufferedImage, long, int)
+	 */
+	public byte[] extractRange(BmpImage stegImage, long offset, int length) {
+		return extractRange(RasterKernel.forImage(stegImage), offset, length);
+	}
+
+	/**
+	 * Extracts given range of hidden data from stego image. Data hidden with
+	 * chunk index is read only in chunks the range falls into.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @param offset
+	 *            offset of first byte of range in hidden data
+	 * @param length
+	 *            number of bytes of range
+	 * @return bytes of hidden data in given range
+	 * @throws IllegalArgumentException
+	 *             if range is out of hidden data, or if data could not be
+	 *             extracted
+	 * @see #extractRange(BufferedImage, long, int)
+	 */
+	public byte[] extractRange(PixelStore stegImage, long offset, int length) {
+		return extractRange(RasterKernel.forStore(stegImage), offset, length);
+	}
+
+	/**
+	 * Extracts given range of hidden data from tiled BMP stego image. Only
+	 * bands of rows holding chunks the range falls into are paged from file
+	 * when data is hidden with chunk index.
+	 * 
+	 * @param stegImage
+	 *            tiled BMP stego image
+	 * @param offset
+	 *            offset of first byte of range in hidden data
+	 * @param length
+	 *            number of bytes of range
+	 * @return bytes of hidden data in given range
+	 * @throws IOException
+	 *             if image file could not be read
+	 * @see #extractRange(BufferedImage, long, int)
+	 */
+	public byte[] extractRange(TiledBmpImage stegImage, long offset,
+			int length) throws IOException {
+		try {
+			return extractRange(RasterKernel.forImage(stegImage), offset,
+					length);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Extracts given range of hidden data from stego image.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @param offset
+	 *            offset of first byte of range in hidden data
+	 * @param length
+	 *            number of bytes of range
+	 * @return bytes of hidden data in given range
+	 */
+	private byte[] extractRange(RasterKernel kernel, long offset, int length) {
+		RangeReader reader = openReader(kernel);
+		try {
+			if (offset < 0 || length < 0 || offset > reader.size() - length) {
+				throw new IllegalArgumentException(String.format(
+						"Range is out of hidden data! Offset: %d, length: %d, size: %d bytes",
+						offset, length, reader.size()));
+			}
+			byte[] data = new byte[length];
+			reader.read(offset, data, 0, length);
+			return data;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Opens reader of ranges of hidden data in stego image. Encrypted data
+	 * without chunk index is authenticated as a whole before reader is
+	 * returned, so that no range of data is read unless password matches
+	 * and data is intact.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @return reader of ranges of hidden data
+	 * @throws IllegalArgumentException
+	 *             if data is encrypted and password is not set or does not
+	 *             match, or if data is corrupted
+	 */
+	private RangeReader openReader(RasterKernel kernel) {
+		DataHeader header = loadHeader(kernel);
+		PayloadFraming stored = openStoredData(kernel, header);
+		PayloadEncryption encryption = null;
+		if (header.isEncrypted()) {
+			encryption = beginDecrypted(stored, header);
+			if (!header.isIndexed()) {
+				authenticate(stored, encryption, header.getDataLength()
+						- PayloadEncryption.OVERHEAD_BYTES);
+			}
+		}
+		return new RangeReader(header, stored, encryption, forkJoinPool);
+	}
+
+	/**
+	 * Opens read-only channel over hidden data of stego image, which reads
+	 * only ranges of data it is asked for. Header, and chunk index of data
+	 * hidden with it, are read when channel is opened, so that size of data
+	 * is known. Image must not change while channel is open.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @return channel over hidden data
+	 * @throws IllegalArgumentException
+	 *             if data could not be extracted
+	 * @see #extractRange(BufferedImage, long, int)
+	 */
+	public SeekableByteChannel openChannel(BufferedImage stegImage) {
+		return new HiddenDataChannel(openReader(
+				RasterKernel.forImage(stegImage)));
+	}
+
+	/**
+	 * Opens read-only channel over hidden data of stego image.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @return channel over hidden data
+	 * @throws IllegalArgumentException
+	 *             if data could not be extracted
+	 * @see #openChannel(BufferedImage)
+	 */
+	public SeekableByteChannel openChannel(BmpImage stegImage) {
+		return new HiddenDataChannel(openReader(
+				RasterKernel.forImage(stegImage)));
+	}
+
+	/**
+	 * Opens read-only channel over hidden data of stego image.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @return channel over hidden data
+	 * @throws IllegalArgumentException
+	 *             if data could not be extracted
+	 * @see #openChannel(BufferedImage)
+	 */
+	public SeekableByteChannel openChannel(PixelStore stegImage) {
+		return new HiddenDataChannel(openReader(
+				RasterKernel.forStore(stegImage)));
+	}
+
+	/**
+	 * Opens read-only channel over hidden data of tiled BMP stego image.
+	 * Image is paged from its file as channel is read, so image must stay
+	 * open while channel is open.
+	 * 
+	 * @param stegImage
+	 *            tiled BMP stego image
+	 * @return channel over hidden data
+	 * @throws IOException
+	 *             if image file could not be read
+	 * @see #openChannel(BufferedImage)
+	 */
+	public SeekableByteChannel openChannel(TiledBmpImage stegImage)
+			throws IOException {
+		try {
+			return new HiddenDataChannel(openReader(
+					RasterKernel.forImage(stegImage)));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Loads header of hidden data from stego image and checks if image could
+	 * hold that much data.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image
+	 * @return header of hidden data
+	 * @throws IllegalArgumentException
+	 *             if loaded length is negative or larger than maximum number
+	 *             of bytes image could hold, if format header is not
+	 *             supported, or if checksum of format header does not match
+	 */
+	private DataHeader loadHeader(RasterKernel kernel) {
+		checkComponents(kernel);
+		int width = kernel.getWidth();
+		int height = kernel.getHeight();
+		DataHeader header = readHeader(kernel, width, height);
+		ProbeResult probe = probe(header, width, height);
+		if (probe.getLayout() == null) {
+			throw new IllegalArgumentException(
+					"Unsupported hidden data format!");
+		}
+		if (!header.isIntact()) {
+			throw new IllegalArgumentException(
+					"Header of hidden data is corrupted!");
+		}
+		if (!probe.isPlausible()) {
+			throw new IllegalArgumentException(String.format(
+					"Image does not contain hidden data! Declared size: %d bytes, maximum size: %d bytes",
+					probe.getDeclaredBytes(), probe.getMaxBytes()));
+		}
+		return header;
+	}
+
+	/**
+	 * Reads header of hidden data from stego image of given dimensions and
+	 * probes image with it.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image, or over its rows holding the header
+	 * @param width
+	 *            stego image width
+	 * @param height
+	 *            stego image height
+	 * @return outcome of probing stego image
+	 */
+	private ProbeResult probe(RasterKernel kernel, int width, int height) {
+		return probe(readHeader(kernel, width, height), width, height);
+	}
+
+	/**
+	 * Probes stego image of given dimensions with given header of hidden data.
+	 * Header whose checksum does not match is never plausible.
+	 * 
+	 * @param header
+	 *            header read from stego image
+	 * @param width
+	 *            stego image width
+	 * @param height
+	 *            stego image height
+	 * @return outcome of probing stego image
+	 */
+	private ProbeResult probe(DataHeader header, int width, int height) {
+		if (header.getLayout() == null) {
+			return new ProbeResult(null, false, false, 0, 0, false);
+		}
+		if (header.getHeaderLength() == 0) {
+			return new ProbeResult(header.getLayout(), false, false, 0, 0,
+					false);
+		}
+		long maxBytes = getMaxBytes(width, height, header.getLayout(),
+				header.getHeaderLength());
+		if (header.isFramed()) {
+			maxBytes = PayloadFraming.maxFramedBytes(maxBytes,
+					header.getBlockSize());
+		}
+		long dataLength = header.getDataLength();
+		long minBytes = header.isEncrypted() ? PayloadEncryption.OVERHEAD_BYTES
+				: 0;
+		return new ProbeResult(header.getLayout(), header.isCompressed(),
+				header.isEncrypted(), dataLength, maxBytes, header.isIntact()
+						&& dataLength >= minBytes && dataLength <= maxBytes);
+	}
+
+	/**
+	 * Reads header of hidden data from stego image of given dimensions. Images
+	 * starting with format header hold data in layout given by format header,
+	 * while other images hold data in {@link Layout#PASS_MAJOR} layout
+	 * preceded by 32-bit data length. Both current format header with 64-bit
+	 * data length and legacy one with 32-bit data length are read. Header is
+	 * stored in first bit of first component of first
+	 * {@value DataHeader#FORMAT_HEADER_BYTES}*8 pixels of images which have
+	 * that many pixels, and frame descriptor of framed data in the next
+	 * {@value PayloadFraming#DESCRIPTOR_BYTES}*8 pixels at most, so kernel
+	 * over only first rows of such image is enough.
+	 * 
+	 * @param kernel
+	 *            kernel over stego image, or over its rows holding the header
+	 * @param width
+	 *            stego image width
+	 * @param height
+	 *            stego image height
+	 * @return header of hidden data, with <code>null</code> layout if format
+	 *         header is not supported, zero header length if image is too
+	 *         small to hold any header, and not intact if checksum of format
+	 *         header of framed data does not match
+	 */
+	private DataHeader readHeader(RasterKernel kernel, int width, int height) {
+		long totalBits = totalBits(width, height);
+		if (totalBits < Integer.SIZE
+				|| kernel.getComponents() < componentsToUse) {
+			return new DataHeader(Layout.PASS_MAJOR, false, false, 0, 0);
+		}
+		byte[] headerBytes = new byte[Long.BYTES];
+		loadDataFromImage(kernel, headerBytes, Integer.BYTES, 0,
+				Layout.PASS_MAJOR);
+		int word = Utilities.fromBytes(headerBytes);
+		int headerLength = DataHeader.headerLength(word);
+		if (headerLength == Integer.BYTES || totalBits < headerLength * 8L) {
+			return new DataHeader(Layout.PASS_MAJOR, false, false, word,
+					Integer.BYTES);
+		}
+		int lengthBytes = headerLength - Integer.BYTES;
+		loadDataFromImage(kernel, headerBytes, lengthBytes, Integer.BYTES,
+				Layout.PASS_MAJOR);
+		long dataLength = lengthBytes == Long.BYTES ? ByteBuffer.wrap(
+				headerBytes).getLong() : Utilities.fromBytes(headerBytes);
+		DataHeader header = DataHeader.parse(word, dataLength);
+		Layout layout = header.getLayout();
+		if (header.isIntact()
+				|| getMaxBytes(width, height, layout, headerLength) < PayloadFraming.DESCRIPTOR_BYTES) {
+			return header;
+		}
+		byte[] descriptor = new byte[PayloadFraming.DESCRIPTOR_BYTES];
+		loadDataFromImage(kernel, descriptor, descriptor.length,
+				dataOffset(layout, headerLength), layout);
+		int blockSize = ByteBuffer.wrap(descriptor).getInt();
+		if (blockSize <= 0) {
+			return header;
+		}
+		DataHeader framed = header.withBlockSize(blockSize);
+		return Arrays.equals(descriptor, PayloadFraming.createDescriptor(
+				framed.toBytes(), blockSize)) ? framed : header;
+	}
+
+	@Override
+	public ProbeResult probe(BufferedImage stegImage) {
+		return probe(RasterKernel.forImage(stegImage), stegImage.getWidth(),
+				stegImage.getHeight());
+	}
+
+	@Override
+	public ProbeResult probe(BmpImage stegImage) {
+		return probe(RasterKernel.forImage(stegImage), stegImage.getWidth(),
+				stegImage.getHeight());
+	}
+
+	@Override
+	public ProbeResult probe(PixelStore stegImage) {
+		return probe(RasterKernel.forStore(stegImage), stegImage.getWidth(),
+				stegImage.getHeight());
+	}
+
+	/**
+	 * Probes tiled BMP stego image for hidden data, reading only its first
+	 * band of rows.
+	 * 
+	 * @param stegImage
+	 *            tiled BMP stego image
+	 * @return outcome of probing stego image
+	 * @throws IOException
+	 *             if image file could not be read
+	 */
+	public ProbeResult probe(TiledBmpImage stegImage) throws IOException {
+		try {
+			return probe(RasterKernel.forImage(stegImage),
+					stegImage.getWidth(), stegImage.getHeight());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Probes stego image file for hidden data, decoding only its first rows.
+	 * Uncompressed 24-bit and 32-bit BMP images are read with positional reads
+	 * of only the rows holding the header, while images in other formats
+	 * are decoded by {@link ImageIO} reader up to the last of those rows.
+	 * 
+	 * @param file
+	 *            stego image file
+	 * @return outcome of probing stego image
+	 * @throws IOException
+	 *             if file could not be read or it is not supported image
+	 */
+	public ProbeResult probe(Path file) throws IOException {
+		if (TiledBmpImage.isSupported(file)) {
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.READ)) {
+				BmpHeader header = BmpHeader.read(channel);
+				int width = header.getWidth();
+				int rows = headerRows(width, header.getHeight());
+				long bandStart = Math.min(header.getRowOffset(0),
+						header.getRowOffset(rows - 1));
+				long bandEnd = Math.max(header.getRowOffset(0),
+						header.getRowOffset(rows - 1))
+						+ (long) width * header.getBytesPerPixel();
+				ByteBuffer band = ByteBuffer.allocate((int) (bandEnd - bandStart));
+				Utilities.readFully(channel, band, bandStart);
+				return probe(RasterKernel.forBmpRegion(band, header, bandStart),
+						width, header.getHeight());
+			}
+		}
+		try (ImageInputStream input = ImageIO.createImageInputStream(file
+				.toFile())) {
+			Iterator<ImageReader> readers = input == null ? null : ImageIO
+					.getImageReaders(input);
+			if (readers == null || !readers.hasNext()) {
+				throw new IOException("Unsupported image format!");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(new Rectangle(0, 0, width, headerRows(
+						width, height)));
+				return probe(RasterKernel.forImage(reader.read(0, param)),
+						width, height);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Returns number of leading rows of image of given dimensions which hold
+	 * header of hidden data, together with frame descriptor of framed data.
+	 * 
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return number of leading rows holding header of hidden data
+	 */
+	private static int headerRows(int width, int height) {
+		long headerPixels = Math.min(
+				(DataHeader.FORMAT_HEADER_BYTES + PayloadFraming.DESCRIPTOR_BYTES) * 8,
+				(long) width * height);
+		return (int) ((headerPixels + width - 1) / width);
+	}
+
+	@Override
+	public long getMaxBytes(BufferedImage image) {
+		if (RasterKernel.forImage(image).getComponents() < componentsToUse) {
+			return 0;
+		}
+		return getMaxBytes(image.getWidth(), image.getHeight(),
+				hidingFormat());
+	}
+
+	@Override
+	public long getMaxBytes(BmpImage image) {
+		return getMaxBytes(image.getWidth(), image.getHeight(),
+				hidingFormat());
+	}
+
+	@Override
+	public long getMaxBytes(PixelStore image) {
+		return getMaxBytes(image.getWidth(), image.getHeight(),
+				hidingFormat());
+	}
+
+	@Override
+	public long getMaxBytes(int width, int height) {
+		return getMaxBytes(width, height, hidingFormat());
+	}
+
+	/**
+	 * Returns format of data hidden with current settings, describing no
+	 * data yet.
+	 * 
+	 * @return header of empty data hidden with current settings
+	 */
+	private DataHeader hidingFormat() {
+		return DataHeader.forHiding(layout, compressing, password != null,
+				framing, indexing, 0);
+	}
+
+	/**
+	 * Returns maximum number of bytes this method can hide inside image of
+	 * given dimensions in given format. For compressed data, this is maximum
+	 * number of bytes of compressed data, for encrypted data, salt and
+	 * authentication tag are not counted, for framed data, frame descriptor
+	 * and block checksums are not counted, and for compressed or encrypted
+	 * data with chunk index, index is not counted, assuming one index entry
+	 * per chunk of hidden bytes. Plain data in
+	 * {@link Layout#PASS_MAJOR} layout is preceded by 32-bit data length
+	 * unless it is longer than {@link Integer#MAX_VALUE} bytes.
+	 * 
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param format
+	 *            header of data, whose data length is not used
+	 * @return maximum number of bytes this method can hide inside image
+	 */
+	private long getMaxBytes(int width, int height, DataHeader format) {
+		Layout layout = format.getLayout();
+		boolean encrypted = format.isEncrypted();
+		long maxBytes = getMaxBytes(width, height, layout,
+				DataHeader.FORMAT_HEADER_BYTES);
+		if (format.isFramed()) {
+			maxBytes = PayloadFraming.maxFramedBytes(maxBytes,
+					format.getBlockSize());
+		}
+		if (encrypted) {
+			maxBytes = Math.max(maxBytes - PayloadEncryption.OVERHEAD_BYTES,
+					0);
+		}
+		if (format.isIndexed() && (format.isCompressed() || encrypted)) {
+			return PayloadIndex.maxLength(maxBytes, encrypted);
+		}
+		if (encrypted) {
+			return maxBytes;
+		}
+		if (!format.withDataLength(0).hasFormatHeader()) {
+			maxBytes = Math.max(maxBytes, Math.min(Integer.MAX_VALUE,
+					getMaxBytes(width, height, layout, Integer.BYTES)));
+		}
+		return maxBytes;
+	}
+
+	/**
+	 * Returns maximum number of bytes this method can hide inside image of
+	 * given dimensions in given layout after header of given length.
+	 * 
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param layout
+	 *            layout of data bits
+	 * @param headerLength
+	 *            length of header in bytes
+	 * @return maximum number of bytes this method can hide after the header
+	 */
+	private long getMaxBytes(int width, int height, Layout layout,
+			int headerLength) {
+		long maxBytes;
+		if (layout == Layout.PIXEL_MAJOR) {
+			long dataPixels = (long) width * height - headerLength * 8L;
+			maxBytes = dataPixels * componentsToUse * bitsPerComponent / 8;
+		} else {
+			maxBytes = totalBits(width, height) / 8 - headerLength;
+		}
+		return Math.max(maxBytes, 0);
+	}
+
+	/**
+	 * Returns number of bits this method uses in image of given dimensions.
+	 * 
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return number of used bits
+	 */
+	private long totalBits(int width, int height) {
+		return (long) width * height * componentsToUse * bitsPerComponent;
+	}
+
+	/**
+	 * Sets layout of data bits used for hiding the data. Extracting detects
+	 * layout of hidden data by itself.
+	 * 
+	 * @param layout
+	 *            layout of data bits used for hiding the data
+	 */
+	public void setLayout(Layout layout) {
+		if (layout == null) {
+			throw new IllegalArgumentException("Layout must be given!");
+		}
+		this.layout = layout;
+	}
+
+	/**
+	 * Returns layout of data bits used for hiding the data.
+	 * 
+	 * @return layout of data bits used for hiding the data
+	 */
+	public Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Sets if data is compressed before hiding it. Compression level, or
+	 * storing the data as it is, is chosen by sampling entropy of the data,
+	 * and compression is flagged in format header, so extracting decompresses
+	 * the data by itself. Compressed data is hidden after format header even
+	 * in {@link Layout#PASS_MAJOR} layout, so original readers refuse it.
+	 * 
+	 * @param compressing
+	 *            true if data should be compressed before hiding it
+	 */
+	public void setCompressing(boolean compressing) {
+		this.compressing = compressing;
+	}
+
+	/**
+	 * Returns information if data is compressed before hiding it.
+	 * 
+	 * @return true if data is compressed before hiding it, false otherwise
+	 */
+	public boolean isCompressing() {
+		return compressing;
+	}
+
+	/**
+	 * Sets if data is framed with block checksums while it is hidden. Data is
+	 * split into blocks of {@value PayloadFraming#BLOCK_BYTES} bytes, each
+	 * followed by its CRC32C checksum, and format header is followed by frame
+	 * descriptor holding block size and checksum of format header.
+	 * Extracting stops as soon as checksum of format header or of a block
+	 * does not match, while {@link #recoverData(BufferedImage)} recovers all
+	 * intact blocks. Framing is flagged in format header, so extracting
+	 * checks checksums by itself.
+	 * Framed data is hidden after format header even in
+	 * {@link Layout#PASS_MAJOR} layout, so original readers refuse it.
+	 * 
+	 * @param framing
+	 *            true if data should be framed with block checksums
+	 */
+	public void setFraming(boolean framing) {
+		this.framing = framing;
+	}
+
+	/**
+	 * Returns information if data is framed with block checksums while it is
+	 * hidden.
+	 * 
+	 * @return true if data is framed with block checksums, false otherwise
+	 */
+	public boolean isFraming() {
+		return framing;
+	}
+
+	/**
+	 * Sets if chunk index is stored after compressed or encrypted data while
+	 * it is hidden. Original data is split into chunks of
+	 * {@value PayloadIndex#CHUNK_BYTES} bytes, compressed data is fully
+	 * flushed at the start of every chunk, and index holds offset of every
+	 * chunk in stored data, together with its authentication tag if data is
+	 * encrypted. {@link #extractRange(BufferedImage, long, int)} and
+	 * {@link #openChannel(BufferedImage)} then read, authenticate and
+	 * decompress only chunks a range falls into. Data which is neither
+	 * compressed nor encrypted is hidden without index, since any range of it
+	 * is read directly.
+	 * 
+	 * @param indexing
+	 *            true if chunk index should be stored with data
+	 */
+	public void setIndexing(boolean indexing) {
+		this.indexing = indexing;
+	}
+
+	/**
+	 * Returns information if chunk index is stored after compressed or
+	 * encrypted data while it is hidden.
+	 * 
+	 * @return true if chunk index is stored with data, false otherwise
+	 */
+	public boolean isIndexing() {
+		return indexing;
+	}
+
+	/**
+	 * Sets password data is encrypted with while it is hidden. Data is
+	 * encrypted by AES in counter mode and authenticated by HMAC-SHA256, with
+	 * keys derived from password and random salt, and encryption is flagged
+	 * in format header. Keystream is applied to one chunk of data at a time
+	 * as it is hidden or extracted, so no copy of whole data is made.
+	 * Extracting encrypted data requires the same password, while data hidden
+	 * without password is extracted regardless of it. Encrypted data is
+	 * hidden after format header even in {@link Layout#PASS_MAJOR} layout, so
+	 * original readers refuse it.
+	 * 
+	 * @param password
+	 *            password, which is copied, or <code>null</code> or empty
+	 *            password for hiding the data unencrypted
+	 */
+	public void setPassword(char[] password) {
+		this.password = password == null || password.length == 0 ? null
+				: password.clone();
+	}
+
+	/**
+	 * Returns information if data is encrypted before hiding it.
+	 * 
+	 * @return true if password is set, false otherwise
+	 */
+	public boolean isEncrypting() {
+		return password != null;
+	}
+
+	/**
+	 * Sets fork/join pool used for hiding and extracting the data in parallel.
+	 * Hiding splits image into disjoint pixel spans and extracting splits data
+	 * into disjoint byte spans, so result is identical to the one of
+	 * sequential hiding and extracting.
+	 * 
+	 * @param forkJoinPool
+	 *            fork/join pool to use or <code>null</code> for hiding and
+	 *            extracting the data on calling thread
+	 */
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	@Override
+	public void setProgressListener(ProgressListener listener) {
+		this.progressListener = listener;
+	}
+
+	/**
+	 * Turns hiding and extracting the data in parallel on common fork/join
+	 * pool on or off.
+	 * 
+	 * @param parallel
+	 *            true for hiding and extracting the data in parallel, false
+	 *            otherwise
+	 */
+	public void setParallel(boolean parallel) {
+		setForkJoinPool(parallel ? ForkJoinPool.commonPool() : null);
+	}
+
+	/**
+	 * Sets number of components to use per pixel for data hiding.
+	 * 
+	 * @param componentsToUse
+	 *            components to use per pixel for data hiding
+	 */
+	public void setComponentsToUse(int componentsToUse) {
+		checkComponentsToUse(componentsToUse);
+		this.componentsToUse = componentsToUse;
+	}
+
+	/**
+	 * Sets number of bits per component to use for data hiding.
+	 * 
+	 * @param bitsPerComponent
+	 *            number of bits per component to use for data hiding
+	 */
+	public void setBitsPerComponent(int bitsPerComponent) {
+		checkBitsPerComponent(bitsPerComponent);
+		this.bitsPerComponent = bitsPerComponent;
+	}
+
+	/**
+	 * Transfer of stored data between data array and image of given kernel
+	 * in given layout.
+	 */
+	private final class KernelTransfer implements PayloadFraming.Transfer {
+
+		private final RasterKernel kernel;
+		private final Layout layout;
+
+		KernelTransfer(RasterKernel kernel, Layout layout) {
+			this.kernel = kernel;
+			this.layout = layout;
+		}
+
+		@Override
+		public void transfer(byte[] data, int count, long offset,
+				boolean write) {
+			transferData(kernel, data, count, offset, layout, write);
+		}
+	}
+
+	/**
+	 * Task writing all data bits which fall into given span of image pixels.
+	 * Spans of different tasks never share a pixel, so tasks never write into
+	 * the same raster element.
+	 */
+	private final class WritePixelSpanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final RasterKernel kernel;
+		private final byte[] data;
+		private final int numberOfDataBits;
+		private final long offset;
+		private final long fromPixel;
+		private final long toPixel;
+
+		WritePixelSpanTask(RasterKernel kernel, byte[] data,
+				int numberOfDataBits, long offset, long fromPixel, long toPixel) {
+			this.kernel = kernel;
+			this.data = data;
+			this.numberOfDataBits = numberOfDataBits;
+			this.offset = offset;
+			this.fromPixel = fromPixel;
+			this.toPixel = toPixel;
+		}
+
+		@Override
+		protected void compute() {
+			if (toPixel - fromPixel > PARALLEL_THRESHOLD_BITS) {
+				long middlePixel = (fromPixel + toPixel) >>> 1;
+				invokeAll(new WritePixelSpanTask(kernel, data,
+						numberOfDataBits, offset, fromPixel, middlePixel),
+						new WritePixelSpanTask(kernel, data, numberOfDataBits,
+								offset, middlePixel, toPixel));
+				return;
+			}
+			transferPixelSpan(kernel, data, numberOfDataBits, offset,
+					fromPixel, toPixel, true);
+		}
+	}
+
+	/**
+	 * Task reading all data bits of given span of data bytes. Spans of
+	 * different tasks never share a data byte, so tasks never write into the
+	 * same data element.
+	 */
+	private final class ReadByteSpanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final RasterKernel kernel;
+		private final byte[] data;
+		private final long offset;
+		private final int fromByte;
+		private final int toByte;
+
+		ReadByteSpanTask(RasterKernel kernel, byte[] data, long offset,
+				int fromByte, int toByte) {
+			this.kernel = kernel;
+			this.data = data;
+			this.offset = offset;
+			this.fromByte = fromByte;
+			this.toByte = toByte;
+		}
+
+		@Override
+		protected void compute() {
+			if ((toByte - fromByte) * 8 > PARALLEL_THRESHOLD_BITS) {
+				int middleByte = (fromByte + toByte) >>> 1;
+				invokeAll(new ReadByteSpanTask(kernel, data, offset, fromByte,
+						middleByte), new ReadByteSpanTask(kernel, data, offset,
+						middleByte, toByte));
+				return;
+			}
+			transferBits(kernel, data, fromByte * 8, toByte * 8, offset, false);
+		}
+	}
+
+	/**
+	 * Task writing or reading all data bits which fall into given span of
+	 * image pixels in {@link Layout#PIXEL_MAJOR} layout. Spans are split at
+	 * multiples of 8 pixels and data starts at such pixel, so spans of
+	 * different tasks never share a pixel nor a data byte.
+	 */
+	private final class PixelMajorSpanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final RasterKernel kernel;
+		private final byte[] data;
+		private final int numberOfDataBits;
+		private final long offset;
+		private final long fromPixel;
+		private final long toPixel;
+		private final boolean write;
+
+		PixelMajorSpanTask(RasterKernel kernel, byte[] data,
+				int numberOfDataBits, long offset, long fromPixel,
+				long toPixel, boolean write) {
+			this.kernel = kernel;
+			this.data = data;
+			this.numberOfDataBits = numberOfDataBits;
+			this.offset = offset;
+			this.fromPixel = fromPixel;
+			this.toPixel = toPixel;
+			this.write = write;
+		}
+
+		@Override
+		protected void compute() {
+			long middlePixel = ((fromPixel + toPixel) >>> 1) & ~7L;
+			if ((toPixel - fromPixel) * componentsToUse
+					* bitsPerComponent > PARALLEL_THRESHOLD_BITS
+					&& middlePixel > fromPixel && middlePixel < toPixel) {
+				invokeAll(new PixelMajorSpanTask(kernel, data,
+						numberOfDataBits, offset, fromPixel, middlePixel, write),
+						new PixelMajorSpanTask(kernel, data, numberOfDataBits,
+								offset, middlePixel, toPixel, write));
+				return;
+			}
+			writePixelMajorSpan(kernel, data, numberOfDataBits, offset,
+					fromPixel, toPixel, write);
+		}
 	}
 }
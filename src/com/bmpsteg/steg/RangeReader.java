@@ -0,0 +1,323 @@
+package com.bmpsteg.steg;
+
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of ranges of hidden data, which reads only stored bytes a range
+ * falls into. Data with chunk index is read one chunk at a time, and the
+ * last chunk read is cached. Encrypted data without chunk index must be
+ * authenticated as a whole before reader is created, and compressed data
+ * without chunk index is inflated sequentially, from its beginning again
+ * only when reading goes backwards.
+ *
+ * @author irelic
+ *
+ */
+final class RangeReader implements HiddenDataChannel.Source {
+
+	/**
+	 * Number of stored bytes read at once when inflating compressed data
+	 * without chunk index, and of inflated bytes skipped at once.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final DataHeader header;
+	private final PayloadFraming stored;
+	private final PayloadEncryption encryption;
+	private final ForkJoinPool forkJoinPool;
+	private final long bodyOffset;
+	private final long bodyLength;
+	private final PayloadIndex index;
+	private final long size;
+	private int cachedChunk = -1;
+	private byte[] cachedData;
+	private Inflater inflater;
+	private long inflaterInput;
+	private long inflated;
+
+	/**
+	 * Creates reader of hidden data following given header, reading its
+	 * chunk index.
+	 *
+	 * @param header
+	 *            header of hidden data
+	 * @param stored
+	 *            stored data following the header
+	 * @param encryption
+	 *            encryption stage which authenticated format header and salt
+	 *            of encrypted data, and whole data if it has no chunk index,
+	 *            or <code>null</code> if data is not encrypted
+	 * @param forkJoinPool
+	 *            pool decrypting large ranges in parallel, or
+	 *            <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if password does not match, or if data is corrupted
+	 */
+	RangeReader(DataHeader header, PayloadFraming stored,
+			PayloadEncryption encryption, ForkJoinPool forkJoinPool) {
+		this.header = header;
+		this.stored = stored;
+		this.encryption = encryption;
+		this.forkJoinPool = forkJoinPool;
+		long region = header.getDataLength();
+		if (encryption != null) {
+			bodyOffset = PayloadEncryption.SALT_BYTES;
+			region -= PayloadEncryption.OVERHEAD_BYTES;
+		} else {
+			bodyOffset = 0;
+		}
+		if (header.isIndexed()) {
+			index = readIndex(region);
+			bodyLength = index.getBodyLength();
+			size = index.getOriginalLength();
+		} else {
+			index = null;
+			bodyLength = region;
+			size = header.isCompressed() ? readOriginalLength() : region;
+		}
+	}
+
+	/**
+	 * Reads chunk index at the end of given region of stored data,
+	 * checking its tag if data is encrypted.
+	 *
+	 * @param region
+	 *            number of bytes of body and chunk index, including tag
+	 *            of chunk index
+	 * @return chunk index
+	 */
+	private PayloadIndex readIndex(long region) {
+		int tagBytes = encryption != null ? PayloadEncryption.CHUNK_TAG_BYTES
+				: 0;
+		long end = region - tagBytes;
+		long trailerPosition = end - PayloadIndex.TRAILER_BYTES;
+		long bodyLength = -1;
+		if (trailerPosition >= 0) {
+			byte[] trailer = new byte[PayloadIndex.TRAILER_BYTES];
+			readBody(trailerPosition, trailer, 0, trailer.length);
+			bodyLength = PayloadIndex.readBodyLength(trailer, 0,
+					trailerPosition);
+		}
+		if (bodyLength < 0) {
+			throw new IllegalArgumentException(
+					encryption != null ? "Wrong password or hidden data is corrupted!"
+							: "Chunk index of hidden data is corrupted!");
+		}
+		byte[] bytes = Utilities.allocateData(end - bodyLength);
+		readStored(bodyLength, bytes, 0, bytes.length);
+		if (encryption != null) {
+			byte[] tag = new byte[tagBytes];
+			readStored(end, tag, 0, tag.length);
+			if (!MessageDigest.isEqual(
+					encryption.indexTag(bytes, 0, bytes.length), tag)) {
+				throw new IllegalArgumentException(
+						"Wrong password or hidden data is corrupted!");
+			}
+			encryption.apply(bytes, 0, bytes.length, bodyLength, null);
+		}
+		return PayloadIndex.parse(bytes, encryption != null, bodyLength,
+				header.isCompressed());
+	}
+
+	/**
+	 * Reads original length preceding compressed data.
+	 *
+	 * @return original length in bytes
+	 */
+	private long readOriginalLength() {
+		if (bodyLength < Long.BYTES) {
+			throw new IllegalArgumentException(
+					"Compressed data is truncated!");
+		}
+		byte[] prefix = new byte[Long.BYTES];
+		readBody(0, prefix, 0, prefix.length);
+		return PayloadCompression.originalLength(prefix);
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public void read(long position, byte[] data, int from, int count) {
+		if (index != null) {
+			int chunkBytes = index.getChunkBytes();
+			while (count > 0) {
+				byte[] chunk = loadChunk((int) (position / chunkBytes));
+				int inChunk = (int) (position % chunkBytes);
+				int part = Math.min(count, chunk.length - inChunk);
+				System.arraycopy(chunk, inChunk, data, from, part);
+				position += part;
+				from += part;
+				count -= part;
+			}
+		} else if (header.isCompressed()) {
+			inflate(position, data, from, count);
+		} else {
+			readBody(position, data, from, count);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+		cachedData = null;
+		cachedChunk = -1;
+	}
+
+	/**
+	 * Returns original data of given chunk, reading, authenticating,
+	 * decrypting and inflating it unless it is the chunk read last.
+	 *
+	 * @param chunk
+	 *            chunk index
+	 * @return original data of chunk
+	 */
+	private byte[] loadChunk(int chunk) {
+		if (chunk == cachedChunk) {
+			return cachedData;
+		}
+		long offset = index.getOffset(chunk);
+		byte[] data = Utilities.allocateData(index.getEnd(chunk) - offset);
+		readStored(offset, data, 0, data.length);
+		if (encryption != null) {
+			encryption.beginChunk(chunk);
+			encryption.authenticateChunk(data, 0, data.length);
+			if (!MessageDigest.isEqual(encryption.chunkTag(),
+					index.getTag(chunk))) {
+				throw new IllegalArgumentException(
+						"Wrong password or hidden data is corrupted!");
+			}
+			encryption.apply(data, 0, data.length, offset, forkJoinPool);
+		}
+		if (header.isCompressed()) {
+			byte[] compressed = data;
+			data = new byte[index.getOriginalLength(chunk)];
+			PayloadCompression.inflateChunk(compressed, chunk == 0, data,
+					data.length);
+		}
+		cachedChunk = chunk;
+		cachedData = data;
+		return data;
+	}
+
+	/**
+	 * Inflates given range of compressed data without chunk index.
+	 *
+	 * @param position
+	 *            offset of first byte of range in original data
+	 * @param data
+	 *            array to inflate range into
+	 * @param from
+	 *            index of first byte of range in array
+	 * @param count
+	 *            number of bytes of range
+	 */
+	private void inflate(long position, byte[] data, int from, int count) {
+		if (inflater == null || position < inflated) {
+			if (inflater != null) {
+				inflater.end();
+			}
+			inflater = new Inflater();
+			inflaterInput = Long.BYTES;
+			inflated = 0;
+		}
+		if (inflated < position) {
+			byte[] skipped = new byte[(int) Math.min(BUFFER_SIZE, position
+					- inflated)];
+			while (inflated < position) {
+				inflate(skipped, 0,
+						(int) Math.min(skipped.length, position - inflated));
+			}
+		}
+		while (count > 0) {
+			int inflatedCount = inflate(data, from, count);
+			from += inflatedCount;
+			count -= inflatedCount;
+		}
+	}
+
+	/**
+	 * Inflates at least one and at most given number of next bytes of
+	 * original data, feeding the inflater from stored body when it needs
+	 * input.
+	 *
+	 * @param data
+	 *            array to inflate bytes into
+	 * @param from
+	 *            index of first inflated byte in array
+	 * @param count
+	 *            maximum number of bytes to inflate
+	 * @return number of inflated bytes
+	 */
+	private int inflate(byte[] data, int from, int count) {
+		try {
+			while (true) {
+				int inflatedCount = inflater.inflate(data, from, count);
+				if (inflatedCount > 0) {
+					inflated += inflatedCount;
+					return inflatedCount;
+				}
+				if (inflater.finished() || inflater.needsDictionary()
+						|| inflaterInput >= bodyLength) {
+					throw new IllegalArgumentException(
+							"Compressed data is truncated!");
+				}
+				byte[] input = new byte[(int) Math.min(BUFFER_SIZE,
+						bodyLength - inflaterInput)];
+				readBody(inflaterInput, input, 0, input.length);
+				inflaterInput += input.length;
+				inflater.setInput(input);
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException(
+					"Compressed data is corrupted! " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads given part of body, decrypting it if it is encrypted.
+	 *
+	 * @param position
+	 *            position of first byte of part in body
+	 * @param data
+	 *            array to read part into
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param count
+	 *            number of bytes of part
+	 */
+	private void readBody(long position, byte[] data, int from, int count) {
+		readStored(position, data, from, count);
+		if (encryption != null) {
+			encryption.apply(data, from, count, position, forkJoinPool);
+		}
+	}
+
+	/**
+	 * Reads given part of stored data following salt of encrypted data.
+	 * Framed data is read to the end of the last block the part falls
+	 * into, so that checksums of all those blocks are checked.
+	 *
+	 * @param position
+	 *            position of first byte of part after salt
+	 * @param data
+	 *            array to read part into
+	 * @param from
+	 *            index of first byte of part in array
+	 * @param count
+	 *            number of bytes of part
+	 */
+	private void readStored(long position, byte[] data, int from, int count) {
+		stored.seek(bodyOffset + position);
+		stored.read(data, from, count);
+		stored.finishBlock();
+	}
+}
@@ -0,0 +1,1003 @@
+package com.bmpsteg.steg;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import com.bmpsteg.bmp.BmpHeader;
+import com.bmpsteg.bmp.BmpImage;
+import com.bmpsteg.bmp.TiledBmpImage;
+
+/**
+ * Writes and reads data bits directly to and from image pixels. Pixels are
+ * addressed by their linear index (<code>y * width + x</code>) and components
+ * by their index (0 for B component, 1 for G component, 2 for R component), the
+ * same way {@link Utilities#getRGBIntBitValue(int, int, int)} addresses them.
+ * Data bits are addressed the same way {@link Utilities#bitValue(byte[], int)}
+ * addresses them.
+ *
+ * @author irelic
+ *
+ */
+abstract class RasterKernel {
+
+	protected final int width;
+	protected final int height;
+
+	/**
+	 * Creates new kernel for image of given dimensions.
+	 *
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 */
+	protected RasterKernel(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Returns kernel working directly on data bank of given image if image
+	 * raster layout is supported, otherwise returns kernel which uses
+	 * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)} and
+	 * {@link BufferedImage#setRGB(int, int, int, int, int[], int, int)}.
+	 * Supported layouts are packed RGB or BGR integers (with or without
+	 * alpha), interleaved bytes of at least B, G and R samples, and
+	 * interleaved bytes of single gray sample.
+	 *
+	 * @param image
+	 *            image to create kernel for
+	 * @return kernel for given image
+	 */
+	static RasterKernel forImage(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		ColorModel colorModel = image.getColorModel();
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		if (colorModel.isAlphaPremultiplied() || dataBuffer.getNumBanks() != 1) {
+			return new ConvertingKernel(image);
+		}
+		int translateX = raster.getSampleModelTranslateX();
+		int translateY = raster.getSampleModelTranslateY();
+		if (dataBuffer instanceof DataBufferInt
+				&& sampleModel instanceof SinglePixelPackedSampleModel
+				&& colorModel instanceof DirectColorModel) {
+			DirectColorModel directColorModel = (DirectColorModel) colorModel;
+			boolean rgb = directColorModel.getRedMask() == 0xFF0000
+					&& directColorModel.getBlueMask() == 0xFF;
+			boolean bgr = directColorModel.getRedMask() == 0xFF
+					&& directColorModel.getBlueMask() == 0xFF0000;
+			if ((rgb || bgr) && directColorModel.getGreenMask() == 0xFF00) {
+				int scanlineStride = ((SinglePixelPackedSampleModel) sampleModel)
+						.getScanlineStride();
+				int base = dataBuffer.getOffset() - translateY * scanlineStride
+						- translateX;
+				return new IntKernel(image.getWidth(), image.getHeight(),
+						((DataBufferInt) dataBuffer).getData(), base,
+						scanlineStride, bgr);
+			}
+		}
+		if (dataBuffer instanceof DataBufferByte
+				&& sampleModel instanceof PixelInterleavedSampleModel
+				&& colorModel instanceof ComponentColorModel
+				&& colorModel.getColorSpace().isCS_sRGB()
+				&& sampleModel.getNumBands() >= 3 && hasByteSamples(sampleModel)) {
+			PixelInterleavedSampleModel interleavedModel = (PixelInterleavedSampleModel) sampleModel;
+			int[] bandOffsets = interleavedModel.getBandOffsets();
+			int pixelStride = interleavedModel.getPixelStride();
+			int scanlineStride = interleavedModel.getScanlineStride();
+			int base = dataBuffer.getOffset() - translateY * scanlineStride
+					- translateX * pixelStride;
+			return new ByteKernel(image.getWidth(), image.getHeight(),
+					((DataBufferByte) dataBuffer).getData(), base,
+					scanlineStride, pixelStride, new int[] { bandOffsets[2],
+							bandOffsets[1], bandOffsets[0] }, 3);
+		}
+		if (dataBuffer instanceof DataBufferByte
+				&& sampleModel instanceof PixelInterleavedSampleModel
+				&& colorModel instanceof ComponentColorModel
+				&& colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY
+				&& sampleModel.getNumBands() == 1
+				&& hasByteSamples(sampleModel)) {
+			PixelInterleavedSampleModel interleavedModel = (PixelInterleavedSampleModel) sampleModel;
+			int bandOffset = interleavedModel.getBandOffsets()[0];
+			int pixelStride = interleavedModel.getPixelStride();
+			int scanlineStride = interleavedModel.getScanlineStride();
+			int base = dataBuffer.getOffset() - translateY * scanlineStride
+					- translateX * pixelStride;
+			return new ByteKernel(image.getWidth(), image.getHeight(),
+					((DataBufferByte) dataBuffer).getData(), base,
+					scanlineStride, pixelStride, new int[] { bandOffset,
+							bandOffset, bandOffset }, 1);
+		}
+		return new ConvertingKernel(image);
+	}
+
+	/**
+	 * Returns kernel working directly on pixels of given mapped BMP image.
+	 *
+	 * @param image
+	 *            BMP image to create kernel for
+	 * @return kernel for given BMP image
+	 */
+	static RasterKernel forImage(BmpImage image) {
+		return new BufferKernel(image.getBuffer(), image.getHeader(), 0);
+	}
+
+	/**
+	 * Returns kernel working directly on array or buffer of given pixel store
+	 * if store is created by {@link PixelStore}, otherwise returns kernel
+	 * which uses {@link PixelStore#getRGB(int, int)} and
+	 * {@link PixelStore#setRGB(int, int, int)}.
+	 *
+	 * @param store
+	 *            pixel store to create kernel for
+	 * @return kernel for given pixel store
+	 */
+	static RasterKernel forStore(PixelStore store) {
+		int width = store.getWidth();
+		int height = store.getHeight();
+		if (store instanceof IntPixelStore) {
+			return new IntKernel(width, height,
+					((IntPixelStore) store).getPixels(), 0, width);
+		}
+		if (store instanceof BgrPixelStore) {
+			int pixelStride = BgrPixelStore.BYTES_PER_PIXEL;
+			return new ByteKernel(width, height,
+					((BgrPixelStore) store).getPixels(), 0, width
+							* pixelStride, pixelStride, new int[] { 0, 1, 2 }, 3);
+		}
+		if (store instanceof BufferPixelStore) {
+			BufferPixelStore bufferStore = (BufferPixelStore) store;
+			return new BufferKernel(bufferStore.getPixels(), width, height,
+					bufferStore.getBytesPerPixel(),
+					bufferStore.getFirstRowIndex(), bufferStore.getRowStride());
+		}
+		return new StoreKernel(store);
+	}
+
+	/**
+	 * Returns kernel paging given BMP image from file one band of rows at a
+	 * time. Changed band is written back to file when other band is needed
+	 * and when {@link #flush()} is called. Errors of reading and writing the
+	 * file are thrown as {@link UncheckedIOException}.
+	 *
+	 * @param image
+	 *            tiled BMP image to create kernel for
+	 * @return kernel for given tiled BMP image
+	 */
+	static RasterKernel forImage(TiledBmpImage image) {
+		return new TiledKernel(image);
+	}
+
+	/**
+	 * Returns kernel working directly on part of BMP image file read into
+	 * given buffer. Only pixels of rows contained in buffer may be written or
+	 * read.
+	 *
+	 * @param buffer
+	 *            buffer containing part of BMP image file
+	 * @param header
+	 *            header of BMP image file
+	 * @param bufferOffset
+	 *            offset from file beginning of first byte in buffer
+	 * @return kernel for part of BMP image file
+	 */
+	static RasterKernel forBmpRegion(ByteBuffer buffer, BmpHeader header,
+			long bufferOffset) {
+		return new BufferKernel(buffer, header, bufferOffset);
+	}
+
+	/**
+	 * Checks if every band of given sample model has 8 bits.
+	 *
+	 * @param sampleModel
+	 *            sample model
+	 * @return true if every band has 8 bits, false otherwise
+	 */
+	private static boolean hasByteSamples(SampleModel sampleModel) {
+		for (int sampleSize : sampleModel.getSampleSize()) {
+			if (sampleSize != Byte.SIZE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns image width.
+	 *
+	 * @return image width
+	 */
+	int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns image height.
+	 *
+	 * @return image height
+	 */
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns information if this kernel works directly on image data bank.
+	 * Direct kernels can write disjoint pixel spans from multiple threads at
+	 * once.
+	 *
+	 * @return true if kernel works directly on image data bank, false
+	 *         otherwise
+	 */
+	boolean isDirect() {
+		return true;
+	}
+
+	/**
+	 * Returns number of color components which can hold data bits. Gray
+	 * images hold only one sample, which is read as B, G and R component, but
+	 * only first component may be written.
+	 *
+	 * @return number of color components which can hold data bits
+	 */
+	int getComponents() {
+		return 3;
+	}
+
+	/**
+	 * Returns number of consecutive pixels worth visiting together. Kernels
+	 * paging image from file return number of pixels of one page, so that
+	 * data is transferred page by page instead of sweeping the whole image in
+	 * every image pass.
+	 *
+	 * @return number of consecutive pixels worth visiting together
+	 */
+	long getSpanPixels() {
+		return (long) width * height;
+	}
+
+	/**
+	 * Writes changed pixels which are not yet written to image. Kernels working
+	 * on image data bank write every change at once, so this does nothing by
+	 * default.
+	 */
+	void flush() {
+	}
+
+	/**
+	 * Writes consecutive data bits into given bit of given component of
+	 * consecutive pixels.
+	 *
+	 * @param data
+	 *            data to be written
+	 * @param dataBit
+	 *            index of first data bit to write
+	 * @param pixel
+	 *            linear index of first pixel
+	 * @param count
+	 *            number of bits (and pixels) to write
+	 * @param component
+	 *            color component index
+	 * @param bit
+	 *            bit index in component
+	 */
+	final void writeBits(byte[] data, int dataBit, long pixel, int count,
+			int component, int bit) {
+		while (count > 0) {
+			int x = (int) (pixel % width);
+			int run = Math.min(count, width - x);
+			writeRow(data, dataBit, x, (int) (pixel / width), run, component,
+					bit);
+			dataBit += run;
+			pixel += run;
+			count -= run;
+		}
+	}
+
+	/**
+	 * Reads given bit of given component of consecutive pixels into
+	 * consecutive data bits.
+	 *
+	 * @param data
+	 *            data to be read into
+	 * @param dataBit
+	 *            index of first data bit to read into
+	 * @param pixel
+	 *            linear index of first pixel
+	 * @param count
+	 *            number of bits (and pixels) to read
+	 * @param component
+	 *            color component index
+	 * @param bit
+	 *            bit index in component
+	 */
+	final void readBits(byte[] data, int dataBit, long pixel, int count,
+			int component, int bit) {
+		while (count > 0) {
+			int x = (int) (pixel % width);
+			int run = Math.min(count, width - x);
+			readRow(data, dataBit, x, (int) (pixel / width), run, component,
+					bit);
+			dataBit += run;
+			pixel += run;
+			count -= run;
+		}
+	}
+
+	/**
+	 * Writes consecutive data bits into consecutive pixels, all used bits of
+	 * all used components of a pixel at once, as mapped by given
+	 * {@link PixelBits}.
+	 *
+	 * @param data
+	 *            data to be written
+	 * @param dataBit
+	 *            index of first data bit to write
+	 * @param pixel
+	 *            linear index of first pixel
+	 * @param count
+	 *            number of pixels to write
+	 * @param bits
+	 *            mapping of data bits to used bits of pixel
+	 */
+	final void writePixels(byte[] data, int dataBit, long pixel, int count,
+			PixelBits bits) {
+		while (count > 0) {
+			int x = (int) (pixel % width);
+			int run = Math.min(count, width - x);
+			writePixelRow(data, dataBit, x, (int) (pixel / width), run, bits);
+			dataBit += run * bits.getBitsPerPixel();
+			pixel += run;
+			count -= run;
+		}
+	}
+
+	/**
+	 * Reads consecutive pixels into consecutive data bits, all used bits of
+	 * all used components of a pixel at once, in order in which
+	 * {@link #writePixels(byte[], int, long, int, PixelBits)} writes them.
+	 *
+	 * @param data
+	 *            data to be read into
+	 * @param dataBit
+	 *            index of first data bit to read into
+	 * @param pixel
+	 *            linear index of first pixel
+	 * @param count
+	 *            number of pixels to read
+	 * @param bits
+	 *            mapping of data bits to used bits of pixel
+	 */
+	final void readPixels(byte[] data, int dataBit, long pixel, int count,
+			PixelBits bits) {
+		while (count > 0) {
+			int x = (int) (pixel % width);
+			int run = Math.min(count, width - x);
+			readPixelRow(data, dataBit, x, (int) (pixel / width), run, bits);
+			dataBit += run * bits.getBitsPerPixel();
+			pixel += run;
+			count -= run;
+		}
+	}
+
+	/**
+	 * Writes consecutive data bits into pixels of single row.
+	 *
+	 * @param data
+	 *            data to be written
+	 * @param dataBit
+	 *            index of first data bit to write
+	 * @param x
+	 *            x coordinate of first pixel
+	 * @param y
+	 *            row of pixels
+	 * @param count
+	 *            number of pixels to write, never past row end
+	 * @param component
+	 *            color component index
+	 * @param bit
+	 *            bit index in component
+	 */
+	protected abstract void writeRow(byte[] data, int dataBit, int x, int y,
+			int count, int component, int bit);
+
+	/**
+	 * Reads pixels of single row into consecutive data bits.
+	 *
+	 * @param data
+	 *            data to be read into
+	 * @param dataBit
+	 *            index of first data bit to read into
+	 * @param x
+	 *            x coordinate of first pixel
+	 * @param y
+	 *            row of pixels
+	 * @param count
+	 *            number of pixels to read, never past row end
+	 * @param component
+	 *            color component index
+	 * @param bit
+	 *            bit index in component
+	 */
+	protected abstract void readRow(byte[] data, int dataBit, int x, int y,
+			int count, int component, int bit);
+
+	/**
+	 * Writes consecutive data bits into all used bits of pixels of single row.
+	 *
+	 * @param data
+	 *            data to be written
+	 * @param dataBit
+	 *            index of first data bit to write
+	 * @param x
+	 *            x coordinate of first pixel
+	 * @param y
+	 *            row of pixels
+	 * @param count
+	 *            number of pixels to write, never past row end
+	 * @param bits
+	 *            mapping of data bits to used bits of pixel
+	 */
+	protected abstract void writePixelRow(byte[] data, int dataBit, int x,
+			int y, int count, PixelBits bits);
+
+	/**
+	 * Reads all used bits of pixels of single row into consecutive data bits.
+	 *
+	 * @param data
+	 *            data to be read into
+	 * @param dataBit
+	 *            index of first data bit to read into
+	 * @param x
+	 *            x coordinate of first pixel
+	 * @param y
+	 *            row of pixels
+	 * @param count
+	 *            number of pixels to read, never past row end
+	 * @param bits
+	 *            mapping of data bits to used bits of pixel
+	 */
+	protected abstract void readPixelRow(byte[] data, int dataBit, int x,
+			int y, int count, PixelBits bits);
+
+	/**
+	 * Returns value of data bit on given index.
+	 *
+	 * @param data
+	 *            data
+	 * @param dataBit
+	 *            data bit index
+	 * @return 0 or 1
+	 */
+	protected static int dataBit(byte[] data, int dataBit) {
+		return (data[dataBit >>> 3] >>> (7 - (dataBit & 7))) & 1;
+	}
+
+	/**
+	 * Sets data bit on given index to given value.
+	 *
+	 * @param data
+	 *            data
+	 * @param dataBit
+	 *            data bit index
+	 * @param value
+	 *            0 or 1
+	 */
+	protected static void setDataBit(byte[] data, int dataBit, int value) {
+		int shift = 7 - (dataBit & 7);
+		int index = dataBit >>> 3;
+		data[index] = (byte) ((data[index] & ~(1 << shift)) | (value << shift));
+	}
+
+	/**
+	 * Kernel for images storing each pixel as one packed RGB or BGR integer.
+	 * Bits of packed BGR integers are swapped into RGB order before they are
+	 * scattered or gathered.
+	 */
+	private static final class IntKernel extends RasterKernel {
+
+		private final int[] pixels;
+		private final int base;
+		private final int scanlineStride;
+		private final boolean bgr;
+
+		IntKernel(int width, int height, int[] pixels, int base,
+				int scanlineStride) {
+			this(width, height, pixels, base, scanlineStride, false);
+		}
+
+		IntKernel(int width, int height, int[] pixels, int base,
+				int scanlineStride, boolean bgr) {
+			super(width, height);
+			this.pixels = pixels;
+			this.base = base;
+			this.scanlineStride = scanlineStride;
+			this.bgr = bgr;
+		}
+
+		/**
+		 * Swaps lowest and third lowest byte of given integer if pixels are
+		 * packed BGR integers.
+		 *
+		 * @param value
+		 *            packed RGB or BGR integer
+		 * @return packed integer in other order, or given integer for packed
+		 *         RGB pixels
+		 */
+		private int order(int value) {
+			return bgr ? (value & 0xFF00FF00) | (value & 0xFF) << 16
+					| (value >>> 16) & 0xFF : value;
+		}
+
+		/**
+		 * Returns shift of given bit of given component in packed integer.
+		 *
+		 * @param component
+		 *            color component index
+		 * @param bit
+		 *            bit index in component
+		 * @return shift of bit in packed integer
+		 */
+		private int shift(int component, int bit) {
+			return (bgr ? 2 - component : component) * Byte.SIZE + bit;
+		}
+
+		@Override
+		protected void writeRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int shift = shift(component, bit);
+			int clearMask = ~(1 << shift);
+			int index = base + y * scanlineStride + x;
+			for (int end = index + count; index < end; ++index, ++dataBit) {
+				pixels[index] = (pixels[index] & clearMask)
+						| (dataBit(data, dataBit) << shift);
+			}
+		}
+
+		@Override
+		protected void readRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int shift = shift(component, bit);
+			int index = base + y * scanlineStride + x;
+			for (int end = index + count; index < end; ++index, ++dataBit) {
+				setDataBit(data, dataBit, (pixels[index] >>> shift) & 1);
+			}
+		}
+
+
+		@Override
+		protected void writePixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int clearMask = ~order(bits.getUsedMask());
+			int bitsPerPixel = bits.getBitsPerPixel();
+			int index = base + y * scanlineStride + x;
+			for (int end = index + count; index < end; ++index, dataBit += bitsPerPixel) {
+				pixels[index] = (pixels[index] & clearMask)
+						| order(bits.scatter(bits.readChunk(data, dataBit)));
+			}
+		}
+
+		@Override
+		protected void readPixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int bitsPerPixel = bits.getBitsPerPixel();
+			int index = base + y * scanlineStride + x;
+			for (int end = index + count; index < end; ++index, dataBit += bitsPerPixel) {
+				bits.writeChunk(data, dataBit, bits.gather(order(pixels[index])));
+			}
+		}
+	}
+
+	/**
+	 * Kernel for images storing each pixel component as one byte. Gray images
+	 * store single sample, whose offset is used for all components.
+	 */
+	private static final class ByteKernel extends RasterKernel {
+
+		private final byte[] pixels;
+		private final int base;
+		private final int scanlineStride;
+		private final int pixelStride;
+		private final int[] componentOffsets;
+		private final int components;
+
+		ByteKernel(int width, int height, byte[] pixels, int base,
+				int scanlineStride, int pixelStride, int[] componentOffsets,
+				int components) {
+			super(width, height);
+			this.pixels = pixels;
+			this.base = base;
+			this.scanlineStride = scanlineStride;
+			this.pixelStride = pixelStride;
+			this.componentOffsets = componentOffsets;
+			this.components = components;
+		}
+
+		@Override
+		int getComponents() {
+			return components;
+		}
+
+		@Override
+		protected void writeRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int clearMask = ~(1 << bit);
+			int index = base + y * scanlineStride + x * pixelStride
+					+ componentOffsets[component];
+			for (int i = 0; i < count; ++i, ++dataBit, index += pixelStride) {
+				pixels[index] = (byte) ((pixels[index] & clearMask) | (dataBit(
+						data, dataBit) << bit));
+			}
+		}
+
+		@Override
+		protected void readRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int index = base + y * scanlineStride + x * pixelStride
+					+ componentOffsets[component];
+			for (int i = 0; i < count; ++i, ++dataBit, index += pixelStride) {
+				setDataBit(data, dataBit, (pixels[index] >>> bit) & 1);
+			}
+		}
+
+
+		@Override
+		protected void writePixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int componentsToUse = bits.getComponentsToUse();
+			int bitsPerPixel = bits.getBitsPerPixel();
+			int index = base + y * scanlineStride + x * pixelStride;
+			for (int i = 0; i < count; ++i, index += pixelStride, dataBit += bitsPerPixel) {
+				int usedBits = bits.scatter(bits.readChunk(data, dataBit));
+				for (int component = 0; component < componentsToUse; ++component) {
+					int componentIndex = index + componentOffsets[component];
+					pixels[componentIndex] = (byte) ((pixels[componentIndex] & ~bits
+							.getUsedMask(component)) | usedBits >>> component
+							* Byte.SIZE);
+				}
+			}
+		}
+
+		@Override
+		protected void readPixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int componentsToUse = bits.getComponentsToUse();
+			int bitsPerPixel = bits.getBitsPerPixel();
+			int index = base + y * scanlineStride + x * pixelStride;
+			for (int i = 0; i < count; ++i, index += pixelStride, dataBit += bitsPerPixel) {
+				int chunk = 0;
+				for (int component = 0; component < componentsToUse; ++component) {
+					chunk |= bits.gather(component, pixels[index
+							+ componentOffsets[component]]);
+				}
+				bits.writeChunk(data, dataBit, chunk);
+			}
+		}
+	}
+
+	/**
+	 * Kernel for BMP images mapped or read into buffer and for buffer pixel
+	 * stores, storing each pixel component as one byte in B, G, R order.
+	 */
+	private static final class BufferKernel extends RasterKernel {
+
+		private final ByteBuffer pixels;
+		private final long firstRowIndex;
+		private final int rowStride;
+		private final int pixelStride;
+
+		BufferKernel(ByteBuffer pixels, BmpHeader header, long bufferOffset) {
+			this(pixels, header.getWidth(), header.getHeight(), header
+					.getBytesPerPixel(), header.getRowOffset(0) - bufferOffset,
+					header.isTopDown() ? header.getRowStride() : -header
+							.getRowStride());
+		}
+
+		BufferKernel(ByteBuffer pixels, int width, int height,
+				int pixelStride, long firstRowIndex, int rowStride) {
+			super(width, height);
+			this.pixels = pixels;
+			this.firstRowIndex = firstRowIndex;
+			this.rowStride = rowStride;
+			this.pixelStride = pixelStride;
+		}
+
+		/**
+		 * Returns index in buffer of first pixel of given image row.
+		 *
+		 * @param y
+		 *            image row
+		 * @return index in buffer of first pixel of given image row
+		 */
+		private int rowIndex(int y) {
+			return (int) (firstRowIndex + (long) y * rowStride);
+		}
+
+		@Override
+		protected void writeRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int clearMask = ~(1 << bit);
+			int index = rowIndex(y) + x * pixelStride + component;
+			for (int i = 0; i < count; ++i, ++dataBit, index += pixelStride) {
+				pixels.put(index, (byte) ((pixels.get(index) & clearMask) | (dataBit(
+						data, dataBit) << bit)));
+			}
+		}
+
+		@Override
+		protected void readRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int index = rowIndex(y) + x * pixelStride + component;
+			for (int i = 0; i < count; ++i, ++dataBit, index += pixelStride) {
+				setDataBit(data, dataBit, (pixels.get(index) >>> bit) & 1);
+			}
+		}
+
+
+		@Override
+		protected void writePixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int componentsToUse = bits.getComponentsToUse();
+			int bitsPerPixel = bits.getBitsPerPixel();
+			int index = rowIndex(y) + x * pixelStride;
+			for (int i = 0; i < count; ++i, index += pixelStride, dataBit += bitsPerPixel) {
+				int usedBits = bits.scatter(bits.readChunk(data, dataBit));
+				for (int component = 0; component < componentsToUse; ++component) {
+					pixels.put(index + component, (byte) ((pixels.get(index
+							+ component) & ~bits.getUsedMask(component)) | usedBits >>> component
+							* Byte.SIZE));
+				}
+			}
+		}
+
+		@Override
+		protected void readPixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int componentsToUse = bits.getComponentsToUse();
+			int bitsPerPixel = bits.getBitsPerPixel();
+			int index = rowIndex(y) + x * pixelStride;
+			for (int i = 0; i < count; ++i, index += pixelStride, dataBit += bitsPerPixel) {
+				int chunk = 0;
+				for (int component = 0; component < componentsToUse; ++component) {
+					chunk |= bits.gather(component, pixels.get(index + component));
+				}
+				bits.writeChunk(data, dataBit, chunk);
+			}
+		}
+	}
+
+	/**
+	 * Kernel for BMP images paged from file one band of rows at a time. Pixels
+	 * of loaded band are accessed by {@link BufferKernel}.
+	 */
+	private static final class TiledKernel extends RasterKernel {
+
+		private final TiledBmpImage image;
+		private final ByteBuffer band;
+		private int firstRow = -1;
+		private int lastRow = -1;
+		private long bandOffset;
+		private RasterKernel bandKernel;
+		private boolean dirty;
+
+		TiledKernel(TiledBmpImage image) {
+			super(image.getWidth(), image.getHeight());
+			this.image = image;
+			this.band = image.allocateBand();
+		}
+
+		@Override
+		boolean isDirect() {
+			return false;
+		}
+
+		@Override
+		long getSpanPixels() {
+			return (long) image.getBandRows() * width;
+		}
+
+		@Override
+		void flush() {
+			if (dirty) {
+				try {
+					image.writeBand(band, bandOffset);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				dirty = false;
+			}
+		}
+
+		/**
+		 * Returns kernel over band holding given row, loading the band if it
+		 * is not loaded already.
+		 *
+		 * @param y
+		 *            image row
+		 * @param write
+		 *            true if pixels of row will be written
+		 * @return kernel over band holding given row
+		 */
+		private RasterKernel band(int y, boolean write) {
+			if (y < firstRow || y > lastRow) {
+				flush();
+				int bandRows = image.getBandRows();
+				int first = y / bandRows * bandRows;
+				try {
+					bandOffset = image.readBand(first, band);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				firstRow = first;
+				lastRow = (int) Math.min((long) first + bandRows, height) - 1;
+				bandKernel = new BufferKernel(band, image.getHeader(),
+						bandOffset);
+			}
+			dirty |= write;
+			return bandKernel;
+		}
+
+		@Override
+		protected void writeRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			band(y, true).writeRow(data, dataBit, x, y, count, component, bit);
+		}
+
+		@Override
+		protected void readRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			band(y, false).readRow(data, dataBit, x, y, count, component, bit);
+		}
+
+		@Override
+		protected void writePixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			band(y, true).writePixelRow(data, dataBit, x, y, count, bits);
+		}
+
+		@Override
+		protected void readPixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			band(y, false).readPixelRow(data, dataBit, x, y, count, bits);
+		}
+	}
+
+	/**
+	 * Kernel for pixel stores not created by {@link PixelStore}. It accesses
+	 * every pixel through store methods.
+	 */
+	private static final class StoreKernel extends RasterKernel {
+
+		private final PixelStore store;
+
+		StoreKernel(PixelStore store) {
+			super(store.getWidth(), store.getHeight());
+			this.store = store;
+		}
+
+		@Override
+		boolean isDirect() {
+			return false;
+		}
+
+		@Override
+		protected void writeRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int shift = component * Byte.SIZE + bit;
+			int clearMask = ~(1 << shift);
+			for (int end = x + count; x < end; ++x, ++dataBit) {
+				store.setRGB(x, y, (store.getRGB(x, y) & clearMask)
+						| (dataBit(data, dataBit) << shift));
+			}
+		}
+
+		@Override
+		protected void readRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int shift = component * Byte.SIZE + bit;
+			for (int end = x + count; x < end; ++x, ++dataBit) {
+				setDataBit(data, dataBit, (store.getRGB(x, y) >>> shift) & 1);
+			}
+		}
+
+		@Override
+		protected void writePixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int clearMask = ~bits.getUsedMask();
+			for (int end = x + count; x < end; ++x, dataBit += bits
+					.getBitsPerPixel()) {
+				store.setRGB(x, y, (store.getRGB(x, y) & clearMask)
+						| bits.scatter(bits.readChunk(data, dataBit)));
+			}
+		}
+
+		@Override
+		protected void readPixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			for (int end = x + count; x < end; ++x, dataBit += bits
+					.getBitsPerPixel()) {
+				bits.writeChunk(data, dataBit, bits.gather(store.getRGB(x, y)));
+			}
+		}
+	}
+
+	/**
+	 * Kernel for images with raster layout not supported by other kernels. It
+	 * converts pixels through image color model, whole span of a row at once.
+	 */
+	private static final class ConvertingKernel extends RasterKernel {
+
+		private final BufferedImage image;
+		private final int[] row;
+
+		ConvertingKernel(BufferedImage image) {
+			super(image.getWidth(), image.getHeight());
+			this.image = image;
+			this.row = new int[image.getWidth()];
+		}
+
+		@Override
+		boolean isDirect() {
+			return false;
+		}
+
+		@Override
+		protected void writeRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int shift = component * Byte.SIZE + bit;
+			int clearMask = ~(1 << shift);
+			image.getRGB(x, y, count, 1, row, 0, count);
+			for (int i = 0; i < count; ++i, ++dataBit) {
+				row[i] = (row[i] & clearMask) | (dataBit(data, dataBit) << shift);
+			}
+			image.setRGB(x, y, count, 1, row, 0, count);
+		}
+
+		@Override
+		protected void readRow(byte[] data, int dataBit, int x, int y,
+				int count, int component, int bit) {
+			int shift = component * Byte.SIZE + bit;
+			image.getRGB(x, y, count, 1, row, 0, count);
+			for (int i = 0; i < count; ++i, ++dataBit) {
+				setDataBit(data, dataBit, (row[i] >>> shift) & 1);
+			}
+		}
+
+		@Override
+		protected void writePixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int clearMask = ~bits.getUsedMask();
+			int bitsPerPixel = bits.getBitsPerPixel();
+			image.getRGB(x, y, count, 1, row, 0, count);
+			for (int i = 0; i < count; ++i, dataBit += bitsPerPixel) {
+				row[i] = (row[i] & clearMask)
+						| bits.scatter(bits.readChunk(data, dataBit));
+			}
+			image.setRGB(x, y, count, 1, row, 0, count);
+		}
+
+		@Override
+		protected void readPixelRow(byte[] data, int dataBit, int x, int y,
+				int count, PixelBits bits) {
+			int bitsPerPixel = bits.getBitsPerPixel();
+			image.getRGB(x, y, count, 1, row, 0, count);
+			for (int i = 0; i < count; ++i, dataBit += bitsPerPixel) {
+				bits.writeChunk(data, dataBit, bits.gather(row[i]));
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.bmpsteg.steg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Represents data recovered from possibly damaged stego image holding data
+ * with block checksums. Data is split into blocks of equal size, only the
+ * last block may be shorter, and block is intact if its checksum matches.
+ * Bytes of damaged blocks are kept as they were read.
+ *
+ * @author irelic
+ *
+ */
+public final class RecoveredData {
+
+	private final byte[] data;
+	private final int blockSize;
+	private final BitSet intactBlocks;
+
+	/**
+	 * Creates new recovered data.
+	 *
+	 * @param data
+	 *            all data read from image, including damaged blocks
+	 * @param blockSize
+	 *            number of bytes of every block but the last one
+	 * @param intactBlocks
+	 *            set of indexes of intact blocks
+	 */
+	public RecoveredData(byte[] data, int blockSize, BitSet intactBlocks) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be positive!");
+		}
+		this.data = data;
+		this.blockSize = blockSize;
+		this.intactBlocks = (BitSet) intactBlocks.clone();
+	}
+
+	/**
+	 * Returns all data read from image, including damaged blocks.
+	 *
+	 * @return all data read from image
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Returns number of bytes of every block but the last one.
+	 *
+	 * @return block size in bytes
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns number of blocks data is split into.
+	 *
+	 * @return number of blocks
+	 */
+	public int getBlockCount() {
+		return (int) (((long) data.length + blockSize - 1) / blockSize);
+	}
+
+	/**
+	 * Returns information if block with given index is intact.
+	 *
+	 * @param block
+	 *            block index
+	 * @return true if checksum of block matches, false otherwise
+	 */
+	public boolean isIntact(int block) {
+		return intactBlocks.get(block);
+	}
+
+	/**
+	 * Returns indexes of intact blocks in ascending order.
+	 *
+	 * @return indexes of intact blocks
+	 */
+	public List<Integer> getIntactBlocks() {
+		List<Integer> blocks = new ArrayList<>(intactBlocks.cardinality());
+		for (int block = intactBlocks.nextSetBit(0); block >= 0; block = intactBlocks
+				.nextSetBit(block + 1)) {
+			blocks.add(block);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Returns length of the longest prefix of data made of intact blocks.
+	 *
+	 * @return length of verified prefix in bytes
+	 */
+	public int getVerifiedLength() {
+		return (int) Math.min(data.length,
+				(long) intactBlocks.nextClearBit(0) * blockSize);
+	}
+
+	/**
+	 * Returns the longest prefix of data made of intact blocks.
+	 *
+	 * @return copy of verified prefix
+	 */
+	public byte[] getVerifiedPrefix() {
+		return Arrays.copyOf(data, getVerifiedLength());
+	}
+
+	/**
+	 * Returns information if all blocks are intact.
+	 *
+	 * @return true if all blocks are intact, false otherwise
+	 */
+	public boolean isComplete() {
+		return getVerifiedLength() == data.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d of %d block(s) intact, %d bytes verified",
+				intactBlocks.cardinality(), getBlockCount(),
+				getVerifiedLength());
+	}
+}
@@ -0,0 +1,360 @@
+package com.bmpsteg.steg;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import com.bmpsteg.bmp.BmpImage;
+
+/**
+ * Compact codec of image regions used in reversible deidentification. Encoded
+ * regions start with magic number and number of regions, followed by x, y,
+ * width and height of every region, followed by Deflate compressed pixel rows
+ * of every region. Every row holds B, G and R byte of every pixel and is
+ * preceded by filter type, the same way PNG rows are: each row is stored
+ * either as it is or as difference to left pixel, to pixel above or to Paeth
+ * prediction, whichever gives the smallest sum of absolute differences.
+ * Overlapping regions are merged before encoding, so every pixel is encoded
+ * only once.
+ *
+ * @author irelic
+ *
+ */
+public class RegionCodec {
+
+	/**
+	 * Magic number of encoded regions: "RGN" followed by codec version.
+	 */
+	private static final int MAGIC = 0x52474E01;
+
+	private static final int BYTES_PER_PIXEL = 3;
+	private static final int FILTER_NONE = 0;
+	private static final int FILTER_SUB = 1;
+	private static final int FILTER_UP = 2;
+	private static final int FILTER_PAETH = 3;
+	private static final int FILTERS = 4;
+
+	/**
+	 * Bounds of Deflate expansion of incompressible pixels: one extra byte per
+	 * given number of bytes, plus block headers, zlib header and checksum.
+	 */
+	private static final int INCOMPRESSIBLE_OVERHEAD_RATIO = 256;
+	private static final int ZLIB_OVERHEAD_BYTES = 64;
+
+	private RegionCodec() {
+	}
+
+	/**
+	 * Encodes pixels of given regions of given image.
+	 *
+	 * @param image
+	 *            image
+	 * @param regions
+	 *            regions to encode; they may overlap and exceed image bounds
+	 * @return encoded regions
+	 */
+	public static byte[] encode(BufferedImage image, List<Rectangle> regions) {
+		return encode(PixelRows.forImage(image), Regions.merge(regions,
+				image.getWidth(), image.getHeight()));
+	}
+
+	/**
+	 * Encodes pixels of given regions of given BMP image.
+	 *
+	 * @param image
+	 *            BMP image
+	 * @param regions
+	 *            regions to encode; they may overlap and exceed image bounds
+	 * @return encoded regions
+	 */
+	public static byte[] encode(BmpImage image, List<Rectangle> regions) {
+		return encode(PixelRows.forImage(image), Regions.merge(regions,
+				image.getWidth(), image.getHeight()));
+	}
+
+	/**
+	 * Returns upper bound of number of bytes of single encoded region of given
+	 * dimensions, reached when pixels cannot be compressed at all.
+	 *
+	 * @param width
+	 *            region width
+	 * @param height
+	 *            region height
+	 * @return maximum number of bytes of encoded region
+	 */
+	public static long getMaxEncodedBytes(int width, int height) {
+		long rows = (1 + (long) width * BYTES_PER_PIXEL) * height;
+		return 2 * Integer.BYTES + 4 * Integer.BYTES + rows + rows
+				/ INCOMPRESSIBLE_OVERHEAD_RATIO + ZLIB_OVERHEAD_BYTES;
+	}
+
+	/**
+	 * Decodes given regions and writes their pixels into given image.
+	 *
+	 * @param encodedRegions
+	 *            encoded regions
+	 * @param image
+	 *            image to write pixels into
+	 * @return decoded regions
+	 * @throws IllegalArgumentException
+	 *             if encoded regions are malformed or do not fit into image
+	 */
+	public static List<Rectangle> decode(byte[] encodedRegions,
+			BufferedImage image) {
+		return decode(encodedRegions, PixelRows.forImage(image));
+	}
+
+	/**
+	 * Decodes given regions and writes their pixels into given BMP image.
+	 *
+	 * @param encodedRegions
+	 *            encoded regions
+	 * @param image
+	 *            BMP image to write pixels into
+	 * @return decoded regions
+	 * @throws IllegalArgumentException
+	 *             if encoded regions are malformed or do not fit into image
+	 */
+	public static List<Rectangle> decode(byte[] encodedRegions, BmpImage image) {
+		return decode(encodedRegions, PixelRows.forImage(image));
+	}
+
+	/**
+	 * Encodes pixels of given disjoint regions.
+	 *
+	 * @param rows
+	 *            row-wise access to image pixels
+	 * @param regions
+	 *            disjoint regions inside image
+	 * @return encoded regions
+	 */
+	static byte[] encode(PixelRows rows, List<Rectangle> regions) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		try {
+			DataOutputStream header = new DataOutputStream(output);
+			header.writeInt(MAGIC);
+			header.writeInt(regions.size());
+			int maxWidth = 0;
+			for (Rectangle region : regions) {
+				header.writeInt(region.x);
+				header.writeInt(region.y);
+				header.writeInt(region.width);
+				header.writeInt(region.height);
+				maxWidth = Math.max(maxWidth, region.width);
+			}
+			header.flush();
+			DeflaterOutputStream pixels = new DeflaterOutputStream(output,
+					deflater, 1 << 16);
+			int[] rgbRow = new int[maxWidth];
+			byte[] row = new byte[maxWidth * BYTES_PER_PIXEL];
+			byte[] previousRow = new byte[row.length];
+			byte[][] filtered = new byte[FILTERS][1 + row.length];
+			for (Rectangle region : regions) {
+				int rowLength = region.width * BYTES_PER_PIXEL;
+				Arrays.fill(previousRow, 0, rowLength, (byte) 0);
+				for (int y = region.y; y < region.y + region.height; ++y) {
+					rows.getRow(region.x, y, region.width, rgbRow);
+					for (int x = 0, index = 0; x < region.width; ++x) {
+						int rgb = rgbRow[x];
+						row[index++] = (byte) rgb;
+						row[index++] = (byte) (rgb >> 8);
+						row[index++] = (byte) (rgb >> 16);
+					}
+					byte[] best = filterRow(row, previousRow, rowLength,
+							filtered);
+					pixels.write(best, 0, 1 + rowLength);
+					byte[] swap = previousRow;
+					previousRow = row;
+					row = swap;
+				}
+			}
+			pixels.finish();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			deflater.end();
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Filters given row with every filter and returns filtered row with the
+	 * smallest sum of absolute differences.
+	 *
+	 * @param row
+	 *            row of B, G and R bytes
+	 * @param previousRow
+	 *            previous row of the same region, zeros for first row
+	 * @param rowLength
+	 *            number of bytes of row
+	 * @param filtered
+	 *            array of rows filtered by every filter, each preceded by
+	 *            filter type
+	 * @return best filtered row
+	 */
+	private static byte[] filterRow(byte[] row, byte[] previousRow,
+			int rowLength, byte[][] filtered) {
+		byte[] best = null;
+		long bestSum = Long.MAX_VALUE;
+		for (int filter = 0; filter < FILTERS; ++filter) {
+			byte[] target = filtered[filter];
+			target[0] = (byte) filter;
+			long sum = 0;
+			for (int i = 0; i < rowLength; ++i) {
+				int left = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xFF
+						: 0;
+				int up = previousRow[i] & 0xFF;
+				int upLeft = i >= BYTES_PER_PIXEL ? previousRow[i
+						- BYTES_PER_PIXEL] & 0xFF : 0;
+				byte value = (byte) ((row[i] & 0xFF) - predict(filter, left,
+						up, upLeft));
+				target[1 + i] = value;
+				sum += Math.abs(value);
+			}
+			if (sum < bestSum) {
+				bestSum = sum;
+				best = target;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns prediction of byte value by given filter.
+	 *
+	 * @param filter
+	 *            filter type
+	 * @param left
+	 *            byte of the same component of left pixel
+	 * @param up
+	 *            byte of the same component of pixel above
+	 * @param upLeft
+	 *            byte of the same component of pixel above left pixel
+	 * @return predicted byte value
+	 */
+	private static int predict(int filter, int left, int up, int upLeft) {
+		switch (filter) {
+		case FILTER_SUB:
+			return left;
+		case FILTER_UP:
+			return up;
+		case FILTER_PAETH:
+			int estimate = left + up - upLeft;
+			int leftDistance = Math.abs(estimate - left);
+			int upDistance = Math.abs(estimate - up);
+			int upLeftDistance = Math.abs(estimate - upLeft);
+			if (leftDistance <= upDistance && leftDistance <= upLeftDistance) {
+				return left;
+			}
+			return upDistance <= upLeftDistance ? up : upLeft;
+		case FILTER_NONE:
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Decodes given regions and writes their pixels into image.
+	 *
+	 * @param encodedRegions
+	 *            encoded regions
+	 * @param rows
+	 *            row-wise access to image pixels
+	 * @return decoded regions
+	 * @throws IllegalArgumentException
+	 *             if encoded regions are malformed or do not fit into image
+	 */
+	static List<Rectangle> decode(byte[] encodedRegions, PixelRows rows) {
+		ByteArrayInputStream input = new ByteArrayInputStream(encodedRegions);
+		DataInputStream header = new DataInputStream(input);
+		Inflater inflater = new Inflater();
+		try {
+			if (header.readInt() != MAGIC) {
+				throw new IllegalArgumentException(
+						"Data does not contain encoded regions!");
+			}
+			int count = header.readInt();
+			if (count < 0 || (long) count * 4 * Integer.BYTES > input.available()) {
+				throw new IllegalArgumentException(
+						"Invalid number of encoded regions: " + count + "!");
+			}
+			Rectangle bounds = new Rectangle(0, 0, rows.getWidth(),
+					rows.getHeight());
+			List<Rectangle> regions = new ArrayList<>(count);
+			int maxWidth = 0;
+			for (int i = 0; i < count; ++i) {
+				Rectangle region = new Rectangle(header.readInt(),
+						header.readInt(), header.readInt(), header.readInt());
+				if (region.isEmpty() || !bounds.contains(region)) {
+					throw new IllegalArgumentException("Encoded region "
+							+ region + " does not fit into image!");
+				}
+				regions.add(region);
+				maxWidth = Math.max(maxWidth, region.width);
+			}
+			DataInputStream pixels = new DataInputStream(
+					new InflaterInputStream(input, inflater, 1 << 16));
+			byte[] row = new byte[1 + maxWidth * BYTES_PER_PIXEL];
+			byte[] previousRow = new byte[row.length];
+			int[] rgbRow = new int[maxWidth];
+			for (Rectangle region : regions) {
+				int rowLength = region.width * BYTES_PER_PIXEL;
+				Arrays.fill(previousRow, 0, 1 + rowLength, (byte) 0);
+				for (int y = region.y; y < region.y + region.height; ++y) {
+					pixels.readFully(row, 0, 1 + rowLength);
+					int filter = row[0];
+					if (filter < 0 || filter >= FILTERS) {
+						throw new IllegalArgumentException(
+								"Invalid row filter: " + filter + "!");
+					}
+					for (int i = 1; i <= rowLength; ++i) {
+						int left = i > BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xFF
+								: 0;
+						int up = previousRow[i] & 0xFF;
+						int upLeft = i > BYTES_PER_PIXEL ? previousRow[i
+								- BYTES_PER_PIXEL] & 0xFF : 0;
+						row[i] = (byte) (row[i] + predict(filter, left, up,
+								upLeft));
+					}
+					for (int x = 0, index = 1; x < region.width; ++x, index += BYTES_PER_PIXEL) {
+						rgbRow[x] = 0xFF000000 | (row[index] & 0xFF)
+								| (row[index + 1] & 0xFF) << 8
+								| (row[index + 2] & 0xFF) << 16;
+					}
+					rows.setRow(region.x, y, region.width, rgbRow);
+					byte[] swap = previousRow;
+					previousRow = row;
+					row = swap;
+				}
+			}
+			if (pixels.read() != -1) {
+				throw new IllegalArgumentException(
+						"Encoded regions contain trailing data!");
+			}
+			return regions;
+		} catch (EOFException e) {
+			throw new IllegalArgumentException("Encoded regions are truncated!");
+		} catch (ZipException e) {
+			throw new IllegalArgumentException(
+					"Encoded regions are corrupted! " + e.getMessage());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.bmpsteg.steg;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Utility methods for sets of rectangular image regions.
+ *
+ * @author irelic
+ *
+ */
+public class Regions {
+
+	private Regions() {
+	}
+
+	/**
+	 * Merges given regions into disjoint rectangles covering exactly the same
+	 * pixels of image of given dimensions. Regions are clipped to image bounds
+	 * and image is split into horizontal bands where no region starts or ends.
+	 * Overlapping and adjacent regions of every band are joined into spans,
+	 * and spans of consecutive bands are joined into taller rectangles when
+	 * bands have the same spans. Rectangles are returned from top to bottom
+	 * and from left to right.
+	 *
+	 * @param regions
+	 *            regions to merge
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return disjoint rectangles covering the same pixels as given regions
+	 */
+	public static List<Rectangle> merge(Collection<Rectangle> regions,
+			int width, int height) {
+		Rectangle bounds = new Rectangle(0, 0, width, height);
+		List<Rectangle> clipped = new ArrayList<>();
+		TreeSet<Integer> breaks = new TreeSet<>();
+		for (Rectangle region : regions) {
+			Rectangle clip = region.intersection(bounds);
+			if (!clip.isEmpty()) {
+				clipped.add(clip);
+				breaks.add(clip.y);
+				breaks.add(clip.y + clip.height);
+			}
+		}
+		List<Rectangle> merged = new ArrayList<>();
+		List<Rectangle> previousBand = new ArrayList<>();
+		int[] previousSpans = new int[0];
+		Integer[] bandBreaks = breaks.toArray(new Integer[breaks.size()]);
+		for (int i = 0; i + 1 < bandBreaks.length; ++i) {
+			int bandStart = bandBreaks[i];
+			int bandEnd = bandBreaks[i + 1];
+			int[] spans = bandSpans(clipped, bandStart, bandEnd);
+			if (spans.length > 0 && Arrays.equals(spans, previousSpans)) {
+				for (Rectangle rectangle : previousBand) {
+					rectangle.height += bandEnd - bandStart;
+				}
+				continue;
+			}
+			previousBand = new ArrayList<>();
+			for (int j = 0; j < spans.length; j += 2) {
+				Rectangle rectangle = new Rectangle(spans[j], bandStart,
+						spans[j + 1] - spans[j], bandEnd - bandStart);
+				previousBand.add(rectangle);
+				merged.add(rectangle);
+			}
+			previousSpans = spans;
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns disjoint horizontal spans covered by given rectangles in given
+	 * band. Every rectangle either covers whole band or does not intersect it.
+	 *
+	 * @param rectangles
+	 *            rectangles
+	 * @param bandStart
+	 *            first row of band, inclusive
+	 * @param bandEnd
+	 *            last row of band, exclusive
+	 * @return start (inclusive) and end (exclusive) of every span, in
+	 *         ascending order
+	 */
+	private static int[] bandSpans(List<Rectangle> rectangles, int bandStart,
+			int bandEnd) {
+		List<int[]> spans = new ArrayList<>();
+		for (Rectangle rectangle : rectangles) {
+			if (rectangle.y <= bandStart
+					&& rectangle.y + rectangle.height >= bandEnd) {
+				spans.add(new int[] { rectangle.x,
+						rectangle.x + rectangle.width });
+			}
+		}
+		spans.sort((first, second) -> Integer.compare(first[0], second[0]));
+		int[] joined = new int[spans.size() * 2];
+		int length = 0;
+		for (int[] span : spans) {
+			if (length > 0 && span[0] <= joined[length - 1]) {
+				joined[length - 1] = Math.max(joined[length - 1], span[1]);
+			} else {
+				joined[length++] = span[0];
+				joined[length++] = span[1];
+			}
+		}
+		return Arrays.copyOf(joined, length);
+	}
+}
@@ -1,6 +1,10 @@
 package com.bmpsteg.steg;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.List;
+
+import com.bmpsteg.bmp.BmpImage;
 
 /**
  * Represents steganography algorithm used in reversible deidentification.
@@ -29,4 +33,110 @@ public interface ReversibleDeidentificationSteganoraphyAlgorithm extends
 	void preprocessOriginalImage(BufferedImage originalImage, int xStart,
 			int yStart, int xEnd, int yEnd);
 
+	/**
+	 * Called before hiding the data into mapped BMP image to remove
+	 * identification information from image.
+	 * 
+	 * @param originalImage
+	 *            original BMP image to remove identification information from
+	 * @param xStart
+	 *            start position x of identification information
+	 * @param yStart
+	 *            start position y of identification information
+	 * @param xEnd
+	 *            end position x of identification information
+	 * @param yEnd
+	 *            end position y of identification information
+	 */
+	void preprocessOriginalImage(BmpImage originalImage, int xStart,
+			int yStart, int xEnd, int yEnd);
+
+	/**
+	 * Called before hiding the data into image to remove identification
+	 * information in many regions at once. Overlapping regions are merged, so
+	 * every pixel is packed and blanked only once.
+	 * 
+	 * @param originalImage
+	 *            original image to remove identification information from
+	 * @param regions
+	 *            regions of identification information
+	 * @return original contents of all regions packed into one payload, which
+	 *         can be hidden into image and later given to
+	 *         {@link #restoreOriginalImage(BufferedImage, byte[])}
+	 */
+	byte[] preprocessOriginalImage(BufferedImage originalImage,
+			List<Rectangle> regions);
+
+	/**
+	 * Called before hiding the data into mapped BMP image to remove
+	 * identification information in many regions at once. Overlapping regions
+	 * are merged, so every pixel is packed and blanked only once.
+	 * 
+	 * @param originalImage
+	 *            original BMP image to remove identification information from
+	 * @param regions
+	 *            regions of identification information
+	 * @return original contents of all regions packed into one payload, which
+	 *         can be hidden into image and later given to
+	 *         {@link #restoreOriginalImage(BmpImage, byte[])}
+	 */
+	byte[] preprocessOriginalImage(BmpImage originalImage,
+			List<Rectangle> regions);
+
+	/**
+	 * Writes original contents of regions packed by
+	 * {@link #preprocessOriginalImage(BufferedImage, List)} back into image.
+	 * 
+	 * @param image
+	 *            deidentified image
+	 * @param packedRegions
+	 *            packed original contents of regions
+	 * @throws IllegalArgumentException
+	 *             if packed regions are malformed or do not fit into image
+	 */
+	void restoreOriginalImage(BufferedImage image, byte[] packedRegions);
+
+	/**
+	 * Writes original contents of regions packed by
+	 * {@link #preprocessOriginalImage(BmpImage, List)} back into mapped BMP
+	 * image.
+	 * 
+	 * @param image
+	 *            deidentified BMP image
+	 * @param packedRegions
+	 *            packed original contents of regions
+	 * @throws IllegalArgumentException
+	 *             if packed regions are malformed or do not fit into image
+	 */
+	void restoreOriginalImage(BmpImage image, byte[] packedRegions);
+
+	/**
+	 * Reidentifies given stego image in one pass: extracts regions hidden by
+	 * {@link #preprocessOriginalImage(BufferedImage, List)} and writes their
+	 * original contents back into image. Pixels outside of regions keep the
+	 * hidden data.
+	 * 
+	 * @param stegoImage
+	 *            deidentified stego image
+	 * @return restored regions
+	 * @throws IllegalArgumentException
+	 *             if image does not contain hidden regions or they do not fit
+	 *             into image
+	 */
+	List<Rectangle> reidentify(BufferedImage stegoImage);
+
+	/**
+	 * Reidentifies given mapped BMP stego image in one pass: extracts regions
+	 * hidden by {@link #preprocessOriginalImage(BmpImage, List)} and writes
+	 * their original contents back into image. Pixels outside of regions keep
+	 * the hidden data.
+	 * 
+	 * @param stegoImage
+	 *            deidentified BMP stego image
+	 * @return restored regions
+	 * @throws IllegalArgumentException
+	 *             if image does not contain hidden regions or they do not fit
+	 *             into image
+	 */
+	List<Rectangle> reidentify(BmpImage stegoImage);
 }
@@ -0,0 +1,573 @@
+package com.bmpsteg.steg;
+
+import java.awt.image.BufferedImage;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
+
+import com.bmpsteg.bmp.BmpImage;
+
+/**
+ * Hides data too large for single image into many carrier images. Data is
+ * split into sequenced shards, one per carrier, proportionally to capacity of
+ * carriers, and shards are hidden into carriers concurrently. Every shard
+ * starts with small index: magic number, identifier of the data, shard index
+ * and number of shards, data length, offset of shard in the data and CRC32 of
+ * the data. Extracting collects shards from stego images in any order and
+ * joins them back.
+ *
+ * @author irelic
+ *
+ */
+public class ShardedSteganography {
+
+	/**
+	 * Magic number of shard index: "SHRD".
+	 */
+	private static final int SHARD_MAGIC = 0x53485244;
+
+	/**
+	 * Number of bytes of shard index.
+	 */
+	public static final int SHARD_INDEX_BYTES = Integer.BYTES + Long.BYTES
+			+ 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+
+	private final SteganographyAlgorithm algorithm;
+	private volatile Executor executor = ForkJoinPool.commonPool();
+
+	/**
+	 * Carrier image, either in memory, mapped BMP image or pixel store.
+	 */
+	private interface Carrier {
+
+		long getMaxBytes();
+
+		void hideData(byte[] data) throws InsufficientSpaceException;
+
+		byte[] extractData();
+
+		ProbeResult probe();
+	}
+
+	/**
+	 * Operation hiding data into image of given kind.
+	 */
+	private interface Hider<T> {
+
+		void hideData(byte[] data, T image) throws InsufficientSpaceException;
+	}
+
+	/**
+	 * Shard extracted from stego image.
+	 */
+	private static final class Shard {
+
+		private long dataId;
+		private int index;
+		private int count;
+		private long dataLength;
+		private long offset;
+		private int crc;
+		private byte[] bytes;
+	}
+
+	/**
+	 * Creates new sharded steganography hiding shards with given algorithm.
+	 *
+	 * @param algorithm
+	 *            steganography algorithm used for hiding and extracting
+	 *            shards; it must not be reconfigured while shards are hidden
+	 *            or extracted
+	 */
+	public ShardedSteganography(SteganographyAlgorithm algorithm) {
+		if (algorithm == null) {
+			throw new IllegalArgumentException("Algorithm must be given!");
+		}
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Sets executor hiding and extracting shards of different carriers
+	 * concurrently. Common fork/join pool is used by default.
+	 *
+	 * @param executor
+	 *            executor used for hiding and extracting shards
+	 */
+	public void setExecutor(Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor must be given!");
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns maximum number of bytes which can be hidden into given carriers.
+	 *
+	 * @param carriers
+	 *            carrier images
+	 * @return maximum number of bytes which can be hidden into carriers
+	 */
+	public long getMaxBytes(BufferedImage... carriers) {
+		return getMaxBytes(carriers(carriers));
+	}
+
+	/**
+	 * Returns maximum number of bytes which can be hidden into given mapped
+	 * BMP carriers.
+	 *
+	 * @param carriers
+	 *            carrier BMP images
+	 * @return maximum number of bytes which can be hidden into carriers
+	 */
+	public long getMaxBytes(BmpImage... carriers) {
+		return getMaxBytes(carriers(carriers));
+	}
+
+	/**
+	 * Returns maximum number of bytes which can be hidden into given pixel
+	 * store carriers.
+	 *
+	 * @param carriers
+	 *            carrier pixel stores
+	 * @return maximum number of bytes which can be hidden into carriers
+	 */
+	public long getMaxBytes(PixelStore... carriers) {
+		return getMaxBytes(carriers(carriers));
+	}
+
+	/**
+	 * Splits given data into shards and hides them into given carriers
+	 * concurrently. Carriers which cannot hold even shard index are left
+	 * untouched.
+	 *
+	 * @param data
+	 *            data to be hidden
+	 * @param carriers
+	 *            carrier images
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given carriers
+	 */
+	public void hideData(byte[] data, BufferedImage... carriers)
+			throws InsufficientSpaceException {
+		hideData(data, carriers(carriers));
+	}
+
+	/**
+	 * Splits given data into shards and hides them into given mapped BMP
+	 * carriers concurrently. Carriers which cannot hold even shard index are
+	 * left untouched.
+	 *
+	 * @param data
+	 *            data to be hidden
+	 * @param carriers
+	 *            carrier BMP images
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given carriers
+	 */
+	public void hideData(byte[] data, BmpImage... carriers)
+			throws InsufficientSpaceException {
+		hideData(data, carriers(carriers));
+	}
+
+	/**
+	 * Splits given data into shards and hides them into given pixel store
+	 * carriers concurrently. Carriers which cannot hold even shard index are
+	 * left untouched.
+	 *
+	 * @param data
+	 *            data to be hidden
+	 * @param carriers
+	 *            carrier pixel stores
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given carriers
+	 */
+	public void hideData(byte[] data, PixelStore... carriers)
+			throws InsufficientSpaceException {
+		hideData(data, carriers(carriers));
+	}
+
+	/**
+	 * Extracts shards from given stego images concurrently and joins them.
+	 * Stego images may be given in any order, and images which do not hold a
+	 * shard are skipped.
+	 *
+	 * @param stegoImages
+	 *            stego images
+	 * @return hidden data
+	 * @throws IllegalArgumentException
+	 *             if shards are missing, duplicated, of different data or
+	 *             corrupted, or if an image declaring hidden data could not
+	 *             be extracted
+	 */
+	public byte[] extractData(BufferedImage... stegoImages) {
+		return extractData(carriers(stegoImages));
+	}
+
+	/**
+	 * Extracts shards from given mapped BMP stego images concurrently and
+	 * joins them. Stego images may be given in any order, and images which do
+	 * not hold a shard are skipped.
+	 *
+	 * @param stegoImages
+	 *            BMP stego images
+	 * @return hidden data
+	 * @throws IllegalArgumentException
+	 *             if shards are missing, duplicated, of different data or
+	 *             corrupted, or if an image declaring hidden data could not
+	 *             be extracted
+	 */
+	public byte[] extractData(BmpImage... stegoImages) {
+		return extractData(carriers(stegoImages));
+	}
+
+	/**
+	 * Extracts shards from given pixel store stego images concurrently and
+	 * joins them. Stego images may be given in any order, and images which do
+	 * not hold a shard are skipped.
+	 *
+	 * @param stegoImages
+	 *            pixel stores holding stego images
+	 * @return hidden data
+	 * @throws IllegalArgumentException
+	 *             if shards are missing, duplicated, of different data or
+	 *             corrupted, or if an image declaring hidden data could not
+	 *             be extracted
+	 */
+	public byte[] extractData(PixelStore... stegoImages) {
+		return extractData(carriers(stegoImages));
+	}
+
+	/**
+	 * Wraps given images into carriers.
+	 *
+	 * @param images
+	 *            images
+	 * @return carriers
+	 */
+	private List<Carrier> carriers(BufferedImage[] images) {
+		return carriers(images, algorithm::getMaxBytes, algorithm::hideData,
+				algorithm::extractData, algorithm::probe);
+	}
+
+	/**
+	 * Wraps given BMP images into carriers.
+	 *
+	 * @param images
+	 *            BMP images
+	 * @return carriers
+	 */
+	private List<Carrier> carriers(BmpImage[] images) {
+		return carriers(images, algorithm::getMaxBytes, algorithm::hideData,
+				algorithm::extractData, algorithm::probe);
+	}
+
+	/**
+	 * Wraps given pixel stores into carriers.
+	 *
+	 * @param images
+	 *            pixel stores
+	 * @return carriers
+	 */
+	private List<Carrier> carriers(PixelStore[] images) {
+		return carriers(images, algorithm::getMaxBytes, algorithm::hideData,
+				algorithm::extractData, algorithm::probe);
+	}
+
+	/**
+	 * Wraps given images of any kind into carriers using given operations of
+	 * the algorithm on that kind of image.
+	 *
+	 * @param images
+	 *            images
+	 * @param maxBytes
+	 *            returns maximum number of bytes image can hold
+	 * @param hider
+	 *            hides data into image
+	 * @param extractor
+	 *            extracts data from image
+	 * @param prober
+	 *            probes image for hidden data
+	 * @return carriers
+	 */
+	private static <T> List<Carrier> carriers(T[] images,
+			ToLongFunction<T> maxBytes, Hider<T> hider,
+			Function<T, byte[]> extractor, Function<T, ProbeResult> prober) {
+		List<Carrier> carriers = new ArrayList<>(images.length);
+		for (final T image : images) {
+			carriers.add(new Carrier() {
+
+				@Override
+				public long getMaxBytes() {
+					return maxBytes.applyAsLong(image);
+				}
+
+				@Override
+				public void hideData(byte[] data)
+						throws InsufficientSpaceException {
+					hider.hideData(data, image);
+				}
+
+				@Override
+				public byte[] extractData() {
+					return extractor.apply(image);
+				}
+
+				@Override
+				public ProbeResult probe() {
+					return prober.apply(image);
+				}
+			});
+		}
+		return carriers;
+	}
+
+	/**
+	 * Returns maximum number of bytes which can be hidden into given carriers.
+	 *
+	 * @param carriers
+	 *            carriers
+	 * @return maximum number of bytes which can be hidden into carriers
+	 */
+	private static long getMaxBytes(List<Carrier> carriers) {
+		long maxBytes = 0;
+		for (Carrier carrier : carriers) {
+			maxBytes += Math.max(shardCapacity(carrier), 0);
+		}
+		return maxBytes;
+	}
+
+	/**
+	 * Returns number of data bytes which can be hidden into given carrier
+	 * together with shard index. Shard is held in an array, so capacity of
+	 * carriers holding more than {@link Integer#MAX_VALUE} bytes is limited
+	 * to that.
+	 *
+	 * @param carrier
+	 *            carrier
+	 * @return capacity of carrier, negative if carrier cannot hold shard
+	 *         index
+	 */
+	private static long shardCapacity(Carrier carrier) {
+		return Math.min(carrier.getMaxBytes(), Integer.MAX_VALUE)
+				- SHARD_INDEX_BYTES;
+	}
+
+	/**
+	 * Splits given data into shards proportionally to capacity of carriers and
+	 * hides them concurrently.
+	 *
+	 * @param data
+	 *            data to be hidden
+	 * @param carriers
+	 *            carriers
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given carriers
+	 */
+	private void hideData(byte[] data, List<Carrier> carriers)
+			throws InsufficientSpaceException {
+		List<Carrier> used = new ArrayList<>();
+		List<Long> capacities = new ArrayList<>();
+		long totalCapacity = 0;
+		for (Carrier carrier : carriers) {
+			long capacity = shardCapacity(carrier);
+			if (capacity >= 0) {
+				used.add(carrier);
+				capacities.add(capacity);
+				totalCapacity += capacity;
+			}
+		}
+		if (used.isEmpty() || data.length > totalCapacity) {
+			throw new InsufficientSpaceException(String.format(
+					"Maximum data size is %d bytes! Given size: %d bytes",
+					totalCapacity, data.length));
+		}
+		int[] lengths = new int[used.size()];
+		long assigned = 0;
+		for (int i = 0; i < lengths.length; ++i) {
+			lengths[i] = (int) (totalCapacity == 0 ? 0 : (long) data.length
+					* capacities.get(i) / totalCapacity);
+			assigned += lengths[i];
+		}
+		for (int i = 0; i < lengths.length && assigned < data.length; ++i) {
+			int extra = (int) Math.min(data.length - assigned,
+					capacities.get(i) - lengths[i]);
+			lengths[i] += extra;
+			assigned += extra;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		long dataId = ThreadLocalRandom.current().nextLong();
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		int offset = 0;
+		for (int i = 0; i < lengths.length; ++i) {
+			final Carrier carrier = used.get(i);
+			final byte[] shard = ByteBuffer
+					.allocate(SHARD_INDEX_BYTES + lengths[i])
+					.putInt(SHARD_MAGIC).putLong(dataId).putInt(i)
+					.putInt(lengths.length).putLong(data.length)
+					.putLong(offset).putInt((int) crc.getValue())
+					.put(data, offset, lengths[i]).array();
+			offset += lengths[i];
+			futures.add(CompletableFuture.runAsync(() -> {
+				try {
+					carrier.hideData(shard);
+				} catch (InsufficientSpaceException e) {
+					throw new CompletionException(e);
+				}
+			}, executor));
+		}
+		try {
+			CompletableFuture.allOf(
+					futures.toArray(new CompletableFuture<?>[futures.size()]))
+					.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof InsufficientSpaceException) {
+				throw (InsufficientSpaceException) e.getCause();
+			}
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e
+					.getCause() : e;
+		}
+	}
+
+	/**
+	 * Extracts shards from given carriers concurrently and joins them.
+	 *
+	 * @param carriers
+	 *            carriers
+	 * @return hidden data
+	 */
+	private byte[] extractData(List<Carrier> carriers) {
+		List<CompletableFuture<Shard>> futures = new ArrayList<>();
+		for (int i = 0; i < carriers.size(); ++i) {
+			final Carrier carrier = carriers.get(i);
+			final int position = i;
+			futures.add(CompletableFuture.supplyAsync(
+					() -> readShard(carrier, position), executor));
+		}
+		Shard[] shards = null;
+		Shard first = null;
+		for (CompletableFuture<Shard> future : futures) {
+			Shard shard;
+			try {
+				shard = future.join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e
+						.getCause() : e;
+			}
+			if (shard == null) {
+				continue;
+			}
+			if (first == null) {
+				if (shard.count > carriers.size()) {
+					throw new IllegalArgumentException(String.format(
+							"Data is split into %d shards, but only %d stego images are given!",
+							shard.count, carriers.size()));
+				}
+				first = shard;
+				shards = new Shard[shard.count];
+			} else if (shard.dataId != first.dataId
+					|| shard.count != first.count
+					|| shard.dataLength != first.dataLength
+					|| shard.crc != first.crc) {
+				throw new IllegalArgumentException(
+						"Stego images hold shards of different data!");
+			}
+			if (shards[shard.index] != null) {
+				throw new IllegalArgumentException("Shard " + shard.index
+						+ " is hidden more than once!");
+			}
+			shards[shard.index] = shard;
+		}
+		if (first == null) {
+			throw new IllegalArgumentException(
+					"Stego images do not hold any shard!");
+		}
+		if (first.dataLength > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid data length: "
+					+ first.dataLength + "!");
+		}
+		byte[] data = new byte[(int) first.dataLength];
+		long expectedOffset = 0;
+		for (int i = 0; i < shards.length; ++i) {
+			Shard shard = shards[i];
+			if (shard == null) {
+				throw new IllegalArgumentException(String.format(
+						"Shard %d of %d is missing!", i + 1, shards.length));
+			}
+			if (shard.offset != expectedOffset
+					|| shard.offset + shard.bytes.length > data.length) {
+				throw new IllegalArgumentException("Shard " + i
+						+ " does not fit into data!");
+			}
+			System.arraycopy(shard.bytes, 0, data, (int) shard.offset,
+					shard.bytes.length);
+			expectedOffset += shard.bytes.length;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		if (expectedOffset != data.length || (int) crc.getValue() != first.crc) {
+			throw new IllegalArgumentException("Joined shards are corrupted!");
+		}
+		return data;
+	}
+
+	/**
+	 * Extracts shard from given carrier. Carrier is skipped only if its header
+	 * does not declare plausible hidden data or if hidden data is not a shard,
+	 * while failure to extract declared data is reported.
+	 *
+	 * @param carrier
+	 *            carrier
+	 * @param position
+	 *            position of carrier among given stego images
+	 * @return extracted shard or <code>null</code> if carrier does not hold a
+	 *         shard
+	 * @throws IllegalArgumentException
+	 *             if hidden data could not be extracted, e.g. because
+	 *             password does not match or data is corrupted
+	 */
+	private static Shard readShard(Carrier carrier, int position) {
+		if (!carrier.probe().isPlausible()) {
+			return null;
+		}
+		byte[] hidden;
+		try {
+			hidden = carrier.extractData();
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format(
+					"Stego image at position %d could not be extracted! %s",
+					position, e.getMessage()), e);
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(hidden);
+			if (buffer.getInt() != SHARD_MAGIC) {
+				return null;
+			}
+			Shard shard = new Shard();
+			shard.dataId = buffer.getLong();
+			shard.index = buffer.getInt();
+			shard.count = buffer.getInt();
+			shard.dataLength = buffer.getLong();
+			shard.offset = buffer.getLong();
+			shard.crc = buffer.getInt();
+			if (shard.count < 1 || shard.index < 0
+					|| shard.index >= shard.count) {
+				return null;
+			}
+			shard.bytes = new byte[buffer.remaining()];
+			buffer.get(shard.bytes);
+			return shard;
+		} catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+}
@@ -1,6 +1,11 @@
 package com.bmpsteg.steg;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.bmpsteg.bmp.BmpImage;
 
 /**
  * Represents method used for steganographically hiding the data into image.
@@ -23,20 +28,249 @@ public interface SteganographyAlgorithm {
 	void hideData(byte[] data, BufferedImage image)
 			throws InsufficientSpaceException;
 
+	/**
+	 * Hides given data directly into pixels of mapped BMP image.
+	 * 
+	 * @param data
+	 *            data to be hidden
+	 * @param image
+	 *            BMP image used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 */
+	void hideData(byte[] data, BmpImage image)
+			throws InsufficientSpaceException;
+
+	/**
+	 * Hides given data directly into pixels of given pixel store.
+	 * 
+	 * @param data
+	 *            data to be hidden
+	 * @param image
+	 *            pixel store used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 */
+	void hideData(byte[] data, PixelStore image)
+			throws InsufficientSpaceException;
+
+	/**
+	 * Hides data read from given stream into image. Data is moved in bounded
+	 * chunks, so it is never held in memory as a whole.
+	 * 
+	 * @param data
+	 *            stream of data to be hidden
+	 * @param length
+	 *            number of bytes to read from stream and hide
+	 * @param image
+	 *            image used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 * @throws IOException
+	 *             if stream could not be read or it ends before given number
+	 *             of bytes is read
+	 */
+	void hideData(InputStream data, long length, BufferedImage image)
+			throws InsufficientSpaceException, IOException;
+
+	/**
+	 * Hides data read from given stream directly into pixels of mapped BMP
+	 * image.
+	 * 
+	 * @param data
+	 *            stream of data to be hidden
+	 * @param length
+	 *            number of bytes to read from stream and hide
+	 * @param image
+	 *            BMP image used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 * @throws IOException
+	 *             if stream could not be read or it ends before given number
+	 *             of bytes is read
+	 */
+	void hideData(InputStream data, long length, BmpImage image)
+			throws InsufficientSpaceException, IOException;
+
+	/**
+	 * Hides data read from given stream directly into pixels of given pixel
+	 * store.
+	 * 
+	 * @param data
+	 *            stream of data to be hidden
+	 * @param length
+	 *            number of bytes to read from stream and hide
+	 * @param image
+	 *            pixel store used for hiding the data
+	 * @throws InsufficientSpaceException
+	 *             if data is too large for hiding into given image
+	 * @throws IOException
+	 *             if stream could not be read or it ends before given number
+	 *             of bytes is read
+	 */
+	void hideData(InputStream data, long length, PixelStore image)
+			throws InsufficientSpaceException, IOException;
+
 	/**
 	 * Extracts data from given stego image.
 	 * 
 	 * @param stegImage
 	 *            stego image
 	 * @return data hidden in given stego image
+	 * @throws IllegalArgumentException
+	 *             if image does not declare valid length of hidden data
 	 */
 	byte[] extractData(BufferedImage stegImage);
 
+	/**
+	 * Extracts data directly from pixels of mapped BMP stego image.
+	 * 
+	 * @param stegImage
+	 *            BMP stego image
+	 * @return data hidden in given stego image
+	 * @throws IllegalArgumentException
+	 *             if image does not declare valid length of hidden data
+	 */
+	byte[] extractData(BmpImage stegImage);
+
+	/**
+	 * Extracts data directly from pixels of given pixel store.
+	 * 
+	 * @param stegImage
+	 *            pixel store holding stego image
+	 * @return data hidden in given stego image
+	 * @throws IllegalArgumentException
+	 *             if image does not declare valid length of hidden data
+	 */
+	byte[] extractData(PixelStore stegImage);
+
+	/**
+	 * Extracts data from given stego image into given stream. Data is moved in
+	 * bounded chunks, so it is never held in memory as a whole.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @param output
+	 *            stream to write hidden data to
+	 * @return number of bytes written to stream
+	 * @throws IOException
+	 *             if stream could not be written
+	 * @throws IllegalArgumentException
+	 *             if image does not declare valid length of hidden data
+	 */
+	long extractData(BufferedImage stegImage, OutputStream output)
+			throws IOException;
+
+	/**
+	 * Extracts data directly from pixels of mapped BMP stego image into given
+	 * stream.
+	 * 
+	 * @param stegImage
+	 *            BMP stego image
+	 * @param output
+	 *            stream to write hidden data to
+	 * @return number of bytes written to stream
+	 * @throws IOException
+	 *             if stream could not be written
+	 * @throws IllegalArgumentException
+	 *             if image does not declare valid length of hidden data
+	 */
+	long extractData(BmpImage stegImage, OutputStream output)
+			throws IOException;
+
+	/**
+	 * Extracts data directly from pixels of given pixel store into given
+	 * stream.
+	 * 
+	 * @param stegImage
+	 *            pixel store holding stego image
+	 * @param output
+	 *            stream to write hidden data to
+	 * @return number of bytes written to stream
+	 * @throws IOException
+	 *             if stream could not be written
+	 * @throws IllegalArgumentException
+	 *             if image does not declare valid length of hidden data
+	 */
+	long extractData(PixelStore stegImage, OutputStream output)
+			throws IOException;
+
 	/**
 	 * Returns maximum number of bytes this method can hide inside image.
 	 * 
 	 * @param image
 	 * @return
 	 */
-	int getMaxBytes(BufferedImage image);
+	long getMaxBytes(BufferedImage image);
+
+	/**
+	 * Returns maximum number of bytes this method can hide inside BMP image.
+	 * 
+	 * @param image
+	 *            BMP image
+	 * @return maximum number of bytes this method can hide inside BMP image
+	 */
+	long getMaxBytes(BmpImage image);
+
+	/**
+	 * Returns maximum number of bytes this method can hide inside pixel store.
+	 * 
+	 * @param image
+	 *            pixel store
+	 * @return maximum number of bytes this method can hide inside pixel store
+	 */
+	long getMaxBytes(PixelStore image);
+
+	/**
+	 * Returns maximum number of bytes this method can hide inside image of
+	 * given dimensions, without decoding any pixels.
+	 * 
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return maximum number of bytes this method can hide inside image
+	 */
+	long getMaxBytes(int width, int height);
+
+	/**
+	 * Probes given stego image for hidden data. Only pixels holding header of
+	 * hidden data are read.
+	 * 
+	 * @param stegImage
+	 *            stego image
+	 * @return declared size of hidden data and whether it is plausible
+	 */
+	ProbeResult probe(BufferedImage stegImage);
+
+	/**
+	 * Probes given mapped BMP stego image for hidden data. Only pixels holding
+	 * header of hidden data are read.
+	 * 
+	 * @param stegImage
+	 *            BMP stego image
+	 * @return declared size of hidden data and whether it is plausible
+	 */
+	ProbeResult probe(BmpImage stegImage);
+
+	/**
+	 * Probes given pixel store for hidden data. Only pixels holding header of
+	 * hidden data are read.
+	 * 
+	 * @param stegImage
+	 *            pixel store holding stego image
+	 * @return declared size of hidden data and whether it is plausible
+	 */
+	ProbeResult probe(PixelStore stegImage);
+
+	/**
+	 * Sets listener notified about progress of hiding and extracting the
+	 * data, which may also cancel it. Listener is used by all following
+	 * operations until it is replaced.
+	 * 
+	 * @param listener
+	 *            progress listener or <code>null</code> for no progress
+	 *            reporting
+	 */
+	void setProgressListener(ProgressListener listener);
 }
@@ -1,7 +1,15 @@
 package com.bmpsteg.steg;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CancellationException;
 
 /**
  * Contains utility methods.
@@ -155,7 +163,117 @@ public class Utilities {
 	}
 
 	/**
-	 * Returns copy of original buffered image in INT TYPE RBG format.
+	 * Reads exactly given number of bytes from stream into beginning of given
+	 * array.
+	 * 
+	 * @param input
+	 *            stream to read from
+	 * @param buffer
+	 *            array to read into
+	 * @param length
+	 *            number of bytes to read
+	 * @throws EOFException
+	 *             if stream ends before given number of bytes is read
+	 * @throws IOException
+	 *             if stream could not be read
+	 */
+	public static void readFully(InputStream input, byte[] buffer, int length)
+			throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = input.read(buffer, read, length - read);
+			if (count < 0) {
+				throw new EOFException(String.format(
+						"Stream ended after %d bytes! Expected %d bytes",
+						read, length));
+			}
+			read += count;
+		}
+	}
+
+	/**
+	 * Reads bytes from given position of file channel until given buffer is
+	 * full.
+	 * 
+	 * @param channel
+	 *            file channel to read from
+	 * @param buffer
+	 *            buffer to read into
+	 * @param position
+	 *            file position to start reading from
+	 * @throws EOFException
+	 *             if file ends before buffer is full
+	 * @throws IOException
+	 *             if file could not be read
+	 */
+	public static void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		long start = position - buffer.position();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start + buffer.position()) < 0) {
+				throw new EOFException(String.format(
+						"File ended at position %d! Expected %d more bytes",
+						start + buffer.position(), buffer.remaining()));
+			}
+		}
+	}
+
+	/**
+	 * Writes all remaining bytes of given buffer to given position of file
+	 * channel.
+	 * 
+	 * @param channel
+	 *            file channel to write to
+	 * @param buffer
+	 *            buffer to write
+	 * @param position
+	 *            file position to start writing at
+	 * @throws IOException
+	 *             if file could not be written
+	 */
+	public static void writeFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		long start = position - buffer.position();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, start + buffer.position());
+		}
+	}
+
+	/**
+	 * Returns length of array holding given number of elements per pixel of
+	 * image of given dimensions.
+	 * 
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param elementsPerPixel
+	 *            number of array elements per pixel
+	 * @return array length
+	 * @throws IllegalArgumentException
+	 *             if dimensions are not positive or array would be too large
+	 */
+	public static int pixelArrayLength(int width, int height,
+			int elementsPerPixel) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException(
+					"Image width and height must be positive!");
+		}
+		long length = (long) width * height * elementsPerPixel;
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format(
+					"Image of %dx%d pixels is too large for single array! Maximum length: %d elements",
+					width, height, Integer.MAX_VALUE));
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Returns copy of original buffered image in INT TYPE RBG format. Colors
+	 * are converted exactly as {@link BufferedImage#getRGB(int, int)} converts
+	 * them, but packed RGB integer and 3-byte BGR images are copied without
+	 * color model, 8-bit gray images through table of their 256 colors and
+	 * other images a row at a time.
 	 * 
 	 * @param original
 	 *            original image
@@ -166,11 +284,119 @@ public class Utilities {
 		int height = original.getHeight();
 		BufferedImage copy = new BufferedImage(width, height,
 				BufferedImage.TYPE_INT_RGB);
-		for (int y = 0; y < height; ++y) {
-			for (int x = 0; x < width; ++x) {
-				copy.setRGB(x, y, original.getRGB(x, y));
+		int[] pixels = ((DataBufferInt) copy.getRaster().getDataBuffer())
+				.getData();
+		Raster raster = original.getRaster();
+		switch (original.getType()) {
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB:
+			for (int y = 0; y < height; ++y) {
+				int[] row = (int[]) raster.getDataElements(0, y, width, 1, null);
+				for (int x = 0; x < width; ++x) {
+					pixels[y * width + x] = row[x] & 0xFFFFFF;
+				}
+			}
+			break;
+		case BufferedImage.TYPE_3BYTE_BGR:
+			byte[] rgb = new byte[width * 3];
+			for (int y = 0; y < height; ++y) {
+				raster.getDataElements(0, y, width, 1, rgb);
+				for (int x = 0, index = 0; x < width; ++x, index += 3) {
+					pixels[y * width + x] = (rgb[index] & 0xFF) << 16
+							| (rgb[index + 1] & 0xFF) << 8
+							| (rgb[index + 2] & 0xFF);
+				}
+			}
+			break;
+		case BufferedImage.TYPE_BYTE_GRAY:
+			ColorModel colorModel = original.getColorModel();
+			int[] colors = new int[256];
+			byte[] samples = new byte[Math.max(width, 1)];
+			for (int gray = 0; gray < colors.length; ++gray) {
+				samples[0] = (byte) gray;
+				colors[gray] = colorModel.getRGB(samples) & 0xFFFFFF;
+			}
+			for (int y = 0; y < height; ++y) {
+				raster.getDataElements(0, y, width, 1, samples);
+				for (int x = 0; x < width; ++x) {
+					pixels[y * width + x] = colors[samples[x] & 0xFF];
+				}
+			}
+			break;
+		default:
+			int[] row = new int[width];
+			for (int y = 0; y < height; ++y) {
+				original.getRGB(0, y, width, 1, row, 0, width);
+				for (int x = 0; x < width; ++x) {
+					pixels[y * width + x] = row[x] & 0xFFFFFF;
+				}
 			}
 		}
 		return copy;
 	}
+
+	/**
+	 * Checks if data is hidden directly in raster of given image, with all
+	 * three color components stored in full 8 bits. Other images must be
+	 * copied by {@link #copy(BufferedImage)} before hiding, since hidden bits
+	 * do not survive their color model.
+	 * 
+	 * @param image
+	 *            image to check
+	 * @return true if data is hidden directly in image raster, false otherwise
+	 */
+	public static boolean hasDirectRGBRaster(BufferedImage image) {
+		RasterKernel kernel = RasterKernel.forImage(image);
+		return kernel.isDirect() && kernel.getComponents() == 3;
+	}
+
+	/**
+	 * Throws exception if given progress listener cancels the operation.
+	 * 
+	 * @param listener
+	 *            progress listener or <code>null</code>
+	 * @throws CancellationException
+	 *             if listener cancels the operation
+	 */
+	static void checkCancelled(ProgressListener listener) {
+		if (listener != null && listener.isCancelled()) {
+			throw new CancellationException(
+					"Hiding or extracting the data is cancelled!");
+		}
+	}
+
+	/**
+	 * Reports progress to given progress listener.
+	 * 
+	 * @param listener
+	 *            progress listener or <code>null</code>
+	 * @param doneBytes
+	 *            number of data bytes hidden or extracted so far
+	 * @param totalBytes
+	 *            total number of data bytes
+	 */
+	static void reportProgress(ProgressListener listener, long doneBytes,
+			long totalBytes) {
+		if (listener != null) {
+			listener.progress(doneBytes, totalBytes);
+		}
+	}
+
+	/**
+	 * Allocates array for data of given length.
+	 * 
+	 * @param dataLength
+	 *            data length in bytes
+	 * @return array of data length
+	 * @throws IllegalArgumentException
+	 *             if data is too large for an array
+	 */
+	static byte[] allocateData(long dataLength) {
+		if (dataLength > Integer.MAX_VALUE - Long.BYTES) {
+			throw new IllegalArgumentException(String.format(
+					"Hidden data is too large for an array! Size: %d bytes",
+					dataLength));
+		}
+		return new byte[(int) dataLength];
+	}
 }